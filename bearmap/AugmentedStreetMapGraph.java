@@ -1,51 +1,465 @@
 package bearmaps.proj2c;
 
-import bearmaps.hw4.streetmap.Node;
+import bearmaps.hw4.ContractionHierarchy;
+import bearmaps.hw4.LandmarkHeuristic;
+import bearmaps.hw4.WeightedEdge;
+import bearmaps.hw4.streetmap.OSMChange;
 import bearmaps.hw4.streetmap.StreetMapGraph;
-import bearmaps.proj2ab.MyTrieSet;
+import bearmaps.proj2ab.ArrayStreams;
+import bearmaps.proj2ab.GridPointSet;
+import bearmaps.proj2ab.IndexedPointSet;
+import bearmaps.proj2ab.KDTreePointSet;
+import bearmaps.proj2ab.PackedTrieSet;
 import bearmaps.proj2ab.Point;
 import bearmaps.hw4.WeirdSolver;
 import bearmaps.proj2ab.PointSet;
-import bearmaps.proj2ab.WeirdPointSet;
+import bearmaps.proj2ab.SegmentGrid;
 
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.*;
+import java.util.function.IntPredicate;
+import java.util.function.LongPredicate;
+import java.util.stream.IntStream;
 
+/**
+ * A street map graph with the indexes the server searches it with: a
+ * point set of the vertices with edges, for snapping, a grid of the road
+ * segments, for snapping to the nearest point on a road, a point set of the
+ * vertices with names, for finding places nearby, a trie of the
+ * cleaned vertex names, for autocomplete, and the places with each cleaned
+ * name, for looking locations up by name. The point sets are KD-trees or
+ * grids, as chosen by the PointIndex given to the constructor. The
+ * indexes are saved with the snapshot of the OSM file, so later startups
+ * read them instead of building them again.
+ *
+ * The graph can be updated with OSM changes through withChange, which makes
+ * a new version and leaves this one as it is. The new version shares this
+ * one's indexes, which are never modified once built, and keeps
+ * what changed since they were built on top of them: which points in the
+ * point sets are stale, the current point of each changed vertex and the
+ * number of vertices with each changed name.
+ * Once too much has changed, the indexes are rebuilt for the new version.
+ */
 public class AugmentedStreetMapGraph extends StreetMapGraph {
-    // from uncleaned to cleaned
+    /** Suffix of the file next to the OSM file that caches its contraction hierarchy. */
+    private static final String HIERARCHY_SUFFIX = ".ch";
+    /** Number of landmarks, and how they are chosen, for the ALT heuristic. */
+    private static final int NUM_LANDMARKS = 16;
+    private static final LandmarkHeuristic.Selection LANDMARK_SELECTION =
+            LandmarkHeuristic.Selection.AVOID;
+    /** The indexes are rebuilt once more than this many, and this fraction, of the vertices changed. */
+    private static final int MIN_CHANGES_BEFORE_REBUILD = 1024;
+    private static final double MAX_CHANGED_FRACTION = 0.05;
+    /** Queries per task of a batch of closest queries; smaller batches run on the calling thread. */
+    private static final int BATCH_CHUNK = 2048;
+    /**
+     * Batches of closest queries are sorted along a space-filling curve, of
+     * this many bits per axis, when they have at least as many queries as the
+     * graph has points to snap to and that is at least CURVE_MIN_POINTS.
+     */
+    private static final int CURVE_BITS = 15;
+    private static final int CURVE_MIN_POINTS = 1 << 16;
+    /** Time a fuzzy prefix search may take, after which it returns the best names it found by then. */
+    private static final long FUZZY_BUDGET_NANOS = 2000000;
+    /** Marks the indexes saved with a snapshot, and the version of their format. */
+    private static final int INDEX_MAGIC = 0x424d4958;
+    private static final int INDEX_VERSION = 1;
+
+    /**
+     * The kinds of point set the graph can keep its vertices in. On street
+     * maps the grid builds ten times faster and answers queries about twice
+     * as fast, whether they are spread evenly or near the streets; see
+     * PointSetBenchmark.
+     */
+    public enum PointIndex {
+        /** A KDTreePointSet. */
+        KD_TREE,
+        /** A GridPointSet, the default. */
+        GRID
+    }
+
+    private final String dbPath;
+    private final PointIndex pointIndex;
+    private ContractionHierarchy<Long> hierarchy;
+    private LandmarkHeuristic<Long> landmarks;
+    // from cleaned to one of the uncleaned names it is the cleaned form of
     Map<String,String> map_name=new HashMap<>();
-    Map<Point,Node> map=new HashMap<>();
-    WeirdPointSet kdTree;
-    MyTrieSet trie=new MyTrieSet();
+    // ids of the vertices in the kdtree, ascending, by their index in it
+    long[] pointIds;
+    IndexedPointSet kdTree;
+    // the road segments, each once, by the kdtree indices of their ends, and their weights
+    int[] segmentFroms;
+    int[] segmentTos;
+    double[] segmentWeights;
+    SegmentGrid segments;
+    // ids and cleaned names of the vertices in the place tree, ascending, by their index in it
+    long[] placeIds;
+    String[] placeNames;
+    IndexedPointSet placeTree;
+    PackedTrieSet trie=new PackedTrieSet();
+    // number of vertices with each cleaned name
+    Map<String,Integer> nameCounts=new HashMap<>();
+    // the indices in the place tree of the vertices with each cleaned name, ascending
+    Map<String,int[]> namePlaces=new HashMap<>();
+
+    /* Changes since the indexes above were built: the points of each point set whose vertex
+     * changed, the point to snap to of each changed vertex, or null if it has none, the
+     * number of vertices with each changed name, and the names that are not in the trie. */
+    private BitSet stalePoints=new BitSet();
+    private BitSet stalePlaces=new BitSet();
+    private IntPredicate currentSegment;
+    private Map<Long,Point> changedPoints=new HashMap<>();
+    private TreeMap<String,Integer> changedNameCounts=new TreeMap<>();
+    private TreeMap<String,String> addedNames=new TreeMap<>();
 
     public AugmentedStreetMapGraph(String dbPath) {
-        super(dbPath);
-        // You might find it helpful to uncomment the line below:
-        List<Node> nodes = this.getNodes();
-        List<Point> points=new ArrayList<>();
-        // mapping between points and nodes
-        for (Node i:nodes){
-                String uncleaned = i.name();
+        this(dbPath, Storage.HEAP);
+    }
+
+    /**
+     * Loads the graph of the OSM file DBPATH into STORAGE and builds the
+     * search indexes over it. Vertices are visited by index, so no Node
+     * objects are materialized whatever the storage.
+     */
+    public AugmentedStreetMapGraph(String dbPath, Storage storage) {
+        this(dbPath, storage, PointIndex.GRID);
+    }
+
+    /**
+     * Loads the graph of the OSM file DBPATH into STORAGE and builds the
+     * search indexes over it, keeping its points in a POINTINDEX. Versions
+     * made by withChange keep theirs in the same kind. If indexes of that
+     * kind were saved with the snapshot the graph was read from, they are
+     * read from it instead; otherwise the ones built are saved there.
+     */
+    public AugmentedStreetMapGraph(String dbPath, Storage storage, PointIndex pointIndex) {
+        super(dbPath, storage);
+        this.dbPath = dbPath;
+        this.pointIndex = pointIndex;
+        InputStream saved = savedIndexes();
+        if (saved != null) {
+            try (DataInputStream in = new DataInputStream(saved)) {
+                readIndexes(in);
+                return;
+            } catch (IOException e) {
+                /* Saved in another format or for another PointIndex; fall through and rebuild them. */
+            }
+        }
+        buildIndexes();
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            writeIndexes(new DataOutputStream(bytes));
+            saveIndexes(bytes.toByteArray());
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Makes the next version of PREVIOUS, with CHANGE applied to it, updating
+     * the indexes for the vertices CHANGE touched. See StreetMapGraph's
+     * constructor of the same form.
+     */
+    private AugmentedStreetMapGraph(AugmentedStreetMapGraph previous, OSMChange change) {
+        super(previous, change);
+        this.dbPath = previous.dbPath;
+        this.pointIndex = previous.pointIndex;
+        long[] changed = changedIds();
+        if (previous.changedPoints.size() + changed.length
+                > Math.max(MIN_CHANGES_BEFORE_REBUILD, MAX_CHANGED_FRACTION * numVertices())) {
+            buildIndexes();
+            return;
+        }
+
+        map_name = previous.map_name;
+        pointIds = previous.pointIds;
+        kdTree = previous.kdTree;
+        segmentFroms = previous.segmentFroms;
+        segmentTos = previous.segmentTos;
+        segmentWeights = previous.segmentWeights;
+        segments = previous.segments;
+        placeIds = previous.placeIds;
+        placeNames = previous.placeNames;
+        placeTree = previous.placeTree;
+        trie = previous.trie;
+        nameCounts = previous.nameCounts;
+        namePlaces = previous.namePlaces;
+        changedPoints = new HashMap<>(previous.changedPoints);
+        changedNameCounts = new TreeMap<>(previous.changedNameCounts);
+        addedNames = new TreeMap<>(previous.addedNames);
+        stalePoints = (BitSet) previous.stalePoints.clone();
+        stalePlaces = (BitSet) previous.stalePlaces.clone();
+        currentSegment = s -> !stalePoints.get(segmentFroms[s]) && !stalePoints.get(segmentTos[s]);
+        for (long id : changed) {
+            int p = Arrays.binarySearch(pointIds, id);
+            if (p >= 0) {
+                stalePoints.set(p);
+            }
+            p = Arrays.binarySearch(placeIds, id);
+            if (p >= 0) {
+                stalePlaces.set(p);
+            }
+            int v = indexOf(id);
+            changedPoints.put(id, v >= 0 && degree(v) > 0 ? new Point(lon(id), lat(id)) : null);
+            String oldName = previous.name(id);
+            String newName = name(id);
+            if (!Objects.equals(oldName, newName)) {
+                countName(oldName, -1);
+                countName(newName, 1);
+            }
+        }
+    }
+
+    /**
+     * Returns the next version of this graph, with CHANGE applied to it and
+     * its indexes updated. This graph is left as it is, so searches running
+     * on it are not disturbed.
+     */
+    @Override
+    public AugmentedStreetMapGraph withChange(OSMChange change) {
+        return new AugmentedStreetMapGraph(this, change);
+    }
+
+    /** Adds DELTA to the number of vertices with the cleaned form of NAME, if it has one. */
+    private void countName(String name, int delta) {
+        if (name == null) {
+            return;
+        }
+        String cleaned = cleanString(name);
+        if (cleaned.length() == 0) {
+            return;
+        }
+        int count = nameCount(cleaned) + delta;
+        changedNameCounts.put(cleaned, count);
+        if (count > 0 && !map_name.containsKey(cleaned)) {
+            addedNames.putIfAbsent(cleaned, name);
+        }
+    }
+
+    private int nameCount(String cleaned) {
+        Integer count = changedNameCounts.get(cleaned);
+        if (count == null) {
+            count = nameCounts.get(cleaned);
+        }
+        return count == null ? 0 : count;
+    }
+
+    /** Builds the point sets, segment grid and trie over the vertices of this version, with nothing on top. */
+    private void buildIndexes() {
+        map_name = new HashMap<>();
+        trie = new PackedTrieSet();
+        nameCounts = new HashMap<>();
+        namePlaces = new HashMap<>();
+        changedPoints = new HashMap<>();
+        changedNameCounts = new TreeMap<>();
+        addedNames = new TreeMap<>();
+        stalePoints = new BitSet();
+        stalePlaces = new BitSet();
+        currentSegment = null;
+        int numPoints = 0;
+        int numPlaces = 0;
+        for (int v = 0; v < numVertices(); v++) {
+            if (degree(v) > 0) {
+                numPoints += 1;
+            }
+            if (placeName(vertex(v)) != null) {
+                numPlaces += 1;
+            }
+        }
+        pointIds = new long[numPoints];
+        double[] lons = new double[numPoints];
+        double[] lats = new double[numPoints];
+        int[] pointOf = new int[numVertices()];
+        placeIds = new long[numPlaces];
+        placeNames = new String[numPlaces];
+        double[] placeLons = new double[numPlaces];
+        double[] placeLats = new double[numPlaces];
+        int p = 0;
+        int q = 0;
+        for (int v = 0; v < numVertices(); v++){
+                long id = vertex(v);
+                String uncleaned = name(id);
             if (!(uncleaned==null)){
 
                 String cleaned = cleanString(uncleaned);
 
                 if (!(cleaned.length()==0)){
                     map_name.put(cleaned, uncleaned);
-                    // System.out.println(cleaned);
-                    trie.add(cleaned);
+                    nameCounts.merge(cleaned, 1, Integer::sum);
+                    placeIds[q] = id;
+                    placeNames[q] = cleaned;
+                    placeLons[q] = lon(id);
+                    placeLats[q] = lat(id);
+                    q += 1;
                 }
             }
 
-            if (neighbors(i.id()).size()>0)
+            if (degree(v)>0)
             {
-                map.put(new Point(i.lon(), i.lat()), i);
-                points.add(new Point(i.lon(), i.lat()));
+                pointIds[p] = id;
+                lons[p] = lon(id);
+                lats[p] = lat(id);
+                pointOf[v] = p;
+                p += 1;
             }
         }
+        // names are ranked for autocomplete by how many vertices have them
+        for (Map.Entry<String,Integer> name : nameCounts.entrySet()) {
+            trie.add(name.getKey(), name.getValue());
+            namePlaces.put(name.getKey(), new int[name.getValue()]);
+        }
+        Map<String,Integer> filled = new HashMap<>();
+        for (q = 0; q < numPlaces; q++) {
+            int i = filled.merge(placeNames[q], 1, Integer::sum) - 1;
+            namePlaces.get(placeNames[q])[i] = q;
+        }
+
+        // each edge and its reverse make one segment, from the lower index to the higher
+        int[] numSegments = {0};
+        for (int v = 0; v < numVertices(); v++) {
+            int from = v;
+            forEachNeighbor(v, (to, weight) -> {
+                if (to > from) {
+                    numSegments[0] += 1;
+                }
+            });
+        }
+        segmentFroms = new int[numSegments[0]];
+        segmentTos = new int[numSegments[0]];
+        segmentWeights = new double[numSegments[0]];
+        double[] fromLons = new double[numSegments[0]];
+        double[] fromLats = new double[numSegments[0]];
+        double[] toLons = new double[numSegments[0]];
+        double[] toLats = new double[numSegments[0]];
+        numSegments[0] = 0;
+        for (int v = 0; v < numVertices(); v++) {
+            int from = v;
+            forEachNeighbor(v, (to, weight) -> {
+                if (to > from) {
+                    int segment = numSegments[0]++;
+                    segmentFroms[segment] = pointOf[from];
+                    segmentTos[segment] = pointOf[to];
+                    segmentWeights[segment] = weight;
+                    fromLons[segment] = lons[pointOf[from]];
+                    fromLats[segment] = lats[pointOf[from]];
+                    toLons[segment] = lons[pointOf[to]];
+                    toLats[segment] = lats[pointOf[to]];
+                }
+            });
+        }
+        segments = new SegmentGrid(fromLons, fromLats, toLons, toLats);
+
+        // construct the point sets
+        kdTree=pointSet(lons, lats);
+        placeTree=pointSet(placeLons, placeLats);
+    }
+
+    private IndexedPointSet pointSet(double[] lons, double[] lats) {
+        return pointIndex == PointIndex.GRID ? new GridPointSet(lons, lats) : new KDTreePointSet(lons, lats);
+    }
+
+    /**
+     * Writes the indexes built by buildIndexes to OUT, for readIndexes. Each
+     * cleaned name is written once, with its uncleaned form and its places,
+     * and the names of the places are filled in from those.
+     */
+    private void writeIndexes(DataOutputStream out) throws IOException {
+        out.writeInt(INDEX_MAGIC);
+        out.writeInt(INDEX_VERSION);
+        out.writeInt(pointIndex.ordinal());
+        out.writeInt(numVertices());
+        out.writeInt(namePlaces.size());
+        for (Map.Entry<String,int[]> name : namePlaces.entrySet()) {
+            out.writeUTF(name.getKey());
+            out.writeUTF(map_name.get(name.getKey()));
+            out.writeInt(name.getValue().length);
+            ArrayStreams.writeInts(out, name.getValue());
+        }
+        out.writeInt(placeIds.length);
+        ArrayStreams.writeLongs(out, placeIds);
+        out.writeInt(pointIds.length);
+        ArrayStreams.writeLongs(out, pointIds);
+        out.writeInt(segmentFroms.length);
+        ArrayStreams.writeInts(out, segmentFroms);
+        ArrayStreams.writeInts(out, segmentTos);
+        ArrayStreams.writeDoubles(out, segmentWeights);
+        trie.write(out);
+        segments.write(out);
+        writePointSet(out, kdTree);
+        writePointSet(out, placeTree);
+        out.flush();
+    }
+
+    /**
+     * Reads the indexes written by writeIndexes. Throws an IOException if IN
+     * is in another format, or was written for another PointIndex or graph.
+     */
+    private void readIndexes(DataInputStream in) throws IOException {
+        if (in.readInt() != INDEX_MAGIC || in.readInt() != INDEX_VERSION) {
+            throw new IOException("Not saved indexes of a supported version.");
+        }
+        if (in.readInt() != pointIndex.ordinal() || in.readInt() != numVertices()) {
+            throw new IOException("Indexes were saved for a different PointIndex or graph.");
+        }
+        int numNames = in.readInt();
+        map_name = new HashMap<>();
+        nameCounts = new HashMap<>();
+        namePlaces = new HashMap<>();
+        for (int i = 0; i < numNames; i++) {
+            String cleaned = in.readUTF();
+            map_name.put(cleaned, in.readUTF());
+            int[] places = ArrayStreams.readInts(in, in.readInt());
+            nameCounts.put(cleaned, places.length);
+            namePlaces.put(cleaned, places);
+        }
+        placeIds = ArrayStreams.readLongs(in, in.readInt());
+        placeNames = new String[placeIds.length];
+        for (Map.Entry<String,int[]> name : namePlaces.entrySet()) {
+            for (int q : name.getValue()) {
+                placeNames[q] = name.getKey();
+            }
+        }
+        pointIds = ArrayStreams.readLongs(in, in.readInt());
+        int numSegments = in.readInt();
+        segmentFroms = ArrayStreams.readInts(in, numSegments);
+        segmentTos = ArrayStreams.readInts(in, numSegments);
+        segmentWeights = ArrayStreams.readDoubles(in, numSegments);
+        trie = PackedTrieSet.read(in);
+        segments = SegmentGrid.read(in);
+        kdTree = readPointSet(in);
+        placeTree = readPointSet(in);
+    }
+
+    private void writePointSet(DataOutputStream out, IndexedPointSet points) throws IOException {
+        if (pointIndex == PointIndex.GRID) {
+            ((GridPointSet) points).write(out);
+        } else {
+            ((KDTreePointSet) points).write(out);
+        }
+    }
+
+    private IndexedPointSet readPointSet(DataInputStream in) throws IOException {
+        return pointIndex == PointIndex.GRID ? GridPointSet.read(in) : KDTreePointSet.read(in);
+    }
 
-        // construct a kdtree
-        kdTree=new WeirdPointSet(points);
+    /** Returns the cleaned name of the vertex with id ID, or null if it has none. */
+    private String placeName(long id) {
+        String name = name(id);
+        if (name == null) {
+            return null;
+        }
+        String cleaned = cleanString(name);
+        return cleaned.length() == 0 ? null : cleaned;
     }
 
 
@@ -53,25 +467,367 @@ public class AugmentedStreetMapGraph extends StreetMapGraph {
     return the id
      */
     public long closest(double lon, double lat) {
-        Point ans=kdTree.nearest(lon,lat);
-        Node result=map.get(ans);
-        return result.id();
+        if (changedPoints.isEmpty()) {
+            return pointIds[kdTree.nearestIndex(lon, lat)];
+        }
+
+        /* Points of changed vertices in the point set are stale; their current points are on top. */
+        int p = kdTree.nearestIndex(lon, lat, stalePoints);
+        double xScale = KDTreePointSet.xScale(lat);
+        long best = -1;
+        double bestDistance = Double.POSITIVE_INFINITY;
+        if (p >= 0) {
+            best = pointIds[p];
+            bestDistance = KDTreePointSet.squaredDistance(lon(best), lat(best), lon, lat, xScale);
+        }
+        for (Map.Entry<Long, Point> entry : changedPoints.entrySet()) {
+            Point point = entry.getValue();
+            if (point != null) {
+                double distance = KDTreePointSet.squaredDistance(point.getX(), point.getY(), lon, lat, xScale);
+                if (distance < bestDistance) {
+                    best = entry.getKey();
+                    bestDistance = distance;
+                }
+            }
+        }
+        return best;
     }
 
 
+    /**
+     * Returns the point on a road segment nearest (LON, LAT), or null if the
+     * graph has no edges. Routes started from the nearest point on a road
+     * avoid the detours snapping to the nearest vertex can make where
+     * vertices are far apart.
+     */
+    public RoadPoint snapToRoad(double lon, double lat) {
+        int segment = segments.nearest(lon, lat, stalePoints.isEmpty() ? null : currentSegment);
+        RoadPoint best = segment < 0 ? null : new RoadPoint(pointIds[segmentFroms[segment]],
+                pointIds[segmentTos[segment]], segments.fraction(segment, lon, lat), segmentWeights[segment]);
+        if (changedPoints.isEmpty()) {
+            return best;
+        }
+
+        /* Segments at changed vertices in the grid are stale; their current segments are on top. */
+        double xScale = KDTreePointSet.xScale(lat);
+        double bestDistance = segment < 0 ? Double.POSITIVE_INFINITY
+                : segments.squaredDistance(segment, lon, lat, xScale);
+        for (Map.Entry<Long, Point> entry : changedPoints.entrySet()) {
+            if (entry.getValue() == null) {
+                continue;
+            }
+            long id = entry.getKey();
+            for (WeightedEdge<Long> edge : neighbors(id)) {
+                long other = edge.to();
+                double distance = SegmentGrid.squaredDistance(lon(id), lat(id), lon(other), lat(other),
+                        lon, lat, xScale);
+                if (distance < bestDistance) {
+                    bestDistance = distance;
+                    best = new RoadPoint(id, other, SegmentGrid.fraction(lon(id), lat(id), lon(other), lat(other),
+                            lon, lat, xScale), edge.weight());
+                }
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Returns the ids of the K vertices with edges nearest (LON, LAT),
+     * nearest first: the candidates to snap to when the nearest is not the
+     * best place to start a route.
+     */
+    public long[] closest(double lon, double lat, int k) {
+        return nearest(kdTree, pointIds, stalePoints, lon, lat, k, Double.POSITIVE_INFINITY,
+                null, id -> changedPoints.get(id) != null);
+    }
+
+    /**
+     * Returns the ids of the vertices with edges closest to each of the
+     * points (LONS[i], LATS[i]), in the same order, as closest would. The
+     * queries are answered in chunks run in parallel on the ForkJoinPool
+     * this is called from or the common pool. Large batches on large graphs
+     * are first sorted along a Z-order curve over their bounding box, so
+     * that consecutive queries search the same cells while they are in
+     * cache. Smaller batches are too spread out for that to pay for the
+     * sort, and smaller graphs' indexes stay in cache anyway.
+     */
+    public long[] closest(double[] lons, double[] lats) {
+        if (lons.length != lats.length) {
+            throw new IllegalArgumentException("Got " + lons.length + " longitudes but " + lats.length + " latitudes");
+        }
+        int n = lons.length;
+        long[] order = n >= pointIds.length && pointIds.length >= CURVE_MIN_POINTS ? curveOrder(lons, lats) : null;
+        long[] ids = new long[n];
+        IntStream chunks = IntStream.range(0, (n + BATCH_CHUNK - 1) / BATCH_CHUNK);
+        if (n > BATCH_CHUNK) {
+            chunks = chunks.parallel();
+        }
+        chunks.forEach(c -> {
+            for (int k = c * BATCH_CHUNK; k < Math.min(n, (c + 1) * BATCH_CHUNK); k++) {
+                int i = order == null ? k : (int) order[k];
+                ids[i] = closest(lons[i], lats[i]);
+            }
+        });
+        return ids;
+    }
+
+    /**
+     * Returns the indices of the points (LONS[i], LATS[i]) in the order of a
+     * Z-order curve over their bounding box, each in the low half of a long
+     * whose high half is its position on the curve.
+     */
+    private static long[] curveOrder(double[] lons, double[] lats) {
+        int n = lons.length;
+        double minLon = Double.POSITIVE_INFINITY;
+        double minLat = Double.POSITIVE_INFINITY;
+        double maxLon = Double.NEGATIVE_INFINITY;
+        double maxLat = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < n; i++) {
+            minLon = Math.min(minLon, lons[i]);
+            minLat = Math.min(minLat, lats[i]);
+            maxLon = Math.max(maxLon, lons[i]);
+            maxLat = Math.max(maxLat, lats[i]);
+        }
+        double side = (1 << CURVE_BITS) - 1;
+        double lonScale = maxLon > minLon ? side / (maxLon - minLon) : 0;
+        double latScale = maxLat > minLat ? side / (maxLat - minLat) : 0;
+        long[] order = new long[n];
+        for (int i = 0; i < n; i++) {
+            long d = zOrder((int) ((lons[i] - minLon) * lonScale), (int) ((lats[i] - minLat) * latScale));
+            order[i] = d << 32 | i;
+        }
+        Arrays.sort(order);
+        return order;
+    }
+
+    /**
+     * Returns the position of the cell (X, Y) along the Z-order curve through
+     * a square of 2^CURVE_BITS cells a side: the bits of X and Y interleaved.
+     */
+    private static long zOrder(int x, int y) {
+        return spread(x) | spread(y) << 1;
+    }
+
+    /** Returns the low CURVE_BITS bits of V spread out to the even bits of a long. */
+    private static long spread(int v) {
+        long bits = v & ((1 << CURVE_BITS) - 1);
+        bits = (bits | bits << 8) & 0x00FF00FFL;
+        bits = (bits | bits << 4) & 0x0F0F0F0FL;
+        bits = (bits | bits << 2) & 0x33333333L;
+        bits = (bits | bits << 1) & 0x55555555L;
+        return bits;
+    }
+
+    /**
+     * Returns the K named locations nearest (LON, LAT), nearest first, among
+     * those within METERS of it whose cleaned name contains the cleaned TERM;
+     * an empty or null TERM matches every name. Each location is a map of
+     * parameters for the Json response as in getLocations, with one more: <br>
+     * "distance" -> Number, The distance of the node from (LON, LAT), in meters. <br>
+     */
+    public List<Map<String, Object>> nearby(double lon, double lat, int k, double meters, String term) {
+        String cleanedTerm = term == null ? "" : cleanString(term);
+        long[] ids = nearest(placeTree, placeIds, stalePlaces, lon, lat, k, meters,
+                cleanedTerm.isEmpty() ? null : p -> placeNames[p].contains(cleanedTerm),
+                id -> placeName(id) != null && placeName(id).contains(cleanedTerm));
+        List<Map<String, Object>> locations = new ArrayList<>(ids.length);
+        double xScale = KDTreePointSet.xScale(lat);
+        for (long id : ids) {
+            Map<String, Object> location = new HashMap<>();
+            location.put("lat", lat(id));
+            location.put("lon", lon(id));
+            location.put("name", name(id));
+            location.put("id", id);
+            location.put("distance", KDTreePointSet.toMeters(
+                    KDTreePointSet.squaredDistance(lon(id), lat(id), lon, lat, xScale)));
+            locations.add(location);
+        }
+        return locations;
+    }
+
+    /**
+     * Returns the ids of the K vertices nearest (LON, LAT), nearest first,
+     * among those within METERS of it that are in TREE, whose points have
+     * the ids TREEIDS, or that changed since TREE was built. Of the points
+     * in TREE, those set in STALE are skipped, and the rest taken if ACCEPT
+     * holds for their index in TREE, or is null; of the changed vertices,
+     * those ACCEPTCHANGED holds for the id of are taken.
+     */
+    private long[] nearest(IndexedPointSet tree, long[] treeIds, BitSet stale, double lon, double lat,
+                           int k, double meters, IntPredicate accept, LongPredicate acceptChanged) {
+        int[] found = new int[k];
+        int count = tree.nearestK(lon, lat, k, meters, stale.isEmpty() && accept == null ? null
+                : p -> !stale.get(p) && (accept == null || accept.test(p)), found);
+        long[] ids = new long[count];
+        for (int i = 0; i < count; i++) {
+            ids[i] = treeIds[found[i]];
+        }
+        if (changedPoints.isEmpty()) {
+            return ids;
+        }
+
+        /* Merge in the changed vertices, whose current points are not in the tree. */
+        List<Long> candidates = new ArrayList<>(count);
+        for (long id : ids) {
+            candidates.add(id);
+        }
+        double xScale = KDTreePointSet.xScale(lat);
+        double radius = meters / KDTreePointSet.toMeters(1);
+        for (long id : changedPoints.keySet()) {
+            if (indexOf(id) >= 0 && acceptChanged.test(id)
+                    && KDTreePointSet.squaredDistance(lon(id), lat(id), lon, lat, xScale) <= radius * radius) {
+                candidates.add(id);
+            }
+        }
+        candidates.sort(Comparator.comparingDouble(id -> KDTreePointSet.squaredDistance(lon(id), lat(id),
+                lon, lat, xScale)));
+        ids = new long[Math.min(k, candidates.size())];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = candidates.get(i);
+        }
+        return ids;
+    }
+
+    /**
+     * Returns the contraction hierarchy of this graph, used for fast routing.
+     * It is read from the file next to the OSM file if one was saved there for
+     * this graph; otherwise it is built, which takes a while, and saved there
+     * for the next startup. Graphs with changes applied have theirs built,
+     * and kept in memory only.
+     */
+    public synchronized ContractionHierarchy<Long> contractionHierarchy() {
+        if (hierarchy != null) {
+            return hierarchy;
+        }
+        if (version() > 0) {
+            hierarchy = ContractionHierarchy.build(this);
+            return hierarchy;
+        }
+        String hierarchyPath = dbPath + HIERARCHY_SUFFIX;
+        try (InputStream in = new BufferedInputStream(new FileInputStream(hierarchyPath))) {
+            hierarchy = ContractionHierarchy.read(this, in);
+            return hierarchy;
+        } catch (IOException e) {
+            /* Missing or stale; fall through and rebuild it. */
+        }
+
+        hierarchy = ContractionHierarchy.build(this);
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(hierarchyPath))) {
+            hierarchy.write(out);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return hierarchy;
+    }
+
+    /**
+     * Returns the landmark (ALT) heuristic of this graph, computing the
+     * landmark distances on first use.
+     */
+    public synchronized LandmarkHeuristic<Long> landmarkHeuristic() {
+        if (landmarks == null) {
+            landmarks = LandmarkHeuristic.build(this, NUM_LANDMARKS, LANDMARK_SELECTION);
+        }
+        return landmarks;
+    }
+
     /**
      * For Project Part III (gold points)
      * In linear time, collect all the names of OSM locations that prefix-match the query string.
      * @param prefix Prefix string to be searched for. Could be any case, with our without
      *               punctuation.
      * @return A <code>List</code> of the full names of locations whose cleaned name matches the
-     * cleaned <code>prefix</code>.
+     * cleaned <code>prefix</code>, or an empty list if that is empty.
      */
     public List<String> getLocationsByPrefix(String prefix) {
         List<String> result=new ArrayList<>();
         prefix=cleanString(prefix);
+        if (prefix.isEmpty()) {
+            return result;
+        }
         for (String i:trie.keysWithPrefix(prefix)){
-            result.add(map_name.get(i));
+            if (nameCount(i) > 0) {
+                result.add(map_name.get(i));
+            }
+        }
+        for (Map.Entry<String,String> added : addedNames.subMap(prefix, prefix + Character.MAX_VALUE).entrySet()) {
+            if (nameCount(added.getKey()) > 0) {
+                result.add(added.getValue());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the full names of at most LIMIT locations whose cleaned name
+     * starts with the cleaned PREFIX, most common first: those the most
+     * vertices have. Short prefixes take about as long as long ones however
+     * big the map is, since the trie is walked best first and the walk stops
+     * at LIMIT names. Names whose count changed since the trie was built are
+     * skipped there and ranked by their current count instead.
+     */
+    public List<String> getLocationsByPrefix(String prefix, int limit) {
+        List<String> result=new ArrayList<>();
+        prefix=cleanString(prefix);
+        if (prefix.isEmpty() || limit <= 0) {
+            return result;
+        }
+        List<String> names = trie.topKeysWithPrefix(prefix, limit, name -> !changedNameCounts.containsKey(name));
+        for (Map.Entry<String,Integer> changed
+                : changedNameCounts.subMap(prefix, prefix + Character.MAX_VALUE).entrySet()) {
+            if (changed.getValue() > 0) {
+                names.add(changed.getKey());
+            }
+        }
+        /* A stable sort, so names of equal count stay in the trie's order. */
+        names.sort(Comparator.comparingInt(this::nameCount).reversed());
+        for (String name : names.subList(0, Math.min(limit, names.size()))) {
+            result.add(map_name.containsKey(name) ? map_name.get(name) : addedNames.get(name));
+        }
+        return result;
+    }
+
+    /**
+     * Returns the full names of at most LIMIT locations whose cleaned name
+     * starts with a string a few edits from the cleaned PREFIX, for
+     * misspelled searches: one edit for prefixes of three to five characters,
+     * two for longer ones, and none for shorter ones. Names of fewer edits
+     * come first, and of those the most common. A search that takes more
+     * than FUZZY_BUDGET_NANOS returns the best names it found by then.
+     */
+    public List<String> getLocationsByFuzzyPrefix(String prefix, int limit) {
+        return getLocationsByFuzzyPrefix(prefix, limit, FUZZY_BUDGET_NANOS);
+    }
+
+    /**
+     * Returns the names getLocationsByFuzzyPrefix(PREFIX, LIMIT) does, but
+     * searching for BUDGETNANOS nanoseconds rather than FUZZY_BUDGET_NANOS
+     * before returning the best names found by then.
+     */
+    public List<String> getLocationsByFuzzyPrefix(String prefix, int limit, long budgetNanos) {
+        List<String> result=new ArrayList<>();
+        String cleaned=cleanString(prefix);
+        if (cleaned.isEmpty() || limit <= 0) {
+            return result;
+        }
+        int maxEdits = cleaned.length() < 3 ? 0 : cleaned.length() < 6 ? 1 : 2;
+        List<String> names = trie.topKeysNear(cleaned, maxEdits, limit,
+                name -> !changedNameCounts.containsKey(name), budgetNanos);
+        Map<String,Integer> edits = new HashMap<>();
+        for (String name : names) {
+            edits.put(name, PackedTrieSet.prefixEdits(cleaned, name));
+        }
+        for (Map.Entry<String,Integer> changed : changedNameCounts.entrySet()) {
+            int e = PackedTrieSet.prefixEdits(cleaned, changed.getKey());
+            if (changed.getValue() > 0 && e <= maxEdits) {
+                names.add(changed.getKey());
+                edits.put(changed.getKey(), e);
+            }
+        }
+        names.sort(Comparator.comparingInt((String name) -> edits.get(name))
+                .thenComparing(Comparator.comparingInt(this::nameCount).reversed()));
+        for (String name : names.subList(0, Math.min(limit, names.size()))) {
+            result.add(map_name.containsKey(name) ? map_name.get(name) : addedNames.get(name));
         }
         return result;
     }
@@ -80,17 +836,51 @@ public class AugmentedStreetMapGraph extends StreetMapGraph {
      * For Project Part III (gold points)
      * Collect all locations that match a cleaned <code>locationName</code>, and return
      * information about each node that matches.
+     * The vertices with each cleaned name are indexed, so this takes time in
+     * the number of matches rather than the size of the map.
      * @param locationName A full name of a location searched for.
      * @return A list of locations whose cleaned name matches the
-     * cleaned <code>locationName</code>, and each location is a map of parameters for the Json
-     * response as specified: <br>
+     * cleaned <code>locationName</code>, by ascending id, and each location is a map of
+     * parameters for the Json response as specified: <br>
      * "lat" -> Number, The latitude of the node. <br>
      * "lon" -> Number, The longitude of the node. <br>
      * "name" -> String, The actual name of the node. <br>
      * "id" -> Number, The id of the node. <br>
      */
     public List<Map<String, Object>> getLocations(String locationName) {
-        return new LinkedList<>();
+        List<Map<String, Object>> result = new ArrayList<>();
+        String cleaned = cleanString(locationName);
+        int[] places = namePlaces.get(cleaned);
+        if (cleaned.isEmpty() || places == null && !changedNameCounts.containsKey(cleaned)) {
+            return result;
+        }
+        List<Long> ids = new ArrayList<>();
+        if (places != null) {
+            for (int p : places) {
+                if (!stalePlaces.get(p) || cleaned.equals(placeName(placeIds[p]))) {
+                    ids.add(placeIds[p]);
+                }
+            }
+        }
+        /* Only changed vertices can have taken the name since the places were indexed. */
+        if (changedNameCounts.containsKey(cleaned)) {
+            for (long id : changedPoints.keySet()) {
+                int p = Arrays.binarySearch(placeIds, id);
+                if (cleaned.equals(placeName(id)) && (p < 0 || !placeNames[p].equals(cleaned))) {
+                    ids.add(id);
+                }
+            }
+            Collections.sort(ids);
+        }
+        for (long id : ids) {
+            Map<String, Object> location = new HashMap<>();
+            location.put("lat", lat(id));
+            location.put("lon", lon(id));
+            location.put("name", name(id));
+            location.put("id", id);
+            result.add(location);
+        }
+        return result;
     }
 
 
@@ -0,0 +1,113 @@
+package bearmaps.proj2c;
+
+import bearmaps.hw4.streetmap.OSMChange;
+import bearmaps.proj2c.utils.Constants;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Applies OSM changes to the server's street graph while it runs. Each
+ * change makes a new version of the graph, which then replaces
+ * Constants.SEMANTIC_STREET_GRAPH in one volatile write; requests already
+ * running keep the version they started with, so they are never blocked or
+ * see a half-applied change. Changes are applied one at a time.
+ */
+public class MapUpdater {
+    /*
+     * The paths of the change files applied, those passed over for sorting
+     * before one already applied, and the last applied in each folder.
+     * Guarded by the class.
+     */
+    private static final Set<String> applied = new HashSet<>();
+    private static final Set<String> outOfOrder = new HashSet<>();
+    private static final Map<String, String> lastApplied = new HashMap<>();
+
+    /**
+     * Applies the OSM change file OSCPATH to the server's street graph and
+     * returns the new version, which the server then answers from.
+     */
+    public static synchronized AugmentedStreetMapGraph applyChange(String oscPath) throws IOException {
+        OSMChange change = OSMChange.read(oscPath);
+        long start = System.nanoTime();
+        AugmentedStreetMapGraph next = Constants.SEMANTIC_STREET_GRAPH.withChange(change);
+        Constants.SEMANTIC_STREET_GRAPH = next;
+        System.out.println(String.format("Applied %s: %d elements in %.1f ms, now at version %d.",
+                oscPath, change.size(), (System.nanoTime() - start) / 1e6, next.version()));
+        return next;
+    }
+
+    /**
+     * Checks DIR every POLLSECONDS seconds, on a background thread, for .osc
+     * files it has not applied yet, and applies them in file name order, as
+     * applyNewChanges does, leaving files modified within the last poll for
+     * the next. Does nothing while DIR does not exist.
+     */
+    public static void watch(String dir, long pollSeconds) {
+        ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "osm-change-watcher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long settleMillis = TimeUnit.SECONDS.toMillis(pollSeconds);
+        executor.scheduleWithFixedDelay(() -> applyNewChanges(new File(dir), settleMillis),
+                0, pollSeconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Applies the .osc files in DIR not applied yet, in file name order, and
+     * returns how many it applied. A file modified less than SETTLEMILLIS ago
+     * may still be being written, so it waits for a later call, as does one
+     * that fails to apply, which is then tried again; the files after either
+     * wait with it, to keep the order. Writing a file under another name and
+     * renaming it to .osc once written makes it ready at once. A file that
+     * sorts before one already applied came too late to be applied in order,
+     * so it is reported and never applied.
+     */
+    public static synchronized int applyNewChanges(File dir, long settleMillis) {
+        File[] files = dir.listFiles((d, name) -> name.endsWith(".osc"));
+        if (files == null) {
+            return 0;
+        }
+        Arrays.sort(files);
+        long now = System.currentTimeMillis();
+        String last = lastApplied.get(dir.getPath());
+        int count = 0;
+        for (File file : files) {
+            String path = file.getPath();
+            if (applied.contains(path) || outOfOrder.contains(path)) {
+                continue;
+            }
+            if (last != null && file.getName().compareTo(last) < 0) {
+                outOfOrder.add(path);
+                System.out.println(String.format("Not applying %s: it sorts before %s, which was already applied.",
+                        path, last));
+                continue;
+            }
+            if (now - file.lastModified() < settleMillis) {
+                break;
+            }
+            try {
+                applyChange(path);
+            } catch (IOException | RuntimeException e) {
+                System.out.println(String.format(
+                        "Could not apply %s; it and the files after it are tried again later.", path));
+                e.printStackTrace();
+                break;
+            }
+            applied.add(path);
+            last = file.getName();
+            lastApplied.put(dir.getPath(), last);
+            count += 1;
+        }
+        return count;
+    }
+}
@@ -0,0 +1,64 @@
+package bearmaps.proj2c;
+
+/**
+ * A point on a road segment of a street map graph, found by
+ * AugmentedStreetMapGraph.snapToRoad: the segment's two vertices, and how
+ * far along the segment from the first to the second the point is.
+ */
+public class RoadPoint {
+    private final long from;
+    private final long to;
+    private final double fraction;
+    private final double weight;
+
+    /**
+     * Makes the point FRACTION of the way along the segment from FROM to TO,
+     * whose edge has weight WEIGHT.
+     */
+    public RoadPoint(long from, long to, double fraction, double weight) {
+        this.from = from;
+        this.to = to;
+        this.fraction = fraction;
+        this.weight = weight;
+    }
+
+    /** Returns the id of the vertex at the start of the segment. */
+    public long from() {
+        return from;
+    }
+
+    /** Returns the id of the vertex at the end of the segment. */
+    public long to() {
+        return to;
+    }
+
+    /** Returns how far along the segment this point is, from 0 at from() to 1 at to(). */
+    public double fraction() {
+        return fraction;
+    }
+
+    /** Returns the weight of the segment's edge. */
+    public double weight() {
+        return weight;
+    }
+
+    /** Returns the weight of the part of the segment between from() and this point. */
+    public double weightFromStart() {
+        return fraction * weight;
+    }
+
+    /** Returns the weight of the part of the segment between this point and to(). */
+    public double weightToEnd() {
+        return (1 - fraction) * weight;
+    }
+
+    /** Returns true if this point and OTHER are on the same segment, in either direction. */
+    public boolean onSameSegment(RoadPoint other) {
+        return from == other.from && to == other.to || from == other.to && to == other.from;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("RoadPoint %d-%d at %.3f", from, to, fraction);
+    }
+}
@@ -1,10 +1,16 @@
 package bearmaps.proj2c;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Objects;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
-import bearmaps.hw4.WeirdSolver;
+import bearmaps.hw4.AStarSolver;
+import bearmaps.hw4.BidirectionalAStarSolver;
+import bearmaps.hw4.ContractionHierarchySolver;
+import bearmaps.hw4.ShortestPathsSolver;
+import bearmaps.hw4.SolverOutcome;
 
 /**
  * This class acts as a helper for the RoutingAPIHandler.
@@ -12,6 +18,52 @@ import bearmaps.hw4.WeirdSolver;
  */
 public class Router {
 
+    /** Seconds a solver may search before giving up. */
+    private static final double TIMEOUT = 20;
+
+    /** The shortest path algorithms shortestPath can use. */
+    public enum Algorithm {
+        /** Unidirectional A* with the great-circle heuristic. */
+        ASTAR,
+        /** A* with the graph's landmark heuristic, which is computed on first use. */
+        ASTAR_LANDMARKS,
+        /** A* from both ends at once; explores fewer states on long routes. */
+        BIDIRECTIONAL_ASTAR,
+        /** Queries the graph's contraction hierarchy, which is built or loaded on first use. */
+        CONTRACTION_HIERARCHY
+    }
+
+    /** Where shortestPath starts and ends routes. */
+    public enum Snapping {
+        /** At the vertices nearest the start and destination. */
+        VERTEX,
+        /**
+         * At the points on road segments nearest the start and destination,
+         * so a route on a long street with few vertices does not first go to
+         * a vertex behind the start. Routes are searched from a virtual
+         * vertex on the start's segment to one on the destination's, and the
+         * path returned runs from the start segment's vertex the route leaves
+         * by to the destination segment's vertex it arrives by.
+         */
+        SEGMENT
+    }
+
+    /**
+     * Returns a List of longs representing the shortest path from the node
+     * closest to a start location and the node closest to the destination
+     * location, found with A*.
+     * @param g The graph to use.
+     * @param stlon The longitude of the start location.
+     * @param stlat The latitude of the start location.
+     * @param destlon The longitude of the destination location.
+     * @param destlat The latitude of the destination location.
+     * @return A list of node id's in the order visited on the shortest path.
+     */
+    public static List<Long> shortestPath(AugmentedStreetMapGraph g, double stlon, double stlat,
+                                          double destlon, double destlat) {
+        return shortestPath(g, stlon, stlat, destlon, destlat, Algorithm.ASTAR);
+    }
+
     /**
      * Overloaded method for shortestPath that has flexibility to specify a solver
      * and returns a List of longs representing the shortest path from the node
@@ -21,13 +73,116 @@ public class Router {
      * @param stlat The latitude of the start location.
      * @param destlon The longitude of the destination location.
      * @param destlat The latitude of the destination location.
+     * @param algorithm The algorithm used to find the path.
      * @return A list of node id's in the order visited on the shortest path.
      */
     public static List<Long> shortestPath(AugmentedStreetMapGraph g, double stlon, double stlat,
-                                          double destlon, double destlat) {
-        long src = g.closest(stlon, stlat);
-        long dest = g.closest(destlon, destlat);
-        return new WeirdSolver<>(g, src, dest, 20).solution();
+                                          double destlon, double destlat, Algorithm algorithm) {
+        return shortestPath(g, stlon, stlat, destlon, destlat, algorithm, Snapping.VERTEX);
+    }
+
+    /**
+     * Overloaded method for shortestPath that can also snap the start and
+     * destination to road segments rather than vertices; see Snapping.
+     * @param g The graph to use.
+     * @param stlon The longitude of the start location.
+     * @param stlat The latitude of the start location.
+     * @param destlon The longitude of the destination location.
+     * @param destlat The latitude of the destination location.
+     * @param algorithm The algorithm used to find the path.
+     * @param snapping Where the path starts and ends.
+     * @return A list of node id's in the order visited on the shortest path.
+     */
+    public static List<Long> shortestPath(AugmentedStreetMapGraph g, double stlon, double stlat,
+                                          double destlon, double destlat, Algorithm algorithm,
+                                          Snapping snapping) {
+        if (snapping == Snapping.VERTEX) {
+            long src = g.closest(stlon, stlat);
+            long dest = g.closest(destlon, destlat);
+            return solve(g, src, dest, algorithm).solution();
+        }
+
+        RoadPoint start = g.snapToRoad(stlon, stlat);
+        RoadPoint end = g.snapToRoad(destlon, destlat);
+        if (start == null || end == null) {
+            return new ArrayList<>();
+        }
+        if (start.onSameSegment(end)) {
+            /* Going straight along the segment is shortest, since edges weigh their great-circle length. */
+            boolean forward = start.from() == end.from() ? start.fraction() <= end.fraction()
+                    : start.fraction() + end.fraction() <= 1;
+            return forward ? Arrays.asList(start.from(), start.to()) : Arrays.asList(start.to(), start.from());
+        }
+        if (algorithm == Algorithm.CONTRACTION_HIERARCHY) {
+            return solveBetweenSegments(g, start, end);
+        }
+
+        SnappedGraph snapped = new SnappedGraph(g, start, end);
+        ShortestPathsSolver<Long> solver;
+        switch (algorithm) {
+            case BIDIRECTIONAL_ASTAR:
+                solver = new BidirectionalAStarSolver<>(snapped, SnappedGraph.START, SnappedGraph.END, TIMEOUT);
+                break;
+            case ASTAR_LANDMARKS:
+                solver = new AStarSolver<>(snapped, SnappedGraph.START, SnappedGraph.END, TIMEOUT,
+                        snapped.heuristic(g.landmarkHeuristic()));
+                break;
+            case ASTAR:
+            default:
+                solver = new AStarSolver<>(snapped, SnappedGraph.START, SnappedGraph.END, TIMEOUT);
+        }
+        List<Long> path = new ArrayList<>();
+        for (long v : solver.solution()) {
+            if (v != SnappedGraph.START && v != SnappedGraph.END) {
+                path.add(v);
+            }
+        }
+        return path;
+    }
+
+    /**
+     * Returns the shortest path between the road points START and END,
+     * which are on different segments, by querying the contraction hierarchy
+     * of G between each vertex of the one segment and each of the other. The
+     * hierarchy is of G alone, so it cannot search from virtual vertices.
+     */
+    private static List<Long> solveBetweenSegments(AugmentedStreetMapGraph g, RoadPoint start, RoadPoint end) {
+        long[] sources = {start.from(), start.to()};
+        double[] sourceWeights = {start.weightFromStart(), start.weightToEnd()};
+        long[] targets = {end.from(), end.to()};
+        double[] targetWeights = {end.weightFromStart(), end.weightToEnd()};
+        List<Long> best = new ArrayList<>();
+        double bestWeight = Double.POSITIVE_INFINITY;
+        for (int i = 0; i < 2; i++) {
+            for (int j = 0; j < 2; j++) {
+                ShortestPathsSolver<Long> solver = solve(g, sources[i], targets[j], Algorithm.CONTRACTION_HIERARCHY);
+                double weight = sourceWeights[i] + solver.solutionWeight() + targetWeights[j];
+                if (solver.outcome() == SolverOutcome.SOLVED && weight < bestWeight) {
+                    best = solver.solution();
+                    bestWeight = weight;
+                }
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Runs ALGORITHM on G from SRC to DEST and returns the solver, so callers
+     * can inspect its outcome and statistics as well as the path.
+     */
+    public static ShortestPathsSolver<Long> solve(AugmentedStreetMapGraph g, long src, long dest,
+                                                  Algorithm algorithm) {
+        switch (algorithm) {
+            case BIDIRECTIONAL_ASTAR:
+                return new BidirectionalAStarSolver<>(g, src, dest, TIMEOUT);
+            case ASTAR_LANDMARKS:
+                return new AStarSolver<>(g, src, dest, TIMEOUT, g.landmarkHeuristic());
+            case CONTRACTION_HIERARCHY:
+                return new ContractionHierarchySolver<>(g.contractionHierarchy(), src, dest, TIMEOUT);
+            case ASTAR:
+            default:
+                return new AStarSolver<>(g, src, dest, TIMEOUT);
+        }
     }
 
     /**
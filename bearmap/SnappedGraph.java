@@ -0,0 +1,142 @@
+package bearmaps.proj2c;
+
+import bearmaps.hw4.EdgeVisitor;
+import bearmaps.hw4.Heuristic;
+import bearmaps.hw4.IndexedAStarGraph;
+import bearmaps.hw4.WeightedEdge;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A street map graph with two virtual vertices added, for routing between
+ * points on road segments rather than between vertices: START, on the
+ * segment of one RoadPoint, and END, on the segment of another. Each is
+ * joined in both directions to its segment's two vertices by edges
+ * weighing the parts of the segment on either side of it, so solvers can
+ * search from START to END as from any vertex to another. The two points
+ * must not be on the same segment.
+ *
+ * The virtual vertices have the indices just past the graph's, and the ids
+ * START and END, which no OSM node has. Heuristics to and from them are the
+ * best over their segment's vertices plus the partial weights, which stay
+ * admissible and consistent if the heuristic they are built on is.
+ */
+final class SnappedGraph implements IndexedAStarGraph<Long> {
+    static final long START = Long.MIN_VALUE;
+    static final long END = Long.MIN_VALUE + 1;
+
+    private final AugmentedStreetMapGraph graph;
+    private final int n;
+    /* For the virtual vertex n + i: its segment's vertices by index, and the weights to them. */
+    private final int[] firsts = new int[2];
+    private final int[] seconds = new int[2];
+    private final double[] firstWeights = new double[2];
+    private final double[] secondWeights = new double[2];
+    private final Heuristic greatCircle;
+
+    SnappedGraph(AugmentedStreetMapGraph graph, RoadPoint start, RoadPoint end) {
+        if (start.onSameSegment(end)) {
+            throw new IllegalArgumentException("Both points are on the segment of " + start);
+        }
+        this.graph = graph;
+        n = graph.numVertices();
+        join(0, start);
+        join(1, end);
+        greatCircle = heuristic(graph::estimatedDistanceToGoal);
+    }
+
+    private void join(int i, RoadPoint point) {
+        firsts[i] = graph.indexOf(point.from());
+        seconds[i] = graph.indexOf(point.to());
+        firstWeights[i] = point.weightFromStart();
+        secondWeights[i] = point.weightToEnd();
+    }
+
+    /** Returns a heuristic for this graph built on BASE, a heuristic for the street map graph. */
+    Heuristic heuristic(Heuristic base) {
+        return (v, goal) -> estimate(base, v, goal);
+    }
+
+    private double estimate(Heuristic base, int v, int goal) {
+        if (v == goal) {
+            return 0;
+        }
+        if (v >= n) {
+            int i = v - n;
+            return Math.min(firstWeights[i] + estimate(base, firsts[i], goal),
+                    secondWeights[i] + estimate(base, seconds[i], goal));
+        }
+        if (goal >= n) {
+            int i = goal - n;
+            return Math.min(base.estimate(v, firsts[i]) + firstWeights[i],
+                    base.estimate(v, seconds[i]) + secondWeights[i]);
+        }
+        return base.estimate(v, goal);
+    }
+
+    @Override
+    public int numVertices() {
+        return n + 2;
+    }
+
+    @Override
+    public int indexOf(Long v) {
+        if (v == START) {
+            return n;
+        }
+        if (v == END) {
+            return n + 1;
+        }
+        return graph.indexOf(v);
+    }
+
+    @Override
+    public Long vertex(int index) {
+        if (index == n) {
+            return START;
+        }
+        if (index == n + 1) {
+            return END;
+        }
+        return graph.vertex(index);
+    }
+
+    @Override
+    public void forEachNeighbor(int v, EdgeVisitor visitor) {
+        if (v >= n) {
+            visitor.visit(firsts[v - n], firstWeights[v - n]);
+            visitor.visit(seconds[v - n], secondWeights[v - n]);
+            return;
+        }
+        graph.forEachNeighbor(v, visitor);
+        for (int i = 0; i < 2; i++) {
+            if (v == firsts[i]) {
+                visitor.visit(n + i, firstWeights[i]);
+            }
+            if (v == seconds[i]) {
+                visitor.visit(n + i, secondWeights[i]);
+            }
+        }
+    }
+
+    @Override
+    public double estimatedDistanceToGoal(int s, int goal) {
+        return greatCircle.estimate(s, goal);
+    }
+
+    @Override
+    public List<WeightedEdge<Long>> neighbors(Long v) {
+        List<WeightedEdge<Long>> neighbors = new ArrayList<>();
+        int index = indexOf(v);
+        if (index >= 0) {
+            forEachNeighbor(index, (to, weight) -> neighbors.add(new WeightedEdge<>(v, vertex(to), weight)));
+        }
+        return neighbors;
+    }
+
+    @Override
+    public double estimatedDistanceToGoal(Long s, Long goal) {
+        return estimatedDistanceToGoal(indexOf(s), indexOf(goal));
+    }
+}
@@ -22,6 +22,9 @@ public class APIRouteHandlerFactory {
         handlerMap.put("route", new RoutingAPIHandler());
         handlerMap.put("clear_route", new ClearRouteAPIHandler());
         handlerMap.put("search", new SearchAPIHandler());
+        handlerMap.put("nearby", new NearbyAPIHandler());
+        handlerMap.put("snap", new SnapAPIHandler());
+        handlerMap.put("tile_cache", new TileCacheAPIHandler());
         handlerMap.put("", new RedirectAPIHandler());
     }
 
@@ -5,6 +5,7 @@ import spark.Request;
 import spark.Response;
 
 import static bearmaps.proj2c.utils.Constants.ROUTE_LIST;
+import static bearmaps.proj2c.utils.Constants.ROUTE_VERSION;
 
 
 /**
@@ -22,6 +23,7 @@ public class ClearRouteAPIHandler extends APIRouteHandler {
     @Override
     protected Object processRequest(Object requestParams, Response response) {
         ROUTE_LIST.clear();
+        ROUTE_VERSION.incrementAndGet();
         return true;
     }
 }
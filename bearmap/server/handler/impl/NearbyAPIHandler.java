@@ -0,0 +1,70 @@
+package bearmaps.proj2c.server.handler.impl;
+
+import bearmaps.proj2c.server.handler.APIRouteHandler;
+import bearmaps.proj2c.utils.Tuple;
+import spark.Request;
+import spark.Response;
+
+import java.util.List;
+import java.util.Map;
+
+import static bearmaps.proj2c.utils.Constants.SEMANTIC_STREET_GRAPH;
+import static spark.Spark.halt;
+
+/**
+ * Handles requests from the web browser for named locations near a point,
+ * such as the cafes nearest the user, nearest first.
+ */
+public class NearbyAPIHandler extends APIRouteHandler<Tuple<Map<String, Double>, String>,
+        List<Map<String, Object>>> {
+
+    /** HTTP failed response. */
+    private static final int HALT_RESPONSE = 403;
+
+    /**
+     * Each nearby request to the server will have the following parameters
+     * as keys in the params map.<br>
+     * lon : longitude of the point,<br> lat : latitude of the point.
+     **/
+    private static final String[] REQUIRED_NEARBY_REQUEST_PARAMS = {"lon", "lat"};
+
+    /** Locations returned when the request does not say, and at most. */
+    private static final int DEFAULT_K = 10;
+    private static final int MAX_K = 100;
+
+    /**
+     * Also reads the optional parameters: k : the number of locations to
+     * return,<br> radius : the distance in meters they must be within,<br>
+     * term : a string their names must contain.
+     */
+    @Override
+    protected Tuple<Map<String, Double>, String> parseRequestParams(Request request) {
+        Map<String, Double> params = getRequestParams(request, REQUIRED_NEARBY_REQUEST_PARAMS);
+        params.put("k", (double) DEFAULT_K);
+        params.put("radius", Double.POSITIVE_INFINITY);
+        for (String param : new String[]{"k", "radius"}) {
+            if (request.queryParams(param) != null) {
+                try {
+                    params.put(param, Double.parseDouble(request.queryParams(param)));
+                } catch (NumberFormatException e) {
+                    halt(HALT_RESPONSE, "Incorrect parameters - provide numbers.");
+                }
+            }
+        }
+        return new Tuple<>(params, request.queryParams("term"));
+    }
+
+    /**
+     * @return A list of the locations, each a map of parameters for the Json
+     * response as in SearchAPIHandler.getLocations, plus "distance" : Number,
+     * the distance of the location from the point in meters.
+     */
+    @Override
+    protected List<Map<String, Object>> processRequest(Tuple<Map<String, Double>, String> requestParams,
+                                                       Response response) {
+        Map<String, Double> params = requestParams.getFirst();
+        int k = (int) Math.max(0, Math.min(MAX_K, params.get("k")));
+        return SEMANTIC_STREET_GRAPH.nearby(params.get("lon"), params.get("lat"), k, params.get("radius"),
+                requestParams.getSecond());
+    }
+}
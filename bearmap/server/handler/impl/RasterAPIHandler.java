@@ -5,15 +5,26 @@ import bearmaps.proj2c.server.handler.APIRouteHandler;
 import spark.Request;
 import spark.Response;
 import bearmaps.proj2c.utils.Constants;
+import bearmaps.proj2c.utils.TileCache;
 
+import javax.imageio.IIOImage;
 import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
 import java.awt.*;
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
 import java.util.List;
+import java.util.stream.IntStream;
 
 import static bearmaps.proj2c.utils.Constants.*;
 
@@ -42,6 +53,25 @@ public class RasterAPIHandler extends APIRouteHandler<Map<String, Double>, Map<S
     private static final String[] REQUIRED_RASTER_RESULT_PARAMS = {"render_grid", "raster_ul_lon",
             "raster_ul_lat", "raster_lr_lon", "raster_lr_lat", "depth", "query_success"};
 
+    /** The decoded tiles, shared by all rasterers, as they all read the same files. */
+    private static final TileCache TILE_CACHE = new TileCache(TILE_CACHE_BYTES,
+            path -> ImageIO.read(new File(path)));
+
+    /** Returns the cache the tiles are read through, for its statistics. */
+    public static TileCache tileCache() {
+        return TILE_CACHE;
+    }
+
+    /*
+     * The Json responses of rasters rendered with the route at renderedRoute
+     * and the graph at renderedGraph, by their tile window, least recently
+     * used first, and their total bytes. Guarded by rendered.
+     */
+    private final LinkedHashMap<String, byte[]> rendered = new LinkedHashMap<>(16, 0.75f, true);
+    private long renderedLength;
+    private long renderedRoute = -1;
+    private int renderedGraph = -1;
+
 
     @Override
     protected Map<String, Double> parseRequestParams(Request request) {
@@ -228,17 +258,98 @@ public class RasterAPIHandler extends APIRouteHandler<Map<String, Double>, Map<S
     }
 
 
+    /**
+     * Renders the raster of RESULT into it and returns it as Json, in the
+     * bytes sent. The response only depends on the tiles in the window and
+     * on the route drawn over them, so it is kept, and a request for the
+     * same window while the route and graph stay the same gets it back
+     * without rendering.
+     */
     @Override
     protected Object buildJsonResponse(Map<String, Object> result) {
         boolean rasterSuccess = validateRasteredImgParams(result);
+        if (!rasterSuccess) {
+            return super.buildJsonResponse(result);
+        }
+
+        /* Read the version before drawing, so a route changed meanwhile is stored under the old one. */
+        long routeVersion = ROUTE_VERSION.get();
+        AugmentedStreetMapGraph graph = SEMANTIC_STREET_GRAPH;
+        int graphVersion = graph == null ? 0 : graph.version();
+        String[][] grid = (String[][]) result.get("render_grid");
+        String window = grid[0][0] + "_" + grid[grid.length - 1][grid[0].length - 1];
+        byte[] json = renderedResponse(window, routeVersion, graphVersion);
+        if (json != null) {
+            return json;
+        }
+
+        json = renderResponse(result, graph);
+        keepResponse(window, routeVersion, graphVersion, json);
+        return json;
+    }
+
+    /**
+     * Renders the raster of RESULT, with the route drawn from GRAPH, and
+     * returns the Json of RESULT with the image added. The PNG is Base64
+     * encoded as it is written, straight into the buffer of the response
+     * after the rest of the Json, so the image is never held as a whole
+     * but in the response itself.
+     */
+    private byte[] renderResponse(Map<String, Object> result, AugmentedStreetMapGraph graph) {
+        BufferedImage img = renderRaster(result, graph);
+        String json = (String) super.buildJsonResponse(result);
+        ByteArrayOutputStream os = new ByteArrayOutputStream(json.length() + img.getWidth() * img.getHeight() / 2);
+        try {
+            /* The Json of a map ends with its closing brace; the image goes in before it. */
+            os.write(json.substring(0, json.length() - 1).getBytes(StandardCharsets.UTF_8));
+            os.write(",\"b64_encoded_image_data\":\"".getBytes(StandardCharsets.UTF_8));
+            /* Closing the encoder writes its last bytes; closing os does nothing. */
+            try (OutputStream base64 = Base64.getEncoder().wrap(os)) {
+                writePng(img, base64);
+            }
+            os.write("\"}".getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return os.toByteArray();
+    }
 
-        if (rasterSuccess) {
-            ByteArrayOutputStream os = new ByteArrayOutputStream();
-            writeImagesToOutputStream(result, os);
-            String encodedImage = Base64.getEncoder().encodeToString(os.toByteArray());
-            result.put("b64_encoded_image_data", encodedImage);
+    /**
+     * Returns the response kept for WINDOW as drawn with the route at
+     * ROUTEVERSION and the graph at GRAPHVERSION, or null if there is none.
+     */
+    private byte[] renderedResponse(String window, long routeVersion, int graphVersion) {
+        synchronized (rendered) {
+            return routeVersion == renderedRoute && graphVersion == renderedGraph ? rendered.get(window) : null;
+        }
+    }
+
+    /**
+     * Keeps JSON as the response for WINDOW as drawn with the route at
+     * ROUTEVERSION and the graph at GRAPHVERSION. Responses drawn with older
+     * versions are dropped, as they can no longer be asked for, and then the
+     * least recently used until the rest fit RASTER_CACHE_BYTES. A response
+     * drawn with older versions than those kept is not kept.
+     */
+    private void keepResponse(String window, long routeVersion, int graphVersion, byte[] json) {
+        synchronized (rendered) {
+            if (routeVersion < renderedRoute || graphVersion < renderedGraph) {
+                return;
+            }
+            if (routeVersion != renderedRoute || graphVersion != renderedGraph) {
+                rendered.clear();
+                renderedLength = 0;
+                renderedRoute = routeVersion;
+                renderedGraph = graphVersion;
+            }
+            byte[] previous = rendered.put(window, json);
+            renderedLength += json.length - (previous == null ? 0 : previous.length);
+            Iterator<byte[]> eldest = rendered.values().iterator();
+            while (renderedLength > RASTER_CACHE_BYTES && eldest.hasNext()) {
+                renderedLength -= eldest.next().length;
+                eldest.remove();
+            }
         }
-        return super.buildJsonResponse(result);
     }
 
     private Map<String, Object> queryFail() {
@@ -275,31 +386,29 @@ public class RasterAPIHandler extends APIRouteHandler<Map<String, Double>, Map<S
     }
 
     /**
-     * Writes the images corresponding to rasteredImgParams to the output stream.
+     * Returns the image corresponding to rasteredImgParams, with the route drawn on it.
      * In Spring 2016, students had to do this on their own, but in 2017,
      * we made this into provided code since it was just a bit too low level.
+     * The tiles are read and copied into the image's pixels in parallel, as
+     * each has its own square of them.
      */
-    private  void writeImagesToOutputStream(Map<String, Object> rasteredImageParams,
-                                                  ByteArrayOutputStream os) {
+    private BufferedImage renderRaster(Map<String, Object> rasteredImageParams, AugmentedStreetMapGraph graph) {
         String[][] renderGrid = (String[][]) rasteredImageParams.get("render_grid");
         int numVertTiles = renderGrid.length;
         int numHorizTiles = renderGrid[0].length;
 
         BufferedImage img = new BufferedImage(numHorizTiles * Constants.TILE_SIZE,
                 numVertTiles * Constants.TILE_SIZE, BufferedImage.TYPE_INT_RGB);
-        Graphics graphic = img.getGraphics();
-        int x = 0, y = 0;
-
-        for (int r = 0; r < numVertTiles; r += 1) {
-            for (int c = 0; c < numHorizTiles; c += 1) {
-                graphic.drawImage(getImage(Constants.IMG_ROOT + renderGrid[r][c]), x, y, null);
-                x += Constants.TILE_SIZE;
-                if (x >= img.getWidth()) {
-                    x = 0;
-                    y += Constants.TILE_SIZE;
-                }
+        int[] pixels = ((DataBufferInt) img.getRaster().getDataBuffer()).getData();
+        IntStream.range(0, numVertTiles * numHorizTiles).parallel().forEach(t -> {
+            int r = t / numHorizTiles;
+            int c = t % numHorizTiles;
+            BufferedImage tile = getImage(Constants.IMG_ROOT + renderGrid[r][c]);
+            if (tile != null) {
+                blit(tile, pixels, img.getWidth(), c * Constants.TILE_SIZE, r * Constants.TILE_SIZE);
             }
-        }
+        });
+        Graphics graphic = img.getGraphics();
 
         /* If there is a route, draw it. */
         double ullon = (double) rasteredImageParams.get("raster_ul_lon"); //tiles.get(0).ulp;
@@ -309,7 +418,6 @@ public class RasterAPIHandler extends APIRouteHandler<Map<String, Double>, Map<S
 
         final double wdpp = (lrlon - ullon) / img.getWidth();
         final double hdpp = (ullat - lrlat) / img.getHeight();
-        AugmentedStreetMapGraph graph = SEMANTIC_STREET_GRAPH;
         List<Long> route = ROUTE_LIST;
 
         if (route != null && !route.isEmpty()) {
@@ -328,26 +436,69 @@ public class RasterAPIHandler extends APIRouteHandler<Map<String, Double>, Map<S
 
         rasteredImageParams.put("raster_width", img.getWidth());
         rasteredImageParams.put("raster_height", img.getHeight());
+        return img;
+    }
 
-        try {
-            ImageIO.write(img, "png", os);
-        } catch (IOException e) {
-            e.printStackTrace();
+    /**
+     * Copies TILE into PIXELS, those of an image WIDTH wide, with its upper
+     * left corner at X, Y, and no more of it than a tile's square. Tiles of
+     * 8 bit blue, green and red, which PNGs without alpha decode to, are
+     * copied from their bytes; others are converted a row at a time, with
+     * their alpha drawn over black, as drawing them onto the image would.
+     */
+    private static void blit(BufferedImage tile, int[] pixels, int width, int x, int y) {
+        int w = Math.min(tile.getWidth(), Constants.TILE_SIZE);
+        int h = Math.min(tile.getHeight(), Constants.TILE_SIZE);
+        if (tile.getType() == BufferedImage.TYPE_3BYTE_BGR && tile.getRaster().getParent() == null) {
+            byte[] bgr = ((DataBufferByte) tile.getRaster().getDataBuffer()).getData();
+            for (int j = 0; j < h; j++) {
+                int from = j * tile.getWidth() * 3;
+                int to = (y + j) * width + x;
+                for (int i = 0; i < w; i++, from += 3) {
+                    pixels[to + i] = (bgr[from + 2] & 0xff) << 16 | (bgr[from + 1] & 0xff) << 8 | bgr[from] & 0xff;
+                }
+            }
+            return;
         }
+        boolean alpha = tile.getColorModel().hasAlpha();
+        int[] row = new int[w];
+        for (int j = 0; j < h; j++) {
+            tile.getRGB(0, j, w, 1, row, 0, w);
+            int to = (y + j) * width + x;
+            for (int i = 0; i < w; i++) {
+                int argb = row[i];
+                if (alpha) {
+                    int a = argb >>> 24;
+                    argb = ((argb >> 16 & 0xff) * a / 255) << 16 | ((argb >> 8 & 0xff) * a / 255) << 8
+                            | (argb & 0xff) * a / 255;
+                }
+                pixels[to + i] = argb & 0xffffff;
+            }
+        }
+    }
 
+    /**
+     * Writes IMG to OS as a PNG, compressed as PNG_COMPRESSION_QUALITY says
+     * where the writer lets it be, and kept in memory as it is written
+     * rather than in a file, as ImageIO.write would.
+     */
+    private static void writePng(BufferedImage img, OutputStream os) throws IOException {
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("png").next();
+        ImageWriteParam param = writer.getDefaultWriteParam();
+        if (param.canWriteCompressed()) {
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(PNG_COMPRESSION_QUALITY);
+        }
+        try (ImageOutputStream output = new MemoryCacheImageOutputStream(os)) {
+            writer.setOutput(output);
+            writer.write(null, new IIOImage(img, null, null), param);
+        } finally {
+            writer.dispose();
+        }
     }
 
     private BufferedImage getImage(String imgPath) {
-        BufferedImage tileImg = null;
-        if (tileImg == null) {
-            try {
-                File in = new File(imgPath);
-                tileImg = ImageIO.read(in);
-            } catch (IOException | NullPointerException e) {
-                e.printStackTrace();
-            }
-        }
-        return tileImg;
+        return TILE_CACHE.get(imgPath);
     }
 
     public static void main(String[] Args){
@@ -1,5 +1,6 @@
 package bearmaps.proj2c.server.handler.impl;
 
+import bearmaps.proj2c.AugmentedStreetMapGraph;
 import bearmaps.proj2c.Router;
 import bearmaps.proj2c.server.handler.APIRouteHandler;
 import spark.Request;
@@ -11,6 +12,7 @@ import java.util.Map;
 
 import static bearmaps.proj2c.utils.Constants.SEMANTIC_STREET_GRAPH;
 import static bearmaps.proj2c.utils.Constants.ROUTE_LIST;
+import static bearmaps.proj2c.utils.Constants.ROUTE_VERSION;
 
 /**
  * Handles requests from the web browser for routes between locations. The
@@ -36,7 +38,8 @@ public class RoutingAPIHandler extends APIRouteHandler<Map<String, Double>, Map<
     /**
      * Takes a user query in the form of a pair of (lat/lon) values, and finds
      * street directions between the given points. THis method has been
-     * completed for you.
+     * completed for you. Routes start and end at the points on roads nearest
+     * the given points, rather than at the nearest vertices.
      *
      * The route to draw on the map should be added to the end of
      * bearmaps.proj2c.utils.Constants.ROUTE_LIST. This is a LinkedList of longs,
@@ -58,12 +61,16 @@ public class RoutingAPIHandler extends APIRouteHandler<Map<String, Double>, Map<
      */
     @Override
     protected Map<String, Object> processRequest(Map<String, Double> requestParams, Response response) {
+        /* Read the graph once, in case a new version is swapped in during the request. */
+        AugmentedStreetMapGraph graph = SEMANTIC_STREET_GRAPH;
         List<Long> route = Router.shortestPath(
-                SEMANTIC_STREET_GRAPH,
+                graph,
                 requestParams.get("start_lon"), requestParams.get("start_lat"),
-                requestParams.get("end_lon"), requestParams.get("end_lat"));
+                requestParams.get("end_lon"), requestParams.get("end_lat"),
+                Router.Algorithm.ASTAR, Router.Snapping.SEGMENT);
         ROUTE_LIST.addAll(route);
-        String directions = getDirectionsText();
+        ROUTE_VERSION.incrementAndGet();
+        String directions = getDirectionsText(graph);
 
         Map<String, Object> routeParams = new HashMap<>();
         routeParams.put("routing_success", !route.isEmpty());
@@ -76,9 +83,9 @@ public class RoutingAPIHandler extends APIRouteHandler<Map<String, Double>, Map<
      * Takes the route of this MapServer and converts it into an HTML friendly
      * String to be passed to the frontend.
      */
-    private String getDirectionsText() {
+    private String getDirectionsText(AugmentedStreetMapGraph graph) {
 
-        List<Router.NavigationDirection> directions = Router.routeDirections(SEMANTIC_STREET_GRAPH, ROUTE_LIST);
+        List<Router.NavigationDirection> directions = Router.routeDirections(graph, ROUTE_LIST);
         if (directions == null || directions.isEmpty()) {
             return "";
         }
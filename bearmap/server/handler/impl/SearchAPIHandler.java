@@ -5,31 +5,65 @@ import spark.Request;
 import spark.Response;
 import bearmaps.proj2c.utils.Tuple;
 
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
 
 import static bearmaps.proj2c.utils.Constants.SEMANTIC_STREET_GRAPH;
+import static spark.Spark.halt;
 
 /**
  * Created by rahul
  */
-public class SearchAPIHandler extends APIRouteHandler<Tuple<Set<String>, String>, Object> {
+public class SearchAPIHandler extends APIRouteHandler<Tuple<Map<String, Double>, String>, Object> {
 
+    /** HTTP failed response. */
+    private static final int HALT_RESPONSE = 403;
+    /** The most names a fuzzy search returns if it is given no limit. */
+    private static final int DEFAULT_FUZZY_LIMIT = 10;
 
+    /**
+     * Reads the search term, term, and the optional parameters: full : if
+     * present, search for locations rather than names,<br> fuzzy : if
+     * present, search for names that start with something close to the
+     * term, for misspelled terms,<br> limit : the most names a prefix search
+     * returns, the most common first; without it, all of them are returned,
+     * or DEFAULT_FUZZY_LIMIT of them for a fuzzy search.
+     */
     @Override
-    protected Tuple<Set<String>, String> parseRequestParams(Request request) {
-        return new Tuple<>(request.queryParams(), request.queryParams("term"));
+    protected Tuple<Map<String, Double>, String> parseRequestParams(Request request) {
+        Map<String, Double> params = new HashMap<>();
+        if (request.queryParams().contains("full")) {
+            params.put("full", 1.0);
+        }
+        if (request.queryParams().contains("fuzzy")) {
+            params.put("fuzzy", 1.0);
+        }
+        if (request.queryParams("limit") != null) {
+            try {
+                params.put("limit", Double.parseDouble(request.queryParams("limit")));
+            } catch (NumberFormatException e) {
+                halt(HALT_RESPONSE, "Incorrect parameters - provide numbers.");
+            }
+        }
+        return new Tuple<>(params, request.queryParams("term"));
     }
 
     @Override
-    protected Object processRequest(Tuple<Set<String>, String> requestParams, Response response) {
-        Set<String> reqParams = requestParams.getFirst();
+    protected Object processRequest(Tuple<Map<String, Double>, String> requestParams, Response response) {
+        Map<String, Double> params = requestParams.getFirst();
         String term = requestParams.getSecond();
         Object result;
         /* Search for actual location data. */
-        if (reqParams.contains("full")) {
+        if (params.containsKey("full")) {
             result = getLocations(term);
+        } else if (params.containsKey("fuzzy")) {
+            /* Search for the closest, then most common, strings that nearly prefix-match. */
+            int limit = params.containsKey("limit") ? params.get("limit").intValue() : DEFAULT_FUZZY_LIMIT;
+            result = SEMANTIC_STREET_GRAPH.getLocationsByFuzzyPrefix(term, limit);
+        } else if (params.containsKey("limit")) {
+            /* Search for the most common prefix matching strings. */
+            result = SEMANTIC_STREET_GRAPH.getLocationsByPrefix(term, params.get("limit").intValue());
         } else {
             /* Search for prefix matching strings. */
             result = getLocationsByPrefix(term);
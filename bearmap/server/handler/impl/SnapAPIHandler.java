@@ -0,0 +1,91 @@
+package bearmaps.proj2c.server.handler.impl;
+
+import bearmaps.proj2c.AugmentedStreetMapGraph;
+import bearmaps.proj2c.server.handler.APIRouteHandler;
+import bearmaps.proj2c.utils.Tuple;
+import spark.Request;
+import spark.Response;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static bearmaps.proj2c.utils.Constants.SEMANTIC_STREET_GRAPH;
+import static spark.Spark.halt;
+
+/**
+ * Handles requests to snap many points to the street graph at once, such
+ * as the points of a GPS trace or the stops of a multi-stop route, in one
+ * batch rather than one request each.
+ */
+public class SnapAPIHandler extends APIRouteHandler<Tuple<double[], double[]>, List<Map<String, Object>>> {
+
+    /** HTTP failed response. */
+    private static final int HALT_RESPONSE = 403;
+
+    /** Most points one request may snap. */
+    private static final int MAX_POINTS = 10000;
+
+    /**
+     * Each snap request to the server will have the following parameters:
+     * <br> lons : the longitudes of the points, separated by commas,
+     * <br> lats : their latitudes, in the same order.
+     */
+    @Override
+    protected Tuple<double[], double[]> parseRequestParams(Request request) {
+        String lons = request.queryParams("lons");
+        String lats = request.queryParams("lats");
+        if (lons == null || lats == null) {
+            halt(HALT_RESPONSE, "Request failed - parameters missing.");
+        }
+        double[] parsedLons = parse(lons);
+        double[] parsedLats = parse(lats);
+        if (parsedLons.length != parsedLats.length) {
+            halt(HALT_RESPONSE, "Incorrect parameters - provide as many longitudes as latitudes.");
+        }
+        if (parsedLons.length > MAX_POINTS) {
+            halt(HALT_RESPONSE, "Incorrect parameters - at most " + MAX_POINTS + " points.");
+        }
+        return new Tuple<>(parsedLons, parsedLats);
+    }
+
+    /**
+     * @return A list of the vertices the points snap to, in the order of the
+     * points, each a map of parameters for the Json response: <br>
+     * "lat" : Number, The latitude of the node. <br>
+     * "lon" : Number, The longitude of the node. <br>
+     * "id" : Number, The id of the node. <br>
+     */
+    @Override
+    protected List<Map<String, Object>> processRequest(Tuple<double[], double[]> requestParams,
+                                                       Response response) {
+        AugmentedStreetMapGraph graph = SEMANTIC_STREET_GRAPH;
+        long[] ids = graph.closest(requestParams.getFirst(), requestParams.getSecond());
+        List<Map<String, Object>> vertices = new ArrayList<>(ids.length);
+        for (long id : ids) {
+            Map<String, Object> vertex = new HashMap<>();
+            vertex.put("lat", graph.lat(id));
+            vertex.put("lon", graph.lon(id));
+            vertex.put("id", id);
+            vertices.add(vertex);
+        }
+        return vertices;
+    }
+
+    private static double[] parse(String numbers) {
+        if (numbers.isEmpty()) {
+            return new double[0];
+        }
+        String[] parts = numbers.split(",");
+        double[] parsed = new double[parts.length];
+        try {
+            for (int i = 0; i < parts.length; i++) {
+                parsed[i] = Double.parseDouble(parts[i]);
+            }
+        } catch (NumberFormatException e) {
+            halt(HALT_RESPONSE, "Incorrect parameters - provide numbers.");
+        }
+        return parsed;
+    }
+}
@@ -0,0 +1,24 @@
+package bearmaps.proj2c.server.handler.impl;
+
+import bearmaps.proj2c.server.handler.APIRouteHandler;
+import bearmaps.proj2c.utils.TileCache;
+import spark.Request;
+import spark.Response;
+
+/**
+ * Reports how the tile cache the rasterer reads through is doing: its hits,
+ * misses, evictions and failed loads since the server started, and the
+ * tiles and bytes it holds.
+ */
+public class TileCacheAPIHandler extends APIRouteHandler<Object, TileCache.Stats> {
+
+    @Override
+    protected Object parseRequestParams(Request request) {
+        return null;
+    }
+
+    @Override
+    protected TileCache.Stats processRequest(Object requestParams, Response response) {
+        return RasterAPIHandler.tileCache().stats();
+    }
+}
@@ -5,6 +5,7 @@ import bearmaps.proj2c.AugmentedStreetMapGraph;
 import java.awt.*;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * A class holding all the constant values used throughout the project
@@ -39,11 +40,46 @@ public class Constants {
     /** Each tile is 256x256 pixels. */
     public static final int TILE_SIZE = 256;
 
-    public static AugmentedStreetMapGraph SEMANTIC_STREET_GRAPH;
+    /**
+     * Bytes of decoded tile pixels kept in memory, about 680 tiles of 24 bit
+     * color; the tiles around the area being looked at are decoded once.
+     */
+    public static final long TILE_CACHE_BYTES = 128L << 20;
+
+    /** Bytes of rendered raster responses kept in memory, a few dozen views. */
+    public static final long RASTER_CACHE_BYTES = 64L << 20;
+
+    /**
+     * How little rasters are compressed as PNGs, from 0, the smallest and
+     * slowest, to 1, not compressed. At 0.75 they encode in little more than
+     * half the time of the writer's default, and are a few percent larger.
+     */
+    public static final float PNG_COMPRESSION_QUALITY = 0.75f;
+
+    /**
+     * The street graph the server answers from. MapUpdater replaces it with a
+     * new version when OSM changes arrive, so read it once per request.
+     */
+    public static volatile AugmentedStreetMapGraph SEMANTIC_STREET_GRAPH;
+
+    /**
+     * OSM change (osc) files dropped into this folder are applied to the
+     * street graph while the server runs, in file name order.
+     */
+    public static final String OSM_CHANGE_DIR = "../library-sp19/data/proj2c_osc/";
+
+    /** How often, in seconds, OSM_CHANGE_DIR is checked for new change files. */
+    public static final long OSM_CHANGE_POLL_SECONDS = 10;
 
     /**
      * This is used to maintain a single List of route so that the same instance(object) is accessed
      * from everywhere in the code. Enum is a cleaner way to achieve such a singleton pattern.
      */
     public static final List<Long> ROUTE_LIST = new LinkedList<>();
+
+    /**
+     * Incremented after each change to ROUTE_LIST, so that what was drawn
+     * from the route can tell whether it still shows it.
+     */
+    public static final AtomicLong ROUTE_VERSION = new AtomicLong();
 }
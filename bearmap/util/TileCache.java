@@ -0,0 +1,177 @@
+package bearmaps.proj2c.utils;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A cache of decoded tile images, bounded by the bytes of their pixels
+ * rather than their number, evicting the least recently used tiles first.
+ * It is safe to use from many threads: a tile asked for by several requests
+ * at once is loaded once, by the first of them, and the others wait for
+ * that load instead of decoding the image again. Loads run outside the
+ * lock, which is only held to look tiles up and to account for them, so
+ * requests for tiles that are cached are not held up by ones that are not.
+ * Tiles that fail to load are not cached, so they are tried again the next
+ * time they are asked for.
+ *
+ * Recency alone decides what is kept, as the tiles asked for most are the
+ * ones around the area being looked at, which were asked for last.
+ */
+public class TileCache {
+    /** Loads the image of a tile from its path. */
+    public interface Loader {
+        /** Returns the image at PATH, or null if it cannot be decoded. */
+        BufferedImage load(String path) throws IOException;
+    }
+
+    private final long maxBytes;
+    private final Loader loader;
+    /* In access order, least recently used first. Guarded by this, as are the counters. */
+    private final LinkedHashMap<String, Tile> tiles = new LinkedHashMap<>(16, 0.75f, true);
+    private long bytes;
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long failures;
+
+    /** Makes a cache of at most MAXBYTES of pixels, loading tiles with LOADER. */
+    public TileCache(long maxBytes, Loader loader) {
+        this.maxBytes = maxBytes;
+        this.loader = loader;
+    }
+
+    /**
+     * Returns the image of the tile at PATH, loading it if it is not cached,
+     * or null if it cannot be loaded.
+     */
+    public BufferedImage get(String path) {
+        Tile tile;
+        boolean load;
+        synchronized (this) {
+            tile = tiles.get(path);
+            load = tile == null;
+            if (load) {
+                tile = new Tile();
+                tiles.put(path, tile);
+                misses += 1;
+            } else {
+                hits += 1;
+            }
+        }
+        if (load) {
+            BufferedImage image = null;
+            try {
+                image = loader.load(path);
+            } catch (IOException | RuntimeException e) {
+                e.printStackTrace();
+            } finally {
+                loaded(path, tile, image);
+                tile.image.complete(image);
+            }
+        }
+        return tile.image.join();
+    }
+
+    /** Returns the counters and size of this cache as they are now. */
+    public synchronized Stats stats() {
+        return new Stats(hits, misses, evictions, failures, tiles.size(), bytes, maxBytes);
+    }
+
+    /** Accounts for TILE, at PATH, having loaded as IMAGE, or failed to if that is null. */
+    private synchronized void loaded(String path, Tile tile, BufferedImage image) {
+        if (image == null) {
+            tiles.remove(path);
+            failures += 1;
+            return;
+        }
+        tile.bytes = bytes(image);
+        bytes += tile.bytes;
+        /* Evict from the least recently used end, passing over tiles still loading, which take no bytes yet. */
+        Iterator<Map.Entry<String, Tile>> eldest = tiles.entrySet().iterator();
+        while (bytes > maxBytes && eldest.hasNext()) {
+            Tile evicted = eldest.next().getValue();
+            if (evicted.image.isDone() || evicted == tile) {
+                eldest.remove();
+                bytes -= evicted.bytes;
+                evictions += 1;
+            }
+        }
+    }
+
+    /** Returns the bytes the pixels of IMAGE take. */
+    private static long bytes(BufferedImage image) {
+        DataBuffer buffer = image.getRaster().getDataBuffer();
+        return (long) buffer.getSize() * buffer.getNumBanks() * DataBuffer.getDataTypeSize(buffer.getDataType()) / 8;
+    }
+
+    /** A cached tile: the image, once it is loaded, and its bytes, 0 until then. */
+    private static final class Tile {
+        private final CompletableFuture<BufferedImage> image = new CompletableFuture<>();
+        private long bytes;
+    }
+
+    /** The counters of a TileCache at one time. */
+    public static final class Stats {
+        private final long hits;
+        private final long misses;
+        private final long evictions;
+        private final long failures;
+        private final int tiles;
+        private final long bytes;
+        private final long maxBytes;
+
+        Stats(long hits, long misses, long evictions, long failures, int tiles, long bytes, long maxBytes) {
+            this.hits = hits;
+            this.misses = misses;
+            this.evictions = evictions;
+            this.failures = failures;
+            this.tiles = tiles;
+            this.bytes = bytes;
+            this.maxBytes = maxBytes;
+        }
+
+        /** Returns the number of gets that found their tile cached, or being loaded by another. */
+        public long hits() {
+            return hits;
+        }
+
+        /** Returns the number of gets that loaded their tile. */
+        public long misses() {
+            return misses;
+        }
+
+        /** Returns the number of tiles evicted to stay within the cache's bytes. */
+        public long evictions() {
+            return evictions;
+        }
+
+        /** Returns the number of loads that failed. */
+        public long failures() {
+            return failures;
+        }
+
+        /** Returns the number of tiles cached, or being loaded. */
+        public int tiles() {
+            return tiles;
+        }
+
+        /** Returns the bytes of the cached tiles' pixels. */
+        public long bytes() {
+            return bytes;
+        }
+
+        public long maxBytes() {
+            return maxBytes;
+        }
+
+        /** Returns the fraction of gets that were hits, or 0 if there were none. */
+        public double hitRate() {
+            return hits + misses == 0 ? 0 : (double) hits / (hits + misses);
+        }
+    }
+}
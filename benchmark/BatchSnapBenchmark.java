@@ -0,0 +1,107 @@
+package bearmaps.benchmark;
+
+import bearmaps.proj2c.AugmentedStreetMapGraph;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Measures the throughput, in points per second, of snapping points to the
+ * street graph: one closest call per point, against batches of the same
+ * points through the batch closest on pools of 1, 2, 4, ... threads. There
+ * are two workloads. GPS traces are random walks with steps of about 20
+ * meters from a random vertex, sent in batches of a few traces as one
+ * request of a client may be; scattered points are within about 500 meters
+ * of a random vertex, sent as one batch larger than the graph, which on
+ * large graphs is sorted along a space-filling curve first. The optional
+ * arguments are the OSM file and the points per batch of traces.
+ */
+public class BatchSnapBenchmark {
+    private static final String OSM_DB_PATH = "../library-sp19/data/proj2c_xml/berkeley-2019.osm.xml";
+    private static final int DEFAULT_BATCH_SIZE = 1000;
+    private static final int TRACE_LENGTH = 250;
+    private static final int NUM_POINTS = 400000;
+    private static final int ROUNDS = 5;
+    /* Roughly 20 and 500 meters, in degrees. */
+    private static final double STEP = 2e-4;
+    private static final double SCATTER = 5e-3;
+
+    public static void main(String[] args) throws Exception {
+        String osmPath = args.length > 0 ? args[0] : OSM_DB_PATH;
+        AugmentedStreetMapGraph graph = new AugmentedStreetMapGraph(osmPath);
+        int batchSize = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_BATCH_SIZE;
+        int numBatches = NUM_POINTS / batchSize;
+
+        Random random = new Random(18);
+        double[][] traceLons = new double[numBatches][batchSize];
+        double[][] traceLats = new double[numBatches][batchSize];
+        for (int b = 0; b < numBatches; b++) {
+            double lon = 0;
+            double lat = 0;
+            for (int i = 0; i < batchSize; i++) {
+                if (i % TRACE_LENGTH == 0) {
+                    long start = graph.vertex(random.nextInt(graph.numVertices()));
+                    lon = graph.lon(start);
+                    lat = graph.lat(start);
+                }
+                lon += (random.nextDouble() - 0.5) * 2 * STEP;
+                lat += (random.nextDouble() - 0.5) * 2 * STEP;
+                traceLons[b][i] = lon;
+                traceLats[b][i] = lat;
+            }
+        }
+        double[][] scatteredLons = new double[1][NUM_POINTS];
+        double[][] scatteredLats = new double[1][NUM_POINTS];
+        for (int i = 0; i < NUM_POINTS; i++) {
+            long near = graph.vertex(random.nextInt(graph.numVertices()));
+            scatteredLons[0][i] = graph.lon(near) + (random.nextDouble() - 0.5) * 2 * SCATTER;
+            scatteredLats[0][i] = graph.lat(near) + (random.nextDouble() - 0.5) * 2 * SCATTER;
+        }
+
+        System.out.println(String.format("%s: %d vertices, %d points per workload.",
+                osmPath, graph.numVertices(), numBatches * batchSize));
+        report(graph, "traces, batches of " + batchSize, traceLons, traceLats);
+        report(graph, "scattered, one batch", scatteredLons, scatteredLats);
+    }
+
+    /** Prints the points per second of snapping the batches LONS[b], LATS[b] of GRAPH each way. */
+    private static void report(AugmentedStreetMapGraph graph, String workload, double[][] lons, double[][] lats)
+            throws Exception {
+        int points = lons.length * lons[0].length;
+        long sink = 0;
+        double best = Double.POSITIVE_INFINITY;
+        for (int round = 0; round < ROUNDS; round++) {
+            long start = System.nanoTime();
+            for (int b = 0; b < lons.length; b++) {
+                for (int i = 0; i < lons[b].length; i++) {
+                    sink += graph.closest(lons[b][i], lats[b][i]);
+                }
+            }
+            best = Math.min(best, (System.nanoTime() - start) / 1e9);
+        }
+        System.out.println(workload + ":");
+        System.out.println(String.format("  one at a time %12.0f points/s", points / best));
+
+        int processors = Runtime.getRuntime().availableProcessors();
+        for (int threads = 1; threads <= processors; threads *= 2) {
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            best = Double.POSITIVE_INFINITY;
+            for (int round = 0; round < ROUNDS; round++) {
+                long start = System.nanoTime();
+                sink += pool.submit(() -> {
+                    long batchSink = 0;
+                    for (int b = 0; b < lons.length; b++) {
+                        for (long id : graph.closest(lons[b], lats[b])) {
+                            batchSink += id;
+                        }
+                    }
+                    return batchSink;
+                }).get();
+                best = Math.min(best, (System.nanoTime() - start) / 1e9);
+            }
+            pool.shutdown();
+            System.out.println(String.format("  batch, %2d thr %12.0f points/s", threads, points / best));
+        }
+        System.out.println(String.format("  (%d)", sink % 10));
+    }
+}
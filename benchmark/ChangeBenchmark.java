@@ -0,0 +1,116 @@
+package bearmaps.benchmark;
+
+import bearmaps.hw4.streetmap.OSMChange;
+import bearmaps.proj2c.AugmentedStreetMapGraph;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Random;
+
+/**
+ * Measures how long applying an OSM change to the server's graph takes,
+ * search indexes included, against loading the graph from scratch. Each
+ * round applies a generated change shaped like a minutely diff: mostly
+ * nodes moved by a few meters, plus new streets through new nodes and
+ * deletions of streets made in earlier rounds. The optional arguments are
+ * the OSM file and the number of elements per change.
+ */
+public class ChangeBenchmark {
+    private static final String OSM_DB_PATH = "../library-sp19/data/proj2c_xml/berkeley-2019.osm.xml";
+    private static final int DEFAULT_CHANGE_SIZE = 100;
+    private static final int WARMUP_ROUNDS = 20;
+    private static final int TIMED_ROUNDS = 200;
+    /* Roughly 10 meters, in degrees. */
+    private static final double MAX_MOVE = 1e-4;
+
+    public static void main(String[] args) throws Exception {
+        String osmPath = args.length > 0 ? args[0] : OSM_DB_PATH;
+        int changeSize = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_CHANGE_SIZE;
+
+        long loadStart = System.nanoTime();
+        AugmentedStreetMapGraph graph = new AugmentedStreetMapGraph(osmPath);
+        double loadMillis = (System.nanoTime() - loadStart) / 1e6;
+
+        Random random = new Random(2019);
+        Deque<long[]> created = new ArrayDeque<>();
+        long[] nextId = {-1};
+        long firstStart = System.nanoTime();
+        graph = graph.withChange(generate(graph, changeSize, random, created, nextId));
+        double firstMillis = (System.nanoTime() - firstStart) / 1e6;
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            graph = graph.withChange(generate(graph, changeSize, random, created, nextId));
+        }
+
+        double[] millis = new double[TIMED_ROUNDS];
+        for (int i = 0; i < TIMED_ROUNDS; i++) {
+            OSMChange change = generate(graph, changeSize, random, created, nextId);
+            long start = System.nanoTime();
+            graph = graph.withChange(change);
+            millis[i] = (System.nanoTime() - start) / 1e6;
+        }
+        Arrays.sort(millis);
+
+        System.out.println(String.format("%s: %d vertices, changes of %d elements.",
+                osmPath, graph.numVertices(), changeSize));
+        System.out.println(String.format("load from scratch %8.1f ms", loadMillis));
+        System.out.println(String.format("first change      %8.1f ms (reads the OSM file for its ways)", firstMillis));
+        System.out.println(String.format("change p50        %8.2f ms", millis[TIMED_ROUNDS / 2]));
+        System.out.println(String.format("change p99        %8.2f ms", millis[TIMED_ROUNDS * 99 / 100]));
+        System.out.println(String.format("change max        %8.2f ms", millis[TIMED_ROUNDS - 1]));
+    }
+
+    /**
+     * Returns a change of about SIZE elements to GRAPH. Streets it creates
+     * are pushed onto CREATED as {way id, node id}, to be deleted by later
+     * changes; new ids count down from NEXTID[0] so they never clash with
+     * real ones.
+     */
+    private static OSMChange generate(AugmentedStreetMapGraph graph, int size, Random random,
+                                      Deque<long[]> created, long[] nextId) throws Exception {
+        StringBuilder modify = new StringBuilder();
+        StringBuilder create = new StringBuilder();
+        StringBuilder delete = new StringBuilder();
+        int n = graph.numVertices();
+        int elements = 0;
+        while (elements < size) {
+            double kind = random.nextDouble();
+            if (kind < 0.6) {
+                long id = graph.vertex(random.nextInt(n));
+                modify.append(node(id, graph.lon(id) + (random.nextDouble() - 0.5) * MAX_MOVE,
+                        graph.lat(id) + (random.nextDouble() - 0.5) * MAX_MOVE, graph.name(id)));
+                elements += 1;
+            } else if (kind < 0.8 || created.size() < 2) {
+                long from = graph.vertex(random.nextInt(n));
+                long to = graph.vertex(random.nextInt(n));
+                long node = nextId[0]--;
+                long way = nextId[0]--;
+                create.append(node(node, (graph.lon(from) + graph.lon(to)) / 2,
+                        (graph.lat(from) + graph.lat(to)) / 2, null));
+                create.append(String.format("<way id=\"%d\"><nd ref=\"%d\"/><nd ref=\"%d\"/><nd ref=\"%d\"/>"
+                        + "<tag k=\"highway\" v=\"residential\"/><tag k=\"name\" v=\"Street %d\"/></way>\n",
+                        way, from, node, to, -way));
+                created.addLast(new long[]{way, node});
+                elements += 2;
+            } else {
+                long[] street = created.removeFirst();
+                delete.append(String.format("<way id=\"%d\"/><node id=\"%d\"/>\n", street[0], street[1]));
+                elements += 2;
+            }
+        }
+        String osc = "<osmChange version=\"0.6\">\n<modify>\n" + modify + "</modify>\n<create>\n" + create
+                + "</create>\n<delete>\n" + delete + "</delete>\n</osmChange>\n";
+        return OSMChange.read(new ByteArrayInputStream(osc.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private static String node(long id, double lon, double lat, String name) {
+        StringBuilder node = new StringBuilder(String.format("<node id=\"%d\" lat=\"%s\" lon=\"%s\">", id, lat, lon));
+        if (name != null) {
+            node.append("<tag k=\"name\" v=\"").append(name.replace("&", "&amp;").replace("\"", "&quot;")
+                    .replace("<", "&lt;")).append("\"/>");
+        }
+        return node.append("</node>\n").toString();
+    }
+}
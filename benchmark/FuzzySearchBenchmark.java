@@ -0,0 +1,167 @@
+package bearmaps.benchmark;
+
+import bearmaps.hw4.streetmap.StreetMapGraph;
+import bearmaps.proj2ab.PackedTrieSet;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Measures fuzzy prefix search, PackedTrieSet.topKeysNear, on misspelled
+ * prefixes of the names of a map: percentiles of each query's best latency
+ * over three rounds, how often the name misspelled is among the ten
+ * returned, and the heap of the trie, which is all the memory the search
+ * needs besides a few rows per query. Queries are prefixes of three to
+ * twelve characters of random names with one edit, or two for prefixes of
+ * six or more, allowed as many edits as AugmentedStreetMapGraph allows
+ * them. The first hundred are also timed scanning every name. It runs on
+ * the map's names alone, then with generated names added, words of random
+ * syllables, as many as a city has. The optional arguments are the OSM file
+ * and the number of names to generate.
+ */
+public class FuzzySearchBenchmark {
+    private static final String OSM_DB_PATH = "../library-sp19/data/proj2c_xml/berkeley-2019.osm.xml";
+    private static final int DEFAULT_GENERATED = 50000;
+    private static final int NUM_QUERIES = 5000;
+    private static final int NUM_SCANS = 100;
+    private static final int ROUNDS = 3;
+    private static final int TOP_K = 10;
+    private static final String LETTERS = "abcdefghijklmnopqrstuvwxyz ";
+    private static final String[] SYLLABLES = {"ba", "ber", "ca", "del", "e", "fi", "gar", "ho", "in", "ka",
+        "lo", "ma", "mon", "na", "o", "pe", "ra", "san", "ta", "ton", "u", "ve", "wood", "y", "ze"};
+
+    public static void main(String[] args) {
+        StreetMapGraph graph = StreetMapGraph.scanXML(args.length > 0 ? args[0] : OSM_DB_PATH);
+        int numGenerated = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_GENERATED;
+        Map<String, Integer> counts = new HashMap<>();
+        for (int v = 0; v < graph.numVertices(); v++) {
+            String name = graph.name(graph.vertex(v));
+            if (name != null) {
+                String cleaned = name.replaceAll("[^a-zA-Z ]", "").toLowerCase();
+                if (!cleaned.isEmpty()) {
+                    counts.merge(cleaned, 1, Integer::sum);
+                }
+            }
+        }
+        Random random = new Random(22);
+        System.out.println(String.format("%-16s %7s %8s %8s %8s %8s %8s %7s", "names", "heap MB", "p50 us",
+                "p99 us", "max us", "scan p50", "over 2ms", "found"));
+        report("map", counts, random);
+        for (int i = 0; i < numGenerated; i++) {
+            counts.merge(generateName(random), 1, Integer::sum);
+        }
+        report("map+generated", counts, random);
+    }
+
+    /** Prints the measurements of fuzzy search over the names in COUNTS, scored by their counts. */
+    private static void report(String label, Map<String, Integer> counts, Random random) {
+        long before = usedHeap();
+        PackedTrieSet trie = new PackedTrieSet();
+        for (Map.Entry<String, Integer> name : counts.entrySet()) {
+            trie.add(name.getKey(), name.getValue());
+        }
+        double megabytes = (usedHeap() - before) / 1e6;
+
+        List<String> names = new ArrayList<>(counts.keySet());
+        String[] intended = new String[NUM_QUERIES];
+        String[] queries = new String[NUM_QUERIES];
+        for (int i = 0; i < NUM_QUERIES; i++) {
+            String name = names.get(random.nextInt(names.size()));
+            String prefix = name.substring(0, Math.min(name.length(), 3 + random.nextInt(10)));
+            intended[i] = name;
+            queries[i] = misspell(prefix, maxEdits(prefix.length()), random);
+        }
+
+        long[] nanos = new long[NUM_QUERIES];
+        long[] scanNanos = new long[NUM_SCANS];
+        int found = 0;
+        long sink = 0;
+        /* Each query's best round, as the others time the machine more than the search. */
+        Arrays.fill(nanos, Long.MAX_VALUE);
+        Arrays.fill(scanNanos, Long.MAX_VALUE);
+        for (int round = 0; round < ROUNDS; round++) {
+            found = 0;
+            for (int i = 0; i < NUM_QUERIES; i++) {
+                int maxEdits = maxEdits(queries[i].length());
+                long start = System.nanoTime();
+                List<String> near = trie.topKeysNear(queries[i], maxEdits, TOP_K, null, Long.MAX_VALUE);
+                nanos[i] = Math.min(nanos[i], System.nanoTime() - start);
+                found += near.contains(intended[i]) ? 1 : 0;
+                if (i >= NUM_SCANS) {
+                    continue;
+                }
+
+                start = System.nanoTime();
+                for (String name : names) {
+                    if (PackedTrieSet.prefixEdits(queries[i], name) <= maxEdits) {
+                        sink += 1;
+                    }
+                }
+                scanNanos[i] = Math.min(scanNanos[i], System.nanoTime() - start);
+            }
+        }
+        Arrays.sort(nanos);
+        Arrays.sort(scanNanos);
+        int over = 0;
+        for (long n : nanos) {
+            over += n > 2000000 ? 1 : 0;
+        }
+        System.out.println(String.format("%-16s %7.1f %8.1f %8.1f %8.1f %8.1f %8d %6.1f%%",
+                label + " " + trie.size(), megabytes, nanos[NUM_QUERIES / 2] / 1e3,
+                nanos[NUM_QUERIES * 99 / 100] / 1e3, nanos[NUM_QUERIES - 1] / 1e3,
+                scanNanos[NUM_SCANS / 2] / 1e3, over, 100.0 * found / NUM_QUERIES));
+        System.out.println(String.format("(%d)", sink % 10));
+    }
+
+    /** Returns the edits AugmentedStreetMapGraph allows a fuzzy prefix of LENGTH characters. */
+    private static int maxEdits(int length) {
+        return length < 3 ? 0 : length < 6 ? 1 : 2;
+    }
+
+    /** Returns S with EDITS random insertions, deletions or substitutions of letters. */
+    private static String misspell(String s, int edits, Random random) {
+        StringBuilder misspelled = new StringBuilder(s);
+        for (int e = 0; e < edits; e++) {
+            int i = random.nextInt(misspelled.length());
+            char c = LETTERS.charAt(random.nextInt(LETTERS.length()));
+            switch (random.nextInt(3)) {
+                case 0:
+                    misspelled.insert(i, c);
+                    break;
+                case 1:
+                    misspelled.deleteCharAt(i);
+                    break;
+                default:
+                    misspelled.setCharAt(i, c);
+            }
+        }
+        return misspelled.toString();
+    }
+
+    /** Returns a name of one to three words of one to four random syllables. */
+    private static String generateName(Random random) {
+        StringBuilder name = new StringBuilder();
+        int words = 1 + random.nextInt(3);
+        for (int w = 0; w < words; w++) {
+            name.append(w > 0 ? " " : "");
+            int syllables = 1 + random.nextInt(4);
+            for (int j = 0; j < syllables; j++) {
+                name.append(SYLLABLES[random.nextInt(SYLLABLES.length)]);
+            }
+        }
+        return name.toString();
+    }
+
+    /** Returns the bytes of heap in use, after asking for a garbage collection. */
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
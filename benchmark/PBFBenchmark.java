@@ -0,0 +1,85 @@
+package bearmaps.benchmark;
+
+import bearmaps.hw4.streetmap.StreetMapGraph;
+import bearmaps.test.OSMToPBF;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.function.Supplier;
+
+/**
+ * Compares loading the same map from OSM XML, with the parallel scanner the
+ * server uses, and from OSM PBF: file size, load time, and peak heap use
+ * while loading. Peak heap is the sum of the heap pools' peaks above what
+ * was in use before the load, so it is an upper bound. The optional
+ * arguments are an XML file and the same map as PBF; without the second,
+ * the XML is converted with OSMToPBF first.
+ */
+public class PBFBenchmark {
+    private static final String OSM_DB_PATH = "../library-sp19/data/proj2c_xml/berkeley-2019.osm.xml";
+    /* Each reader runs this many times to warm up the JIT before the timed runs. */
+    private static final int WARMUP_ROUNDS = 3;
+    private static final int TIMED_ROUNDS = 5;
+
+    public static void main(String[] args) throws Exception {
+        String xmlPath = args.length > 0 ? args[0] : OSM_DB_PATH;
+        String pbfPath;
+        if (args.length > 1) {
+            pbfPath = args[1];
+        } else {
+            File pbf = File.createTempFile("benchmark", ".osm.pbf");
+            pbf.deleteOnExit();
+            OSMToPBF.convert(new File(xmlPath), pbf, true);
+            pbfPath = pbf.getPath();
+        }
+
+        Supplier<StreetMapGraph> xml = () -> StreetMapGraph.scanXMLParallel(xmlPath);
+        Supplier<StreetMapGraph> pbf = () -> StreetMapGraph.readFromPBF(pbfPath);
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            xml.get();
+            pbf.get();
+        }
+        System.out.println(String.format("%d vertices.", pbf.get().numVertices()));
+        System.out.println(String.format("%-4s %9s %9s %13s", "", "file MB", "load ms", "peak heap MB"));
+        long xmlNanos = report("XML", xmlPath, xml);
+        long pbfNanos = report("PBF", pbfPath, pbf);
+        System.out.println(String.format("PBF loads in %.2fx the time from a %.2fx file.",
+                (double) pbfNanos / xmlNanos, (double) new File(pbfPath).length() / new File(xmlPath).length()));
+    }
+
+    /** Prints the file size, mean load time and peak heap use of LOADER, and returns the mean time. */
+    private static long report(String name, String path, Supplier<StreetMapGraph> loader) {
+        long totalNanos = 0;
+        for (int i = 0; i < TIMED_ROUNDS; i++) {
+            long start = System.nanoTime();
+            loader.get();
+            totalNanos += System.nanoTime() - start;
+        }
+
+        System.gc();
+        long before = heapUsed();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                pool.resetPeakUsage();
+            }
+        }
+        loader.get();
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                peak += pool.getPeakUsage().getUsed();
+            }
+        }
+
+        long meanNanos = totalNanos / TIMED_ROUNDS;
+        System.out.println(String.format("%-4s %9.1f %9.1f %13.1f", name, new File(path).length() / 1e6,
+                meanNanos / 1e6, (peak - before) / 1e6));
+        return meanNanos;
+    }
+
+    private static long heapUsed() {
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+}
@@ -0,0 +1,68 @@
+package bearmaps.benchmark;
+
+import bearmaps.hw4.streetmap.StreetMapGraph;
+
+import java.io.File;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Compares the parse throughput of the SAX parser and the byte-level
+ * scanner on an OSM XML file, and of the parallel scanner with 1, 2, 4, ...
+ * threads up to the number of cores. An optional argument overrides the OSM
+ * file.
+ */
+public class ParserBenchmark {
+    private static final String OSM_DB_PATH = "../library-sp19/data/proj2c_xml/berkeley-2019.osm.xml";
+    /* Each parser runs this many times to warm up the JIT before the timed runs. */
+    private static final int WARMUP_ROUNDS = 3;
+    private static final int TIMED_ROUNDS = 5;
+    private static final int CHUNKS_PER_THREAD = 4;
+
+    public static void main(String[] args) {
+        String osmPath = args.length > 0 ? args[0] : OSM_DB_PATH;
+        double megabytes = new File(osmPath).length() / 1e6;
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            StreetMapGraph.readFromXML(osmPath);
+            StreetMapGraph.scanXML(osmPath);
+        }
+
+        long saxNanos = 0, scanNanos = 0;
+        int numVertices = 0;
+        for (int i = 0; i < TIMED_ROUNDS; i++) {
+            long start = System.nanoTime();
+            StreetMapGraph.readFromXML(osmPath);
+            long middle = System.nanoTime();
+            numVertices = StreetMapGraph.scanXML(osmPath).numVertices();
+            long end = System.nanoTime();
+            saxNanos += middle - start;
+            scanNanos += end - middle;
+        }
+
+        System.out.println(String.format("%s: %.1f MB, %d vertices.", osmPath, megabytes, numVertices));
+        report("SAX", saxNanos, megabytes);
+        report("scanner", scanNanos, megabytes);
+        System.out.println(String.format("The scanner is %.1fx as fast.", (double) saxNanos / scanNanos));
+
+        int cores = Runtime.getRuntime().availableProcessors();
+        for (int threads = 1; threads <= cores; threads *= 2) {
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            int numChunks = threads * CHUNKS_PER_THREAD;
+            for (int i = 0; i < WARMUP_ROUNDS; i++) {
+                StreetMapGraph.scanXMLParallel(osmPath, pool, numChunks);
+            }
+            long start = System.nanoTime();
+            for (int i = 0; i < TIMED_ROUNDS; i++) {
+                StreetMapGraph.scanXMLParallel(osmPath, pool, numChunks);
+            }
+            long parallelNanos = System.nanoTime() - start;
+            report(threads + " thr", parallelNanos, megabytes);
+            System.out.println(String.format("         %.1fx the sequential scanner.", (double) scanNanos / parallelNanos));
+            pool.shutdown();
+        }
+    }
+
+    private static void report(String name, long totalNanos, double megabytes) {
+        double seconds = totalNanos / 1e9 / TIMED_ROUNDS;
+        System.out.println(String.format("%-8s %8.1f ms %8.1f MB/s", name, seconds * 1000, megabytes / seconds));
+    }
+}
@@ -0,0 +1,129 @@
+package bearmaps.benchmark;
+
+import bearmaps.proj2ab.GridPointSet;
+import bearmaps.proj2ab.IndexedPointSet;
+import bearmaps.proj2ab.KDTreePointSet;
+import bearmaps.proj2c.AugmentedStreetMapGraph;
+
+import java.util.Random;
+
+/**
+ * Compares KDTreePointSet and GridPointSet over the vertices with edges of
+ * a map: build time, and time per nearestIndex and per nearestK of ten
+ * points, for two distributions of queries. Uniform queries are spread
+ * evenly over the map's bounding box, open water and parks included;
+ * clustered queries are within about 50 meters of a random vertex, as
+ * clicks on streets are. Also counts answers of the two that are not
+ * equally near. The optional argument is the OSM file.
+ */
+public class PointSetBenchmark {
+    private static final String OSM_DB_PATH = "../library-sp19/data/proj2c_xml/berkeley-2019.osm.xml";
+    private static final int NUM_QUERIES = 200000;
+    private static final int ROUNDS = 5;
+    private static final int K = 10;
+    /* Roughly 50 meters, in degrees. */
+    private static final double JITTER = 5e-4;
+
+    public static void main(String[] args) {
+        AugmentedStreetMapGraph graph = new AugmentedStreetMapGraph(args.length > 0 ? args[0] : OSM_DB_PATH);
+        int n = 0;
+        for (int v = 0; v < graph.numVertices(); v++) {
+            if (graph.degree(v) > 0) {
+                n += 1;
+            }
+        }
+        double[] lons = new double[n];
+        double[] lats = new double[n];
+        double minLon = Double.POSITIVE_INFINITY;
+        double maxLon = Double.NEGATIVE_INFINITY;
+        double minLat = Double.POSITIVE_INFINITY;
+        double maxLat = Double.NEGATIVE_INFINITY;
+        for (int v = 0, i = 0; v < graph.numVertices(); v++) {
+            if (graph.degree(v) > 0) {
+                lons[i] = graph.lon(graph.vertex(v));
+                lats[i] = graph.lat(graph.vertex(v));
+                minLon = Math.min(minLon, lons[i]);
+                maxLon = Math.max(maxLon, lons[i]);
+                minLat = Math.min(minLat, lats[i]);
+                maxLat = Math.max(maxLat, lats[i]);
+                i += 1;
+            }
+        }
+
+        Random random = new Random(17);
+        double[][] uniform = new double[2][NUM_QUERIES];
+        double[][] clustered = new double[2][NUM_QUERIES];
+        for (int q = 0; q < NUM_QUERIES; q++) {
+            uniform[0][q] = minLon + random.nextDouble() * (maxLon - minLon);
+            uniform[1][q] = minLat + random.nextDouble() * (maxLat - minLat);
+            int i = random.nextInt(n);
+            clustered[0][q] = lons[i] + (random.nextDouble() - 0.5) * 2 * JITTER;
+            clustered[1][q] = lats[i] + (random.nextDouble() - 0.5) * 2 * JITTER;
+        }
+
+        double[] build = new double[2];
+        IndexedPointSet[] sets = new IndexedPointSet[2];
+        for (int round = 0; round < ROUNDS; round++) {
+            long start = System.nanoTime();
+            sets[0] = new KDTreePointSet(lons, lats);
+            double kdMillis = (System.nanoTime() - start) / 1e6;
+            start = System.nanoTime();
+            sets[1] = new GridPointSet(lons, lats);
+            double gridMillis = (System.nanoTime() - start) / 1e6;
+            build[0] = round == 0 ? kdMillis : Math.min(build[0], kdMillis);
+            build[1] = round == 0 ? gridMillis : Math.min(build[1], gridMillis);
+        }
+
+        System.out.println(String.format("%d points, %d queries of each distribution.", n, NUM_QUERIES));
+        System.out.println(String.format("%-15s %9s %14s %14s %14s %14s", "", "build ms",
+                "uniform 1 ns", "uniform " + K + " ns", "cluster 1 ns", "cluster " + K + " ns"));
+        int[][] answers = new int[2][NUM_QUERIES];
+        int[][] clusteredAnswers = new int[2][NUM_QUERIES];
+        String[] names = {"KDTreePointSet", "GridPointSet"};
+        long sink = 0;
+        for (int s = 0; s < 2; s++) {
+            double[] nanos = {Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY,
+                    Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY};
+            int[] found = new int[K];
+            for (int round = 0; round < ROUNDS; round++) {
+                nanos[0] = Math.min(nanos[0], nearest(sets[s], uniform, answers[s]));
+                long start = System.nanoTime();
+                for (int q = 0; q < NUM_QUERIES; q++) {
+                    sink += sets[s].nearestK(uniform[0][q], uniform[1][q], K, found);
+                }
+                nanos[1] = Math.min(nanos[1], (double) (System.nanoTime() - start) / NUM_QUERIES);
+                nanos[2] = Math.min(nanos[2], nearest(sets[s], clustered, clusteredAnswers[s]));
+                start = System.nanoTime();
+                for (int q = 0; q < NUM_QUERIES; q++) {
+                    sink += sets[s].nearestK(clustered[0][q], clustered[1][q], K, found);
+                }
+                nanos[3] = Math.min(nanos[3], (double) (System.nanoTime() - start) / NUM_QUERIES);
+            }
+            System.out.println(String.format("%-15s %9.1f %14.0f %14.0f %14.0f %14.0f", names[s], build[s],
+                    nanos[0], nanos[1], nanos[2], nanos[3]));
+        }
+
+        int different = 0;
+        for (int q = 0; q < NUM_QUERIES; q++) {
+            different += differ(lons, lats, uniform[0][q], uniform[1][q], answers[0][q], answers[1][q]);
+            different += differ(lons, lats, clustered[0][q], clustered[1][q],
+                    clusteredAnswers[0][q], clusteredAnswers[1][q]);
+        }
+        System.out.println(String.format("%d answers differ (%d).", different, sink % 10));
+    }
+
+    /** Puts the answers of SET to QUERIES into ANSWERS, and returns the nanoseconds per query. */
+    private static double nearest(IndexedPointSet set, double[][] queries, int[] answers) {
+        long start = System.nanoTime();
+        for (int q = 0; q < NUM_QUERIES; q++) {
+            answers[q] = set.nearestIndex(queries[0][q], queries[1][q]);
+        }
+        return (double) (System.nanoTime() - start) / NUM_QUERIES;
+    }
+
+    private static int differ(double[] lons, double[] lats, double lon, double lat, int i, int j) {
+        double xScale = KDTreePointSet.xScale(lat);
+        return KDTreePointSet.squaredDistance(lons[i], lats[i], lon, lat, xScale)
+                == KDTreePointSet.squaredDistance(lons[j], lats[j], lon, lat, xScale) ? 0 : 1;
+    }
+}
@@ -0,0 +1,105 @@
+package bearmaps.benchmark;
+
+import bearmaps.proj2c.server.handler.impl.RasterAPIHandler;
+import bearmaps.proj2c.utils.Constants;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.Map;
+
+import static bearmaps.proj2c.utils.Constants.ROUTE_VERSION;
+
+/**
+ * Measures rendering raster responses, from the tiles to the Json sent, for
+ * viewports of a few sizes over the middle of the map at depth 5, from a
+ * laptop's to a high-DPI screen's. The first render of each reads its tiles
+ * that are not yet cached; the others find them all cached, and a change of
+ * route before each keeps the rendered response from being reused, so they
+ * time composing, encoding and assembling alone. Reports the tiles, the
+ * first render, the best of the others, the bytes allocated by all threads
+ * for one render, and the length of the response. Needs the tiles in
+ * Constants.IMG_ROOT. The optional argument is the number of renders of
+ * each viewport.
+ */
+public class RasterBenchmark {
+    private static final int[][] VIEWPORTS = {{1024, 768}, {1920, 1080}, {3072, 2304}};
+    private static final int DEPTH = 5;
+    private static final int DEFAULT_RENDERS = 20;
+
+    public static void main(String[] args) {
+        if (!new File(Constants.IMG_ROOT).isDirectory()) {
+            System.out.println("No tiles in " + Constants.IMG_ROOT + ".");
+            return;
+        }
+        int renders = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_RENDERS;
+        RenderingRasterer rasterer = new RenderingRasterer();
+        System.out.println(String.format("%-11s %6s %9s %9s %9s %9s", "viewport", "tiles", "first ms",
+                "best ms", "alloc MB", "resp KB"));
+        for (int[] viewport : VIEWPORTS) {
+            Map<String, Double> params = params(viewport[0], viewport[1]);
+            Map<String, Object> result = rasterer.processRequest(params, null);
+            String[][] grid = (String[][]) result.get("render_grid");
+
+            ROUTE_VERSION.incrementAndGet();
+            long start = System.nanoTime();
+            Object response = rasterer.render(params);
+            double first = (System.nanoTime() - start) / 1e6;
+
+            double best = Double.MAX_VALUE;
+            long allocated = Long.MAX_VALUE;
+            for (int i = 0; i < renders; i++) {
+                ROUTE_VERSION.incrementAndGet();
+                long before = allocatedBytes();
+                start = System.nanoTime();
+                response = rasterer.render(params);
+                best = Math.min(best, (System.nanoTime() - start) / 1e6);
+                allocated = Math.min(allocated, allocatedBytes() - before);
+            }
+            System.out.println(String.format("%-11s %6d %9.1f %9.1f %9.1f %9d",
+                    viewport[0] + "x" + viewport[1], grid.length * grid[0].length, first, best,
+                    allocated / 1e6, length(response) / 1024));
+        }
+    }
+
+    /** Returns the query of a W by H viewport over the middle of the map, drawn from tiles at DEPTH. */
+    private static Map<String, Double> params(int w, int h) {
+        /* Between the distances per pixel of DEPTH - 1 and DEPTH, so DEPTH is the one chosen. */
+        double scale = Math.pow(2, DEPTH - 0.5) * Constants.TILE_SIZE;
+        double lonSpan = (Constants.ROOT_LRLON - Constants.ROOT_ULLON) / scale * w;
+        double latSpan = (Constants.ROOT_ULLAT - Constants.ROOT_LRLAT) / scale * h;
+        double lon = (Constants.ROOT_ULLON + Constants.ROOT_LRLON) / 2;
+        double lat = (Constants.ROOT_ULLAT + Constants.ROOT_LRLAT) / 2;
+        Map<String, Double> params = new HashMap<>();
+        params.put("ullon", lon - lonSpan / 2);
+        params.put("ullat", lat + latSpan / 2);
+        params.put("lrlon", lon + lonSpan / 2);
+        params.put("lrlat", lat - latSpan / 2);
+        params.put("w", (double) w);
+        params.put("h", (double) h);
+        return params;
+    }
+
+    /** Returns the bytes all live threads have allocated. */
+    private static long allocatedBytes() {
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long total = 0;
+        for (long bytes : threads.getThreadAllocatedBytes(threads.getAllThreadIds())) {
+            total += Math.max(0, bytes);
+        }
+        return total;
+    }
+
+    /** Returns the bytes of RESPONSE, a String or bytes. */
+    private static long length(Object response) {
+        return response instanceof byte[] ? ((byte[]) response).length : response.toString().length();
+    }
+
+    /** A rasterer whose Json responses can be built outside a server. */
+    private static class RenderingRasterer extends RasterAPIHandler {
+        Object render(Map<String, Double> params) {
+            return buildJsonResponse(processRequest(params, null));
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package bearmaps.benchmark;
+
+import bearmaps.proj2ab.KDTreePointSet;
+import bearmaps.proj2ab.Point;
+import bearmaps.proj2ab.WeirdPointSet;
+import bearmaps.proj2c.AugmentedStreetMapGraph;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Compares snapping random points to the nearest vertex with edges the way
+ * AugmentedStreetMapGraph used to, a WeirdPointSet and a map from Point to
+ * id, and with a KDTreePointSet of vertex indices: build time, time per
+ * query, and how often the two pick different vertices. PointSetBenchmark
+ * compares the KD-tree with the grid the graph uses by default. Also times
+ * snapping to the nearest point on a road segment, as routes do, against
+ * snapping to the nearest vertex through the graph. The optional argument
+ * is the OSM file.
+ */
+public class SnapBenchmark {
+    private static final String OSM_DB_PATH = "../library-sp19/data/proj2c_xml/berkeley-2019.osm.xml";
+    private static final int NUM_QUERIES = 200000;
+    private static final int ROUNDS = 5;
+
+    public static void main(String[] args) {
+        AugmentedStreetMapGraph graph = new AugmentedStreetMapGraph(args.length > 0 ? args[0] : OSM_DB_PATH);
+        List<Long> ids = new ArrayList<>();
+        for (int v = 0; v < graph.numVertices(); v++) {
+            if (graph.degree(v) > 0) {
+                ids.add(graph.vertex(v));
+            }
+        }
+        int n = ids.size();
+        double[] lons = new double[n];
+        double[] lats = new double[n];
+        double minLon = Double.POSITIVE_INFINITY;
+        double maxLon = Double.NEGATIVE_INFINITY;
+        double minLat = Double.POSITIVE_INFINITY;
+        double maxLat = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < n; i++) {
+            lons[i] = graph.lon(ids.get(i));
+            lats[i] = graph.lat(ids.get(i));
+            minLon = Math.min(minLon, lons[i]);
+            maxLon = Math.max(maxLon, lons[i]);
+            minLat = Math.min(minLat, lats[i]);
+            maxLat = Math.max(maxLat, lats[i]);
+        }
+        Random random = new Random(14);
+        double[] queryLons = new double[NUM_QUERIES];
+        double[] queryLats = new double[NUM_QUERIES];
+        for (int q = 0; q < NUM_QUERIES; q++) {
+            queryLons[q] = minLon + random.nextDouble() * (maxLon - minLon);
+            queryLats[q] = minLat + random.nextDouble() * (maxLat - minLat);
+        }
+
+        long start = System.nanoTime();
+        Map<Point, Long> pointIds = new HashMap<>();
+        List<Point> points = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            Point point = new Point(lons[i], lats[i]);
+            pointIds.put(point, ids.get(i));
+            points.add(point);
+        }
+        WeirdPointSet weird = new WeirdPointSet(points);
+        double weirdBuild = (System.nanoTime() - start) / 1e6;
+        start = System.nanoTime();
+        KDTreePointSet tree = new KDTreePointSet(lons, lats);
+        double treeBuild = (System.nanoTime() - start) / 1e6;
+
+        long[] weirdAnswers = new long[NUM_QUERIES];
+        long[] treeAnswers = new long[NUM_QUERIES];
+        double weirdNanos = Double.POSITIVE_INFINITY;
+        double treeNanos = Double.POSITIVE_INFINITY;
+        double closestNanos = Double.POSITIVE_INFINITY;
+        double roadNanos = Double.POSITIVE_INFINITY;
+        long sink = 0;
+        for (int round = 0; round < ROUNDS; round++) {
+            start = System.nanoTime();
+            for (int q = 0; q < NUM_QUERIES; q++) {
+                weirdAnswers[q] = pointIds.get(weird.nearest(queryLons[q], queryLats[q]));
+            }
+            weirdNanos = Math.min(weirdNanos, (double) (System.nanoTime() - start) / NUM_QUERIES);
+            start = System.nanoTime();
+            for (int q = 0; q < NUM_QUERIES; q++) {
+                treeAnswers[q] = ids.get(tree.nearestIndex(queryLons[q], queryLats[q]));
+            }
+            treeNanos = Math.min(treeNanos, (double) (System.nanoTime() - start) / NUM_QUERIES);
+            start = System.nanoTime();
+            for (int q = 0; q < NUM_QUERIES; q++) {
+                sink += graph.closest(queryLons[q], queryLats[q]);
+            }
+            closestNanos = Math.min(closestNanos, (double) (System.nanoTime() - start) / NUM_QUERIES);
+            start = System.nanoTime();
+            for (int q = 0; q < NUM_QUERIES; q++) {
+                sink += graph.snapToRoad(queryLons[q], queryLats[q]).from();
+            }
+            roadNanos = Math.min(roadNanos, (double) (System.nanoTime() - start) / NUM_QUERIES);
+        }
+        int different = 0;
+        for (int q = 0; q < NUM_QUERIES; q++) {
+            if (weirdAnswers[q] != treeAnswers[q]) {
+                different += 1;
+            }
+        }
+
+        System.out.println(String.format("%d points, %d queries.", n, NUM_QUERIES));
+        System.out.println(String.format("%-15s %9s %12s", "", "build ms", "query ns"));
+        System.out.println(String.format("%-15s %9.1f %12.0f", "WeirdPointSet", weirdBuild, weirdNanos));
+        System.out.println(String.format("%-15s %9.1f %12.0f", "KDTreePointSet", treeBuild, treeNanos));
+        System.out.println(String.format("%.1fx faster queries; %d answers differ.", weirdNanos / treeNanos, different));
+        System.out.println(String.format("closest %.0f ns, snapToRoad %.0f ns per query (%d).",
+                closestNanos, roadNanos, sink % 10));
+    }
+}
@@ -0,0 +1,117 @@
+package bearmaps.benchmark;
+
+import bearmaps.hw4.AStarSolver;
+import bearmaps.hw4.BidirectionalAStarSolver;
+import bearmaps.hw4.ContractionHierarchy;
+import bearmaps.hw4.ContractionHierarchySolver;
+import bearmaps.hw4.LandmarkHeuristic;
+import bearmaps.hw4.ShortestPathsSolver;
+import bearmaps.proj2c.AugmentedStreetMapGraph;
+
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.List;
+
+/**
+ * Compares the shortest path solvers on the routing test inputs: states
+ * explored, edges relaxed and time per query. Optional arguments override
+ * the OSM file, the path params file and the number of landmarks used by
+ * the ALT solvers.
+ */
+public class SolverBenchmark {
+    private static final String PARAMS_FILE = "../library-sp19/data/proj2c_test_inputs/path_params.txt";
+    private static final String OSM_DB_PATH = "../library-sp19/data/proj2c_xml/berkeley-2019.osm.xml";
+    private static final double TIMEOUT = 20;
+    private static final int NUM_LANDMARKS = 16;
+    /* Each query is repeated to warm up the JIT before the timed runs. */
+    private static final int WARMUP_ROUNDS = 20;
+
+    public static void main(String[] args) throws Exception {
+        String osmPath = args.length > 0 ? args[0] : OSM_DB_PATH;
+        String paramsPath = args.length > 1 ? args[1] : PARAMS_FILE;
+        AugmentedStreetMapGraph graph = new AugmentedStreetMapGraph(osmPath);
+        int numLandmarks = args.length > 2 ? Integer.parseInt(args[2]) : NUM_LANDMARKS;
+        long[][] queries = queriesFromFile(graph, paramsPath);
+
+        long farthestStart = System.nanoTime();
+        LandmarkHeuristic<Long> farthest =
+                LandmarkHeuristic.build(graph, numLandmarks, LandmarkHeuristic.Selection.FARTHEST);
+        long avoidStart = System.nanoTime();
+        LandmarkHeuristic<Long> avoid =
+                LandmarkHeuristic.build(graph, numLandmarks, LandmarkHeuristic.Selection.AVOID);
+        System.out.println(String.format("Landmarks: %d, %.1f s to choose farthest, %.1f s to choose avoid.",
+                farthest.numLandmarks(), (avoidStart - farthestStart) / 1e9,
+                (System.nanoTime() - avoidStart) / 1e9));
+
+        long preprocessStart = System.nanoTime();
+        ContractionHierarchy<Long> hierarchy = ContractionHierarchy.build(graph);
+        System.out.println(String.format("Contraction hierarchy: %.1f s to build, %d edges for %d vertices.",
+                (System.nanoTime() - preprocessStart) / 1e9, hierarchy.numEdges(), graph.numVertices()));
+
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            for (long[] q : queries) {
+                new AStarSolver<>(graph, q[0], q[1], TIMEOUT);
+                new AStarSolver<>(graph, q[0], q[1], TIMEOUT, farthest);
+                new AStarSolver<>(graph, q[0], q[1], TIMEOUT, avoid);
+                new BidirectionalAStarSolver<>(graph, q[0], q[1], TIMEOUT);
+                new ContractionHierarchySolver<>(hierarchy, q[0], q[1], TIMEOUT);
+            }
+        }
+
+        System.out.println(String.format("%-6s %-14s %10s %12s %10s %12s",
+                "query", "solver", "explored", "relaxations", "ms", "weight"));
+        long totalAStar = 0, totalFarthest = 0, totalAvoid = 0, totalBidirectional = 0, totalHierarchy = 0;
+        for (int i = 0; i < queries.length; i++) {
+            long[] q = queries[i];
+            AStarSolver<Long> astar = new AStarSolver<>(graph, q[0], q[1], TIMEOUT);
+            AStarSolver<Long> altFarthest = new AStarSolver<>(graph, q[0], q[1], TIMEOUT, farthest);
+            AStarSolver<Long> altAvoid = new AStarSolver<>(graph, q[0], q[1], TIMEOUT, avoid);
+            BidirectionalAStarSolver<Long> bidirectional =
+                    new BidirectionalAStarSolver<>(graph, q[0], q[1], TIMEOUT);
+            ContractionHierarchySolver<Long> ch =
+                    new ContractionHierarchySolver<>(hierarchy, q[0], q[1], TIMEOUT);
+            report(i, "A*", astar, astar.numRelaxations());
+            report(i, "ALT farthest", altFarthest, altFarthest.numRelaxations());
+            report(i, "ALT avoid", altAvoid, altAvoid.numRelaxations());
+            report(i, "bidirectional", bidirectional, bidirectional.numRelaxations());
+            report(i, "CH", ch, ch.numRelaxations());
+            totalAStar += astar.numStatesExplored();
+            totalFarthest += altFarthest.numStatesExplored();
+            totalAvoid += altAvoid.numStatesExplored();
+            totalBidirectional += bidirectional.numStatesExplored();
+            totalHierarchy += ch.numStatesExplored();
+        }
+        System.out.println(String.format("ALT (farthest) explored %d states vs. %d for A* (%.1f%% fewer).",
+                totalFarthest, totalAStar, 100.0 * (totalAStar - totalFarthest) / totalAStar));
+        System.out.println(String.format("ALT (avoid) explored %d states vs. %d for A* (%.1f%% fewer).",
+                totalAvoid, totalAStar, 100.0 * (totalAStar - totalAvoid) / totalAStar));
+        System.out.println(String.format("Bidirectional A* explored %d states vs. %d for A* (%.1f%% fewer).",
+                totalBidirectional, totalAStar, 100.0 * (totalAStar - totalBidirectional) / totalAStar));
+        System.out.println(String.format("CH explored %d states vs. %d for A* (%.1f%% fewer).",
+                totalHierarchy, totalAStar, 100.0 * (totalAStar - totalHierarchy) / totalAStar));
+    }
+
+    private static void report(int query, String name, ShortestPathsSolver<Long> solver,
+                               long relaxations) {
+        System.out.println(String.format("%-6d %-14s %10d %12d %10.3f %12.6f", query, name,
+                solver.numStatesExplored(), relaxations, solver.explorationTime() * 1000,
+                solver.solutionWeight()));
+    }
+
+    /** Reads start/end coordinates from the params file and snaps them to vertices. */
+    private static long[][] queriesFromFile(AugmentedStreetMapGraph graph, String paramsPath)
+            throws Exception {
+        List<String> lines = Files.readAllLines(Paths.get(paramsPath), Charset.defaultCharset());
+        int numQueries = (lines.size() - 2) / 4; // ignore comment lines
+        long[][] queries = new long[numQueries][];
+        for (int i = 0, lineIdx = 2; i < numQueries; i++, lineIdx += 4) {
+            double startLon = Double.parseDouble(lines.get(lineIdx));
+            double startLat = Double.parseDouble(lines.get(lineIdx + 1));
+            double endLon = Double.parseDouble(lines.get(lineIdx + 2));
+            double endLat = Double.parseDouble(lines.get(lineIdx + 3));
+            queries[i] = new long[]{graph.closest(startLon, startLat), graph.closest(endLon, endLat)};
+        }
+        return queries;
+    }
+}
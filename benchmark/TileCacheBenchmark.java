@@ -0,0 +1,127 @@
+package bearmaps.benchmark;
+
+import bearmaps.proj2c.utils.Constants;
+import bearmaps.proj2c.utils.TileCache;
+
+import javax.imageio.ImageIO;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Measures reading tiles through a TileCache, as RasterAPIHandler does,
+ * against decoding every tile from its PNG. Clients pan a viewport of
+ * VIEW_WIDTH by VIEW_HEIGHT tiles around the middle of a grid of tiles,
+ * each step moving it by a tile or so and asking for every tile in it, on
+ * several threads at once. The tiles are generated, blocks and streets
+ * drawn in random colors, as the map's are not in the repository. Reports
+ * tiles per second, the hit rate and the evictions, for caches of a few
+ * sizes; a cache of 0 bytes keeps nothing, so it decodes every tile. The
+ * optional argument is the number of threads.
+ */
+public class TileCacheBenchmark {
+    private static final int GRID = 32;
+    private static final int VIEW_WIDTH = 6;
+    private static final int VIEW_HEIGHT = 4;
+    private static final int STEPS = 400;
+    private static final long[] CACHE_BYTES = {0, 8L << 20, Constants.TILE_CACHE_BYTES};
+
+    public static void main(String[] args) throws Exception {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+        File dir = Files.createTempDirectory("tiles").toFile();
+        Random random = new Random(23);
+        for (int x = 0; x < GRID; x++) {
+            for (int y = 0; y < GRID; y++) {
+                File tile = new File(dir, tileName(x, y));
+                tile.deleteOnExit();
+                ImageIO.write(drawTile(random), "png", tile);
+            }
+        }
+        dir.deleteOnExit();
+
+        System.out.println(String.format("%d threads, %d x %d tile views.", threads, VIEW_WIDTH, VIEW_HEIGHT));
+        System.out.println(String.format("%-10s %12s %9s %10s", "cache MB", "tiles/s", "hit rate", "evictions"));
+        for (long bytes : CACHE_BYTES) {
+            double best = 0;
+            TileCache.Stats stats = null;
+            for (int round = 0; round < 3; round++) {
+                TileCache cache = new TileCache(bytes, path -> ImageIO.read(new File(dir, path)));
+                ExecutorService pool = Executors.newFixedThreadPool(threads);
+                List<Future<Integer>> clients = new ArrayList<>();
+                long start = System.nanoTime();
+                for (int t = 0; t < threads; t++) {
+                    long seed = t;
+                    clients.add(pool.submit(() -> pan(cache, new Random(seed))));
+                }
+                int tiles = 0;
+                for (Future<Integer> client : clients) {
+                    tiles += client.get();
+                }
+                best = Math.max(best, tiles / ((System.nanoTime() - start) / 1e9));
+                pool.shutdown();
+                stats = cache.stats();
+            }
+            System.out.println(String.format("%-10d %12.0f %8.1f%% %10d", bytes >> 20, best,
+                    100 * stats.hitRate(), stats.evictions()));
+        }
+    }
+
+    /** Pans a view around the middle of the grid, reading its tiles from CACHE; returns the tiles read. */
+    private static int pan(TileCache cache, Random random) {
+        int x = (GRID - VIEW_WIDTH) / 2;
+        int y = (GRID - VIEW_HEIGHT) / 2;
+        int tiles = 0;
+        for (int step = 0; step < STEPS; step++) {
+            /* Drift back toward the middle, as users keep returning to the same area. */
+            x = clamp(x + random.nextInt(3) - 1 + Integer.signum(GRID / 2 - VIEW_WIDTH / 2 - x) * random.nextInt(2),
+                    GRID - VIEW_WIDTH);
+            y = clamp(y + random.nextInt(3) - 1 + Integer.signum(GRID / 2 - VIEW_HEIGHT / 2 - y) * random.nextInt(2),
+                    GRID - VIEW_HEIGHT);
+            for (int i = 0; i < VIEW_WIDTH; i++) {
+                for (int j = 0; j < VIEW_HEIGHT; j++) {
+                    if (cache.get(tileName(x + i, y + j)) != null) {
+                        tiles += 1;
+                    }
+                }
+            }
+        }
+        return tiles;
+    }
+
+    private static int clamp(int corner, int max) {
+        return Math.max(0, Math.min(max, corner));
+    }
+
+    private static String tileName(int x, int y) {
+        return "d5_x" + x + "_y" + y + ".png";
+    }
+
+    /** Draws a tile of blocks and streets. */
+    private static BufferedImage drawTile(Random random) {
+        BufferedImage tile = new BufferedImage(Constants.TILE_SIZE, Constants.TILE_SIZE,
+                BufferedImage.TYPE_3BYTE_BGR);
+        Graphics2D g = tile.createGraphics();
+        g.setColor(new Color(232, 228, 220));
+        g.fillRect(0, 0, Constants.TILE_SIZE, Constants.TILE_SIZE);
+        for (int i = 0; i < 40; i++) {
+            g.setColor(new Color(150 + random.nextInt(100), 150 + random.nextInt(100), 150 + random.nextInt(100)));
+            g.fillRect(random.nextInt(Constants.TILE_SIZE), random.nextInt(Constants.TILE_SIZE),
+                    10 + random.nextInt(40), 10 + random.nextInt(40));
+        }
+        g.setColor(Color.WHITE);
+        for (int i = 0; i < 12; i++) {
+            g.drawLine(random.nextInt(Constants.TILE_SIZE), random.nextInt(Constants.TILE_SIZE),
+                    random.nextInt(Constants.TILE_SIZE), random.nextInt(Constants.TILE_SIZE));
+        }
+        g.dispose();
+        return tile;
+    }
+}
@@ -0,0 +1,146 @@
+package bearmaps.benchmark;
+
+import bearmaps.hw4.streetmap.StreetMapGraph;
+import bearmaps.proj2ab.MyTrieSet;
+import bearmaps.proj2ab.PackedTrieSet;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Compares the trie AugmentedStreetMapGraph used to keep the cleaned names
+ * of a map in, MyTrieSet, with the one it keeps them in now, PackedTrieSet:
+ * heap used, build time, and time per keysWithPrefix for prefixes of one to
+ * three characters of random names, as autocomplete asks while a name is
+ * typed. The course maps have only a few dozen distinct names, so the map's
+ * are joined by generated ones, words of random syllables, about as many as
+ * a city has. Then times the ten most common names for one character
+ * prefixes, against all names with them, on tries of ten thousand to a
+ * million generated names. The optional arguments are the OSM file and the
+ * number of names to generate.
+ */
+public class TrieBenchmark {
+    private static final String OSM_DB_PATH = "../library-sp19/data/proj2c_xml/berkeley-2019.osm.xml";
+    private static final int DEFAULT_GENERATED = 50000;
+    private static final int NUM_PREFIXES = 3000;
+    private static final String[] SYLLABLES = {"ba", "ber", "ca", "del", "e", "fi", "gar", "ho", "in", "ka",
+        "lo", "ma", "mon", "na", "o", "pe", "ra", "san", "ta", "ton", "u", "ve", "wood", "y", "ze"};
+    private static final int ROUNDS = 5;
+    private static final int TOP_K = 10;
+    private static final int[] SCALING_SIZES = {10000, 100000, 1000000};
+
+    public static void main(String[] args) {
+        StreetMapGraph graph = StreetMapGraph.scanXML(args.length > 0 ? args[0] : OSM_DB_PATH);
+        int numGenerated = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_GENERATED;
+        List<String> names = new ArrayList<>();
+        for (int v = 0; v < graph.numVertices(); v++) {
+            String name = graph.name(graph.vertex(v));
+            if (name != null) {
+                String cleaned = name.replaceAll("[^a-zA-Z ]", "").toLowerCase();
+                if (!cleaned.isEmpty()) {
+                    names.add(cleaned);
+                }
+            }
+        }
+        Random random = new Random(19);
+        for (int i = 0; i < numGenerated; i++) {
+            names.add(generateName(random));
+        }
+        String[] prefixes = new String[NUM_PREFIXES];
+        for (int i = 0; i < NUM_PREFIXES; i++) {
+            String name = names.get(random.nextInt(names.size()));
+            prefixes[i] = name.substring(0, Math.min(name.length(), 1 + i % 3));
+        }
+
+        long before = usedHeap();
+        long start = System.nanoTime();
+        MyTrieSet old = new MyTrieSet();
+        for (String name : names) {
+            old.add(name);
+        }
+        double oldBuild = (System.nanoTime() - start) / 1e6;
+        double oldMegabytes = (usedHeap() - before) / 1e6;
+        before = usedHeap();
+        start = System.nanoTime();
+        PackedTrieSet packed = new PackedTrieSet();
+        for (String name : names) {
+            packed.add(name);
+        }
+        double packedBuild = (System.nanoTime() - start) / 1e6;
+        double packedMegabytes = (usedHeap() - before) / 1e6;
+
+        double oldMicros = Double.POSITIVE_INFINITY;
+        double packedMicros = Double.POSITIVE_INFINITY;
+        long sink = 0;
+        for (int round = 0; round < ROUNDS; round++) {
+            start = System.nanoTime();
+            for (String prefix : prefixes) {
+                sink += old.keysWithPrefix(prefix).size();
+            }
+            oldMicros = Math.min(oldMicros, (System.nanoTime() - start) / 1e3 / NUM_PREFIXES);
+            start = System.nanoTime();
+            for (String prefix : prefixes) {
+                sink += packed.keysWithPrefix(prefix).size();
+            }
+            packedMicros = Math.min(packedMicros, (System.nanoTime() - start) / 1e3 / NUM_PREFIXES);
+        }
+
+        System.out.println(String.format("%d names, %d distinct, %d trie nodes.", names.size(), packed.size(),
+                packed.numNodes()));
+        System.out.println(String.format("%-14s %9s %9s %12s", "", "heap MB", "build ms", "prefix us"));
+        System.out.println(String.format("%-14s %9.1f %9.1f %12.1f", "MyTrieSet", oldMegabytes, oldBuild, oldMicros));
+        System.out.println(String.format("%-14s %9.1f %9.1f %12.1f", "PackedTrieSet", packedMegabytes, packedBuild,
+                packedMicros));
+        System.out.println(String.format("(%d, %b)", sink % 10, old.contains(prefixes[0])));
+
+        System.out.println(String.format("%n%-10s %14s %14s", "names", "all us", "top " + TOP_K + " us"));
+        for (int size : SCALING_SIZES) {
+            PackedTrieSet trie = new PackedTrieSet();
+            for (int i = 0; i < size; i++) {
+                /* Mostly rare names, a few common ones. */
+                trie.add(generateName(random), Math.floor(1 / (1 - random.nextDouble())));
+            }
+            double allMicros = Double.POSITIVE_INFINITY;
+            double topMicros = Double.POSITIVE_INFINITY;
+            for (int round = 0; round < ROUNDS; round++) {
+                start = System.nanoTime();
+                for (String syllable : SYLLABLES) {
+                    sink += trie.keysWithPrefix(syllable.substring(0, 1)).size();
+                }
+                allMicros = Math.min(allMicros, (System.nanoTime() - start) / 1e3 / SYLLABLES.length);
+                start = System.nanoTime();
+                for (int i = 0; i < NUM_PREFIXES; i++) {
+                    String syllable = SYLLABLES[i % SYLLABLES.length];
+                    sink += trie.topKeysWithPrefix(syllable.substring(0, 1), TOP_K).size();
+                }
+                topMicros = Math.min(topMicros, (System.nanoTime() - start) / 1e3 / NUM_PREFIXES);
+            }
+            System.out.println(String.format("%-10d %14.1f %14.1f", trie.size(), allMicros, topMicros));
+        }
+        System.out.println(String.format("(%d)", sink % 10));
+    }
+
+    /** Returns a name of one to three words of one to four random syllables. */
+    private static String generateName(Random random) {
+        StringBuilder name = new StringBuilder();
+        int words = 1 + random.nextInt(3);
+        for (int w = 0; w < words; w++) {
+            name.append(w > 0 ? " " : "");
+            int syllables = 1 + random.nextInt(4);
+            for (int j = 0; j < syllables; j++) {
+                name.append(SYLLABLES[random.nextInt(SYLLABLES.length)]);
+            }
+        }
+        return name.toString();
+    }
+
+    /** Returns the bytes of heap in use, after asking for a garbage collection. */
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
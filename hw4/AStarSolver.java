@@ -0,0 +1,165 @@
+package bearmaps.hw4;
+
+import bearmaps.proj2ab.IntArrayHeapMinPQ;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A* shortest paths solver over an IndexedAStarGraph. All per-vertex state
+ * lives in primitive arrays indexed by dense vertex id, borrowed from a
+ * per-thread SearchSpace, so a query allocates nothing per expansion and
+ * does not pay to clear state left over from the previous query.
+ *
+ * Besides the ShortestPathsSolver statistics, the solver reports how many
+ * edges it relaxed and how large the fringe grew, to help see where each
+ * query spends its time.
+ */
+public class AStarSolver<Vertex> implements ShortestPathsSolver<Vertex> {
+    /* The timeout is only checked once every TIMEOUT_CHECK_INTERVAL expansions. */
+    private static final int TIMEOUT_CHECK_INTERVAL = 1024;
+
+    private final IndexedAStarGraph<Vertex> graph;
+    private final Heuristic heuristic;
+    private SolverOutcome outcome;
+    private List<Vertex> solution = new ArrayList<>();
+    private double solutionWeight = 0;
+    private int numStatesExplored = 0;
+    private long numRelaxations = 0;
+    private int maxFringeSize = 0;
+    private double explorationTime;
+
+    /* State of the search in progress, used by the edge visitor. */
+    private SearchSpace space;
+    private int goal;
+    private int current;
+    private final EdgeVisitor relaxer = this::relax;
+
+    /**
+     * Finds the shortest path from START to END in INPUT, giving up after
+     * TIMEOUT seconds. Uses the graph's own estimatedDistanceToGoal as the
+     * heuristic.
+     */
+    public AStarSolver(IndexedAStarGraph<Vertex> input, Vertex start, Vertex end, double timeout) {
+        this(input, start, end, timeout, input::estimatedDistanceToGoal);
+    }
+
+    /**
+     * Finds the shortest path from START to END in INPUT, guided by
+     * HEURISTIC, giving up after TIMEOUT seconds.
+     */
+    public AStarSolver(IndexedAStarGraph<Vertex> input, Vertex start, Vertex end, double timeout,
+                       Heuristic heuristic) {
+        graph = input;
+        this.heuristic = heuristic;
+        long startTime = System.nanoTime();
+        long deadline = startTime + (long) (timeout * 1e9);
+
+        int source = graph.indexOf(start);
+        goal = graph.indexOf(end);
+        if (source < 0 || goal < 0) {
+            outcome = SolverOutcome.UNSOLVABLE;
+            explorationTime = (System.nanoTime() - startTime) / 1e9;
+            return;
+        }
+
+        space = SearchSpace.forThread(0, graph.numVertices());
+        IntArrayHeapMinPQ fringe = space.fringe();
+        double h = heuristic.estimate(source, goal);
+        space.reach(source, 0, -1, h);
+        fringe.add(source, h);
+        maxFringeSize = 1;
+
+        outcome = SolverOutcome.UNSOLVABLE;
+        while (fringe.size() > 0) {
+            if (numStatesExplored % TIMEOUT_CHECK_INTERVAL == 0 && System.nanoTime() > deadline) {
+                outcome = SolverOutcome.TIMEOUT;
+                break;
+            }
+            current = fringe.removeSmallest();
+            numStatesExplored += 1;
+            if (current == goal) {
+                outcome = SolverOutcome.SOLVED;
+                break;
+            }
+            graph.forEachNeighbor(current, relaxer);
+            maxFringeSize = Math.max(maxFringeSize, fringe.size());
+        }
+
+        if (outcome == SolverOutcome.SOLVED) {
+            solutionWeight = space.distTo(goal);
+            solution = constructPath(goal);
+        }
+        space = null;
+        explorationTime = (System.nanoTime() - startTime) / 1e9;
+    }
+
+    /** Relaxes the edge from the vertex being expanded to TO. */
+    private void relax(int to, double weight) {
+        numRelaxations += 1;
+        double dist = space.distTo(current) + weight;
+        IntArrayHeapMinPQ fringe = space.fringe();
+        if (!space.reached(to)) {
+            double h = heuristic.estimate(to, goal);
+            space.reach(to, dist, current, h);
+            fringe.add(to, dist + h);
+        } else if (dist < space.distTo(to)) {
+            space.improve(to, dist, current);
+            if (fringe.contains(to)) {
+                fringe.changePriority(to, dist + space.heuristic(to));
+            } else {
+                /* Only possible with an inconsistent heuristic: reopen the vertex. */
+                fringe.add(to, dist + space.heuristic(to));
+            }
+        }
+    }
+
+    private List<Vertex> constructPath(int end) {
+        List<Vertex> path = new ArrayList<>();
+        for (int v = end; v != -1; v = space.edgeTo(v)) {
+            path.add(graph.vertex(v));
+        }
+        Collections.reverse(path);
+        return path;
+    }
+
+    @Override
+    public SolverOutcome outcome() {
+        return outcome;
+    }
+
+    /** Returns the path found, or an empty list if the outcome is not SOLVED. */
+    @Override
+    public List<Vertex> solution() {
+        return solution;
+    }
+
+    /** Returns the total weight of the path found, or 0 if the outcome is not SOLVED. */
+    @Override
+    public double solutionWeight() {
+        return solutionWeight;
+    }
+
+    /** Returns the number of vertices removed from the fringe. */
+    @Override
+    public int numStatesExplored() {
+        return numStatesExplored;
+    }
+
+    /** Returns the number of edges relaxed. */
+    public long numRelaxations() {
+        return numRelaxations;
+    }
+
+    /** Returns the largest number of vertices that were on the fringe at once. */
+    public int maxFringeSize() {
+        return maxFringeSize;
+    }
+
+    /** Returns the time spent searching, in seconds. */
+    @Override
+    public double explorationTime() {
+        return explorationTime;
+    }
+}
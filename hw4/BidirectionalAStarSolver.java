@@ -0,0 +1,216 @@
+package bearmaps.hw4;
+
+import bearmaps.proj2ab.IntArrayHeapMinPQ;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Bidirectional A* shortest paths solver over an IndexedAStarGraph. A forward
+ * search from the start and a backward search from the end run in
+ * alternation, always expanding the side whose fringe has the smaller key.
+ *
+ * Both searches use the average potential of Ikeda et al.:
+ * pf(v) = (h(v, end) - h(v, start)) / 2 forward and pb(v) = -pf(v) backward.
+ * These are consistent whenever h is, and since pf + pb = 0 the search can
+ * stop as soon as topForward + topBackward >= mu, where mu is the length of
+ * the best start-end path seen where the two searches met.
+ *
+ * The backward search follows outgoing edges, so this solver assumes every
+ * edge (v, w) has a reverse edge (w, v) of the same weight. That holds for
+ * StreetMapGraph, which adds every way segment in both directions.
+ */
+public class BidirectionalAStarSolver<Vertex> implements ShortestPathsSolver<Vertex> {
+    /* The timeout is only checked once every TIMEOUT_CHECK_INTERVAL expansions. */
+    private static final int TIMEOUT_CHECK_INTERVAL = 1024;
+
+    private final IndexedAStarGraph<Vertex> graph;
+    private SolverOutcome outcome;
+    private List<Vertex> solution = new ArrayList<>();
+    private double solutionWeight = 0;
+    private int numStatesExplored = 0;
+    private long numRelaxations = 0;
+    private int maxFringeSize = 0;
+    private double explorationTime;
+
+    /* State of the search in progress, used by the edge visitor. */
+    private int source;
+    private int target;
+    private SearchSpace forward;
+    private SearchSpace backward;
+    /* The side being expanded, and the other one. */
+    private SearchSpace expanding;
+    private SearchSpace opposite;
+    private int current;
+    private double mu = Double.POSITIVE_INFINITY;
+    private int meeting = -1;
+    private final EdgeVisitor relaxer = this::relax;
+
+    /**
+     * Finds the shortest path from START to END in INPUT, giving up after
+     * TIMEOUT seconds.
+     */
+    public BidirectionalAStarSolver(IndexedAStarGraph<Vertex> input, Vertex start, Vertex end,
+                                    double timeout) {
+        graph = input;
+        long startTime = System.nanoTime();
+        long deadline = startTime + (long) (timeout * 1e9);
+
+        source = graph.indexOf(start);
+        target = graph.indexOf(end);
+        if (source < 0 || target < 0) {
+            outcome = SolverOutcome.UNSOLVABLE;
+            explorationTime = (System.nanoTime() - startTime) / 1e9;
+            return;
+        }
+
+        forward = SearchSpace.forThread(0, graph.numVertices());
+        backward = SearchSpace.forThread(1, graph.numVertices());
+        IntArrayHeapMinPQ forwardFringe = forward.fringe();
+        IntArrayHeapMinPQ backwardFringe = backward.fringe();
+        double sourcePotential = forwardPotential(source);
+        forward.reach(source, 0, -1, sourcePotential);
+        forwardFringe.add(source, sourcePotential);
+        double targetPotential = -forwardPotential(target);
+        backward.reach(target, 0, -1, targetPotential);
+        backwardFringe.add(target, targetPotential);
+        if (source == target) {
+            mu = 0;
+            meeting = source;
+        }
+        maxFringeSize = 2;
+
+        outcome = SolverOutcome.UNSOLVABLE;
+        while (true) {
+            double topForward = forwardFringe.size() > 0
+                    ? forwardFringe.getSmallestPriority() : Double.POSITIVE_INFINITY;
+            double topBackward = backwardFringe.size() > 0
+                    ? backwardFringe.getSmallestPriority() : Double.POSITIVE_INFINITY;
+            /* Also true once either fringe is empty and the searches never met. */
+            if (topForward + topBackward >= mu) {
+                if (meeting >= 0) {
+                    outcome = SolverOutcome.SOLVED;
+                }
+                break;
+            }
+            if (numStatesExplored % TIMEOUT_CHECK_INTERVAL == 0 && System.nanoTime() > deadline) {
+                outcome = SolverOutcome.TIMEOUT;
+                break;
+            }
+
+            if (topForward <= topBackward) {
+                expanding = forward;
+                opposite = backward;
+            } else {
+                expanding = backward;
+                opposite = forward;
+            }
+            current = expanding.fringe().removeSmallest();
+            numStatesExplored += 1;
+            graph.forEachNeighbor(current, relaxer);
+            maxFringeSize = Math.max(maxFringeSize, forwardFringe.size() + backwardFringe.size());
+        }
+
+        if (outcome == SolverOutcome.SOLVED) {
+            solutionWeight = mu;
+            solution = constructPath();
+        }
+        forward = null;
+        backward = null;
+        expanding = null;
+        opposite = null;
+        explorationTime = (System.nanoTime() - startTime) / 1e9;
+    }
+
+    /** Returns the forward potential pf(v); the backward potential is its negation. */
+    private double forwardPotential(int v) {
+        return (graph.estimatedDistanceToGoal(v, target)
+                - graph.estimatedDistanceToGoal(v, source)) / 2;
+    }
+
+    /** Relaxes the edge from the vertex being expanded to TO, on the expanding side. */
+    private void relax(int to, double weight) {
+        numRelaxations += 1;
+        double dist = expanding.distTo(current) + weight;
+        IntArrayHeapMinPQ fringe = expanding.fringe();
+        if (!expanding.reached(to)) {
+            double potential = forwardPotential(to);
+            if (expanding == backward) {
+                potential = -potential;
+            }
+            expanding.reach(to, dist, current, potential);
+            fringe.add(to, dist + potential);
+        } else if (dist < expanding.distTo(to)) {
+            expanding.improve(to, dist, current);
+            if (fringe.contains(to)) {
+                fringe.changePriority(to, dist + expanding.heuristic(to));
+            } else {
+                /* Only possible with an inconsistent heuristic: reopen the vertex. */
+                fringe.add(to, dist + expanding.heuristic(to));
+            }
+        } else {
+            return;
+        }
+
+        if (opposite.reached(to)) {
+            double total = dist + opposite.distTo(to);
+            if (total < mu) {
+                mu = total;
+                meeting = to;
+            }
+        }
+    }
+
+    /** Joins the forward path to the meeting vertex with the backward path from it. */
+    private List<Vertex> constructPath() {
+        List<Vertex> path = new ArrayList<>();
+        for (int v = meeting; v != -1; v = forward.edgeTo(v)) {
+            path.add(graph.vertex(v));
+        }
+        Collections.reverse(path);
+        for (int v = backward.edgeTo(meeting); v != -1; v = backward.edgeTo(v)) {
+            path.add(graph.vertex(v));
+        }
+        return path;
+    }
+
+    @Override
+    public SolverOutcome outcome() {
+        return outcome;
+    }
+
+    /** Returns the path found, or an empty list if the outcome is not SOLVED. */
+    @Override
+    public List<Vertex> solution() {
+        return solution;
+    }
+
+    /** Returns the total weight of the path found, or 0 if the outcome is not SOLVED. */
+    @Override
+    public double solutionWeight() {
+        return solutionWeight;
+    }
+
+    /** Returns the number of vertices removed from either fringe. */
+    @Override
+    public int numStatesExplored() {
+        return numStatesExplored;
+    }
+
+    /** Returns the number of edges relaxed by both searches. */
+    public long numRelaxations() {
+        return numRelaxations;
+    }
+
+    /** Returns the largest number of vertices that were on the two fringes at once. */
+    public int maxFringeSize() {
+        return maxFringeSize;
+    }
+
+    /** Returns the time spent searching, in seconds. */
+    @Override
+    public double explorationTime() {
+        return explorationTime;
+    }
+}
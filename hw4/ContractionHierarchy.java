@@ -0,0 +1,498 @@
+package bearmaps.hw4;
+
+import bearmaps.proj2ab.IntArrayHeapMinPQ;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Contraction hierarchy over an IndexedAStarGraph. Preprocessing contracts
+ * the vertices one at a time, least important first, adding a shortcut
+ * u -> w through each contracted vertex v unless a witness search finds a
+ * path from u to w avoiding v that is no longer than u -> v -> w. Vertex
+ * importance is the edge difference (shortcuts added minus edges removed)
+ * plus the number of already contracted neighbors, which keeps the
+ * contraction spread evenly over the map. Priorities are updated lazily:
+ * a vertex's priority is recomputed when it reaches the front of the queue,
+ * and it is put back if it is no longer the smallest.
+ *
+ * Afterwards every edge, original or shortcut, is kept at its lower ranked
+ * endpoint: edges leading up to higher ranked vertices are used by the
+ * forward search of ContractionHierarchySolver, and edges coming down from
+ * higher ranked vertices are used by its backward search. Each shortcut
+ * remembers the vertex it bypasses, so paths can be unpacked back into
+ * original edges.
+ *
+ * A hierarchy can be written to a stream and read back for the same graph,
+ * so the preprocessing need not be repeated at every startup.
+ */
+public class ContractionHierarchy<Vertex> {
+    private static final int MAGIC = 0x43484831;
+    private static final int VERSION = 1;
+    /* Witness searches give up after settling this many vertices, adding a shortcut. */
+    private static final int WITNESS_SETTLE_LIMIT = 500;
+    /* Smaller limit used when only estimating how many shortcuts a contraction needs. */
+    private static final int SIMULATION_SETTLE_LIMIT = 50;
+    /* Middle vertex recorded for edges of the original graph. */
+    private static final int NO_MIDDLE = -1;
+
+    private final IndexedAStarGraph<Vertex> graph;
+    private final int[] rank;
+
+    /* Edges v -> w with rank[w] > rank[v], grouped by v. */
+    private final int[] upOffsets;
+    private final int[] upTargets;
+    private final double[] upWeights;
+    private final int[] upMiddles;
+
+    /* Edges w -> v with rank[w] > rank[v], grouped by v. */
+    private final int[] downOffsets;
+    private final int[] downSources;
+    private final double[] downWeights;
+    private final int[] downMiddles;
+
+    private ContractionHierarchy(IndexedAStarGraph<Vertex> graph, int[] rank,
+                                 int[] upOffsets, int[] upTargets, double[] upWeights,
+                                 int[] upMiddles, int[] downOffsets, int[] downSources,
+                                 double[] downWeights, int[] downMiddles) {
+        this.graph = graph;
+        this.rank = rank;
+        this.upOffsets = upOffsets;
+        this.upTargets = upTargets;
+        this.upWeights = upWeights;
+        this.upMiddles = upMiddles;
+        this.downOffsets = downOffsets;
+        this.downSources = downSources;
+        this.downWeights = downWeights;
+        this.downMiddles = downMiddles;
+    }
+
+    /** Preprocesses GRAPH into a contraction hierarchy. */
+    public static <Vertex> ContractionHierarchy<Vertex> build(IndexedAStarGraph<Vertex> graph) {
+        return new Contractor<>(graph).contractAll();
+    }
+
+    public IndexedAStarGraph<Vertex> graph() {
+        return graph;
+    }
+
+    /** Returns the position of V in the contraction order. */
+    public int rank(int v) {
+        return rank[v];
+    }
+
+    /** Returns the number of edges in the hierarchy, shortcuts included. */
+    public int numEdges() {
+        return upTargets.length + downSources.length;
+    }
+
+    /** Visits the edges leaving V towards higher ranked vertices. */
+    public void forEachUpward(int v, EdgeVisitor visitor) {
+        for (int e = upOffsets[v]; e < upOffsets[v + 1]; e++) {
+            visitor.visit(upTargets[e], upWeights[e]);
+        }
+    }
+
+    /**
+     * Visits the edges entering V from higher ranked vertices, passing the
+     * source of each edge to VISITOR.
+     */
+    public void forEachDownward(int v, EdgeVisitor visitor) {
+        for (int e = downOffsets[v]; e < downOffsets[v + 1]; e++) {
+            visitor.visit(downSources[e], downWeights[e]);
+        }
+    }
+
+    /**
+     * Appends to PATH the original vertices on the hierarchy edge FROM -> TO,
+     * excluding FROM and including TO.
+     */
+    void unpack(int from, int to, List<Integer> path) {
+        int middle;
+        if (rank[from] < rank[to]) {
+            middle = upMiddles[findEdge(upOffsets, upTargets, upWeights, from, to)];
+        } else {
+            middle = downMiddles[findEdge(downOffsets, downSources, downWeights, to, from)];
+        }
+        if (middle == NO_MIDDLE) {
+            path.add(to);
+        } else {
+            unpack(from, middle, path);
+            unpack(middle, to, path);
+        }
+    }
+
+    /** Returns the lightest edge stored at OWNER whose other endpoint is OTHER. */
+    private static int findEdge(int[] offsets, int[] others, double[] weights, int owner, int other) {
+        int best = -1;
+        for (int e = offsets[owner]; e < offsets[owner + 1]; e++) {
+            if (others[e] == other && (best < 0 || weights[e] < weights[best])) {
+                best = e;
+            }
+        }
+        if (best < 0) {
+            throw new IllegalStateException("No hierarchy edge between " + owner + " and " + other);
+        }
+        return best;
+    }
+
+    /** Writes this hierarchy to OUT in a compact binary form. */
+    public void write(OutputStream out) throws IOException {
+        DataOutputStream data = new DataOutputStream(out);
+        data.writeInt(MAGIC);
+        data.writeInt(VERSION);
+        data.writeLong(fingerprint(graph));
+        data.writeInt(rank.length);
+        writeInts(data, rank);
+        writeEdges(data, upOffsets, upTargets, upWeights, upMiddles);
+        writeEdges(data, downOffsets, downSources, downWeights, downMiddles);
+        data.flush();
+    }
+
+    /**
+     * Reads a hierarchy written by write. Throws an IOException if the stream
+     * is not a hierarchy or was built for a graph other than GRAPH.
+     */
+    public static <Vertex> ContractionHierarchy<Vertex> read(IndexedAStarGraph<Vertex> graph,
+                                                             InputStream in) throws IOException {
+        DataInputStream data = new DataInputStream(in);
+        if (data.readInt() != MAGIC || data.readInt() != VERSION) {
+            throw new IOException("Not a contraction hierarchy of a supported version.");
+        }
+        if (data.readLong() != fingerprint(graph) || data.readInt() != graph.numVertices()) {
+            throw new IOException("Contraction hierarchy was built for a different graph.");
+        }
+        int n = graph.numVertices();
+        int[] rank = readInts(data, n);
+        int[] upOffsets = readInts(data, n + 1);
+        int upCount = upOffsets[n];
+        int[] upTargets = readInts(data, upCount);
+        double[] upWeights = readDoubles(data, upCount);
+        int[] upMiddles = readInts(data, upCount);
+        int[] downOffsets = readInts(data, n + 1);
+        int downCount = downOffsets[n];
+        int[] downSources = readInts(data, downCount);
+        double[] downWeights = readDoubles(data, downCount);
+        int[] downMiddles = readInts(data, downCount);
+        return new ContractionHierarchy<>(graph, rank, upOffsets, upTargets, upWeights, upMiddles,
+                downOffsets, downSources, downWeights, downMiddles);
+    }
+
+    /** Hashes the vertices and edges of GRAPH, to tell whether a saved hierarchy still fits it. */
+    private static <Vertex> long fingerprint(IndexedAStarGraph<Vertex> graph) {
+        long[] hash = {graph.numVertices()};
+        for (int v = 0; v < graph.numVertices(); v++) {
+            hash[0] = hash[0] * 31 + graph.vertex(v).hashCode();
+            graph.forEachNeighbor(v, (to, weight) ->
+                    hash[0] = (hash[0] * 31 + to) * 31 + Double.doubleToLongBits(weight));
+        }
+        return hash[0];
+    }
+
+    private static void writeEdges(DataOutputStream data, int[] offsets, int[] others,
+                                   double[] weights, int[] middles) throws IOException {
+        writeInts(data, offsets);
+        writeInts(data, others);
+        for (double w : weights) {
+            data.writeDouble(w);
+        }
+        writeInts(data, middles);
+    }
+
+    private static void writeInts(DataOutputStream data, int[] values) throws IOException {
+        for (int value : values) {
+            data.writeInt(value);
+        }
+    }
+
+    private static int[] readInts(DataInputStream data, int count) throws IOException {
+        int[] values = new int[count];
+        for (int i = 0; i < count; i++) {
+            values[i] = data.readInt();
+        }
+        return values;
+    }
+
+    private static double[] readDoubles(DataInputStream data, int count) throws IOException {
+        double[] values = new double[count];
+        for (int i = 0; i < count; i++) {
+            values[i] = data.readDouble();
+        }
+        return values;
+    }
+
+    /** Mutable state used while contracting a graph. */
+    private static class Contractor<Vertex> {
+        /** An edge to or from OTHER, bypassing MIDDLE if it is a shortcut. */
+        private static class Arc {
+            final int other;
+            double weight;
+            int middle;
+
+            Arc(int other, double weight, int middle) {
+                this.other = other;
+                this.weight = weight;
+                this.middle = middle;
+            }
+        }
+
+        private final IndexedAStarGraph<Vertex> graph;
+        private final int n;
+        /* Arcs between vertices that are not yet contracted. */
+        private final List<List<Arc>> out = new ArrayList<>();
+        private final List<List<Arc>> in = new ArrayList<>();
+        /* Arcs frozen into the hierarchy when their lower endpoint was contracted. */
+        private final List<List<Arc>> up = new ArrayList<>();
+        private final List<List<Arc>> down = new ArrayList<>();
+        private final boolean[] contracted;
+        private final int[] contractedNeighbors;
+
+        /* Witness search state, reused between searches via generation stamps. */
+        private final double[] witnessDist;
+        private final int[] witnessStamp;
+        private int witnessGeneration = 0;
+        /* Vertices the current witness search is looking for are stamped in targetStamp. */
+        private final int[] targetStamp;
+        private final IntArrayHeapMinPQ witnessFringe;
+
+        Contractor(IndexedAStarGraph<Vertex> graph) {
+            this.graph = graph;
+            n = graph.numVertices();
+            contracted = new boolean[n];
+            contractedNeighbors = new int[n];
+            witnessDist = new double[n];
+            witnessStamp = new int[n];
+            targetStamp = new int[n];
+            witnessFringe = new IntArrayHeapMinPQ(n);
+            for (int v = 0; v < n; v++) {
+                out.add(new ArrayList<>());
+                in.add(new ArrayList<>());
+                up.add(new ArrayList<>());
+                down.add(new ArrayList<>());
+            }
+            for (int v = 0; v < n; v++) {
+                final int from = v;
+                graph.forEachNeighbor(v, (to, weight) -> {
+                    if (to != from) {
+                        addArc(from, to, weight, NO_MIDDLE);
+                    }
+                });
+            }
+        }
+
+        /** Adds the arc FROM -> TO, or lowers the weight of an existing heavier one. */
+        private void addArc(int from, int to, double weight, int middle) {
+            Arc existing = find(out.get(from), to);
+            if (existing == null) {
+                out.get(from).add(new Arc(to, weight, middle));
+                in.get(to).add(new Arc(from, weight, middle));
+            } else if (weight < existing.weight) {
+                existing.weight = weight;
+                existing.middle = middle;
+                Arc reverse = find(in.get(to), from);
+                reverse.weight = weight;
+                reverse.middle = middle;
+            }
+        }
+
+        private static Arc find(List<Arc> arcs, int other) {
+            for (Arc arc : arcs) {
+                if (arc.other == other) {
+                    return arc;
+                }
+            }
+            return null;
+        }
+
+        ContractionHierarchy<Vertex> contractAll() {
+            IntArrayHeapMinPQ order = new IntArrayHeapMinPQ(n);
+            for (int v = 0; v < n; v++) {
+                order.add(v, priority(v));
+            }
+
+            int[] rank = new int[n];
+            int nextRank = 0;
+            while (order.size() > 0) {
+                int v = order.removeSmallest();
+                /* Lazy update: if v's priority went up, put it back and try the next one. */
+                double current = priority(v);
+                if (order.size() > 0 && current > order.getSmallestPriority()) {
+                    order.add(v, current);
+                    continue;
+                }
+                rank[v] = nextRank;
+                nextRank += 1;
+                contract(v);
+            }
+            return freeze(rank);
+        }
+
+        /** Returns the edge difference of contracting V plus its contracted neighbor count. */
+        private double priority(int v) {
+            int shortcuts = addShortcuts(v, false);
+            int removed = out.get(v).size() + in.get(v).size();
+            return shortcuts - removed + contractedNeighbors[v];
+        }
+
+        /** Moves V's arcs into the hierarchy, adds its shortcuts and removes V from the graph. */
+        private void contract(int v) {
+            addShortcuts(v, true);
+            contracted[v] = true;
+            for (Arc arc : out.get(v)) {
+                up.get(v).add(arc);
+                removeArc(in.get(arc.other), v);
+                contractedNeighbors[arc.other] += 1;
+            }
+            for (Arc arc : in.get(v)) {
+                down.get(v).add(arc);
+                removeArc(out.get(arc.other), v);
+                contractedNeighbors[arc.other] += 1;
+            }
+            out.get(v).clear();
+            in.get(v).clear();
+        }
+
+        private static void removeArc(List<Arc> arcs, int other) {
+            for (int i = 0; i < arcs.size(); i++) {
+                if (arcs.get(i).other == other) {
+                    arcs.set(i, arcs.get(arcs.size() - 1));
+                    arcs.remove(arcs.size() - 1);
+                    return;
+                }
+            }
+        }
+
+        /**
+         * Counts the shortcuts needed to contract V, adding them if APPLY is true.
+         * A shortcut u -> w is needed unless a witness path from u to w avoiding V
+         * is at most as long as u -> V -> w.
+         */
+        private int addShortcuts(int v, boolean apply) {
+            int shortcuts = 0;
+            List<Arc> incoming = in.get(v);
+            List<Arc> outgoing = out.get(v);
+            for (int i = 0; i < incoming.size(); i++) {
+                Arc fromArc = incoming.get(i);
+                int u = fromArc.other;
+                double maxDist = -1;
+                for (Arc toArc : outgoing) {
+                    if (toArc.other != u) {
+                        maxDist = Math.max(maxDist, fromArc.weight + toArc.weight);
+                    }
+                }
+                if (maxDist < 0) {
+                    continue;
+                }
+                witnessGeneration += 1;
+                int targets = 0;
+                for (Arc toArc : outgoing) {
+                    if (toArc.other != u) {
+                        targetStamp[toArc.other] = witnessGeneration;
+                        targets += 1;
+                    }
+                }
+                witnessSearch(u, v, maxDist, targets,
+                        apply ? WITNESS_SETTLE_LIMIT : SIMULATION_SETTLE_LIMIT);
+                for (int j = 0; j < outgoing.size(); j++) {
+                    Arc toArc = outgoing.get(j);
+                    int w = toArc.other;
+                    double via = fromArc.weight + toArc.weight;
+                    if (w == u || witnessDistTo(w) <= via) {
+                        continue;
+                    }
+                    shortcuts += 1;
+                    if (apply) {
+                        addArc(u, w, via, v);
+                    }
+                }
+            }
+            return shortcuts;
+        }
+
+        /**
+         * Runs Dijkstra from SOURCE avoiding EXCLUDED, until it passes distance
+         * MAXDIST, settles all TARGETS stamped vertices or settles SETTLELIMIT
+         * vertices. Must be called right after stamping the targets.
+         */
+        private void witnessSearch(int source, int excluded, double maxDist, int targets,
+                                   int settleLimit) {
+            witnessFringe.clear();
+            witnessStamp[source] = witnessGeneration;
+            witnessDist[source] = 0;
+            witnessFringe.add(source, 0);
+            int settled = 0;
+            while (witnessFringe.size() > 0 && settled < settleLimit && targets > 0) {
+                if (witnessFringe.getSmallestPriority() > maxDist) {
+                    break;
+                }
+                int v = witnessFringe.removeSmallest();
+                settled += 1;
+                if (targetStamp[v] == witnessGeneration) {
+                    targets -= 1;
+                }
+                for (Arc arc : out.get(v)) {
+                    int w = arc.other;
+                    if (w == excluded) {
+                        continue;
+                    }
+                    double dist = witnessDist[v] + arc.weight;
+                    if (witnessStamp[w] != witnessGeneration) {
+                        witnessStamp[w] = witnessGeneration;
+                        witnessDist[w] = dist;
+                        witnessFringe.add(w, dist);
+                    } else if (dist < witnessDist[w]) {
+                        witnessDist[w] = dist;
+                        if (witnessFringe.contains(w)) {
+                            witnessFringe.changePriority(w, dist);
+                        }
+                    }
+                }
+            }
+        }
+
+        private double witnessDistTo(int v) {
+            return witnessStamp[v] == witnessGeneration ? witnessDist[v] : Double.POSITIVE_INFINITY;
+        }
+
+        /** Packs the up and down arcs into CSR arrays. */
+        private ContractionHierarchy<Vertex> freeze(int[] rank) {
+            int[] upOffsets = offsets(up);
+            int[] downOffsets = offsets(down);
+            int[] upTargets = new int[upOffsets[n]];
+            double[] upWeights = new double[upOffsets[n]];
+            int[] upMiddles = new int[upOffsets[n]];
+            int[] downSources = new int[downOffsets[n]];
+            double[] downWeights = new double[downOffsets[n]];
+            int[] downMiddles = new int[downOffsets[n]];
+            for (int v = 0; v < n; v++) {
+                fill(up.get(v), upOffsets[v], upTargets, upWeights, upMiddles);
+                fill(down.get(v), downOffsets[v], downSources, downWeights, downMiddles);
+            }
+            return new ContractionHierarchy<>(graph, rank, upOffsets, upTargets, upWeights,
+                    upMiddles, downOffsets, downSources, downWeights, downMiddles);
+        }
+
+        private int[] offsets(List<List<Arc>> arcs) {
+            int[] offsets = new int[n + 1];
+            for (int v = 0; v < n; v++) {
+                offsets[v + 1] = offsets[v] + arcs.get(v).size();
+            }
+            return offsets;
+        }
+
+        private static void fill(List<Arc> arcs, int start, int[] others, double[] weights,
+                                 int[] middles) {
+            for (int i = 0; i < arcs.size(); i++) {
+                Arc arc = arcs.get(i);
+                others[start + i] = arc.other;
+                weights[start + i] = arc.weight;
+                middles[start + i] = arc.middle;
+            }
+        }
+    }
+}
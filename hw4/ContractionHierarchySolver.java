@@ -0,0 +1,202 @@
+package bearmaps.hw4;
+
+import bearmaps.proj2ab.IntArrayHeapMinPQ;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Shortest paths solver that queries a ContractionHierarchy. A forward
+ * Dijkstra search from the start only follows edges up to higher ranked
+ * vertices, and a backward search from the end only follows edges coming
+ * down from higher ranked vertices, so both stay within a small part of the
+ * graph. A side stops once its smallest key is at least mu, the length of the
+ * best path found where the two searches met. The path is then unpacked
+ * from shortcuts back into vertices of the original graph.
+ */
+public class ContractionHierarchySolver<Vertex> implements ShortestPathsSolver<Vertex> {
+    /* The timeout is only checked once every TIMEOUT_CHECK_INTERVAL expansions. */
+    private static final int TIMEOUT_CHECK_INTERVAL = 1024;
+
+    private final ContractionHierarchy<Vertex> hierarchy;
+    private SolverOutcome outcome;
+    private List<Vertex> solution = new ArrayList<>();
+    private double solutionWeight = 0;
+    private int numStatesExplored = 0;
+    private long numRelaxations = 0;
+    private int maxFringeSize = 0;
+    private double explorationTime;
+
+    /* State of the search in progress, used by the edge visitor. */
+    private SearchSpace forward;
+    private SearchSpace backward;
+    /* The side being expanded, and the other one. */
+    private SearchSpace expanding;
+    private SearchSpace opposite;
+    private int current;
+    private double mu = Double.POSITIVE_INFINITY;
+    private int meeting = -1;
+    private final EdgeVisitor relaxer = this::relax;
+
+    /**
+     * Finds the shortest path from START to END in the graph of HIERARCHY,
+     * giving up after TIMEOUT seconds.
+     */
+    public ContractionHierarchySolver(ContractionHierarchy<Vertex> hierarchy, Vertex start,
+                                      Vertex end, double timeout) {
+        this.hierarchy = hierarchy;
+        IndexedAStarGraph<Vertex> graph = hierarchy.graph();
+        long startTime = System.nanoTime();
+        long deadline = startTime + (long) (timeout * 1e9);
+
+        int source = graph.indexOf(start);
+        int target = graph.indexOf(end);
+        if (source < 0 || target < 0) {
+            outcome = SolverOutcome.UNSOLVABLE;
+            explorationTime = (System.nanoTime() - startTime) / 1e9;
+            return;
+        }
+
+        forward = SearchSpace.forThread(0, graph.numVertices());
+        backward = SearchSpace.forThread(1, graph.numVertices());
+        IntArrayHeapMinPQ forwardFringe = forward.fringe();
+        IntArrayHeapMinPQ backwardFringe = backward.fringe();
+        forward.reach(source, 0, -1, 0);
+        forwardFringe.add(source, 0);
+        backward.reach(target, 0, -1, 0);
+        backwardFringe.add(target, 0);
+        if (source == target) {
+            mu = 0;
+            meeting = source;
+        }
+        maxFringeSize = 2;
+
+        outcome = SolverOutcome.UNSOLVABLE;
+        while (true) {
+            double topForward = forwardFringe.size() > 0
+                    ? forwardFringe.getSmallestPriority() : Double.POSITIVE_INFINITY;
+            double topBackward = backwardFringe.size() > 0
+                    ? backwardFringe.getSmallestPriority() : Double.POSITIVE_INFINITY;
+            if (topForward >= mu && topBackward >= mu) {
+                if (meeting >= 0) {
+                    outcome = SolverOutcome.SOLVED;
+                }
+                break;
+            }
+            if (numStatesExplored % TIMEOUT_CHECK_INTERVAL == 0 && System.nanoTime() > deadline) {
+                outcome = SolverOutcome.TIMEOUT;
+                break;
+            }
+
+            numStatesExplored += 1;
+            if (topForward <= topBackward) {
+                expanding = forward;
+                opposite = backward;
+                current = forwardFringe.removeSmallest();
+                hierarchy.forEachUpward(current, relaxer);
+            } else {
+                expanding = backward;
+                opposite = forward;
+                current = backwardFringe.removeSmallest();
+                hierarchy.forEachDownward(current, relaxer);
+            }
+            maxFringeSize = Math.max(maxFringeSize, forwardFringe.size() + backwardFringe.size());
+        }
+
+        if (outcome == SolverOutcome.SOLVED) {
+            solutionWeight = mu;
+            solution = constructPath(graph);
+        }
+        forward = null;
+        backward = null;
+        expanding = null;
+        opposite = null;
+        explorationTime = (System.nanoTime() - startTime) / 1e9;
+    }
+
+    /** Relaxes the hierarchy edge between the vertex being expanded and TO. */
+    private void relax(int to, double weight) {
+        numRelaxations += 1;
+        double dist = expanding.distTo(current) + weight;
+        IntArrayHeapMinPQ fringe = expanding.fringe();
+        if (!expanding.reached(to)) {
+            expanding.reach(to, dist, current, 0);
+            fringe.add(to, dist);
+        } else if (dist < expanding.distTo(to)) {
+            expanding.improve(to, dist, current);
+            fringe.changePriority(to, dist);
+        } else {
+            return;
+        }
+
+        if (opposite.reached(to)) {
+            double total = dist + opposite.distTo(to);
+            if (total < mu) {
+                mu = total;
+                meeting = to;
+            }
+        }
+    }
+
+    /** Unpacks the up path to the meeting vertex and the down path from it. */
+    private List<Vertex> constructPath(IndexedAStarGraph<Vertex> graph) {
+        List<Integer> upPath = new ArrayList<>();
+        for (int v = meeting; v != -1; v = forward.edgeTo(v)) {
+            upPath.add(v);
+        }
+
+        List<Integer> path = new ArrayList<>();
+        path.add(upPath.get(upPath.size() - 1));
+        for (int i = upPath.size() - 1; i > 0; i--) {
+            hierarchy.unpack(upPath.get(i), upPath.get(i - 1), path);
+        }
+        for (int v = meeting, next = backward.edgeTo(v); next != -1; v = next, next = backward.edgeTo(v)) {
+            hierarchy.unpack(v, next, path);
+        }
+
+        List<Vertex> vertices = new ArrayList<>(path.size());
+        for (int v : path) {
+            vertices.add(graph.vertex(v));
+        }
+        return vertices;
+    }
+
+    @Override
+    public SolverOutcome outcome() {
+        return outcome;
+    }
+
+    /** Returns the path found, or an empty list if the outcome is not SOLVED. */
+    @Override
+    public List<Vertex> solution() {
+        return solution;
+    }
+
+    /** Returns the total weight of the path found, or 0 if the outcome is not SOLVED. */
+    @Override
+    public double solutionWeight() {
+        return solutionWeight;
+    }
+
+    /** Returns the number of vertices removed from either fringe. */
+    @Override
+    public int numStatesExplored() {
+        return numStatesExplored;
+    }
+
+    /** Returns the number of hierarchy edges relaxed by both searches. */
+    public long numRelaxations() {
+        return numRelaxations;
+    }
+
+    /** Returns the largest number of vertices that were on the two fringes at once. */
+    public int maxFringeSize() {
+        return maxFringeSize;
+    }
+
+    /** Returns the time spent searching, in seconds. */
+    @Override
+    public double explorationTime() {
+        return explorationTime;
+    }
+}
@@ -0,0 +1,10 @@
+package bearmaps.hw4;
+
+/**
+ * Callback that receives the outgoing edges of a vertex one at a time, in
+ * terms of dense vertex indices. Lets a solver walk the neighbors of a vertex
+ * without a list or iterator being allocated for every expansion.
+ */
+public interface EdgeVisitor {
+    void visit(int to, double weight);
+}
@@ -0,0 +1,10 @@
+package bearmaps.hw4;
+
+/**
+ * Lower bound on the shortest path distance from the vertex with index V to
+ * the vertex with index GOAL, used to guide A*. Must never overestimate, and
+ * should be consistent for A* to avoid reopening vertices.
+ */
+public interface Heuristic {
+    double estimate(int v, int goal);
+}
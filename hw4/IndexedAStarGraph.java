@@ -0,0 +1,20 @@
+package bearmaps.hw4;
+
+/**
+ * An AStarGraph whose vertices are also numbered densely from 0 to
+ * numVertices() - 1. Solvers can use the index-based methods to keep
+ * per-vertex state in primitive arrays and to visit neighbors without
+ * allocating anything per expansion.
+ */
+public interface IndexedAStarGraph<Vertex> extends AStarGraph<Vertex> {
+    /* Returns the number of vertices. */
+    int numVertices();
+    /* Returns the index of V, or -1 if V is not in the graph. */
+    int indexOf(Vertex v);
+    /* Returns the vertex with the given index. */
+    Vertex vertex(int index);
+    /* Calls VISITOR once for each outgoing edge of the vertex with index V. */
+    void forEachNeighbor(int v, EdgeVisitor visitor);
+    /* Index-based version of estimatedDistanceToGoal. */
+    double estimatedDistanceToGoal(int s, int goal);
+}
@@ -0,0 +1,373 @@
+package bearmaps.hw4;
+
+import bearmaps.proj2ab.IntArrayHeapMinPQ;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * ALT (A*, landmarks and the triangle inequality) heuristic over an
+ * IndexedAStarGraph. A handful of landmark vertices are chosen up front,
+ * and the shortest distances from every landmark to every vertex and from
+ * every vertex to every landmark are computed with Dijkstra's algorithm.
+ * For any landmark L, the triangle inequality gives two lower bounds on the
+ * distance from v to t:
+ *
+ *   d(L, t) - d(L, v)   and   d(v, L) - d(t, L)
+ *
+ * and the estimate is the largest of these over all landmarks, or the
+ * graph's own estimatedDistanceToGoal if that is larger. Each bound is
+ * consistent, so their maximum is too.
+ *
+ * Distances are stored as floats, vertex-major (the K distances of a vertex
+ * are adjacent), to halve the memory of doubles and keep every lookup of a
+ * heuristic evaluation on one or two cache lines. Rounding to float can
+ * make a bound overshoot by up to half an ulp of each distance, so every
+ * landmark bound is lowered by a fixed slack of a few ulps of the largest
+ * distance stored, which keeps the estimate admissible.
+ */
+public class LandmarkHeuristic<Vertex> implements Heuristic {
+    /** How landmarks are chosen. */
+    public enum Selection {
+        /**
+         * Each landmark is the vertex farthest from the landmarks chosen so
+         * far; the first is the vertex farthest from a random vertex.
+         */
+        FARTHEST,
+        /**
+         * Goldberg and Werneck's avoid selection: grow a shortest path tree
+         * from a random root, weight each vertex by how much the current
+         * landmarks underestimate its distance from the root, and pick a
+         * leaf below the heaviest subtree that contains no landmark.
+         */
+        AVOID
+    }
+
+    private static final long SEED = 2019;
+    /* Number of ulps of the largest stored distance subtracted from each bound. */
+    private static final int ULP_SLACK = 4;
+
+    private final IndexedAStarGraph<Vertex> graph;
+    private final int[] landmarks;
+    /* fromLandmark[v * K + k] = d(landmark k, v); toLandmark[v * K + k] = d(v, landmark k). */
+    private final float[] fromLandmark;
+    private final float[] toLandmark;
+    private final double slack;
+
+    private LandmarkHeuristic(IndexedAStarGraph<Vertex> graph, int[] landmarks,
+                              float[] fromLandmark, float[] toLandmark, double slack) {
+        this.graph = graph;
+        this.landmarks = landmarks;
+        this.fromLandmark = fromLandmark;
+        this.toLandmark = toLandmark;
+        this.slack = slack;
+    }
+
+    /**
+     * Chooses up to NUMLANDMARKS landmarks in GRAPH using SELECTION and
+     * precomputes the distances to and from each of them. Fewer landmarks
+     * are used if the graph has fewer vertices.
+     */
+    public static <Vertex> LandmarkHeuristic<Vertex> build(IndexedAStarGraph<Vertex> graph,
+                                                           int numLandmarks, Selection selection) {
+        if (numLandmarks < 1) {
+            throw new IllegalArgumentException("At least one landmark is needed.");
+        }
+        return new Builder<>(graph, Math.min(numLandmarks, graph.numVertices()), selection).build();
+    }
+
+    public IndexedAStarGraph<Vertex> graph() {
+        return graph;
+    }
+
+    /** Returns the number of landmarks. */
+    public int numLandmarks() {
+        return landmarks.length;
+    }
+
+    /** Returns the I-th landmark. */
+    public Vertex landmark(int i) {
+        return graph.vertex(landmarks[i]);
+    }
+
+    @Override
+    public double estimate(int v, int goal) {
+        double best = graph.estimatedDistanceToGoal(v, goal);
+        int k = landmarks.length;
+        int vBase = v * k;
+        int goalBase = goal * k;
+        for (int i = 0; i < k; i++) {
+            /* Infinite distances mean the landmark is in another component: no bound. */
+            float fromV = fromLandmark[vBase + i];
+            float fromGoal = fromLandmark[goalBase + i];
+            if (fromV != Float.POSITIVE_INFINITY && fromGoal != Float.POSITIVE_INFINITY) {
+                best = Math.max(best, (double) fromGoal - fromV - slack);
+            }
+            float toV = toLandmark[vBase + i];
+            float toGoal = toLandmark[goalBase + i];
+            if (toV != Float.POSITIVE_INFINITY && toGoal != Float.POSITIVE_INFINITY) {
+                best = Math.max(best, (double) toV - toGoal - slack);
+            }
+        }
+        return best;
+    }
+
+    /** Chooses the landmarks and fills in the distance tables. */
+    private static class Builder<Vertex> {
+        private final IndexedAStarGraph<Vertex> graph;
+        private final int n;
+        private final int k;
+        private final Selection selection;
+        private final Random random = new Random(SEED);
+
+        /* Reverse adjacency in CSR form, for the searches towards a landmark. */
+        private final int[] inOffsets;
+        private final int[] inSources;
+        private final double[] inWeights;
+
+        private final float[] fromLandmark;
+        private final float[] toLandmark;
+        private final int[] landmarks;
+        private int numChosen = 0;
+        private float maxDistance = 0;
+
+        /* Dijkstra state, reused by every search. */
+        private final double[] dist;
+        private final int[] parent;
+        private final int[] settleOrder;
+        private int numSettled;
+        private final IntArrayHeapMinPQ fringe;
+        private int current;
+        private final EdgeVisitor relaxer = this::relax;
+
+        Builder(IndexedAStarGraph<Vertex> graph, int k, Selection selection) {
+            this.graph = graph;
+            this.n = graph.numVertices();
+            this.k = k;
+            this.selection = selection;
+            fromLandmark = new float[n * k];
+            toLandmark = new float[n * k];
+            landmarks = new int[k];
+            dist = new double[n];
+            parent = new int[n];
+            settleOrder = new int[n];
+            fringe = new IntArrayHeapMinPQ(Math.max(n, 1));
+
+            inOffsets = new int[n + 1];
+            for (int v = 0; v < n; v++) {
+                graph.forEachNeighbor(v, (to, weight) -> inOffsets[to + 1] += 1);
+            }
+            for (int v = 0; v < n; v++) {
+                inOffsets[v + 1] += inOffsets[v];
+            }
+            inSources = new int[inOffsets[n]];
+            inWeights = new double[inOffsets[n]];
+            int[] next = Arrays.copyOf(inOffsets, n);
+            for (int v = 0; v < n; v++) {
+                final int from = v;
+                graph.forEachNeighbor(v, (to, weight) -> {
+                    inSources[next[to]] = from;
+                    inWeights[next[to]] = weight;
+                    next[to] += 1;
+                });
+            }
+        }
+
+        LandmarkHeuristic<Vertex> build() {
+            while (numChosen < k) {
+                int landmark = selection == Selection.FARTHEST ? farthest() : avoid();
+                if (landmark < 0) {
+                    break;
+                }
+                addLandmark(landmark);
+            }
+            int[] chosen = Arrays.copyOf(landmarks, numChosen);
+            float[] from = fromLandmark;
+            float[] to = toLandmark;
+            if (numChosen < k) {
+                from = compact(fromLandmark);
+                to = compact(toLandmark);
+            }
+            double slack = ULP_SLACK * (double) Math.ulp(maxDistance);
+            return new LandmarkHeuristic<>(graph, chosen, from, to, slack);
+        }
+
+        /** Records the distances from and to LANDMARK as landmark number numChosen. */
+        private void addLandmark(int landmark) {
+            landmarks[numChosen] = landmark;
+            dijkstra(landmark, false);
+            store(fromLandmark);
+            dijkstra(landmark, true);
+            store(toLandmark);
+            numChosen += 1;
+        }
+
+        private void store(float[] table) {
+            for (int v = 0; v < n; v++) {
+                float d = (float) dist[v];
+                table[v * k + numChosen] = d;
+                if (d != Float.POSITIVE_INFINITY) {
+                    maxDistance = Math.max(maxDistance, d);
+                }
+            }
+        }
+
+        /** Drops the unused columns when fewer than k landmarks could be chosen. */
+        private float[] compact(float[] table) {
+            float[] result = new float[n * numChosen];
+            for (int v = 0; v < n; v++) {
+                System.arraycopy(table, v * k, result, v * numChosen, numChosen);
+            }
+            return result;
+        }
+
+        /**
+         * Returns the vertex farthest from the landmarks chosen so far, or from
+         * a random vertex if there are none yet. Returns -1 if every vertex
+         * reachable that way is already a landmark.
+         */
+        private int farthest() {
+            double[] closest = new double[n];
+            if (numChosen == 0) {
+                dijkstra(randomRoot(), false);
+                System.arraycopy(dist, 0, closest, 0, n);
+            } else {
+                Arrays.fill(closest, Double.POSITIVE_INFINITY);
+                for (int v = 0; v < n; v++) {
+                    for (int i = 0; i < numChosen; i++) {
+                        closest[v] = Math.min(closest[v], fromLandmark[v * k + i]);
+                    }
+                }
+            }
+            int best = -1;
+            for (int v = 0; v < n; v++) {
+                if (closest[v] != Double.POSITIVE_INFINITY && closest[v] > 0
+                        && (best < 0 || closest[v] > closest[best])) {
+                    best = v;
+                }
+            }
+            return best;
+        }
+
+        /** Returns the next landmark under avoid selection, or -1 if there is none. */
+        private int avoid() {
+            int root = randomRoot();
+            dijkstra(root, false);
+
+            /* Weight of v: how much the current landmarks underestimate d(root, v). */
+            double[] size = new double[n];
+            boolean[] hasLandmark = new boolean[n];
+            int[] heaviestChild = new int[n];
+            Arrays.fill(heaviestChild, -1);
+            for (int i = 0; i < numChosen; i++) {
+                hasLandmark[landmarks[i]] = true;
+            }
+            /* Children settle after their parents, so walk the settle order backwards. */
+            for (int i = numSettled - 1; i >= 0; i--) {
+                int v = settleOrder[i];
+                if (hasLandmark[v]) {
+                    size[v] = 0;
+                } else {
+                    size[v] += dist[v] - lowerBound(root, v);
+                }
+                int p = parent[v];
+                if (p >= 0) {
+                    hasLandmark[p] |= hasLandmark[v];
+                    size[p] += size[v];
+                    if (heaviestChild[p] < 0 || size[v] > size[heaviestChild[p]]) {
+                        heaviestChild[p] = v;
+                    }
+                }
+            }
+            int heaviest = -1;
+            for (int i = 0; i < numSettled; i++) {
+                int v = settleOrder[i];
+                if (size[v] > 0 && (heaviest < 0 || size[v] > size[heaviest])) {
+                    heaviest = v;
+                }
+            }
+            if (heaviest < 0) {
+                return numChosen == 0 ? farthest() : -1;
+            }
+            int leaf = heaviest;
+            while (heaviestChild[leaf] >= 0) {
+                leaf = heaviestChild[leaf];
+            }
+            return leaf;
+        }
+
+        /** Returns the current landmark lower bound on d(s, t). */
+        private double lowerBound(int s, int t) {
+            double best = 0;
+            for (int i = 0; i < numChosen; i++) {
+                float fromS = fromLandmark[s * k + i];
+                float fromT = fromLandmark[t * k + i];
+                if (fromS != Float.POSITIVE_INFINITY && fromT != Float.POSITIVE_INFINITY) {
+                    best = Math.max(best, fromT - fromS);
+                }
+                float toS = toLandmark[s * k + i];
+                float toT = toLandmark[t * k + i];
+                if (toS != Float.POSITIVE_INFINITY && toT != Float.POSITIVE_INFINITY) {
+                    best = Math.max(best, toS - toT);
+                }
+            }
+            return best;
+        }
+
+        /**
+         * Returns a random vertex with at least one edge, so that searches from
+         * it reach the road network rather than an isolated named place.
+         */
+        private int randomRoot() {
+            int[] degree = new int[1];
+            for (int attempt = 0; attempt < 64; attempt++) {
+                int v = random.nextInt(n);
+                degree[0] = 0;
+                graph.forEachNeighbor(v, (to, weight) -> degree[0] += 1);
+                if (degree[0] > 0) {
+                    return v;
+                }
+            }
+            return random.nextInt(n);
+        }
+
+        /**
+         * Runs Dijkstra's algorithm from SOURCE over the whole graph, following
+         * edges backwards if REVERSE is set, leaving the distances in dist, the
+         * shortest path tree in parent and the vertices in settle order.
+         */
+        private void dijkstra(int source, boolean reverse) {
+            Arrays.fill(dist, Double.POSITIVE_INFINITY);
+            Arrays.fill(parent, -1);
+            numSettled = 0;
+            fringe.clear();
+            dist[source] = 0;
+            fringe.add(source, 0);
+            while (fringe.size() > 0) {
+                current = fringe.removeSmallest();
+                settleOrder[numSettled] = current;
+                numSettled += 1;
+                if (reverse) {
+                    for (int e = inOffsets[current]; e < inOffsets[current + 1]; e++) {
+                        relax(inSources[e], inWeights[e]);
+                    }
+                } else {
+                    graph.forEachNeighbor(current, relaxer);
+                }
+            }
+        }
+
+        private void relax(int to, double weight) {
+            double d = dist[current] + weight;
+            if (d < dist[to]) {
+                dist[to] = d;
+                parent[to] = current;
+                if (fringe.contains(to)) {
+                    fringe.changePriority(to, d);
+                } else {
+                    fringe.add(to, d);
+                }
+            }
+        }
+    }
+}
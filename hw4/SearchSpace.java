@@ -0,0 +1,98 @@
+package bearmaps.hw4;
+
+import bearmaps.proj2ab.IntArrayHeapMinPQ;
+
+import java.util.Arrays;
+
+/**
+ * Per-vertex scratch state for one search over a graph with dense vertex
+ * indices: best known distance, predecessor, cached heuristic and the
+ * fringe. Instead of clearing these arrays before every query, each entry is
+ * tagged with the generation of the query that wrote it, and entries from
+ * older generations read as unreached. Starting a new query is therefore
+ * O(1) rather than O(V).
+ *
+ * SearchSpaces are reused per thread through forThread, since a solver only
+ * ever runs on the thread that constructed it.
+ */
+final class SearchSpace {
+    /* Number of search spaces a single solver may hold at once (e.g. forward + backward). */
+    private static final int SLOTS = 2;
+    private static final ThreadLocal<SearchSpace[]> SPACES =
+            ThreadLocal.withInitial(() -> new SearchSpace[SLOTS]);
+
+    private int[] stamps = new int[0];
+    private double[] distTo = new double[0];
+    private int[] edgeTo = new int[0];
+    private double[] heuristic = new double[0];
+    private final IntArrayHeapMinPQ fringe = new IntArrayHeapMinPQ(0);
+    private int generation = 0;
+
+    /**
+     * Returns this thread's search space in SLOT, reset for a new query on a
+     * graph with NUMVERTICES vertices.
+     */
+    static SearchSpace forThread(int slot, int numVertices) {
+        SearchSpace[] spaces = SPACES.get();
+        if (spaces[slot] == null) {
+            spaces[slot] = new SearchSpace();
+        }
+        spaces[slot].reset(numVertices);
+        return spaces[slot];
+    }
+
+    private void reset(int numVertices) {
+        if (numVertices > stamps.length) {
+            stamps = Arrays.copyOf(stamps, numVertices);
+            distTo = Arrays.copyOf(distTo, numVertices);
+            edgeTo = Arrays.copyOf(edgeTo, numVertices);
+            heuristic = Arrays.copyOf(heuristic, numVertices);
+            fringe.ensureCapacity(numVertices);
+        }
+        fringe.clear();
+        generation += 1;
+        if (generation == Integer.MAX_VALUE) {
+            /* Stamps are about to wrap around; forget every old generation for real. */
+            Arrays.fill(stamps, 0);
+            generation = 1;
+        }
+    }
+
+    /** Returns true if V has been reached during the current query. */
+    boolean reached(int v) {
+        return stamps[v] == generation;
+    }
+
+    /** Returns the best known distance to V, or infinity if V has not been reached. */
+    double distTo(int v) {
+        return reached(v) ? distTo[v] : Double.POSITIVE_INFINITY;
+    }
+
+    /** Returns the predecessor of V on the best known path, or -1 for the source. */
+    int edgeTo(int v) {
+        return edgeTo[v];
+    }
+
+    /** Records that V is reached at distance DIST via FROM, caching heuristic value H. */
+    void reach(int v, double dist, int from, double h) {
+        stamps[v] = generation;
+        distTo[v] = dist;
+        edgeTo[v] = from;
+        heuristic[v] = h;
+    }
+
+    /** Records a shorter path to V, which must already be reached. */
+    void improve(int v, double dist, int from) {
+        distTo[v] = dist;
+        edgeTo[v] = from;
+    }
+
+    /** Returns the heuristic value cached for V when it was first reached. */
+    double heuristic(int v) {
+        return heuristic[v];
+    }
+
+    IntArrayHeapMinPQ fringe() {
+        return fringe;
+    }
+}
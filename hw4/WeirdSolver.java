@@ -1,6 +1,6 @@
 package bearmaps.hw4;
 
-import bearmaps.proj2ab.DoubleMapPQ;
+import bearmaps.proj2ab.ArrayHeapMinPQ;
 import bearmaps.proj2ab.ExtrinsicMinPQ;
 import edu.princeton.cs.introcs.Stopwatch;
 
@@ -25,7 +25,7 @@ public class WeirdSolver<Vertex> implements ShortestPathsSolver<Vertex> {
     public WeirdSolver(AStarGraph<Vertex> illilili, Vertex illlilli, Vertex ililllil, double illllil) {
         iliilill = illilili;
         this.ililillli = ililllil;
-        ExtrinsicMinPQ<Vertex> illlilill = new DoubleMapPQ<>();
+        ExtrinsicMinPQ<Vertex> illlilill = new ArrayHeapMinPQ<>();
 
         illlilill.add(illlilli, iliilill.estimatedDistanceToGoal(illlilli, ililllil));
         ilililil.put(illlilli, null);
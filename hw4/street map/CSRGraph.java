@@ -0,0 +1,229 @@
+package bearmaps.hw4.streetmap;
+
+import bearmaps.hw4.WeightedEdge;
+
+import java.util.*;
+
+/**
+ * Immutable compressed-sparse-row (CSR) representation of a street map, held
+ * in Java arrays on the heap. Vertices are numbered densely from 0 to
+ * size() - 1 in ascending order of their OSM id, so the OSM id of a vertex
+ * can be mapped back to its index with a binary search over ids. The
+ * outgoing edges of vertex v are the entries edgeStart(v) (inclusive) to
+ * edgeEnd(v) (exclusive) of the targets, weights and wayNameIds arrays.
+ */
+final class CSRGraph implements GraphStore {
+    private final long[] ids;
+    private final double[] lons;
+    private final double[] lats;
+    private final String[] names;
+
+    private final int[] offsets;
+    private final int[] targets;
+    private final double[] weights;
+    private final int[] wayNameIds;
+    private final String[] wayNames;
+
+    CSRGraph(long[] ids, double[] lons, double[] lats, String[] names,
+             int[] offsets, int[] targets, double[] weights,
+             int[] wayNameIds, String[] wayNames) {
+        this.ids = ids;
+        this.lons = lons;
+        this.lats = lats;
+        this.names = names;
+        this.offsets = offsets;
+        this.targets = targets;
+        this.weights = weights;
+        this.wayNameIds = wayNameIds;
+        this.wayNames = wayNames;
+    }
+
+    /**
+     * Builds a CSR graph out of the node and edge maps filled in while parsing.
+     * Edges whose endpoints are not in NODES are dropped.
+     */
+    static CSRGraph build(Map<Long, Node> nodes, Map<Long, ? extends Collection<WeightedEdge<Long>>> edges) {
+        int n = nodes.size();
+        long[] ids = new long[n];
+        int i = 0;
+        for (long id : nodes.keySet()) {
+            ids[i] = id;
+            i += 1;
+        }
+        Arrays.sort(ids);
+
+        double[] lons = new double[n];
+        double[] lats = new double[n];
+        String[] names = new String[n];
+        int[] offsets = new int[n + 1];
+        for (int v = 0; v < n; v++) {
+            Node node = nodes.get(ids[v]);
+            lons[v] = node.lon();
+            lats[v] = node.lat();
+            names[v] = node.name();
+            Collection<WeightedEdge<Long>> incident = edges.get(ids[v]);
+            offsets[v + 1] = offsets[v] + (incident == null ? 0 : incident.size());
+        }
+
+        int m = offsets[n];
+        int[] targets = new int[m];
+        double[] weights = new double[m];
+        int[] wayNameIds = new int[m];
+        Map<String, Integer> wayNameIndex = new HashMap<>();
+        List<String> wayNames = new ArrayList<>();
+
+        int e = 0;
+        for (int v = 0; v < n; v++) {
+            Collection<WeightedEdge<Long>> incident = edges.get(ids[v]);
+            if (incident == null) {
+                continue;
+            }
+            for (WeightedEdge<Long> edge : incident) {
+                int to = Arrays.binarySearch(ids, edge.to());
+                if (to < 0) {
+                    continue;
+                }
+                String wayName = edge.getName() == null ? "" : edge.getName();
+                Integer nameId = wayNameIndex.get(wayName);
+                if (nameId == null) {
+                    nameId = wayNames.size();
+                    wayNameIndex.put(wayName, nameId);
+                    wayNames.add(wayName);
+                }
+                targets[e] = to;
+                weights[e] = edge.weight();
+                wayNameIds[e] = nameId;
+                e += 1;
+            }
+            offsets[v + 1] = e;
+        }
+        if (e != m) {
+            targets = Arrays.copyOf(targets, e);
+            weights = Arrays.copyOf(weights, e);
+            wayNameIds = Arrays.copyOf(wayNameIds, e);
+        }
+
+        return new CSRGraph(ids, lons, lats, names, offsets, targets, weights, wayNameIds,
+                wayNames.toArray(new String[0]));
+    }
+
+    /** Copies STORE onto the heap. */
+    static CSRGraph copyOf(GraphStore store) {
+        int n = store.size();
+        int m = store.numEdges();
+        long[] ids = new long[n];
+        double[] lons = new double[n];
+        double[] lats = new double[n];
+        String[] names = new String[n];
+        int[] offsets = new int[n + 1];
+        for (int v = 0; v < n; v++) {
+            ids[v] = store.id(v);
+            lons[v] = store.lon(v);
+            lats[v] = store.lat(v);
+            names[v] = store.name(v);
+            offsets[v + 1] = store.edgeEnd(v);
+        }
+        int[] targets = new int[m];
+        double[] weights = new double[m];
+        int[] wayNameIds = new int[m];
+        for (int e = 0; e < m; e++) {
+            targets[e] = store.target(e);
+            weights[e] = store.weight(e);
+            wayNameIds[e] = store.wayNameId(e);
+        }
+        String[] wayNames = new String[store.numWayNames()];
+        for (int i = 0; i < wayNames.length; i++) {
+            wayNames[i] = store.wayNameAt(i);
+        }
+        return new CSRGraph(ids, lons, lats, names, offsets, targets, weights, wayNameIds, wayNames);
+    }
+
+    /** Returns the number of vertices. */
+    @Override
+    public int size() {
+        return ids.length;
+    }
+
+    /** Returns the number of directed edges. */
+    @Override
+    public int numEdges() {
+        return targets.length;
+    }
+
+    /** Returns the dense index of the vertex with OSM id ID, or -1 if there is none. */
+    @Override
+    public int indexOf(long id) {
+        int index = Arrays.binarySearch(ids, id);
+        return index < 0 ? -1 : index;
+    }
+
+    @Override
+    public long id(int v) {
+        return ids[v];
+    }
+
+    @Override
+    public double lon(int v) {
+        return lons[v];
+    }
+
+    @Override
+    public double lat(int v) {
+        return lats[v];
+    }
+
+    @Override
+    public String name(int v) {
+        return names[v];
+    }
+
+    /** Returns the index of the first outgoing edge of V. */
+    @Override
+    public int edgeStart(int v) {
+        return offsets[v];
+    }
+
+    /** Returns one past the index of the last outgoing edge of V. */
+    @Override
+    public int edgeEnd(int v) {
+        return offsets[v + 1];
+    }
+
+    @Override
+    public int degree(int v) {
+        return offsets[v + 1] - offsets[v];
+    }
+
+    @Override
+    public int target(int e) {
+        return targets[e];
+    }
+
+    @Override
+    public double weight(int e) {
+        return weights[e];
+    }
+
+    @Override
+    public String wayName(int e) {
+        return wayNames[wayNameIds[e]];
+    }
+
+    /** Returns the index of the way name of edge E among the distinct way names. */
+    @Override
+    public int wayNameId(int e) {
+        return wayNameIds[e];
+    }
+
+    /** Returns the number of distinct way names. */
+    @Override
+    public int numWayNames() {
+        return wayNames.length;
+    }
+
+    /** Returns the way name with index I. */
+    @Override
+    public String wayNameAt(int i) {
+        return wayNames[i];
+    }
+}
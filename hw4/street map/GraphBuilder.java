@@ -0,0 +1,364 @@
+package bearmaps.hw4.streetmap;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+
+/**
+ * Collects the nodes and way segments of an OSM file into growable primitive
+ * arrays, in file order, and turns them into a CSRGraph with the same
+ * vertices, edges, weights and names that GraphBuildingHandler and
+ * StreetMapGraph.clean would produce:
+ *
+ *   - if a node id appears more than once, its first occurrence wins;
+ *   - a segment only becomes a pair of edges if both of its nodes appeared
+ *     before the segment's way ended, as GraphBuildingHandler only links
+ *     nodes it has already added;
+ *   - every segment becomes an edge in each direction, duplicates included;
+ *   - nodes with no edges and no name are dropped.
+ *
+ * A file can also be scanned in pieces by several builders at once, which
+ * concat joins back together before the graph is built. Besides the graph,
+ * a builder can make the OSMModel of its nodes and ways, for applying OSM
+ * changes to the graph later.
+ */
+final class GraphBuilder {
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private long[] nodeIds = new long[INITIAL_CAPACITY];
+    private double[] lons = new double[INITIAL_CAPACITY];
+    private double[] lats = new double[INITIAL_CAPACITY];
+    private String[] names = new String[INITIAL_CAPACITY];
+    private int numNodes = 0;
+
+    private long[] segmentWays = new long[INITIAL_CAPACITY];
+    private long[] segmentFrom = new long[INITIAL_CAPACITY];
+    private long[] segmentTo = new long[INITIAL_CAPACITY];
+    private int[] segmentWayName = new int[INITIAL_CAPACITY];
+    /* Number of nodes that had been added when each segment's way ended. */
+    private int[] segmentNodesSeen = new int[INITIAL_CAPACITY];
+    private int numSegments = 0;
+
+    private final Map<String, Integer> wayNameIndex = new HashMap<>();
+    private final List<String> wayNames = new ArrayList<>();
+
+    /** Adds the node with id ID at (LON, LAT), named NAME or null. */
+    void addNode(long id, double lon, double lat, String name) {
+        if (numNodes == nodeIds.length) {
+            int capacity = numNodes * 2;
+            nodeIds = Arrays.copyOf(nodeIds, capacity);
+            lons = Arrays.copyOf(lons, capacity);
+            lats = Arrays.copyOf(lats, capacity);
+            names = Arrays.copyOf(names, capacity);
+        }
+        nodeIds[numNodes] = id;
+        lons[numNodes] = lon;
+        lats[numNodes] = lat;
+        names[numNodes] = name;
+        numNodes += 1;
+    }
+
+    /**
+     * Adds the segment between the nodes with ids FROM and TO of the way with
+     * id WAYID, named WAYNAME, at the point in the file where the way ends.
+     */
+    void addSegment(long wayId, long from, long to, String wayName) {
+        if (numSegments == segmentFrom.length) {
+            int capacity = numSegments * 2;
+            segmentWays = Arrays.copyOf(segmentWays, capacity);
+            segmentFrom = Arrays.copyOf(segmentFrom, capacity);
+            segmentTo = Arrays.copyOf(segmentTo, capacity);
+            segmentWayName = Arrays.copyOf(segmentWayName, capacity);
+            segmentNodesSeen = Arrays.copyOf(segmentNodesSeen, capacity);
+        }
+        segmentWays[numSegments] = wayId;
+        segmentFrom[numSegments] = from;
+        segmentTo[numSegments] = to;
+        segmentWayName[numSegments] = wayNameId(wayName);
+        segmentNodesSeen[numSegments] = numNodes;
+        numSegments += 1;
+    }
+
+    /** Returns the number of nodes added so far, duplicates included. */
+    int numNodes() {
+        return numNodes;
+    }
+
+    /** Returns the number of segments added so far. */
+    int numSegments() {
+        return numSegments;
+    }
+
+    /**
+     * Joins PARTS, builders that each scanned a consecutive piece of one file,
+     * into a single builder as if one builder had scanned the whole file.
+     */
+    static GraphBuilder concat(List<GraphBuilder> parts) {
+        GraphBuilder result = new GraphBuilder();
+        int totalNodes = 0;
+        int totalSegments = 0;
+        for (GraphBuilder part : parts) {
+            totalNodes += part.numNodes;
+            totalSegments += part.numSegments;
+        }
+        result.nodeIds = new long[Math.max(totalNodes, 1)];
+        result.lons = new double[result.nodeIds.length];
+        result.lats = new double[result.nodeIds.length];
+        result.names = new String[result.nodeIds.length];
+        result.segmentWays = new long[Math.max(totalSegments, 1)];
+        result.segmentFrom = new long[result.segmentWays.length];
+        result.segmentTo = new long[result.segmentFrom.length];
+        result.segmentWayName = new int[result.segmentFrom.length];
+        result.segmentNodesSeen = new int[result.segmentFrom.length];
+
+        for (GraphBuilder part : parts) {
+            int nodeOffset = result.numNodes;
+            int segmentOffset = result.numSegments;
+            System.arraycopy(part.nodeIds, 0, result.nodeIds, nodeOffset, part.numNodes);
+            System.arraycopy(part.lons, 0, result.lons, nodeOffset, part.numNodes);
+            System.arraycopy(part.lats, 0, result.lats, nodeOffset, part.numNodes);
+            System.arraycopy(part.names, 0, result.names, nodeOffset, part.numNodes);
+            System.arraycopy(part.segmentWays, 0, result.segmentWays, segmentOffset, part.numSegments);
+            System.arraycopy(part.segmentFrom, 0, result.segmentFrom, segmentOffset, part.numSegments);
+            System.arraycopy(part.segmentTo, 0, result.segmentTo, segmentOffset, part.numSegments);
+
+            int[] wayNameIds = new int[part.wayNames.size()];
+            for (int i = 0; i < wayNameIds.length; i++) {
+                wayNameIds[i] = result.wayNameId(part.wayNames.get(i));
+            }
+            for (int s = 0; s < part.numSegments; s++) {
+                result.segmentWayName[segmentOffset + s] = wayNameIds[part.segmentWayName[s]];
+                /* Nodes of earlier parts had all been seen by the time this part began. */
+                result.segmentNodesSeen[segmentOffset + s] = nodeOffset + part.segmentNodesSeen[s];
+            }
+            result.numNodes += part.numNodes;
+            result.numSegments += part.numSegments;
+        }
+        return result;
+    }
+
+    /** Builds the cleaned CSR graph of everything added so far. */
+    CSRGraph build() {
+        return build(false);
+    }
+
+    /**
+     * Builds the cleaned CSR graph of everything added so far. If PARALLEL is
+     * set, the sort, the id lookups and the edge weights are spread over the
+     * ForkJoinPool this is called from, or the common pool; the result is the
+     * same either way.
+     */
+    CSRGraph build(boolean parallel) {
+        Resolution resolution = resolve(parallel);
+        long[] sortedIds = resolution.sortedIds;
+        int numIds = resolution.numIds;
+        int[] first = resolution.first;
+        int[] from = resolution.from;
+        int[] to = resolution.to;
+        int[] degree = new int[numIds];
+        for (int s = 0; s < numSegments; s++) {
+            if (from[s] >= 0) {
+                degree[from[s]] += 1;
+                degree[to[s]] += 1;
+            }
+        }
+
+        /* Drop vertices with no edges and no name; the rest keep ascending id order. */
+        int[] vertexOf = new int[numIds];
+        int n = 0;
+        for (int u = 0; u < numIds; u++) {
+            if (degree[u] > 0 || names[first[u]] != null) {
+                vertexOf[u] = n;
+                n += 1;
+            } else {
+                vertexOf[u] = -1;
+            }
+        }
+        long[] ids = new long[n];
+        double[] vertexLons = new double[n];
+        double[] vertexLats = new double[n];
+        String[] vertexNames = new String[n];
+        int[] offsets = new int[n + 1];
+        for (int u = 0; u < numIds; u++) {
+            int v = vertexOf[u];
+            if (v < 0) {
+                continue;
+            }
+            ids[v] = sortedIds[u];
+            vertexLons[v] = lons[first[u]];
+            vertexLats[v] = lats[first[u]];
+            vertexNames[v] = names[first[u]];
+            offsets[v + 1] = offsets[v] + degree[u];
+        }
+
+        /* Each segment's two edge slots are handed out in segment order, then filled in. */
+        int m = offsets[n];
+        int[] forwardSlot = new int[numSegments];
+        int[] backwardSlot = new int[numSegments];
+        int[] next = Arrays.copyOf(offsets, n);
+        for (int s = 0; s < numSegments; s++) {
+            if (from[s] >= 0) {
+                forwardSlot[s] = next[vertexOf[from[s]]]++;
+                backwardSlot[s] = next[vertexOf[to[s]]]++;
+            }
+        }
+        int[] targets = new int[m];
+        double[] weights = new double[m];
+        int[] wayNameIds = new int[m];
+        forEach(numSegments, parallel, s -> {
+            if (from[s] < 0) {
+                return;
+            }
+            int a = first[from[s]];
+            int b = first[to[s]];
+            int e = forwardSlot[s];
+            targets[e] = vertexOf[to[s]];
+            weights[e] = StreetMapGraph.distance(lons[a], lons[b], lats[a], lats[b]);
+            wayNameIds[e] = segmentWayName[s];
+            e = backwardSlot[s];
+            targets[e] = vertexOf[from[s]];
+            weights[e] = StreetMapGraph.distance(lons[b], lons[a], lats[b], lats[a]);
+            wayNameIds[e] = segmentWayName[s];
+        });
+
+        return new CSRGraph(ids, vertexLons, vertexLats, vertexNames, offsets, targets, weights,
+                wayNameIds, wayNames.toArray(new String[0]));
+    }
+
+    /**
+     * Returns the model of everything added so far: every distinct node, at
+     * its first occurrence, and the segments of each way that became edges.
+     */
+    OSMModel model() {
+        Resolution resolution = resolve(false);
+        int numIds = resolution.numIds;
+        long[] ids = Arrays.copyOf(resolution.sortedIds, numIds);
+        double[] modelLons = new double[numIds];
+        double[] modelLats = new double[numIds];
+        String[] modelNames = new String[numIds];
+        for (int u = 0; u < numIds; u++) {
+            int i = resolution.first[u];
+            modelLons[u] = lons[i];
+            modelLats[u] = lats[i];
+            modelNames[u] = names[i];
+        }
+
+        Map<Long, OSMModel.Way> ways = new HashMap<>();
+        int s = 0;
+        while (s < numSegments) {
+            /* A way's segments are added together, so they are consecutive. */
+            int end = s;
+            while (end < numSegments && segmentWays[end] == segmentWays[s]) {
+                end += 1;
+            }
+            long[] segments = new long[2 * (end - s)];
+            int count = 0;
+            for (int t = s; t < end; t++) {
+                if (resolution.from[t] >= 0) {
+                    segments[count++] = segmentFrom[t];
+                    segments[count++] = segmentTo[t];
+                }
+            }
+            if (count > 0) {
+                OSMModel.Way previous = ways.get(segmentWays[s]);
+                long[] all = previous == null ? Arrays.copyOf(segments, count)
+                        : concat(previous.segments(), segments, count);
+                ways.put(segmentWays[s], new OSMModel.Way(all, wayNames.get(segmentWayName[s])));
+            }
+            s = end;
+        }
+        return new OSMModel(ids, modelLons, modelLats, modelNames, ways);
+    }
+
+    /** Returns A followed by the first COUNT entries of B. */
+    private static long[] concat(long[] a, long[] b, int count) {
+        long[] result = Arrays.copyOf(a, a.length + count);
+        System.arraycopy(b, 0, result, a.length, count);
+        return result;
+    }
+
+    /**
+     * Finds the distinct node ids and the position of each one's first
+     * occurrence, and resolves each segment to the distinct ids of its
+     * nodes, or -1 if it makes no edges.
+     */
+    private Resolution resolve(boolean parallel) {
+        long[] sortedIds = Arrays.copyOf(nodeIds, numNodes);
+        if (parallel) {
+            Arrays.parallelSort(sortedIds);
+        } else {
+            Arrays.sort(sortedIds);
+        }
+        int numIds = 0;
+        for (int i = 0; i < numNodes; i++) {
+            if (numIds == 0 || sortedIds[i] != sortedIds[numIds - 1]) {
+                sortedIds[numIds] = sortedIds[i];
+                numIds += 1;
+            }
+        }
+        final int distinct = numIds;
+        int[] nodeIndex = new int[numNodes];
+        forEach(numNodes, parallel, i -> nodeIndex[i] = Arrays.binarySearch(sortedIds, 0, distinct, nodeIds[i]));
+        int[] first = new int[numIds];
+        Arrays.fill(first, -1);
+        for (int i = 0; i < numNodes; i++) {
+            if (first[nodeIndex[i]] < 0) {
+                first[nodeIndex[i]] = i;
+            }
+        }
+
+        int[] from = new int[numSegments];
+        int[] to = new int[numSegments];
+        forEach(numSegments, parallel, s -> {
+            int u = Arrays.binarySearch(sortedIds, 0, distinct, segmentFrom[s]);
+            int w = Arrays.binarySearch(sortedIds, 0, distinct, segmentTo[s]);
+            if (u < 0 || w < 0 || first[u] >= segmentNodesSeen[s] || first[w] >= segmentNodesSeen[s]) {
+                from[s] = -1;
+            } else {
+                from[s] = u;
+                to[s] = w;
+            }
+        });
+        return new Resolution(sortedIds, numIds, first, from, to);
+    }
+
+    /** The distinct node ids, in the first numIds entries of sortedIds, and the resolved segments. */
+    private static class Resolution {
+        final long[] sortedIds;
+        final int numIds;
+        final int[] first;
+        final int[] from;
+        final int[] to;
+
+        Resolution(long[] sortedIds, int numIds, int[] first, int[] from, int[] to) {
+            this.sortedIds = sortedIds;
+            this.numIds = numIds;
+            this.first = first;
+            this.from = from;
+            this.to = to;
+        }
+    }
+
+    private int wayNameId(String wayName) {
+        Integer nameId = wayNameIndex.get(wayName);
+        if (nameId == null) {
+            nameId = wayNames.size();
+            wayNameIndex.put(wayName, nameId);
+            wayNames.add(wayName);
+        }
+        return nameId;
+    }
+
+    /** Runs BODY for every index from 0 to N - 1, in parallel if PARALLEL is set. */
+    private static void forEach(int n, boolean parallel, IntConsumer body) {
+        IntStream indices = IntStream.range(0, n);
+        if (parallel) {
+            indices = indices.parallel();
+        }
+        indices.forEach(body);
+    }
+}
@@ -49,6 +49,11 @@ public class GraphBuildingHandler extends DefaultHandler {
         this.g = g;
     }
 
+    /** Returns whether ways with the highway type TYPE are part of the graph. */
+    static boolean isAllowedHighway(String type) {
+        return ALLOWED_HIGHWAY_TYPES.contains(type);
+    }
+
     /**
      * Called at the beginning of an element. Typically, you will want to handle each element in
      * here, and you may want to track the parent element.
@@ -0,0 +1,298 @@
+package bearmaps.hw4.streetmap;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Applies an OSMChange to a street map graph, copy-on-write: the graph and
+ * its OSMModel are left as they are, and build returns a new CSRGraph with
+ * the change applied. Only the vertices the change touches are worked on:
+ * their state is copied out of the graph into small adjacency lists, the
+ * change is applied to those, and build then copies every other vertex and
+ * edge over as it is, renumbered, in a single pass.
+ *
+ * After a change, a way's segments are edges if both of their nodes exist
+ * when the way is applied, and deleting a node removes the edges at it. The
+ * new graph follows the same rules as the builders otherwise: vertices with
+ * no edges and no name are dropped, and every segment is an edge in each
+ * direction, weighted by the distance between its nodes. Once the new graph
+ * is in use, commit records the change in the model.
+ */
+final class GraphPatch {
+    private final GraphStore base;
+    private final OSMModel model;
+    /* Nodes and ways changed so far; a null value is a deleted one. */
+    private final Map<Long, OSMModel.NodeRecord> nodes = new HashMap<>();
+    private final Map<Long, OSMModel.Way> ways = new HashMap<>();
+    /* Vertices touched so far, by id, with their state after the change. */
+    private final Map<Long, VertexState> touched = new HashMap<>();
+
+    GraphPatch(GraphStore base, OSMModel model) {
+        this.base = base;
+        this.model = model;
+    }
+
+    /** Applies the elements of CHANGE in order. */
+    void apply(OSMChange change) {
+        for (OSMChange.Element element : change.elements()) {
+            if (element.isWay) {
+                applyWay(element);
+            } else {
+                applyNode(element);
+            }
+        }
+    }
+
+    private void applyNode(OSMChange.Element node) {
+        VertexState state = state(node.id);
+        if (node.action == OSMChange.Action.DELETE) {
+            for (Edge edge : new ArrayList<>(state.edges)) {
+                if (edge.target != node.id) {
+                    removeEdge(state(edge.target), node.id, edge.wayName);
+                }
+            }
+            state.edges.clear();
+            state.exists = false;
+            state.name = null;
+            nodes.put(node.id, null);
+            return;
+        }
+
+        if (state.lon != node.lon || state.lat != node.lat) {
+            /* The edges into a moved vertex change weight too. */
+            for (Edge edge : state.edges) {
+                state(edge.target);
+            }
+        }
+        state.lon = node.lon;
+        state.lat = node.lat;
+        state.name = node.name;
+        state.exists = true;
+        nodes.put(node.id, new OSMModel.NodeRecord(node.lon, node.lat, node.name));
+    }
+
+    private void applyWay(OSMChange.Element way) {
+        OSMModel.Way old = way(way.id);
+        if (old != null) {
+            long[] segments = old.segments();
+            for (int i = 0; i < segments.length; i += 2) {
+                removeEdge(state(segments[i]), segments[i + 1], old.name());
+                removeEdge(state(segments[i + 1]), segments[i], old.name());
+            }
+        }
+        if (way.action == OSMChange.Action.DELETE || !way.validWay) {
+            ways.put(way.id, null);
+            return;
+        }
+
+        long[] segments = new long[2 * Math.max(way.refs.length - 1, 0)];
+        int count = 0;
+        for (int i = 0; i < way.refs.length - 1; i++) {
+            long from = way.refs[i];
+            long to = way.refs[i + 1];
+            if (node(from) != null && node(to) != null) {
+                state(from).edges.add(new Edge(to, way.wayName));
+                state(to).edges.add(new Edge(from, way.wayName));
+                segments[count++] = from;
+                segments[count++] = to;
+            }
+        }
+        ways.put(way.id, new OSMModel.Way(Arrays.copyOf(segments, count), way.wayName));
+    }
+
+    private OSMModel.NodeRecord node(long id) {
+        return nodes.containsKey(id) ? nodes.get(id) : model.node(id);
+    }
+
+    private OSMModel.Way way(long id) {
+        return ways.containsKey(id) ? ways.get(id) : model.way(id);
+    }
+
+    /** Returns the state of the vertex with id ID, copying it out of the graph or model on first use. */
+    private VertexState state(long id) {
+        VertexState state = touched.get(id);
+        if (state != null) {
+            return state;
+        }
+        state = new VertexState();
+        int v = base.indexOf(id);
+        if (v >= 0) {
+            state.exists = true;
+            state.lon = base.lon(v);
+            state.lat = base.lat(v);
+            state.name = base.name(v);
+            for (int e = base.edgeStart(v); e < base.edgeEnd(v); e++) {
+                state.edges.add(new Edge(base.id(base.target(e)), base.wayName(e)));
+            }
+        } else {
+            OSMModel.NodeRecord node = node(id);
+            if (node != null) {
+                state.exists = true;
+                state.lon = node.lon();
+                state.lat = node.lat();
+                state.name = node.name();
+            }
+        }
+        touched.put(id, state);
+        return state;
+    }
+
+    /** Removes one edge to TARGET named WAYNAME from STATE, if there is one. */
+    private static void removeEdge(VertexState state, long target, String wayName) {
+        for (int i = 0; i < state.edges.size(); i++) {
+            Edge edge = state.edges.get(i);
+            if (edge.target == target && edge.wayName.equals(wayName)) {
+                state.edges.remove(i);
+                return;
+            }
+        }
+    }
+
+    /** Returns the ids of the vertices the change touched, in ascending order. */
+    long[] touchedIds() {
+        long[] ids = new long[touched.size()];
+        int i = 0;
+        for (long id : touched.keySet()) {
+            ids[i++] = id;
+        }
+        Arrays.sort(ids);
+        return ids;
+    }
+
+    /** Builds the graph with the change applied. */
+    CSRGraph build() {
+        long[] touchedIds = touchedIds();
+        VertexState[] states = new VertexState[touchedIds.length];
+        for (int j = 0; j < touchedIds.length; j++) {
+            states[j] = touched.get(touchedIds[j]);
+        }
+
+        /* Merge the untouched vertices of the graph with the touched ones that are kept, in id order. */
+        int oldSize = base.size();
+        int[] oldToNew = new int[oldSize];
+        int capacity = oldSize + touchedIds.length;
+        long[] ids = new long[capacity];
+        int[] oldIndex = new int[capacity];
+        int[] touchedIndex = new int[capacity];
+        int n = 0;
+        int i = 0;
+        int j = 0;
+        while (i < oldSize || j < touchedIds.length) {
+            long oldId = i < oldSize ? base.id(i) : Long.MAX_VALUE;
+            long touchedId = j < touchedIds.length ? touchedIds[j] : Long.MAX_VALUE;
+            if (i < oldSize && (j == touchedIds.length || oldId < touchedId)) {
+                oldToNew[i] = n;
+                ids[n] = oldId;
+                oldIndex[n] = i;
+                touchedIndex[n] = -1;
+                n += 1;
+                i += 1;
+                continue;
+            }
+            if (oldId == touchedId) {
+                oldToNew[i] = -1;
+                i += 1;
+            }
+            VertexState state = states[j];
+            if (state.exists && (!state.edges.isEmpty() || state.name != null)) {
+                if (oldId == touchedId) {
+                    oldToNew[i - 1] = n;
+                }
+                ids[n] = touchedId;
+                oldIndex[n] = -1;
+                touchedIndex[n] = j;
+                n += 1;
+            }
+            j += 1;
+        }
+        ids = Arrays.copyOf(ids, n);
+
+        double[] lons = new double[n];
+        double[] lats = new double[n];
+        String[] names = new String[n];
+        int[] offsets = new int[n + 1];
+        for (int v = 0; v < n; v++) {
+            int degree;
+            if (touchedIndex[v] >= 0) {
+                VertexState state = states[touchedIndex[v]];
+                lons[v] = state.lon;
+                lats[v] = state.lat;
+                names[v] = state.name;
+                degree = state.edges.size();
+            } else {
+                lons[v] = base.lon(oldIndex[v]);
+                lats[v] = base.lat(oldIndex[v]);
+                names[v] = base.name(oldIndex[v]);
+                degree = base.degree(oldIndex[v]);
+            }
+            offsets[v + 1] = offsets[v] + degree;
+        }
+
+        List<String> wayNames = new ArrayList<>(base.numWayNames());
+        Map<String, Integer> wayNameIds = new HashMap<>();
+        for (int k = 0; k < base.numWayNames(); k++) {
+            wayNames.add(base.wayNameAt(k));
+            wayNameIds.putIfAbsent(base.wayNameAt(k), k);
+        }
+        int m = offsets[n];
+        int[] targets = new int[m];
+        double[] weights = new double[m];
+        int[] edgeWayNames = new int[m];
+        for (int v = 0; v < n; v++) {
+            int e = offsets[v];
+            if (touchedIndex[v] < 0) {
+                int old = oldIndex[v];
+                for (int f = base.edgeStart(old); f < base.edgeEnd(old); f++) {
+                    targets[e] = oldToNew[base.target(f)];
+                    weights[e] = base.weight(f);
+                    edgeWayNames[e] = base.wayNameId(f);
+                    e += 1;
+                }
+                continue;
+            }
+            for (Edge edge : states[touchedIndex[v]].edges) {
+                int w = Arrays.binarySearch(ids, edge.target);
+                targets[e] = w;
+                weights[e] = StreetMapGraph.distance(lons[v], lons[w], lats[v], lats[w]);
+                Integer nameId = wayNameIds.get(edge.wayName);
+                if (nameId == null) {
+                    nameId = wayNames.size();
+                    wayNames.add(edge.wayName);
+                    wayNameIds.put(edge.wayName, nameId);
+                }
+                edgeWayNames[e] = nameId;
+                e += 1;
+            }
+        }
+        return new CSRGraph(ids, lons, lats, names, offsets, targets, weights, edgeWayNames,
+                wayNames.toArray(new String[0]));
+    }
+
+    /** Records the change in the model, moving it to its next version. */
+    void commit() {
+        model.commit(nodes, ways);
+    }
+
+    /** A touched vertex: its node's position and name, whether it exists, and its edges. */
+    private static class VertexState {
+        boolean exists;
+        double lon;
+        double lat;
+        String name;
+        final List<Edge> edges = new ArrayList<>();
+    }
+
+    /** An edge out of a touched vertex, by the id of its target. */
+    private static class Edge {
+        final long target;
+        final String wayName;
+
+        Edge(long target, String wayName) {
+            this.target = target;
+            this.wayName = wayName;
+        }
+    }
+}
@@ -0,0 +1,324 @@
+package bearmaps.hw4.streetmap;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.zip.CRC32;
+
+/**
+ * Binary snapshot of a street map graph, so that a server can skip parsing
+ * the OSM XML at startup. A snapshot is tied to the XML file it was made
+ * from by that file's length and modification time; if either changed, or
+ * the format version or checksum does not match, the snapshot is stale and
+ * map returns null so the caller falls back to the XML.
+ *
+ * Layout, little-endian, with every array section aligned to the size of
+ * its elements so it can be mapped and read in place:
+ *
+ *   header   magic, version, source length, source modification time,
+ *            vertex count n, edge count m, way name count, vertex name
+ *            bytes, index bytes, CRC32 of everything after the header
+ *   arrays   long ids[n], double lons[n], double lats[n], double weights[m],
+ *            int offsets[n + 1], int targets[m], int wayNameIds[m],
+ *            int nameStarts[n] (-1 for no name), int nameLengths[n],
+ *            then the UTF-8 bytes of all vertex names
+ *   strings  the way names, each as an int UTF-8 byte length followed by
+ *            the bytes
+ *   indexes  from the next multiple of 8 to the end of the file, the
+ *            indexes built over the graph by whoever saved them with it, in
+ *            their own format; none if the graph was saved on its own
+ *
+ * Snapshots are opened through memory-mapped FileChannels. The result is a
+ * MappedGraphStore that reads vertices and edges straight out of the
+ * mapping, so apart from the way names nothing is copied onto the heap.
+ * The indexes are left mapped for their owner to read.
+ */
+final class GraphSnapshot {
+    private static final int MAGIC = 0x424d4753;
+    private static final int VERSION = 3;
+    private static final int HEADER_BYTES = 64;
+    private static final int NO_NAME = -1;
+    /* Size of the buffer used to write snapshots and to checksum them. */
+    private static final int CHUNK_BYTES = 1 << 20;
+
+    private GraphSnapshot() {
+    }
+
+    /**
+     * Maps the graph saved in SNAPSHOT, or returns null if there is no
+     * snapshot there or it was not made from the current contents of SOURCE.
+     */
+    static MappedGraphStore map(File snapshot, File source) throws IOException {
+        if (!snapshot.isFile()) {
+            return null;
+        }
+        try (RandomAccessFile file = new RandomAccessFile(snapshot, "r");
+             FileChannel channel = file.getChannel()) {
+            long fileSize = channel.size();
+            if (fileSize < HEADER_BYTES) {
+                return null;
+            }
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            while (header.hasRemaining() && channel.read(header, header.position()) > 0) {
+                continue;
+            }
+            header.flip();
+            if (header.getInt() != MAGIC || header.getInt() != VERSION
+                    || header.getLong() != source.length()
+                    || header.getLong() != source.lastModified()) {
+                return null;
+            }
+            int n = header.getInt();
+            int m = header.getInt();
+            int numWayNames = header.getInt();
+            long nameBytes = header.getLong();
+            long indexBytes = header.getLong();
+            long checksum = header.getLong();
+            if (checksum(channel, HEADER_BYTES, fileSize) != checksum) {
+                return null;
+            }
+
+            Sections sections = new Sections(n, m, nameBytes);
+            long indexStart = fileSize - indexBytes;
+            if (indexBytes < 0 || sections.end > indexStart) {
+                return null;
+            }
+            ByteBuffer strings = map(channel, sections.end, indexStart - sections.end);
+            String[] wayNames = new String[numWayNames];
+            for (int i = 0; i < numWayNames; i++) {
+                byte[] bytes = new byte[strings.getInt()];
+                strings.get(bytes);
+                wayNames[i] = new String(bytes, StandardCharsets.UTF_8);
+            }
+
+            return new MappedGraphStore(
+                    map(channel, sections.ids, 8L * n).asLongBuffer(),
+                    map(channel, sections.lons, 8L * n).asDoubleBuffer(),
+                    map(channel, sections.lats, 8L * n).asDoubleBuffer(),
+                    map(channel, sections.weights, 8L * m).asDoubleBuffer(),
+                    map(channel, sections.offsets, 4L * (n + 1)).asIntBuffer(),
+                    map(channel, sections.targets, 4L * m).asIntBuffer(),
+                    map(channel, sections.wayNameIds, 4L * m).asIntBuffer(),
+                    map(channel, sections.nameStarts, 4L * n).asIntBuffer(),
+                    map(channel, sections.nameLengths, 4L * n).asIntBuffer(),
+                    map(channel, sections.names, nameBytes),
+                    wayNames,
+                    map(channel, indexStart, indexBytes));
+        }
+    }
+
+    /**
+     * Saves GRAPH, made from SOURCE, to SNAPSHOT. The snapshot is streamed to
+     * a temporary file and moved into place, so a concurrent reader never sees
+     * a partial snapshot, and writing it takes a fixed amount of memory.
+     */
+    static void write(GraphStore graph, File snapshot, File source) throws IOException {
+        write(graph, snapshot, source, new byte[0]);
+    }
+
+    /** Saves GRAPH, made from SOURCE, to SNAPSHOT as write does, with INDEXES built over it. */
+    static void write(GraphStore graph, File snapshot, File source, byte[] indexes) throws IOException {
+        int n = graph.size();
+        int m = graph.numEdges();
+        File temp = new File(snapshot.getPath() + ".tmp");
+        try (RandomAccessFile file = new RandomAccessFile(temp, "rw");
+             FileChannel channel = file.getChannel()) {
+            channel.truncate(0);
+            Writer out = new Writer(channel, HEADER_BYTES);
+            for (int v = 0; v < n; v++) {
+                out.putLong(graph.id(v));
+            }
+            for (int v = 0; v < n; v++) {
+                out.putDouble(graph.lon(v));
+            }
+            for (int v = 0; v < n; v++) {
+                out.putDouble(graph.lat(v));
+            }
+            for (int e = 0; e < m; e++) {
+                out.putDouble(graph.weight(e));
+            }
+            for (int v = 0; v < n; v++) {
+                out.putInt(graph.edgeStart(v));
+            }
+            out.putInt(m);
+            for (int e = 0; e < m; e++) {
+                out.putInt(graph.target(e));
+            }
+            for (int e = 0; e < m; e++) {
+                out.putInt(graph.wayNameId(e));
+            }
+
+            /* Names are encoded twice, to lay out the starts and lengths before the bytes. */
+            long nameBytes = 0;
+            for (int v = 0; v < n; v++) {
+                String name = graph.name(v);
+                out.putInt(name == null ? NO_NAME : (int) nameBytes);
+                if (name != null) {
+                    nameBytes += name.getBytes(StandardCharsets.UTF_8).length;
+                    if (nameBytes > Integer.MAX_VALUE) {
+                        throw new IOException("Vertex names too large for a snapshot.");
+                    }
+                }
+            }
+            for (int v = 0; v < n; v++) {
+                String name = graph.name(v);
+                out.putInt(name == null ? 0 : name.getBytes(StandardCharsets.UTF_8).length);
+            }
+            for (int v = 0; v < n; v++) {
+                String name = graph.name(v);
+                if (name != null) {
+                    out.putBytes(name.getBytes(StandardCharsets.UTF_8));
+                }
+            }
+            out.align();
+            for (int i = 0; i < graph.numWayNames(); i++) {
+                byte[] bytes = graph.wayNameAt(i).getBytes(StandardCharsets.UTF_8);
+                out.putInt(bytes.length);
+                out.putBytes(bytes);
+            }
+            out.align();
+            out.putBytes(indexes);
+            out.flush();
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(MAGIC).putInt(VERSION).putLong(source.length()).putLong(source.lastModified())
+                    .putInt(n).putInt(m).putInt(graph.numWayNames()).putLong(nameBytes)
+                    .putLong(indexes.length).putLong(out.checksum());
+            header.position(0);
+            long position = 0;
+            while (header.hasRemaining()) {
+                position += channel.write(header, position);
+            }
+        }
+        Files.move(temp.toPath(), snapshot.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private static ByteBuffer map(FileChannel channel, long position, long size) throws IOException {
+        return channel.map(FileChannel.MapMode.READ_ONLY, position, size).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /** Returns the CRC32 of the bytes of CHANNEL from START to END. */
+    private static long checksum(FileChannel channel, long start, long end) throws IOException {
+        CRC32 crc = new CRC32();
+        ByteBuffer chunk = ByteBuffer.allocateDirect(CHUNK_BYTES);
+        long position = start;
+        while (position < end) {
+            chunk.clear();
+            chunk.limit((int) Math.min(CHUNK_BYTES, end - position));
+            int read = channel.read(chunk, position);
+            if (read < 0) {
+                break;
+            }
+            position += read;
+            chunk.flip();
+            crc.update(chunk);
+        }
+        return crc.getValue();
+    }
+
+    /** File offsets of the array sections of a snapshot with n vertices and m edges. */
+    private static class Sections {
+        final long ids;
+        final long lons;
+        final long lats;
+        final long weights;
+        final long offsets;
+        final long targets;
+        final long wayNameIds;
+        final long nameStarts;
+        final long nameLengths;
+        final long names;
+        final long end;
+
+        Sections(int n, int m, long nameBytes) {
+            ids = HEADER_BYTES;
+            lons = ids + 8L * n;
+            lats = lons + 8L * n;
+            weights = lats + 8L * n;
+            offsets = weights + 8L * m;
+            targets = offsets + 4L * (n + 1);
+            wayNameIds = targets + 4L * m;
+            nameStarts = wayNameIds + 4L * m;
+            nameLengths = nameStarts + 4L * n;
+            names = nameLengths + 4L * n;
+            end = align(names + nameBytes);
+        }
+    }
+
+    private static long align(long position) {
+        return (position + 7) & ~7L;
+    }
+
+    /** Buffers little-endian writes to a channel, keeping a running CRC32 of them. */
+    private static class Writer {
+        private final FileChannel channel;
+        private final ByteBuffer chunk = ByteBuffer.allocateDirect(CHUNK_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        private final CRC32 crc = new CRC32();
+        private long position;
+
+        Writer(FileChannel channel, long position) {
+            this.channel = channel;
+            this.position = position;
+        }
+
+        void putLong(long x) throws IOException {
+            ensure(8);
+            chunk.putLong(x);
+        }
+
+        void putDouble(double x) throws IOException {
+            ensure(8);
+            chunk.putDouble(x);
+        }
+
+        void putInt(int x) throws IOException {
+            ensure(4);
+            chunk.putInt(x);
+        }
+
+        void putBytes(byte[] bytes) throws IOException {
+            int offset = 0;
+            while (offset < bytes.length) {
+                ensure(1);
+                int length = Math.min(chunk.remaining(), bytes.length - offset);
+                chunk.put(bytes, offset, length);
+                offset += length;
+            }
+        }
+
+        /** Pads with zeros up to the next multiple of 8 bytes. */
+        void align() throws IOException {
+            long written = position + chunk.position();
+            for (long i = written; i < GraphSnapshot.align(written); i++) {
+                ensure(1);
+                chunk.put((byte) 0);
+            }
+        }
+
+        long checksum() {
+            return crc.getValue();
+        }
+
+        private void ensure(int bytes) throws IOException {
+            if (chunk.remaining() < bytes) {
+                flush();
+            }
+        }
+
+        void flush() throws IOException {
+            chunk.flip();
+            ByteBuffer forCrc = chunk.duplicate();
+            crc.update(forCrc);
+            while (chunk.hasRemaining()) {
+                position += channel.write(chunk, position);
+            }
+            chunk.clear();
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package bearmaps.hw4.streetmap;
+
+/**
+ * Read-only storage of a street map in compressed-sparse-row form, as used
+ * by StreetMapGraph. Vertices are numbered densely from 0 to size() - 1 in
+ * ascending order of their OSM id, and the outgoing edges of vertex v are
+ * the edges edgeStart(v) (inclusive) to edgeEnd(v) (exclusive).
+ *
+ * CSRGraph keeps everything in Java arrays; MappedGraphStore reads it
+ * straight out of a memory-mapped snapshot file, off the heap.
+ */
+interface GraphStore {
+    /** Returns the number of vertices. */
+    int size();
+
+    /** Returns the number of directed edges. */
+    int numEdges();
+
+    /** Returns the dense index of the vertex with OSM id ID, or -1 if there is none. */
+    int indexOf(long id);
+
+    long id(int v);
+
+    double lon(int v);
+
+    double lat(int v);
+
+    String name(int v);
+
+    /** Returns the index of the first outgoing edge of V. */
+    int edgeStart(int v);
+
+    /** Returns one past the index of the last outgoing edge of V. */
+    int edgeEnd(int v);
+
+    default int degree(int v) {
+        return edgeEnd(v) - edgeStart(v);
+    }
+
+    int target(int e);
+
+    double weight(int e);
+
+    /** Returns the index of the way name of edge E among the distinct way names. */
+    int wayNameId(int e);
+
+    /** Returns the number of distinct way names. */
+    int numWayNames();
+
+    /** Returns the way name with index I. */
+    String wayNameAt(int i);
+
+    default String wayName(int e) {
+        return wayNameAt(wayNameId(e));
+    }
+}
@@ -0,0 +1,146 @@
+package bearmaps.hw4.streetmap;
+
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * GraphStore that reads a street map straight out of a memory-mapped
+ * snapshot file. Coordinates, adjacency, weights and vertex names stay off
+ * the Java heap in the page cache, so the heap footprint does not grow with
+ * the size of the map; only the table of distinct way names is held as
+ * Strings. Vertex names are decoded into a new String on every call.
+ *
+ * The buffers are only ever read with absolute gets, so one store can be
+ * shared by any number of threads.
+ */
+final class MappedGraphStore implements GraphStore {
+    private final LongBuffer ids;
+    private final DoubleBuffer lons;
+    private final DoubleBuffer lats;
+    private final DoubleBuffer weights;
+    private final IntBuffer offsets;
+    private final IntBuffer targets;
+    private final IntBuffer wayNameIds;
+    private final IntBuffer nameStarts;
+    private final IntBuffer nameLengths;
+    private final ByteBuffer names;
+    private final String[] wayNames;
+    private final ByteBuffer indexes;
+
+    MappedGraphStore(LongBuffer ids, DoubleBuffer lons, DoubleBuffer lats, DoubleBuffer weights,
+                     IntBuffer offsets, IntBuffer targets, IntBuffer wayNameIds,
+                     IntBuffer nameStarts, IntBuffer nameLengths, ByteBuffer names,
+                     String[] wayNames, ByteBuffer indexes) {
+        this.ids = ids;
+        this.lons = lons;
+        this.lats = lats;
+        this.weights = weights;
+        this.offsets = offsets;
+        this.targets = targets;
+        this.wayNameIds = wayNameIds;
+        this.nameStarts = nameStarts;
+        this.nameLengths = nameLengths;
+        this.names = names;
+        this.wayNames = wayNames;
+        this.indexes = indexes;
+    }
+
+    /** Returns the indexes saved with the snapshot this store was mapped from, empty if there are none. */
+    ByteBuffer indexes() {
+        return indexes.duplicate();
+    }
+
+    @Override
+    public int size() {
+        return ids.limit();
+    }
+
+    @Override
+    public int numEdges() {
+        return targets.limit();
+    }
+
+    @Override
+    public int indexOf(long id) {
+        int lo = 0;
+        int hi = ids.limit() - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            long midId = ids.get(mid);
+            if (midId < id) {
+                lo = mid + 1;
+            } else if (midId > id) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public long id(int v) {
+        return ids.get(v);
+    }
+
+    @Override
+    public double lon(int v) {
+        return lons.get(v);
+    }
+
+    @Override
+    public double lat(int v) {
+        return lats.get(v);
+    }
+
+    @Override
+    public String name(int v) {
+        int start = nameStarts.get(v);
+        if (start < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[nameLengths.get(v)];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = names.get(start + i);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public int edgeStart(int v) {
+        return offsets.get(v);
+    }
+
+    @Override
+    public int edgeEnd(int v) {
+        return offsets.get(v + 1);
+    }
+
+    @Override
+    public int target(int e) {
+        return targets.get(e);
+    }
+
+    @Override
+    public double weight(int e) {
+        return weights.get(e);
+    }
+
+    @Override
+    public int wayNameId(int e) {
+        return wayNameIds.get(e);
+    }
+
+    @Override
+    public int numWayNames() {
+        return wayNames.length;
+    }
+
+    @Override
+    public String wayNameAt(int i) {
+        return wayNames[i];
+    }
+}
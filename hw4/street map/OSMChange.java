@@ -0,0 +1,140 @@
+package bearmaps.hw4.streetmap;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParserFactory;
+import java.io.BufferedInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * An OSM change (osc) file: the nodes and ways created, modified and
+ * deleted between two versions of the map, in the order they are to be
+ * applied. See <a href="https://wiki.openstreetmap.org/wiki/OsmChange">the
+ * OsmChange format</a>. Created and modified elements carry their full
+ * contents, which are read with the same rules as GraphBuildingHandler: a
+ * way counts if its highway type is allowed, and nodes and ways take their
+ * "name" tag. Relations are ignored.
+ *
+ * Apply a change with StreetMapGraph.withChange.
+ */
+public final class OSMChange {
+    /** What an element of a change does. */
+    enum Action { CREATE, MODIFY, DELETE }
+
+    private final List<Element> elements;
+
+    private OSMChange(List<Element> elements) {
+        this.elements = Collections.unmodifiableList(elements);
+    }
+
+    /** Reads the OSM change file FILENAME. */
+    public static OSMChange read(String filename) throws IOException {
+        try (InputStream in = new BufferedInputStream(new FileInputStream(filename))) {
+            return read(in);
+        }
+    }
+
+    /** Reads an OSM change file from IN. */
+    public static OSMChange read(InputStream in) throws IOException {
+        ChangeHandler handler = new ChangeHandler();
+        try {
+            SAXParserFactory.newInstance().newSAXParser().parse(in, handler);
+        } catch (ParserConfigurationException | SAXException e) {
+            throw new IOException("Malformed OSM change file.", e);
+        }
+        return new OSMChange(handler.elements);
+    }
+
+    /** Returns the number of nodes and ways this change creates, modifies or deletes. */
+    public int size() {
+        return elements.size();
+    }
+
+    List<Element> elements() {
+        return elements;
+    }
+
+    /** A node or way of a change, with what to do to it. */
+    static final class Element {
+        final Action action;
+        final boolean isWay;
+        final long id;
+        /* Node contents. */
+        double lon;
+        double lat;
+        String name;
+        /* Way contents. */
+        long[] refs = new long[0];
+        boolean validWay;
+        String wayName = "";
+
+        Element(Action action, boolean isWay, long id) {
+            this.action = action;
+            this.isWay = isWay;
+            this.id = id;
+        }
+    }
+
+    /** Collects the elements of a change, mirroring GraphBuildingHandler within each action. */
+    private static class ChangeHandler extends DefaultHandler {
+        private final List<Element> elements = new ArrayList<>();
+        private Action action;
+        private Element active;
+        private final List<Long> nodePath = new ArrayList<>();
+
+        @Override
+        public void startElement(String uri, String localName, String qName, Attributes attributes)
+                throws SAXException {
+            if (qName.equals("create")) {
+                action = Action.CREATE;
+            } else if (qName.equals("modify")) {
+                action = Action.MODIFY;
+            } else if (qName.equals("delete")) {
+                action = Action.DELETE;
+            } else if (action != null && (qName.equals("node") || qName.equals("way"))) {
+                active = new Element(action, qName.equals("way"), Long.parseLong(attributes.getValue("id")));
+                if (!active.isWay && action != Action.DELETE) {
+                    active.lat = Double.parseDouble(attributes.getValue("lat"));
+                    active.lon = Double.parseDouble(attributes.getValue("lon"));
+                }
+            } else if (active != null && active.isWay && qName.equals("nd")) {
+                nodePath.add(Long.parseLong(attributes.getValue("ref")));
+            } else if (active != null && qName.equals("tag")) {
+                String k = attributes.getValue("k");
+                String v = attributes.getValue("v");
+                if (active.isWay && k.equals("highway")) {
+                    active.validWay = GraphBuildingHandler.isAllowedHighway(v);
+                } else if (active.isWay && k.equals("name")) {
+                    active.wayName = v;
+                } else if (k.equals("name")) {
+                    active.name = v;
+                }
+            }
+        }
+
+        @Override
+        public void endElement(String uri, String localName, String qName) throws SAXException {
+            if (active != null && (qName.equals("node") || qName.equals("way"))) {
+                if (active.isWay) {
+                    active.refs = new long[nodePath.size()];
+                    for (int i = 0; i < active.refs.length; i++) {
+                        active.refs[i] = nodePath.get(i);
+                    }
+                    nodePath.clear();
+                }
+                elements.add(active);
+                active = null;
+            } else if (qName.equals("create") || qName.equals("modify") || qName.equals("delete")) {
+                action = null;
+            }
+        }
+    }
+}
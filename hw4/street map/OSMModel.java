@@ -0,0 +1,120 @@
+package bearmaps.hw4.streetmap;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The raw OSM data behind a street map graph, kept so that OSM changes can
+ * be applied to the graph: every node, including those the graph dropped for
+ * having no edges and no name, and the segments of each highway way that
+ * became edges. A way that is not an allowed highway adds nothing to the
+ * graph, and an OSM change always carries a way's full contents, so such
+ * ways are not kept.
+ *
+ * The nodes the model was made with stay in sorted arrays; nodes changed
+ * since are kept in a map on top of them. One model is shared by all the
+ * versions of a graph, and every commit makes a new version, so it can tell
+ * whether a change is being applied to the latest version.
+ */
+final class OSMModel {
+    private final long[] ids;
+    private final double[] lons;
+    private final double[] lats;
+    private final String[] names;
+    /* Nodes changed since the model was made; a null value is a deleted node. */
+    private final Map<Long, NodeRecord> changedNodes = new HashMap<>();
+    private final Map<Long, Way> ways;
+    private int version = 0;
+
+    OSMModel(long[] ids, double[] lons, double[] lats, String[] names, Map<Long, Way> ways) {
+        this.ids = ids;
+        this.lons = lons;
+        this.lats = lats;
+        this.names = names;
+        this.ways = ways;
+    }
+
+    /** Returns the number of commits made to this model. */
+    int version() {
+        return version;
+    }
+
+    /** Returns the node with id ID, or null if there is none. */
+    NodeRecord node(long id) {
+        if (changedNodes.containsKey(id)) {
+            return changedNodes.get(id);
+        }
+        int i = Arrays.binarySearch(ids, id);
+        if (i < 0) {
+            return null;
+        }
+        return new NodeRecord(lons[i], lats[i], names[i]);
+    }
+
+    /** Returns the highway way with id ID, or null if there is none. */
+    Way way(long id) {
+        return ways.get(id);
+    }
+
+    /**
+     * Replaces the nodes and ways in NODES and WAYS, where a null value
+     * deletes the node or way, and moves this model to its next version.
+     */
+    void commit(Map<Long, NodeRecord> nodes, Map<Long, Way> changedWays) {
+        changedNodes.putAll(nodes);
+        for (Map.Entry<Long, Way> entry : changedWays.entrySet()) {
+            if (entry.getValue() == null) {
+                ways.remove(entry.getKey());
+            } else {
+                ways.put(entry.getKey(), entry.getValue());
+            }
+        }
+        version += 1;
+    }
+
+    /** The position and name of a node. */
+    static final class NodeRecord {
+        private final double lon;
+        private final double lat;
+        private final String name;
+
+        NodeRecord(double lon, double lat, String name) {
+            this.lon = lon;
+            this.lat = lat;
+            this.name = name;
+        }
+
+        double lon() {
+            return lon;
+        }
+
+        double lat() {
+            return lat;
+        }
+
+        String name() {
+            return name;
+        }
+    }
+
+    /** The name of a way and its segments that are edges, as pairs of node ids. */
+    static final class Way {
+        private final long[] segments;
+        private final String name;
+
+        Way(long[] segments, String name) {
+            this.segments = segments;
+            this.name = name;
+        }
+
+        /** Returns the node ids of the segments: from, to, from, to, and so on. */
+        long[] segments() {
+            return segments;
+        }
+
+        String name() {
+            return name;
+        }
+    }
+}
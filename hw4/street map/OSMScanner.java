@@ -0,0 +1,623 @@
+package bearmaps.hw4.streetmap;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Streaming byte-level scanner for OSM XML files, a faster alternative to
+ * running GraphBuildingHandler under a SAX parser. It walks the raw bytes of
+ * a memory-mapped file, matches element and attribute names byte by byte,
+ * parses ids and coordinates without creating Strings, and writes nodes and
+ * way segments straight into a GraphBuilder. Strings are only created for
+ * node and way names and highway types.
+ *
+ * It understands as much XML as OSM files use: elements and attributes with
+ * either kind of quotes, comments, processing instructions, CDATA and
+ * DOCTYPE declarations are skipped, and attribute values are normalized and
+ * have entity and character references replaced as a SAX parser would. The
+ * rules for which nodes, ways and names are kept are the same as those of
+ * GraphBuildingHandler.
+ */
+final class OSMScanner {
+    private static final byte[] NODE = ascii("node");
+    private static final byte[] WAY = ascii("way");
+    private static final byte[] ND = ascii("nd");
+    private static final byte[] TAG = ascii("tag");
+    private static final byte[] RELATION = ascii("relation");
+    private static final byte[] ID = ascii("id");
+    private static final byte[] LAT = ascii("lat");
+    private static final byte[] LON = ascii("lon");
+    private static final byte[] REF = ascii("ref");
+    private static final byte[] K = ascii("k");
+    private static final byte[] V = ascii("v");
+    private static final byte[] HIGHWAY = ascii("highway");
+    private static final byte[] NAME = ascii("name");
+    private static final byte[] COMMENT_END = ascii("-->");
+    private static final byte[] CDATA_END = ascii("]]>");
+    private static final byte[] PI_END = ascii("?>");
+
+    /* Powers of ten that are exactly representable as doubles. */
+    private static final double[] POWERS_OF_TEN = new double[23];
+    /* Largest mantissa that is exactly representable as a double. */
+    private static final long MAX_EXACT_MANTISSA = 1L << 53;
+
+    static {
+        POWERS_OF_TEN[0] = 1;
+        for (int i = 1; i < POWERS_OF_TEN.length; i++) {
+            POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+        }
+    }
+
+    private static final int NONE = 0;
+    private static final int IN_NODE = 1;
+    private static final int IN_WAY = 2;
+
+    private final ByteBuffer bytes;
+    private final int limit;
+    private final GraphBuilder builder;
+
+    /* Attributes of the element being scanned, as byte ranges of the input. */
+    private int numAttributes;
+    private int[] nameStarts = new int[8];
+    private int[] nameEnds = new int[8];
+    private int[] valueStarts = new int[8];
+    private int[] valueEnds = new int[8];
+
+    /* Same state as GraphBuildingHandler, with the node and way path in primitives. */
+    private int activeState = NONE;
+    private long nodeId;
+    private double nodeLon;
+    private double nodeLat;
+    private String nodeName;
+    private long wayId;
+    private boolean validWay;
+    private String wayName = "";
+    private long[] nodePath = new long[64];
+    private int nodePathSize = 0;
+
+    private OSMScanner(ByteBuffer bytes, GraphBuilder builder) {
+        this.bytes = bytes;
+        this.limit = bytes.limit();
+        this.builder = builder;
+    }
+
+    /** Scans the OSM XML file FILE into BUILDER. */
+    static void scan(File file, GraphBuilder builder) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+             FileChannel channel = raf.getChannel()) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("OSM XML files over 2 GB cannot be mapped: " + file);
+            }
+            scan(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()), builder);
+        }
+    }
+
+    /**
+     * Scans the OSM XML document in BYTES into BUILDER. Returns false if
+     * BYTES end inside a tag, comment, CDATA section, processing
+     * instruction or declaration, and true if they end between them.
+     */
+    static boolean scan(ByteBuffer bytes, GraphBuilder builder) {
+        return new OSMScanner(bytes, builder).scan();
+    }
+
+    /**
+     * Scans the OSM XML file FILE in up to NUMCHUNKS pieces at once, on the
+     * ForkJoinPool this is called from or the common pool. The pieces start at
+     * top-level node, way or relation elements, so each can be scanned on its
+     * own, and their results are joined in file order, which makes the
+     * returned builder build the same graph as a sequential scan's. A piece
+     * that ends inside a comment, CDATA section or the like was split where
+     * an element in it only looked like it started one, so the piece after it
+     * may have read what it hides; the file is then scanned sequentially.
+     */
+    static GraphBuilder scanParallel(File file, int numChunks) throws IOException {
+        ByteBuffer bytes;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+             FileChannel channel = raf.getChannel()) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("OSM XML files over 2 GB cannot be mapped: " + file);
+            }
+            bytes = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        int[] bounds = chunkBounds(bytes, numChunks);
+        int numParts = bounds.length - 1;
+        boolean[] split = new boolean[numParts];
+        /* A piece that starts inside a comment may fail on what it hides, which is only an error if it does not. */
+        RuntimeException[] failures = new RuntimeException[numParts];
+        List<GraphBuilder> parts = IntStream.range(0, numParts).parallel()
+                .mapToObj(i -> {
+                    ByteBuffer chunk = bytes.duplicate();
+                    chunk.limit(bounds[i + 1]).position(bounds[i]);
+                    GraphBuilder part = new GraphBuilder();
+                    try {
+                        split[i] = !scan(chunk.slice(), part) && i < numParts - 1;
+                    } catch (RuntimeException e) {
+                        failures[i] = e;
+                    }
+                    return part;
+                })
+                .collect(Collectors.toList());
+        for (int i = 0; i < numParts; i++) {
+            if (split[i]) {
+                GraphBuilder builder = new GraphBuilder();
+                scan(bytes, builder);
+                return builder;
+            }
+        }
+        for (RuntimeException failure : failures) {
+            if (failure != null) {
+                throw failure;
+            }
+        }
+        return GraphBuilder.concat(parts);
+    }
+
+    /**
+     * Returns the offsets at which to split BYTES into at most NUMCHUNKS
+     * roughly equal pieces, followed by the end. Each piece after the first
+     * starts at the '<' of a node, way or relation start tag that directly
+     * follows the end of another tag, where the scanner would be between
+     * elements. A commented-out element can look like such a place too,
+     * which scanParallel finds out from the piece before it.
+     */
+    private static int[] chunkBounds(ByteBuffer bytes, int numChunks) {
+        int limit = bytes.limit();
+        int[] bounds = new int[numChunks + 1];
+        int count = 1;
+        for (int i = 1; i < numChunks; i++) {
+            int target = (int) ((long) limit * i / numChunks);
+            int start = nextTopLevelStart(bytes, Math.max(target, bounds[count - 1] + 1));
+            if (start >= limit) {
+                break;
+            }
+            bounds[count] = start;
+            count += 1;
+        }
+        bounds[count] = limit;
+        return Arrays.copyOf(bounds, count + 1);
+    }
+
+    private static int nextTopLevelStart(ByteBuffer bytes, int from) {
+        int limit = bytes.limit();
+        for (int pos = from; pos < limit; pos++) {
+            if (bytes.get(pos) != '<') {
+                continue;
+            }
+            int before = pos - 1;
+            while (before >= 0 && isWhitespace(bytes.get(before))) {
+                before -= 1;
+            }
+            if (before >= 0 && bytes.get(before) == '>'
+                    && (startsTag(bytes, pos + 1, NODE) || startsTag(bytes, pos + 1, WAY)
+                    || startsTag(bytes, pos + 1, RELATION))) {
+                return pos;
+            }
+        }
+        return limit;
+    }
+
+    /** Returns whether a tag named NAME starts at POS. */
+    private static boolean startsTag(ByteBuffer bytes, int pos, byte[] name) {
+        if (pos + name.length >= bytes.limit()) {
+            return false;
+        }
+        for (int i = 0; i < name.length; i++) {
+            if (bytes.get(pos + i) != name[i]) {
+                return false;
+            }
+        }
+        byte next = bytes.get(pos + name.length);
+        return isWhitespace(next) || next == '>' || next == '/';
+    }
+
+    private boolean scan() {
+        int pos = 0;
+        while (true) {
+            pos = indexOf((byte) '<', pos);
+            if (pos < 0) {
+                return true;
+            }
+            if (pos + 1 >= limit) {
+                return false;
+            }
+            pos += 1;
+            byte c = bytes.get(pos);
+            if (c == '/') {
+                int nameEnd = scanName(pos + 1);
+                endElement(pos + 1, nameEnd);
+                pos = indexOf((byte) '>', nameEnd);
+            } else if (c == '?') {
+                pos = indexOf(PI_END, pos);
+            } else if (c == '!') {
+                if (startsWith(pos, "!--")) {
+                    pos = indexOf(COMMENT_END, pos + 3);
+                } else if (startsWith(pos, "![CDATA[")) {
+                    pos = indexOf(CDATA_END, pos);
+                } else {
+                    pos = skipDeclaration(pos);
+                }
+            } else {
+                pos = scanElement(pos);
+            }
+            if (pos < 0) {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Scans the start tag whose name begins at START, then reports it, and
+     * its end if it is an empty element. Returns the position of its closing
+     * '>', or -1 if the input ends first.
+     */
+    private int scanElement(int start) {
+        int nameEnd = scanName(start);
+        numAttributes = 0;
+        int pos = nameEnd;
+        while (true) {
+            pos = skipWhitespace(pos);
+            if (pos >= limit) {
+                return -1;
+            }
+            byte c = bytes.get(pos);
+            if (c == '>') {
+                startElement(start, nameEnd);
+                return pos;
+            }
+            if (c == '/') {
+                startElement(start, nameEnd);
+                endElement(start, nameEnd);
+                return indexOf((byte) '>', pos);
+            }
+            int attributeStart = pos;
+            while (pos < limit && bytes.get(pos) != '=' && !isWhitespace(bytes.get(pos))) {
+                pos += 1;
+            }
+            int attributeEnd = pos;
+            pos = skipWhitespace(pos);
+            if (pos >= limit || bytes.get(pos) != '=') {
+                return -1;
+            }
+            pos = skipWhitespace(pos + 1);
+            if (pos >= limit) {
+                return -1;
+            }
+            byte quote = bytes.get(pos);
+            int valueEnd = indexOf(quote, pos + 1);
+            if (valueEnd < 0) {
+                return -1;
+            }
+            addAttribute(attributeStart, attributeEnd, pos + 1, valueEnd);
+            pos = valueEnd + 1;
+        }
+    }
+
+    private void addAttribute(int nameStart, int nameEnd, int valueStart, int valueEnd) {
+        if (numAttributes == nameStarts.length) {
+            int capacity = numAttributes * 2;
+            nameStarts = Arrays.copyOf(nameStarts, capacity);
+            nameEnds = Arrays.copyOf(nameEnds, capacity);
+            valueStarts = Arrays.copyOf(valueStarts, capacity);
+            valueEnds = Arrays.copyOf(valueEnds, capacity);
+        }
+        nameStarts[numAttributes] = nameStart;
+        nameEnds[numAttributes] = nameEnd;
+        valueStarts[numAttributes] = valueStart;
+        valueEnds[numAttributes] = valueEnd;
+        numAttributes += 1;
+    }
+
+    /** Mirrors GraphBuildingHandler.startElement. */
+    private void startElement(int nameStart, int nameEnd) {
+        if (matches(nameStart, nameEnd, NODE)) {
+            activeState = IN_NODE;
+            int id = attribute(ID);
+            int lat = attribute(LAT);
+            int lon = attribute(LON);
+            nodeId = parseLong(valueStarts[id], valueEnds[id]);
+            nodeLat = parseDouble(valueStarts[lat], valueEnds[lat]);
+            nodeLon = parseDouble(valueStarts[lon], valueEnds[lon]);
+            nodeName = null;
+        } else if (matches(nameStart, nameEnd, WAY)) {
+            activeState = IN_WAY;
+            int id = attribute(ID);
+            wayId = parseLong(valueStarts[id], valueEnds[id]);
+        } else if (activeState == IN_WAY && matches(nameStart, nameEnd, ND)) {
+            int ref = attribute(REF);
+            if (nodePathSize == nodePath.length) {
+                nodePath = Arrays.copyOf(nodePath, nodePathSize * 2);
+            }
+            nodePath[nodePathSize] = parseLong(valueStarts[ref], valueEnds[ref]);
+            nodePathSize += 1;
+        } else if (activeState == IN_WAY && matches(nameStart, nameEnd, TAG)) {
+            int k = attribute(K);
+            int v = attribute(V);
+            if (valueMatches(k, HIGHWAY)) {
+                validWay = GraphBuildingHandler.isAllowedHighway(value(v));
+            } else if (valueMatches(k, NAME)) {
+                wayName = value(v);
+            }
+        } else if (activeState == IN_NODE && matches(nameStart, nameEnd, TAG)
+                && valueMatches(attribute(K), NAME)) {
+            nodeName = value(attribute(V));
+        }
+    }
+
+    /** Mirrors GraphBuildingHandler.endElement. */
+    private void endElement(int nameStart, int nameEnd) {
+        if (matches(nameStart, nameEnd, WAY)) {
+            if (validWay) {
+                for (int i = 0; i < nodePathSize - 1; i++) {
+                    builder.addSegment(wayId, nodePath[i], nodePath[i + 1], wayName);
+                }
+            }
+            clearStates();
+        } else if (matches(nameStart, nameEnd, NODE)) {
+            if (activeState == IN_NODE) {
+                builder.addNode(nodeId, nodeLon, nodeLat, nodeName);
+            }
+            clearStates();
+        }
+    }
+
+    private void clearStates() {
+        activeState = NONE;
+        validWay = false;
+        nodePathSize = 0;
+        wayName = "";
+    }
+
+    /** Returns the index of the attribute named NAME of the current element. */
+    private int attribute(byte[] name) {
+        for (int i = 0; i < numAttributes; i++) {
+            if (matches(nameStarts[i], nameEnds[i], name)) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("Missing attribute " + new String(name, StandardCharsets.US_ASCII)
+                + " at byte " + nameStarts[0]);
+    }
+
+    /** Returns whether the value of attribute I, after entity replacement, is EXPECTED. */
+    private boolean valueMatches(int i, byte[] expected) {
+        if (indexOf((byte) '&', valueStarts[i], valueEnds[i]) >= 0) {
+            return value(i).equals(new String(expected, StandardCharsets.US_ASCII));
+        }
+        return matches(valueStarts[i], valueEnds[i], expected);
+    }
+
+    /**
+     * Returns the value of attribute I as a SAX parser would report it: line
+     * breaks and tabs become spaces, then references are replaced.
+     */
+    private String value(int i) {
+        int start = valueStarts[i];
+        byte[] raw = new byte[valueEnds[i] - start];
+        boolean plain = true;
+        for (int j = 0; j < raw.length; j++) {
+            raw[j] = bytes.get(start + j);
+            if (raw[j] == '&' || raw[j] == '\r' || raw[j] == '\n' || raw[j] == '\t') {
+                plain = false;
+            }
+        }
+        String s = new String(raw, StandardCharsets.UTF_8);
+        return plain ? s : normalize(s);
+    }
+
+    private static String normalize(String s) {
+        StringBuilder sb = new StringBuilder(s.length());
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '\r') {
+                /* A CR LF pair is one line break. */
+                if (i + 1 < s.length() && s.charAt(i + 1) == '\n') {
+                    i += 1;
+                }
+                sb.append(' ');
+            } else if (c == '\n' || c == '\t') {
+                sb.append(' ');
+            } else if (c == '&') {
+                int end = s.indexOf(';', i);
+                if (end < 0) {
+                    sb.append(c);
+                    continue;
+                }
+                String ref = s.substring(i + 1, end);
+                if (ref.equals("amp")) {
+                    sb.append('&');
+                } else if (ref.equals("lt")) {
+                    sb.append('<');
+                } else if (ref.equals("gt")) {
+                    sb.append('>');
+                } else if (ref.equals("quot")) {
+                    sb.append('"');
+                } else if (ref.equals("apos")) {
+                    sb.append('\'');
+                } else if (ref.startsWith("#x")) {
+                    sb.appendCodePoint(Integer.parseInt(ref.substring(2), 16));
+                } else if (ref.startsWith("#")) {
+                    sb.appendCodePoint(Integer.parseInt(ref.substring(1)));
+                } else {
+                    sb.append(c);
+                    continue;
+                }
+                i = end;
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    private long parseLong(int start, int end) {
+        int pos = start;
+        boolean negative = false;
+        if (pos < end && (bytes.get(pos) == '-' || bytes.get(pos) == '+')) {
+            negative = bytes.get(pos) == '-';
+            pos += 1;
+        }
+        if (pos == end) {
+            throw new NumberFormatException("Empty number at byte " + start);
+        }
+        long result = 0;
+        for (; pos < end; pos++) {
+            int digit = bytes.get(pos) - '0';
+            if (digit < 0 || digit > 9) {
+                return Long.parseLong(string(start, end));
+            }
+            result = result * 10 + digit;
+        }
+        return negative ? -result : result;
+    }
+
+    /**
+     * Parses a decimal like 37.8701327 exactly as Double.parseDouble would.
+     * When the digits fit in a double's mantissa and there are at most 22
+     * decimals, dividing by an exact power of ten rounds correctly; anything
+     * else falls back to Double.parseDouble.
+     */
+    private double parseDouble(int start, int end) {
+        int pos = start;
+        boolean negative = false;
+        if (pos < end && (bytes.get(pos) == '-' || bytes.get(pos) == '+')) {
+            negative = bytes.get(pos) == '-';
+            pos += 1;
+        }
+        long mantissa = 0;
+        int decimals = -1;
+        int digits = 0;
+        for (; pos < end; pos++) {
+            byte c = bytes.get(pos);
+            if (c == '.' && decimals < 0) {
+                decimals = 0;
+                continue;
+            }
+            int digit = c - '0';
+            if (digit < 0 || digit > 9 || mantissa > (MAX_EXACT_MANTISSA - digit) / 10) {
+                return Double.parseDouble(string(start, end));
+            }
+            mantissa = mantissa * 10 + digit;
+            digits += 1;
+            if (decimals >= 0) {
+                decimals += 1;
+            }
+        }
+        if (digits == 0 || decimals >= POWERS_OF_TEN.length) {
+            return Double.parseDouble(string(start, end));
+        }
+        double result = decimals > 0 ? mantissa / POWERS_OF_TEN[decimals] : mantissa;
+        return negative ? -result : result;
+    }
+
+    private String string(int start, int end) {
+        byte[] raw = new byte[end - start];
+        for (int i = 0; i < raw.length; i++) {
+            raw[i] = bytes.get(start + i);
+        }
+        return new String(raw, StandardCharsets.UTF_8);
+    }
+
+    /** Returns one past the end of the name starting at START. */
+    private int scanName(int start) {
+        int pos = start;
+        while (pos < limit) {
+            byte c = bytes.get(pos);
+            if (c == '>' || c == '/' || isWhitespace(c)) {
+                break;
+            }
+            pos += 1;
+        }
+        return pos;
+    }
+
+    /**
+     * Skips a declaration like a DOCTYPE, which may contain an internal subset
+     * in brackets, starting at the '!' at START. Returns the position of its
+     * closing '>', or -1.
+     */
+    private int skipDeclaration(int start) {
+        int depth = 0;
+        for (int pos = start; pos < limit; pos++) {
+            byte c = bytes.get(pos);
+            if (c == '[') {
+                depth += 1;
+            } else if (c == ']') {
+                depth -= 1;
+            } else if (c == '>' && depth <= 0) {
+                return pos;
+            }
+        }
+        return -1;
+    }
+
+    private int skipWhitespace(int pos) {
+        while (pos < limit && isWhitespace(bytes.get(pos))) {
+            pos += 1;
+        }
+        return pos;
+    }
+
+    private static boolean isWhitespace(byte c) {
+        return c == ' ' || c == '\n' || c == '\r' || c == '\t';
+    }
+
+    private boolean matches(int start, int end, byte[] expected) {
+        if (end - start != expected.length) {
+            return false;
+        }
+        for (int i = 0; i < expected.length; i++) {
+            if (bytes.get(start + i) != expected[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean startsWith(int pos, String prefix) {
+        if (pos + prefix.length() > limit) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length(); i++) {
+            if (bytes.get(pos + i) != prefix.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int indexOf(byte b, int from) {
+        return indexOf(b, from, limit);
+    }
+
+    private int indexOf(byte b, int from, int to) {
+        for (int pos = from; pos < to; pos++) {
+            if (bytes.get(pos) == b) {
+                return pos;
+            }
+        }
+        return -1;
+    }
+
+    /** Returns the position of the last byte of the first occurrence of PATTERN at or after FROM. */
+    private int indexOf(byte[] pattern, int from) {
+        for (int pos = from; pos + pattern.length <= limit; pos++) {
+            if (matches(pos, pos + pattern.length, pattern)) {
+                return pos + pattern.length - 1;
+            }
+        }
+        return -1;
+    }
+
+    private static byte[] ascii(String s) {
+        return s.getBytes(StandardCharsets.US_ASCII);
+    }
+}
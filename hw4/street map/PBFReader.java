@@ -0,0 +1,514 @@
+package bearmaps.hw4.streetmap;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Reader for OSM PBF files, the compressed binary format most extracts are
+ * distributed in. See <a href="https://wiki.openstreetmap.org/wiki/PBF_Format">the
+ * PBF format</a> and the osmformat.proto and fileformat.proto definitions.
+ *
+ * A PBF file is a sequence of blobs, each a length-prefixed BlobHeader
+ * followed by a Blob holding a raw or zlib-compressed HeaderBlock or
+ * PrimitiveBlock. The protobuf messages are decoded by hand, so no protobuf
+ * library is needed. Each PrimitiveBlock is decoded on its own into a
+ * GraphBuilder, on the ForkJoinPool this is called from or the common pool,
+ * and the builders are joined in file order. Nodes, ways and their tags go
+ * through the same rules as GraphBuildingHandler: ways are kept if their
+ * highway type is allowed, and nodes and ways take their "name" tag.
+ *
+ * Coordinates are computed as nanodegrees divided by 10^9, which rounds to
+ * the same double as parsing the decimal an XML extract of the same data
+ * would contain.
+ */
+final class PBFReader {
+    private static final Set<String> SUPPORTED_FEATURES = new HashSet<>(Arrays.asList(
+            "OsmSchema-V0.6", "DenseNodes"));
+    /* Limits from the format specification. */
+    private static final int MAX_HEADER_BYTES = 64 * 1024;
+    private static final int MAX_BLOB_BYTES = 32 * 1024 * 1024;
+    private static final double NANODEGREES_PER_DEGREE = 1e9;
+
+    private PBFReader() {
+    }
+
+    /**
+     * Returns whether FILE looks like an OSM PBF file: a PBF file starts with
+     * the big-endian length of its first BlobHeader, whose first field is the
+     * blob type, whereas an XML file starts with text.
+     */
+    static boolean isPBF(File file) throws IOException {
+        byte[] start = new byte[5];
+        try (InputStream in = new FileInputStream(file)) {
+            int read = 0;
+            while (read < start.length) {
+                int n = in.read(start, read, start.length - read);
+                if (n < 0) {
+                    return false;
+                }
+                read += n;
+            }
+        }
+        int headerLength = ((start[0] & 0xff) << 24) | ((start[1] & 0xff) << 16)
+                | ((start[2] & 0xff) << 8) | (start[3] & 0xff);
+        return headerLength > 0 && headerLength <= MAX_HEADER_BYTES && start[4] == (1 << 3 | 2);
+    }
+
+    /** Reads the OSM PBF file FILE into a GraphBuilder. */
+    static GraphBuilder read(File file) throws IOException {
+        List<byte[]> dataBlobs = new ArrayList<>();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            while (true) {
+                int headerLength;
+                try {
+                    headerLength = in.readInt();
+                } catch (EOFException e) {
+                    break;
+                }
+                if (headerLength < 0 || headerLength > MAX_HEADER_BYTES) {
+                    throw new IOException("Bad PBF blob header length " + headerLength);
+                }
+                byte[] header = new byte[headerLength];
+                in.readFully(header);
+                String type = null;
+                int dataSize = -1;
+                Input h = new Input(header, 0, header.length);
+                while (h.hasMore()) {
+                    int tag = h.readTag();
+                    if (tag == (1 << 3 | 2)) {
+                        type = h.readString();
+                    } else if (tag == (3 << 3)) {
+                        dataSize = (int) h.readVarint();
+                    } else {
+                        h.skip(tag);
+                    }
+                }
+                if (dataSize < 0 || dataSize > MAX_BLOB_BYTES) {
+                    throw new IOException("Bad PBF blob size " + dataSize);
+                }
+                byte[] blob = new byte[dataSize];
+                in.readFully(blob);
+                if ("OSMHeader".equals(type)) {
+                    checkHeader(inflate(blob));
+                } else if ("OSMData".equals(type)) {
+                    dataBlobs.add(blob);
+                }
+                /* Unknown blob types are skipped, as the specification asks. */
+            }
+        }
+
+        List<GraphBuilder> parts;
+        try {
+            parts = dataBlobs.parallelStream().map(blob -> {
+                GraphBuilder part = new GraphBuilder();
+                try {
+                    readPrimitiveBlock(inflate(blob), part);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                return part;
+            }).collect(Collectors.toList());
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        return GraphBuilder.concat(parts);
+    }
+
+    /** Returns the contents of the Blob message BLOB, decompressed. */
+    private static byte[] inflate(byte[] blob) throws IOException {
+        Input in = new Input(blob, 0, blob.length);
+        int rawSize = -1;
+        int zlibStart = -1;
+        int zlibLength = 0;
+        while (in.hasMore()) {
+            int tag = in.readTag();
+            if (tag == (1 << 3 | 2)) {
+                int length = in.readLength();
+                return Arrays.copyOfRange(blob, in.pos - length, in.pos);
+            } else if (tag == (2 << 3)) {
+                rawSize = (int) in.readVarint();
+            } else if (tag == (3 << 3 | 2)) {
+                zlibLength = in.readLength();
+                zlibStart = in.pos - zlibLength;
+            } else {
+                in.skip(tag);
+            }
+        }
+        if (zlibStart < 0 || rawSize < 0 || rawSize > MAX_BLOB_BYTES) {
+            throw new IOException("Unsupported PBF blob compression.");
+        }
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(blob, zlibStart, zlibLength);
+            byte[] raw = new byte[rawSize];
+            int n = 0;
+            while (n < rawSize && !inflater.finished()) {
+                int inflated = inflater.inflate(raw, n, rawSize - n);
+                if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                n += inflated;
+            }
+            if (n != rawSize) {
+                throw new IOException("Truncated PBF blob.");
+            }
+            return raw;
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt PBF blob.", e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /** Checks that every feature the HeaderBlock HEADER requires is supported. */
+    private static void checkHeader(byte[] header) throws IOException {
+        Input in = new Input(header, 0, header.length);
+        while (in.hasMore()) {
+            int tag = in.readTag();
+            if (tag == (4 << 3 | 2)) {
+                String feature = in.readString();
+                if (!SUPPORTED_FEATURES.contains(feature)) {
+                    throw new IOException("Unsupported PBF feature " + feature);
+                }
+            } else {
+                in.skip(tag);
+            }
+        }
+    }
+
+    /** Decodes the PrimitiveBlock BLOCK into BUILDER. */
+    private static void readPrimitiveBlock(byte[] block, GraphBuilder builder) {
+        /* The string table and coordinate scaling may come after the groups that use them. */
+        Block b = new Block(block);
+        List<int[]> groups = new ArrayList<>();
+        List<Integer> strings = new ArrayList<>();
+        Input in = new Input(block, 0, block.length);
+        while (in.hasMore()) {
+            int tag = in.readTag();
+            if (tag == (1 << 3 | 2)) {
+                int end = in.readLength();
+                Input table = new Input(block, in.pos - end, in.pos);
+                while (table.hasMore()) {
+                    int stringTag = table.readTag();
+                    if (stringTag == (1 << 3 | 2)) {
+                        int length = table.readLength();
+                        strings.add(table.pos - length);
+                        strings.add(length);
+                    } else {
+                        table.skip(stringTag);
+                    }
+                }
+            } else if (tag == (2 << 3 | 2)) {
+                int length = in.readLength();
+                groups.add(new int[]{in.pos - length, in.pos});
+            } else if (tag == (17 << 3)) {
+                b.granularity = in.readVarint();
+            } else if (tag == (19 << 3)) {
+                b.latOffset = in.readVarint();
+            } else if (tag == (20 << 3)) {
+                b.lonOffset = in.readVarint();
+            } else {
+                in.skip(tag);
+            }
+        }
+        b.setStrings(strings);
+
+        for (int[] group : groups) {
+            Input g = new Input(block, group[0], group[1]);
+            while (g.hasMore()) {
+                int tag = g.readTag();
+                if (tag == (1 << 3 | 2)) {
+                    int length = g.readLength();
+                    readNode(b, new Input(block, g.pos - length, g.pos), builder);
+                } else if (tag == (2 << 3 | 2)) {
+                    int length = g.readLength();
+                    readDenseNodes(b, new Input(block, g.pos - length, g.pos), builder);
+                } else if (tag == (3 << 3 | 2)) {
+                    int length = g.readLength();
+                    readWay(b, new Input(block, g.pos - length, g.pos), builder);
+                } else {
+                    g.skip(tag);
+                }
+            }
+        }
+    }
+
+    private static void readNode(Block b, Input in, GraphBuilder builder) {
+        long id = 0;
+        long lat = 0;
+        long lon = 0;
+        Input keys = null;
+        Input vals = null;
+        while (in.hasMore()) {
+            int tag = in.readTag();
+            if (tag == (1 << 3)) {
+                id = in.readSignedVarint();
+            } else if (tag == (2 << 3 | 2)) {
+                keys = in.readPacked();
+            } else if (tag == (3 << 3 | 2)) {
+                vals = in.readPacked();
+            } else if (tag == (8 << 3)) {
+                lat = in.readSignedVarint();
+            } else if (tag == (9 << 3)) {
+                lon = in.readSignedVarint();
+            } else {
+                in.skip(tag);
+            }
+        }
+        String name = null;
+        while (keys != null && vals != null && keys.hasMore() && vals.hasMore()) {
+            int key = (int) keys.readVarint();
+            int val = (int) vals.readVarint();
+            if (key == b.nameKey) {
+                name = b.string(val);
+            }
+        }
+        builder.addNode(id, b.lon(lon), b.lat(lat), name);
+    }
+
+    private static void readDenseNodes(Block b, Input in, GraphBuilder builder) {
+        Input ids = null;
+        Input lats = null;
+        Input lons = null;
+        Input keysVals = null;
+        while (in.hasMore()) {
+            int tag = in.readTag();
+            if (tag == (1 << 3 | 2)) {
+                ids = in.readPacked();
+            } else if (tag == (8 << 3 | 2)) {
+                lats = in.readPacked();
+            } else if (tag == (9 << 3 | 2)) {
+                lons = in.readPacked();
+            } else if (tag == (10 << 3 | 2)) {
+                keysVals = in.readPacked();
+            } else {
+                in.skip(tag);
+            }
+        }
+        if (ids == null || lats == null || lons == null) {
+            return;
+        }
+        long id = 0;
+        long lat = 0;
+        long lon = 0;
+        while (ids.hasMore()) {
+            id += ids.readSignedVarint();
+            lat += lats.readSignedVarint();
+            lon += lons.readSignedVarint();
+            /* Each node's keys and values come in pairs, ended by a 0. */
+            String name = null;
+            while (keysVals != null && keysVals.hasMore()) {
+                int key = (int) keysVals.readVarint();
+                if (key == 0) {
+                    break;
+                }
+                int val = (int) keysVals.readVarint();
+                if (key == b.nameKey) {
+                    name = b.string(val);
+                }
+            }
+            builder.addNode(id, b.lon(lon), b.lat(lat), name);
+        }
+    }
+
+    private static void readWay(Block b, Input in, GraphBuilder builder) {
+        long id = 0;
+        Input keys = null;
+        Input vals = null;
+        Input refs = null;
+        while (in.hasMore()) {
+            int tag = in.readTag();
+            if (tag == (1 << 3)) {
+                id = in.readVarint();
+            } else if (tag == (2 << 3 | 2)) {
+                keys = in.readPacked();
+            } else if (tag == (3 << 3 | 2)) {
+                vals = in.readPacked();
+            } else if (tag == (8 << 3 | 2)) {
+                refs = in.readPacked();
+            } else {
+                in.skip(tag);
+            }
+        }
+        boolean validWay = false;
+        String wayName = "";
+        while (keys != null && vals != null && keys.hasMore() && vals.hasMore()) {
+            int key = (int) keys.readVarint();
+            int val = (int) vals.readVarint();
+            if (key == b.highwayKey) {
+                validWay = GraphBuildingHandler.isAllowedHighway(b.string(val));
+            } else if (key == b.nameKey) {
+                wayName = b.string(val);
+            }
+        }
+        if (!validWay || refs == null || !refs.hasMore()) {
+            return;
+        }
+        long previous = refs.readSignedVarint();
+        while (refs.hasMore()) {
+            long next = previous + refs.readSignedVarint();
+            builder.addSegment(id, previous, next, wayName);
+            previous = next;
+        }
+    }
+
+    /** The string table and coordinate scaling of one PrimitiveBlock. */
+    private static class Block {
+        private final byte[] bytes;
+        private int[] stringStarts;
+        private int[] stringLengths;
+        private String[] decoded;
+        /* String table indices of the keys we look for, or -1. */
+        private int highwayKey = -1;
+        private int nameKey = -1;
+        private long granularity = 100;
+        private long latOffset = 0;
+        private long lonOffset = 0;
+
+        Block(byte[] bytes) {
+            this.bytes = bytes;
+        }
+
+        void setStrings(List<Integer> startsAndLengths) {
+            int n = startsAndLengths.size() / 2;
+            stringStarts = new int[n];
+            stringLengths = new int[n];
+            decoded = new String[n];
+            for (int i = 0; i < n; i++) {
+                stringStarts[i] = startsAndLengths.get(2 * i);
+                stringLengths[i] = startsAndLengths.get(2 * i + 1);
+                if (equalsAscii(i, "highway")) {
+                    highwayKey = i;
+                } else if (equalsAscii(i, "name")) {
+                    nameKey = i;
+                }
+            }
+        }
+
+        String string(int i) {
+            if (decoded[i] == null) {
+                decoded[i] = new String(bytes, stringStarts[i], stringLengths[i], StandardCharsets.UTF_8);
+            }
+            return decoded[i];
+        }
+
+        private boolean equalsAscii(int i, String s) {
+            if (stringLengths[i] != s.length()) {
+                return false;
+            }
+            for (int j = 0; j < s.length(); j++) {
+                if (bytes[stringStarts[i] + j] != s.charAt(j)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        double lat(long raw) {
+            return (latOffset + granularity * raw) / NANODEGREES_PER_DEGREE;
+        }
+
+        double lon(long raw) {
+            return (lonOffset + granularity * raw) / NANODEGREES_PER_DEGREE;
+        }
+    }
+
+    /** Decoder for the protobuf wire format over a range of a byte array. */
+    private static class Input {
+        private final byte[] bytes;
+        private int pos;
+        private final int end;
+
+        Input(byte[] bytes, int start, int end) {
+            this.bytes = bytes;
+            this.pos = start;
+            this.end = end;
+        }
+
+        boolean hasMore() {
+            return pos < end;
+        }
+
+        /** Returns the next field's number and wire type, as (number << 3 | type). */
+        int readTag() {
+            return (int) readVarint();
+        }
+
+        long readVarint() {
+            long result = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                if (pos >= end) {
+                    throw new IllegalStateException("Truncated varint in PBF data.");
+                }
+                byte b = bytes[pos++];
+                result |= (long) (b & 0x7f) << shift;
+                if (b >= 0) {
+                    return result;
+                }
+            }
+            throw new IllegalStateException("Malformed varint in PBF data.");
+        }
+
+        /** Reads a zigzag-encoded sint64. */
+        long readSignedVarint() {
+            long raw = readVarint();
+            return (raw >>> 1) ^ -(raw & 1);
+        }
+
+        /** Reads the length of a length-delimited field and skips its contents, returning the length. */
+        int readLength() {
+            int length = (int) readVarint();
+            if (length < 0 || length > end - pos) {
+                throw new IllegalStateException("Truncated field in PBF data.");
+            }
+            pos += length;
+            return length;
+        }
+
+        String readString() {
+            int length = readLength();
+            return new String(bytes, pos - length, length, StandardCharsets.UTF_8);
+        }
+
+        /** Returns an Input over the contents of a packed repeated field. */
+        Input readPacked() {
+            int length = readLength();
+            return new Input(bytes, pos - length, pos);
+        }
+
+        /** Skips the value of the field with tag TAG. */
+        void skip(int tag) {
+            switch (tag & 7) {
+                case 0:
+                    readVarint();
+                    break;
+                case 1:
+                    pos += 8;
+                    break;
+                case 2:
+                    readLength();
+                    break;
+                case 5:
+                    pos += 4;
+                    break;
+                default:
+                    throw new IllegalStateException("Unsupported wire type " + (tag & 7) + " in PBF data.");
+            }
+        }
+    }
+}
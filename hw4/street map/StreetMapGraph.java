@@ -1,6 +1,7 @@
 package bearmaps.hw4.streetmap;
 
-import bearmaps.hw4.AStarGraph;
+import bearmaps.hw4.EdgeVisitor;
+import bearmaps.hw4.IndexedAStarGraph;
 import bearmaps.hw4.WeightedEdge;
 import org.xml.sax.SAXException;
 
@@ -10,31 +11,231 @@ import javax.xml.parsers.SAXParserFactory;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+
+public class StreetMapGraph implements IndexedAStarGraph<Long> {
+    /** Suffix of the binary snapshot of the graph saved next to the OSM file. */
+    private static final String SNAPSHOT_SUFFIX = ".snapshot";
+    /** Files are only split into pieces of at least this size for parallel scanning. */
+    private static final long MIN_CHUNK_BYTES = 4 << 20;
+    /** Pieces per thread for parallel scanning, so uneven pieces still balance out. */
+    private static final int CHUNKS_PER_THREAD = 4;
+
+    /** Where the vertices and edges of a loaded graph are kept. */
+    public enum Storage {
+        /** In Java arrays on the heap. */
+        HEAP,
+        /**
+         * In a memory-mapped snapshot file, off the heap, so that the heap
+         * footprint does not grow with the size of the map.
+         */
+        MAPPED
+    }
 
-public class StreetMapGraph implements AStarGraph<Long> {
+    /* Parse-time scaffolding; discarded once the graph is frozen into CSR form. */
     private Map<Long, Node> nodes = new HashMap<>();
     private Map<Long, Set<WeightedEdge<Long>>> neighbors = new HashMap<>();
+    private GraphStore store;
+
+    /* The file the graph was read from, and for applying changes, the model of that file. */
+    private String filename;
+    private OSMModel model;
+    private int version = 0;
+    private long[] changedIds = new long[0];
+    /* The indexes saved with the snapshot the graph was read from, until savedIndexes hands them over. */
+    private ByteBuffer savedIndexes;
 
     private StreetMapGraph() {
     }
 
+    /** Loads the graph of the OSM XML or PBF file FILENAME onto the heap. */
     public StreetMapGraph(String filename) {
-        StreetMapGraph smg = StreetMapGraph.readFromXML(filename);
-        this.nodes = smg.nodes;
-        this.neighbors = smg.neighbors;
+        this(filename, Storage.HEAP);
+    }
+
+    /**
+     * Loads the graph of the OSM XML or PBF file FILENAME into STORAGE. The
+     * format is told from the contents of the file, not its name. If a
+     * snapshot of that file was saved next to it, the graph is read from the
+     * snapshot instead of parsing the file; otherwise the file is parsed and a
+     * snapshot saved for the next time.
+     */
+    public StreetMapGraph(String filename, Storage storage) {
+        load(filename, storage);
+        this.filename = filename;
+        this.nodes = null;
+        this.neighbors = null;
+    }
+
+    /**
+     * Makes the next version of PREVIOUS, with CHANGE applied to it. PREVIOUS
+     * itself is left as it is, so queries running on it are not disturbed;
+     * only the vertices CHANGE touches are rebuilt, and the rest of the graph
+     * is copied over as it is. The first change made to a graph reads its OSM
+     * file again to learn its ways, which the graph does not keep.
+     *
+     * Versions form a line: a change can only be applied to the latest
+     * version of a graph, and it is an IllegalStateException otherwise.
+     */
+    protected StreetMapGraph(StreetMapGraph previous, OSMChange change) {
+        this.filename = previous.filename;
+        this.model = previous.model();
+        synchronized (model) {
+            if (model.version() != previous.version) {
+                throw new IllegalStateException("Changes can only be applied to the latest version of a graph.");
+            }
+            GraphPatch patch = new GraphPatch(previous.store, model);
+            patch.apply(change);
+            this.store = patch.build();
+            patch.commit();
+            this.version = model.version();
+            this.changedIds = patch.touchedIds();
+        }
+        this.nodes = null;
+        this.neighbors = null;
+    }
+
+    /**
+     * Returns the next version of this graph, with CHANGE applied to it. See
+     * StreetMapGraph(StreetMapGraph, OSMChange).
+     */
+    public StreetMapGraph withChange(OSMChange change) {
+        return new StreetMapGraph(this, change);
+    }
+
+    /** Returns the number of changes applied to the graph read from the file to make this one. */
+    public int version() {
+        return version;
+    }
+
+    /**
+     * Returns the ids of the vertices whose position, name or edges the change
+     * that made this version may have changed, including vertices it added or
+     * removed, in ascending order. Empty for a graph read from a file.
+     */
+    protected long[] changedIds() {
+        return changedIds.clone();
+    }
+
+    /** Returns the model of this graph's OSM file, reading the file on first use. */
+    private synchronized OSMModel model() {
+        if (model == null) {
+            if (filename == null) {
+                throw new IllegalStateException("Only graphs read from a file can be changed.");
+            }
+            try {
+                model = scan(filename).model();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return model;
+    }
+
+    /** Sets the store to the graph of FILENAME in STORAGE, and keeps any indexes saved with its snapshot. */
+    private void load(String filename, Storage storage) {
+        File source = new File(filename);
+        if (!source.isFile()) {
+            store = parse(filename);
+            return;
+        }
+        File snapshot = new File(filename + SNAPSHOT_SUFFIX);
+        try {
+            MappedGraphStore mapped = GraphSnapshot.map(snapshot, source);
+            if (mapped != null) {
+                store = storage == Storage.MAPPED ? mapped : CSRGraph.copyOf(mapped);
+                savedIndexes = mapped.indexes();
+                return;
+            }
+        } catch (IOException e) {
+            /* Unreadable; fall through and parse the file. */
+        }
+
+        store = parse(filename);
+        try {
+            GraphSnapshot.write(store, snapshot, source);
+            if (storage == Storage.MAPPED) {
+                MappedGraphStore mapped = GraphSnapshot.map(snapshot, source);
+                if (mapped != null) {
+                    store = mapped;
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
     }
 
     /**
-     * Returns a list of outgoing edges for V. Assumes V exists in this
-     * graph.
+     * Returns a stream of the indexes last saved by saveIndexes with the
+     * snapshot this graph was read from, or null if there are none: the
+     * graph was parsed, or no indexes were saved with its snapshot. They are
+     * handed over once; later calls return null, so the mapping can be freed.
+     */
+    protected InputStream savedIndexes() {
+        ByteBuffer indexes = savedIndexes;
+        savedIndexes = null;
+        return indexes == null || !indexes.hasRemaining() ? null : new BufferInputStream(indexes);
+    }
+
+    /**
+     * Saves INDEXES, built over this graph, with the snapshot of its file, so
+     * that graphs loaded from that snapshot find them in savedIndexes, in
+     * place of any saved before. Does nothing for graphs not read from a
+     * file, or with changes applied, since the snapshot is of the file.
+     */
+    protected void saveIndexes(byte[] indexes) throws IOException {
+        if (filename == null || version > 0 || !new File(filename).isFile()) {
+            return;
+        }
+        GraphSnapshot.write(store, new File(filename + SNAPSHOT_SUFFIX), new File(filename), indexes);
+    }
+
+    /** Parses FILENAME as PBF if it looks like a PBF file, and as XML otherwise. */
+    private static GraphStore parse(String filename) {
+        try {
+            if (PBFReader.isPBF(new File(filename))) {
+                return readFromPBF(filename).store;
+            }
+        } catch (IOException e) {
+            /* Unreadable; let the XML scanner report it. */
+        }
+        return scanXMLParallel(filename).store;
+    }
+
+    /** Reads FILENAME, as PBF or XML like parse, into a GraphBuilder on the common ForkJoinPool. */
+    private static GraphBuilder scan(String filename) throws IOException {
+        File file = new File(filename);
+        if (PBFReader.isPBF(file)) {
+            return PBFReader.read(file);
+        }
+        try {
+            return ForkJoinPool.commonPool().submit(() -> OSMScanner.scanParallel(file, numChunks(filename))).get();
+        } catch (InterruptedException | ExecutionException e) {
+            throw new IOException("Could not scan " + filename, e);
+        }
+    }
+
+    /**
+     * Returns a list of outgoing edges for V. The list is a fresh copy, so
+     * altering it does not alter this graph. Returns an empty list if V is
+     * not in this graph.
      **/
     @Override
     public List<WeightedEdge<Long>> neighbors(Long v) {
-        Set<WeightedEdge<Long>> incidentSet = neighbors.get(v);
-        List<WeightedEdge<Long>> incidentList = new ArrayList<>();
-        for (WeightedEdge<Long> e : incidentSet) {
-            incidentList.add(e);
+        int index = store.indexOf(v);
+        if (index < 0) {
+            return new ArrayList<>();
+        }
+        List<WeightedEdge<Long>> incidentList = new ArrayList<>(store.degree(index));
+        for (int e = store.edgeStart(index); e < store.edgeEnd(index); e++) {
+            WeightedEdge<Long> edge = new WeightedEdge<>(v, store.id(store.target(e)), store.weight(e));
+            edge.setName(store.wayName(e));
+            incidentList.add(edge);
         }
 
         return incidentList;
@@ -46,29 +247,54 @@ public class StreetMapGraph implements AStarGraph<Long> {
      */
     @Override
     public double estimatedDistanceToGoal(Long s, Long goal) {
-        Node sNode = nodes.get(s);
-        Node goalNode = nodes.get(goal);
-        return distance(sNode.lon(), goalNode.lon(), sNode.lat(), goalNode.lat());
+        return estimatedDistanceToGoal(store.indexOf(s), store.indexOf(goal));
+    }
+
+    @Override
+    public int numVertices() {
+        return store.size();
+    }
+
+    @Override
+    public int indexOf(Long v) {
+        return store.indexOf(v);
+    }
+
+    @Override
+    public Long vertex(int index) {
+        return store.id(index);
     }
 
     /**
-     * Returns a set of my vertices. Altering this set does not alter this
-     * graph.
-     **/
-    private Set<Long> vertices() {
-        Set<Long> vertices = new HashSet<>();
-        for (long id : nodes.keySet()) {
-            vertices.add(id);
+     * Visits the outgoing edges of the vertex with index V straight out of
+     * the graph store. Unlike neighbors, this allocates nothing.
+     */
+    @Override
+    public void forEachNeighbor(int v, EdgeVisitor visitor) {
+        for (int e = store.edgeStart(v); e < store.edgeEnd(v); e++) {
+            visitor.visit(store.target(e), store.weight(e));
         }
+    }
 
-        return vertices;
+    /** Returns the number of outgoing edges of the vertex with index V. */
+    public int degree(int v) {
+        return store.degree(v);
+    }
+
+    /**
+     * Returns the great-circle distance between the vertices with indices S
+     * and GOAL.
+     */
+    @Override
+    public double estimatedDistanceToGoal(int s, int goal) {
+        return distance(store.lon(s), store.lon(goal), store.lat(s), store.lat(goal));
     }
 
     /**
      * Factory method. Creates and returns a graph from an OSM XML
      * file. Assumes file is correctly formatted.
      */
-    private static StreetMapGraph readFromXML(String filename) {
+    public static StreetMapGraph readFromXML(String filename) {
         StreetMapGraph smg = new StreetMapGraph();
         try {
             File inputFile = new File(filename);
@@ -82,6 +308,88 @@ public class StreetMapGraph implements AStarGraph<Long> {
         }
 
         smg.clean();
+        smg.freeze();
+        smg.filename = filename;
+        return smg;
+    }
+
+    /**
+     * Factory method. Creates and returns the same graph as readFromXML, but
+     * scans the file with OSMScanner instead of a SAX parser, which is much
+     * faster and creates far less garbage. Assumes file is correctly formatted.
+     */
+    public static StreetMapGraph scanXML(String filename) {
+        StreetMapGraph smg = new StreetMapGraph();
+        GraphBuilder builder = new GraphBuilder();
+        try {
+            OSMScanner.scan(new File(filename), builder);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+
+        smg.store = builder.build();
+        smg.filename = filename;
+        smg.nodes = null;
+        smg.neighbors = null;
+        return smg;
+    }
+
+    /**
+     * Factory method. Creates and returns the same graph as scanXML, but
+     * scans the file in pieces at once and builds the graph on the common
+     * ForkJoinPool. Assumes file is correctly formatted.
+     */
+    public static StreetMapGraph scanXMLParallel(String filename) {
+        return scanXMLParallel(filename, ForkJoinPool.commonPool(), numChunks(filename));
+    }
+
+    /** Returns how many pieces to scan FILENAME in on the common ForkJoinPool. */
+    private static int numChunks(String filename) {
+        return (int) Math.min(new File(filename).length() / MIN_CHUNK_BYTES + 1,
+                CHUNKS_PER_THREAD * ForkJoinPool.commonPool().getParallelism());
+    }
+
+    /**
+     * Factory method. Creates and returns the same graph as scanXML, scanning
+     * the file in up to NUMCHUNKS pieces at once and building the graph on
+     * POOL. Assumes file is correctly formatted.
+     */
+    public static StreetMapGraph scanXMLParallel(String filename, ForkJoinPool pool, int numChunks) {
+        if (numChunks < 1) {
+            throw new IllegalArgumentException("Need at least one chunk.");
+        }
+        StreetMapGraph smg = new StreetMapGraph();
+        try {
+            smg.store = pool.submit(() -> OSMScanner.scanParallel(new File(filename), numChunks).build(true)).get();
+        } catch (InterruptedException | ExecutionException e) {
+            e.printStackTrace();
+            smg.store = new GraphBuilder().build();
+        }
+        smg.filename = filename;
+
+        smg.nodes = null;
+        smg.neighbors = null;
+        return smg;
+    }
+
+    /**
+     * Factory method. Creates and returns a graph from an OSM PBF file, with
+     * the same vertices, edges and names as readFromXML would make from the
+     * same data as XML. The file's blocks are decoded on the common
+     * ForkJoinPool. Assumes file is correctly formatted.
+     */
+    public static StreetMapGraph readFromPBF(String filename) {
+        StreetMapGraph smg = new StreetMapGraph();
+        try {
+            smg.store = PBFReader.read(new File(filename)).build(true);
+        } catch (IOException | RuntimeException e) {
+            e.printStackTrace();
+            smg.store = new GraphBuilder().build();
+        }
+        smg.filename = filename;
+
+        smg.nodes = null;
+        smg.neighbors = null;
         return smg;
     }
 
@@ -116,7 +424,7 @@ public class StreetMapGraph implements AStarGraph<Long> {
     private void clean() {
         List<Long> toRemove = new ArrayList<>();
         for (long id : nodes.keySet()) {
-            if (neighbors(id).size() == 0 && nodes.get(id).name() == null) {
+            if (neighbors.get(id).size() == 0 && nodes.get(id).name() == null) {
                 toRemove.add(id);
             }
         }
@@ -127,6 +435,16 @@ public class StreetMapGraph implements AStarGraph<Long> {
         }
     }
 
+    /**
+     * Packs the parsed nodes and edges into their CSR form and drops the
+     * per-edge objects used while parsing.
+     */
+    private void freeze() {
+        store = CSRGraph.build(nodes, neighbors);
+        nodes = null;
+        neighbors = null;
+    }
+
     /**
      * We don't override hashCode(), so hash at your peril!
      */
@@ -137,33 +455,31 @@ public class StreetMapGraph implements AStarGraph<Long> {
         }
 
         StreetMapGraph otherGraph = (StreetMapGraph) o;
-        Set<Long> myVertices = vertices(), otherGraphVertices = otherGraph.vertices();
+        GraphStore mine = store, other = otherGraph.store;
 
-        if (myVertices.size() != otherGraphVertices.size()) {
+        if (mine.size() != other.size()) {
             return false;
         }
 
-        for (long id : myVertices) {
-            if (!otherGraphVertices.contains(id)) {
+        for (int v = 0; v < mine.size(); v++) {
+            /* Vertices are sorted by id, so equal vertex sets have equal ids at every index. */
+            if (mine.id(v) != other.id(v)) {
                 return false;
             }
 
-            List<WeightedEdge<Long>> myNeighbors = neighbors(id);
-            List<WeightedEdge<Long>> otherGraphNeighbors = otherGraph.neighbors(id);
-
-            if (myNeighbors.size() != otherGraphNeighbors.size()) {
+            if (mine.degree(v) != other.degree(v)) {
                 return false;
             }
 
-            Set<Long> neighborsSet = new HashSet<>();
-            for (WeightedEdge<Long> e : myNeighbors) {
-                neighborsSet.add(e.to());
+            Set<Integer> neighborsSet = new HashSet<>();
+            for (int e = mine.edgeStart(v); e < mine.edgeEnd(v); e++) {
+                neighborsSet.add(mine.target(e));
             }
 
             int initialSize = neighborsSet.size();
 
-            for (WeightedEdge<Long> e : otherGraphNeighbors) {
-                neighborsSet.add(e.to());
+            for (int e = other.edgeStart(v); e < other.edgeEnd(v); e++) {
+                neighborsSet.add(other.target(e));
                 if (neighborsSet.size() != initialSize) {
                     return false;
                 }
@@ -179,7 +495,7 @@ public class StreetMapGraph implements AStarGraph<Long> {
      *
      * @source Kevin Lowe & Antares Chen, and https://www.movable-type.co.uk/scripts/latlong.html
      **/
-    private double distance(double lonV, double lonW, double latV, double latW) {
+    static double distance(double lonV, double lonW, double latV, double latW) {
         double phi1 = Math.toRadians(latV);
         double phi2 = Math.toRadians(latW);
         double dphi = Math.toRadians(latW - latV);
@@ -197,10 +513,11 @@ public class StreetMapGraph implements AStarGraph<Long> {
      * @return The longitude of the vertex.
      */
     public double lon(long v) {
-        if (!nodes.containsKey(v)) {
+        int index = store.indexOf(v);
+        if (index < 0) {
             return 0.0;
         }
-        return nodes.get(v).lon();
+        return store.lon(index);
     }
 
     /**
@@ -209,10 +526,11 @@ public class StreetMapGraph implements AStarGraph<Long> {
      * @return The latitude of the vertex.
      */
     public double lat(long v) {
-        if (!nodes.containsKey(v)) {
+        int index = store.indexOf(v);
+        if (index < 0) {
             return 0.0;
         }
-        return nodes.get(v).lat();
+        return store.lat(index);
     }
 
     /**
@@ -221,17 +539,47 @@ public class StreetMapGraph implements AStarGraph<Long> {
      * @return The name of the vertex.
      */
     public String name(long v) {
-        if (!nodes.containsKey(v)) {
+        int index = store.indexOf(v);
+        if (index < 0) {
             return null;
         }
-        return nodes.get(v).name();
+        return store.name(index);
     }
 
     protected List<Node> getNodes() {
-        List<Node> nodes = new ArrayList<>();
-        for(Map.Entry<Long, Node> nodeEntry: this.nodes.entrySet()){
-            nodes.add(nodeEntry.getValue());
+        List<Node> nodes = new ArrayList<>(store.size());
+        for (int v = 0; v < store.size(); v++) {
+            Node node = Node.of(store.id(v), store.lat(v), store.lon(v));
+            node.setName(store.name(v));
+            nodes.add(node);
         }
         return nodes;
     }
+
+    /** An InputStream of the remaining bytes of a buffer, which unlike ByteArrayInputStream takes no locks. */
+    private static class BufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        BufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) {
+            if (length == 0) {
+                return 0;
+            }
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            length = Math.min(length, buffer.remaining());
+            buffer.get(bytes, offset, length);
+            return length;
+        }
+    }
 }
@@ -0,0 +1,148 @@
+package bearmaps.proj2ab;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * Array-backed d-ary min heap implementation of ExtrinsicMinPQ. Every item's
+ * position in the heap is tracked in a map, so contains is O(1) and
+ * changePriority is O(log n) without rebuilding anything. The arity (number
+ * of children per node) is configurable; wider heaps are shallower, which
+ * trades a few more comparisons per sift-down for fewer cache misses.
+ */
+public class ArrayHeapMinPQ<T> implements ExtrinsicMinPQ<T> {
+    private static final int DEFAULT_ARITY = 4;
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final int arity;
+    private T[] items;
+    private double[] priorities;
+    private final Map<T, Integer> positions = new HashMap<>();
+    private int size;
+
+    public ArrayHeapMinPQ() {
+        this(DEFAULT_ARITY);
+    }
+
+    /** Creates an empty heap in which each node has ARITY children, e.g. 2, 4 or 8. */
+    @SuppressWarnings("unchecked")
+    public ArrayHeapMinPQ(int arity) {
+        if (arity < 2) {
+            throw new IllegalArgumentException("Arity must be at least 2, got " + arity);
+        }
+        this.arity = arity;
+        items = (T[]) new Object[INITIAL_CAPACITY];
+        priorities = new double[INITIAL_CAPACITY];
+    }
+
+    @Override
+    public void add(T item, double priority) {
+        if (positions.containsKey(item)) {
+            throw new IllegalArgumentException("Already contains " + item);
+        }
+        if (size == items.length) {
+            items = Arrays.copyOf(items, size * 2);
+            priorities = Arrays.copyOf(priorities, size * 2);
+        }
+        items[size] = item;
+        priorities[size] = priority;
+        positions.put(item, size);
+        size += 1;
+        siftUp(size - 1);
+    }
+
+    @Override
+    public boolean contains(T item) {
+        return positions.containsKey(item);
+    }
+
+    @Override
+    public T getSmallest() {
+        if (size == 0) {
+            throw new NoSuchElementException("PQ is empty.");
+        }
+        return items[0];
+    }
+
+    @Override
+    public T removeSmallest() {
+        if (size == 0) {
+            throw new NoSuchElementException("PQ is empty.");
+        }
+        T smallest = items[0];
+        positions.remove(smallest);
+        size -= 1;
+        if (size > 0) {
+            place(items[size], priorities[size], 0);
+            siftDown(0);
+        }
+        items[size] = null;
+        return smallest;
+    }
+
+    @Override
+    public void changePriority(T item, double priority) {
+        Integer position = positions.get(item);
+        if (position == null) {
+            throw new IllegalArgumentException(item + " not in PQ.");
+        }
+        double oldPriority = priorities[position];
+        priorities[position] = priority;
+        if (priority < oldPriority) {
+            siftUp(position);
+        } else {
+            siftDown(position);
+        }
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    private void siftUp(int i) {
+        T item = items[i];
+        double priority = priorities[i];
+        while (i > 0) {
+            int parent = (i - 1) / arity;
+            if (priorities[parent] <= priority) {
+                break;
+            }
+            place(items[parent], priorities[parent], i);
+            i = parent;
+        }
+        place(item, priority, i);
+    }
+
+    private void siftDown(int i) {
+        T item = items[i];
+        double priority = priorities[i];
+        while (true) {
+            int first = arity * i + 1;
+            if (first >= size) {
+                break;
+            }
+            int last = Math.min(first + arity, size);
+            int best = first;
+            for (int c = first + 1; c < last; c++) {
+                if (priorities[c] < priorities[best]) {
+                    best = c;
+                }
+            }
+            if (priorities[best] >= priority) {
+                break;
+            }
+            place(items[best], priorities[best], i);
+            i = best;
+        }
+        place(item, priority, i);
+    }
+
+    private void place(T item, double priority, int i) {
+        items[i] = item;
+        priorities[i] = priority;
+        positions.put(item, i);
+    }
+}
@@ -0,0 +1,87 @@
+package bearmaps.proj2ab;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Writes and reads whole primitive arrays, in the big-endian order of
+ * DataOutput, for saving indexes next to the data they were built from.
+ * Each array goes through one byte[] in one call, so reading an index back
+ * costs about a copy of it, where reading value by value through a
+ * DataInputStream makes several calls per value.
+ */
+public final class ArrayStreams {
+    private ArrayStreams() {
+    }
+
+    /** Writes VALUES to OUT, without their length. */
+    public static void writeInts(DataOutput out, int[] values) throws IOException {
+        ByteBuffer bytes = ByteBuffer.allocate(4 * values.length);
+        bytes.asIntBuffer().put(values);
+        out.write(bytes.array());
+    }
+
+    /** Writes VALUES to OUT, without their length. */
+    public static void writeChars(DataOutput out, char[] values) throws IOException {
+        ByteBuffer bytes = ByteBuffer.allocate(2 * values.length);
+        bytes.asCharBuffer().put(values);
+        out.write(bytes.array());
+    }
+
+    /** Writes VALUES to OUT, without their length. */
+    public static void writeLongs(DataOutput out, long[] values) throws IOException {
+        ByteBuffer bytes = ByteBuffer.allocate(8 * values.length);
+        bytes.asLongBuffer().put(values);
+        out.write(bytes.array());
+    }
+
+    /** Writes VALUES to OUT, without their length. */
+    public static void writeDoubles(DataOutput out, double[] values) throws IOException {
+        ByteBuffer bytes = ByteBuffer.allocate(8 * values.length);
+        bytes.asDoubleBuffer().put(values);
+        out.write(bytes.array());
+    }
+
+    /** Reads COUNT ints written by writeInts. */
+    public static int[] readInts(DataInput in, int count) throws IOException {
+        ByteBuffer bytes = read(in, 4 * count);
+        int[] values = new int[count];
+        bytes.asIntBuffer().get(values);
+        return values;
+    }
+
+    /** Reads COUNT chars written by writeChars. */
+    public static char[] readChars(DataInput in, int count) throws IOException {
+        ByteBuffer bytes = read(in, 2 * count);
+        char[] values = new char[count];
+        bytes.asCharBuffer().get(values);
+        return values;
+    }
+
+    /** Reads COUNT longs written by writeLongs. */
+    public static long[] readLongs(DataInput in, int count) throws IOException {
+        ByteBuffer bytes = read(in, 8 * count);
+        long[] values = new long[count];
+        bytes.asLongBuffer().get(values);
+        return values;
+    }
+
+    /** Reads COUNT doubles written by writeDoubles. */
+    public static double[] readDoubles(DataInput in, int count) throws IOException {
+        ByteBuffer bytes = read(in, 8 * count);
+        double[] values = new double[count];
+        bytes.asDoubleBuffer().get(values);
+        return values;
+    }
+
+    private static ByteBuffer read(DataInput in, int length) throws IOException {
+        if (length < 0) {
+            throw new IOException("Array length out of range.");
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return ByteBuffer.wrap(bytes);
+    }
+}
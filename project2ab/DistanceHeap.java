@@ -0,0 +1,83 @@
+package bearmaps.proj2ab;
+
+/**
+ * A bounded max-heap of point positions kept in a caller's int[], ordered
+ * by squared distance from a query point, for the k-nearest searches of
+ * KDTreePointSet and GridPointSet. Distances are recomputed from the
+ * points' coordinates, XS[p] and YS[p], rather than stored, so the heap
+ * needs no array of its own and a search allocates nothing.
+ */
+final class DistanceHeap {
+    private DistanceHeap() {
+    }
+
+    /** Returns the squared distance of the farthest of the positions in HEAP, which must not be empty. */
+    static double top(double[] xs, double[] ys, int[] heap, double x, double y, double xScale) {
+        return KDTreePointSet.squaredDistance(xs[heap[0]], ys[heap[0]], x, y, xScale);
+    }
+
+    /**
+     * Adds position P to the heap of COUNT positions in HEAP, which holds at
+     * most K, in place of the farthest if it is full, and returns the new
+     * number of positions. P must be nearer than the farthest if it is full.
+     */
+    static int add(double[] xs, double[] ys, int[] heap, int count, int k, int p,
+                   double x, double y, double xScale) {
+        if (count < k) {
+            heap[count] = p;
+            siftUp(xs, ys, heap, count, x, y, xScale);
+            return count + 1;
+        }
+        heap[0] = p;
+        siftDown(xs, ys, heap, count, x, y, xScale);
+        return count;
+    }
+
+    /** Sorts the heap of COUNT positions in HEAP, nearest first. */
+    static void sort(double[] xs, double[] ys, int[] heap, int count, double x, double y, double xScale) {
+        for (int end = count - 1; end > 0; end--) {
+            int farthest = heap[0];
+            heap[0] = heap[end];
+            heap[end] = farthest;
+            siftDown(xs, ys, heap, end, x, y, xScale);
+        }
+    }
+
+    private static void siftUp(double[] xs, double[] ys, int[] heap, int i, double x, double y, double xScale) {
+        int p = heap[i];
+        double distance = KDTreePointSet.squaredDistance(xs[p], ys[p], x, y, xScale);
+        while (i > 0) {
+            int parent = (i - 1) / 2;
+            if (KDTreePointSet.squaredDistance(xs[heap[parent]], ys[heap[parent]], x, y, xScale) >= distance) {
+                break;
+            }
+            heap[i] = heap[parent];
+            i = parent;
+        }
+        heap[i] = p;
+    }
+
+    private static void siftDown(double[] xs, double[] ys, int[] heap, int count, double x, double y, double xScale) {
+        int p = heap[0];
+        double distance = KDTreePointSet.squaredDistance(xs[p], ys[p], x, y, xScale);
+        int i = 0;
+        while (2 * i + 1 < count) {
+            int child = 2 * i + 1;
+            double childDistance = KDTreePointSet.squaredDistance(xs[heap[child]], ys[heap[child]], x, y, xScale);
+            if (child + 1 < count) {
+                double rightDistance = KDTreePointSet.squaredDistance(xs[heap[child + 1]], ys[heap[child + 1]],
+                        x, y, xScale);
+                if (rightDistance > childDistance) {
+                    child += 1;
+                    childDistance = rightDistance;
+                }
+            }
+            if (childDistance <= distance) {
+                break;
+            }
+            heap[i] = heap[child];
+            i = child;
+        }
+        heap[i] = p;
+    }
+}
@@ -0,0 +1,318 @@
+package bearmaps.proj2ab;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.BitSet;
+import java.util.List;
+import java.util.function.IntPredicate;
+
+/**
+ * An IndexedPointSet kept in a uniform grid. The points are laid out by
+ * counting sort on their cell, so the coordinates of cell 0's points come
+ * first in flat double[] arrays, then those of cell 1, and so on, with the
+ * start of each cell's run in an int[]. The grid is sized for about two
+ * points per cell, with cells roughly square on the ground.
+ *
+ * Searches visit rings of cells outward from the query's cell until the
+ * points found are nearer than any cell left, as SegmentGrid does. On
+ * evenly spread points that is a handful of cells read straight through;
+ * where points cluster, queries in the empty space between clusters have
+ * to cross many empty cells, which a KDTreePointSet does not.
+ */
+public class GridPointSet implements IndexedPointSet {
+    /* Points per cell the grid is sized for, and the most cells it may have. */
+    private static final int POINTS_PER_CELL = 2;
+    private static final int MAX_CELLS = 1 << 22;
+
+    /* The coordinates of the point at position p, positions being in cell order. */
+    private final double[] xs;
+    private final double[] ys;
+    /* indices[p] is the input index of the point at position p. */
+    private final int[] indices;
+    private final double minX;
+    private final double minY;
+    private final double cellWidth;
+    private final double cellHeight;
+    private final int columns;
+    private final int rows;
+    /* The points of cell c are at positions [cellStarts[c], cellStarts[c + 1]). Cells go row by row. */
+    private final int[] cellStarts;
+
+    public GridPointSet(List<Point> points) {
+        this(xs(points), ys(points));
+    }
+
+    /** Builds a grid of the points (XS[i], YS[i]). The arrays are not kept. */
+    public GridPointSet(double[] xs, double[] ys) {
+        if (xs.length != ys.length) {
+            throw new IllegalArgumentException("Got " + xs.length + " xs but " + ys.length + " ys");
+        }
+        int n = xs.length;
+        double minX = Double.POSITIVE_INFINITY;
+        double minY = Double.POSITIVE_INFINITY;
+        double maxX = Double.NEGATIVE_INFINITY;
+        double maxY = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < n; i++) {
+            minX = Math.min(minX, xs[i]);
+            minY = Math.min(minY, ys[i]);
+            maxX = Math.max(maxX, xs[i]);
+            maxY = Math.max(maxY, ys[i]);
+        }
+        if (n == 0) {
+            minX = 0;
+            minY = 0;
+            maxX = 0;
+            maxY = 0;
+        }
+        this.minX = minX;
+        this.minY = minY;
+
+        /* Pick the shape so cells are about square on the ground. */
+        double width = Math.max((maxX - minX) * KDTreePointSet.xScale((minY + maxY) / 2), 1e-9);
+        double height = Math.max(maxY - minY, 1e-9);
+        double cells = Math.max(1, Math.min(MAX_CELLS, n / POINTS_PER_CELL));
+        double side = Math.sqrt(width * height / cells);
+        columns = (int) Math.max(1, Math.min(MAX_CELLS, Math.round(width / side)));
+        rows = (int) Math.max(1, Math.min(MAX_CELLS / columns, Math.round(height / side)));
+        cellWidth = Math.max(maxX - minX, 1e-9) / columns;
+        cellHeight = height / rows;
+
+        /* Count the points of each cell, turn the counts into starts, then place the points. */
+        int[] cellOf = new int[n];
+        cellStarts = new int[columns * rows + 1];
+        for (int i = 0; i < n; i++) {
+            cellOf[i] = row(ys[i]) * columns + column(xs[i]);
+            cellStarts[cellOf[i] + 1] += 1;
+        }
+        for (int c = 0; c < columns * rows; c++) {
+            cellStarts[c + 1] += cellStarts[c];
+        }
+        int[] next = new int[columns * rows];
+        System.arraycopy(cellStarts, 0, next, 0, next.length);
+        this.xs = new double[n];
+        this.ys = new double[n];
+        indices = new int[n];
+        for (int i = 0; i < n; i++) {
+            int p = next[cellOf[i]]++;
+            this.xs[p] = xs[i];
+            this.ys[p] = ys[i];
+            indices[p] = i;
+        }
+    }
+
+    private GridPointSet(double[] xs, double[] ys, int[] indices, double minX, double minY,
+                         double cellWidth, double cellHeight, int columns, int rows, int[] cellStarts) {
+        this.xs = xs;
+        this.ys = ys;
+        this.indices = indices;
+        this.minX = minX;
+        this.minY = minY;
+        this.cellWidth = cellWidth;
+        this.cellHeight = cellHeight;
+        this.columns = columns;
+        this.rows = rows;
+        this.cellStarts = cellStarts;
+    }
+
+    /** Writes this grid to OUT, for read to load it back without building it again. */
+    public void write(DataOutput out) throws IOException {
+        out.writeInt(indices.length);
+        out.writeInt(columns);
+        out.writeInt(rows);
+        out.writeDouble(minX);
+        out.writeDouble(minY);
+        out.writeDouble(cellWidth);
+        out.writeDouble(cellHeight);
+        ArrayStreams.writeDoubles(out, xs);
+        ArrayStreams.writeDoubles(out, ys);
+        ArrayStreams.writeInts(out, indices);
+        ArrayStreams.writeInts(out, cellStarts);
+    }
+
+    /** Reads a grid written by write. */
+    public static GridPointSet read(DataInput in) throws IOException {
+        int n = in.readInt();
+        int columns = in.readInt();
+        int rows = in.readInt();
+        if (n < 0 || columns <= 0 || rows <= 0 || columns > MAX_CELLS / rows) {
+            throw new IOException("Not a saved GridPointSet.");
+        }
+        double minX = in.readDouble();
+        double minY = in.readDouble();
+        double cellWidth = in.readDouble();
+        double cellHeight = in.readDouble();
+        return new GridPointSet(ArrayStreams.readDoubles(in, n), ArrayStreams.readDoubles(in, n),
+                ArrayStreams.readInts(in, n), minX, minY, cellWidth, cellHeight, columns, rows,
+                ArrayStreams.readInts(in, columns * rows + 1));
+    }
+
+    @Override
+    public int size() {
+        return indices.length;
+    }
+
+    @Override
+    public Point nearest(double x, double y) {
+        int p = nearestPosition(x, y, null);
+        return p < 0 ? null : new Point(xs[p], ys[p]);
+    }
+
+    @Override
+    public int nearestIndex(double x, double y) {
+        int p = nearestPosition(x, y, null);
+        return p < 0 ? -1 : indices[p];
+    }
+
+    @Override
+    public int nearestIndex(double x, double y, BitSet excluded) {
+        int p = nearestPosition(x, y, excluded);
+        return p < 0 ? -1 : indices[p];
+    }
+
+    @Override
+    public int nearestK(double x, double y, int k, double meters, IntPredicate accept, int[] indices) {
+        if (k > indices.length) {
+            throw new IllegalArgumentException("Cannot fit " + k + " points in " + indices.length);
+        }
+        if (k <= 0) {
+            return 0;
+        }
+        double xScale = KDTreePointSet.xScale(y);
+        double radius = meters / KDTreePointSet.METERS_PER_DEGREE;
+        radius *= radius;
+        int column = column(x);
+        int row = row(y);
+        int count = 0;
+        for (int ring = 0; ; ring++) {
+            int c0 = column - ring;
+            int c1 = column + ring;
+            int r0 = row - ring;
+            int r1 = row + ring;
+            for (int r = Math.max(r0, 0); r <= Math.min(r1, rows - 1); r++) {
+                /* Inner rows of the ring only have their two end cells. */
+                int step = r == r0 || r == r1 ? 1 : Math.max(c1 - c0, 1);
+                for (int c = c0; c <= c1; c += step) {
+                    if (c < 0 || c >= columns) {
+                        continue;
+                    }
+                    int cell = r * columns + c;
+                    for (int p = cellStarts[cell]; p < cellStarts[cell + 1]; p++) {
+                        double distance = KDTreePointSet.squaredDistance(xs[p], ys[p], x, y, xScale);
+                        if (distance <= radius
+                                && (count < k || distance < DistanceHeap.top(xs, ys, indices, x, y, xScale))
+                                && (accept == null || accept.test(this.indices[p]))) {
+                            count = DistanceHeap.add(xs, ys, indices, count, k, p, x, y, xScale);
+                        }
+                    }
+                }
+            }
+
+            double bound = bound(c0, c1, r0, r1, x, y, xScale);
+            double farthest = count < k ? radius : DistanceHeap.top(xs, ys, indices, x, y, xScale);
+            if (bound == Double.POSITIVE_INFINITY || farthest < bound) {
+                break;
+            }
+        }
+
+        DistanceHeap.sort(xs, ys, indices, count, x, y, xScale);
+        for (int i = 0; i < count; i++) {
+            indices[i] = this.indices[indices[i]];
+        }
+        return count;
+    }
+
+    private int nearestPosition(double x, double y, BitSet excluded) {
+        double xScale = KDTreePointSet.xScale(y);
+        int column = column(x);
+        int row = row(y);
+        int best = -1;
+        double bestDistance = Double.POSITIVE_INFINITY;
+        for (int ring = 0; ; ring++) {
+            int c0 = column - ring;
+            int c1 = column + ring;
+            int r0 = row - ring;
+            int r1 = row + ring;
+            for (int r = Math.max(r0, 0); r <= Math.min(r1, rows - 1); r++) {
+                int step = r == r0 || r == r1 ? 1 : Math.max(c1 - c0, 1);
+                for (int c = c0; c <= c1; c += step) {
+                    if (c < 0 || c >= columns) {
+                        continue;
+                    }
+                    int cell = r * columns + c;
+                    for (int p = cellStarts[cell]; p < cellStarts[cell + 1]; p++) {
+                        double distance = KDTreePointSet.squaredDistance(xs[p], ys[p], x, y, xScale);
+                        if (distance < bestDistance && (excluded == null || !excluded.get(indices[p]))) {
+                            best = p;
+                            bestDistance = distance;
+                        }
+                    }
+                }
+            }
+
+            if (bestDistance <= bound(c0, c1, r0, r1, x, y, xScale)) {
+                return best;
+            }
+        }
+    }
+
+    /**
+     * Returns the squared distance from (X, Y) to the nearest cell outside
+     * [C0, C1] x [R0, R1], or infinity if those cover the grid. Every point
+     * not seen yet is at least that far away. The cells left are those of
+     * the strips on each side of the searched ones, which span the grid.
+     */
+    private double bound(int c0, int c1, int r0, int r1, double x, double y, double xScale) {
+        double maxX = minX + columns * cellWidth;
+        double maxY = minY + rows * cellHeight;
+        double bound = Double.POSITIVE_INFINITY;
+        if (c0 > 0) {
+            bound = Math.min(bound, squaredDistance(minX, minX + c0 * cellWidth, minY, maxY, x, y, xScale));
+        }
+        if (c1 < columns - 1) {
+            bound = Math.min(bound, squaredDistance(minX + (c1 + 1) * cellWidth, maxX, minY, maxY, x, y, xScale));
+        }
+        if (r0 > 0) {
+            bound = Math.min(bound, squaredDistance(minX, maxX, minY, minY + r0 * cellHeight, x, y, xScale));
+        }
+        if (r1 < rows - 1) {
+            bound = Math.min(bound, squaredDistance(minX, maxX, minY + (r1 + 1) * cellHeight, maxY, x, y, xScale));
+        }
+        return bound;
+    }
+
+    /**
+     * Returns the squared distance from (X, Y) to the box [X0, X1] x [Y0, Y1],
+     * as KDTreePointSet.squaredDistance would with XSCALE.
+     */
+    static double squaredDistance(double x0, double x1, double y0, double y1, double x, double y,
+                                  double xScale) {
+        double dx = Math.max(0, Math.max(x0 - x, x - x1)) * xScale;
+        double dy = Math.max(0, Math.max(y0 - y, y - y1));
+        return dx * dx + dy * dy;
+    }
+
+    private int column(double x) {
+        return Math.max(0, Math.min(columns - 1, (int) Math.floor((x - minX) / cellWidth)));
+    }
+
+    private int row(double y) {
+        return Math.max(0, Math.min(rows - 1, (int) Math.floor((y - minY) / cellHeight)));
+    }
+
+    private static double[] xs(List<Point> points) {
+        double[] xs = new double[points.size()];
+        for (int i = 0; i < xs.length; i++) {
+            xs[i] = points.get(i).getX();
+        }
+        return xs;
+    }
+
+    private static double[] ys(List<Point> points) {
+        double[] ys = new double[points.size()];
+        for (int i = 0; i < ys.length; i++) {
+            ys[i] = points.get(i).getY();
+        }
+        return ys;
+    }
+}
@@ -0,0 +1,50 @@
+package bearmaps.proj2ab;
+
+import java.util.BitSet;
+import java.util.function.IntPredicate;
+
+/**
+ * A PointSet of geographic points, x being the longitude and y the
+ * latitude, that reports points by their index in its input rather than
+ * as new Points, so that its searches need not allocate. Distances are
+ * equirectangular, as computed by KDTreePointSet.squaredDistance.
+ */
+public interface IndexedPointSet extends PointSet {
+    /** Returns the number of points in this set. */
+    int size();
+
+    /** Returns the input index of the point nearest (X, Y), or -1 if there are no points. */
+    int nearestIndex(double x, double y);
+
+    /**
+     * Returns the input index of the point nearest (X, Y) whose input index
+     * is not set in EXCLUDED, or -1 if there is no such point.
+     */
+    int nearestIndex(double x, double y, BitSet excluded);
+
+    /**
+     * Puts the input indices of the K points nearest (X, Y) into INDICES,
+     * nearest first, and returns how many there were: K, or fewer if there
+     * are fewer points.
+     */
+    default int nearestK(double x, double y, int k, int[] indices) {
+        return nearestK(x, y, k, Double.POSITIVE_INFINITY, null, indices);
+    }
+
+    /**
+     * Puts the input indices of the points within METERS of (X, Y) into
+     * INDICES, nearest first, and returns how many there were. If there are
+     * more than INDICES can hold, only the nearest are returned.
+     */
+    default int withinRadius(double x, double y, double meters, int[] indices) {
+        return nearestK(x, y, indices.length, meters, null, indices);
+    }
+
+    /**
+     * Puts the input indices of the K points nearest (X, Y), among those
+     * within METERS of it that ACCEPT holds for, into INDICES, nearest first,
+     * and returns how many there were. ACCEPT is given input indices; null
+     * accepts every point.
+     */
+    int nearestK(double x, double y, int k, double meters, IntPredicate accept, int[] indices);
+}
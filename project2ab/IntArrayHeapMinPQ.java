@@ -0,0 +1,183 @@
+package bearmaps.proj2ab;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+/**
+ * Primitive specialization of ArrayHeapMinPQ for items that are dense ints
+ * in [0, capacity), such as vertex indices. The position of each item is
+ * kept in an int[] indexed by the item itself, so no operation boxes,
+ * hashes or allocates. clear() only touches the items currently queued, so
+ * one instance can be reused cheaply across many searches.
+ */
+public class IntArrayHeapMinPQ {
+    private static final int DEFAULT_ARITY = 4;
+
+    private final int arity;
+    private int[] heap;
+    private double[] priorities;
+    /* positions[item] is the item's index in heap, or -1 if it is not queued. */
+    private int[] positions;
+    private int size;
+
+    public IntArrayHeapMinPQ(int capacity) {
+        this(capacity, DEFAULT_ARITY);
+    }
+
+    /** Creates an empty heap for items in [0, CAPACITY) whose nodes have ARITY children. */
+    public IntArrayHeapMinPQ(int capacity, int arity) {
+        if (arity < 2) {
+            throw new IllegalArgumentException("Arity must be at least 2, got " + arity);
+        }
+        this.arity = arity;
+        heap = new int[capacity];
+        priorities = new double[capacity];
+        positions = new int[capacity];
+        Arrays.fill(positions, -1);
+    }
+
+    /** Returns the number of distinct items this heap can hold. */
+    public int capacity() {
+        return positions.length;
+    }
+
+    /** Grows the heap so it can hold items in [0, CAPACITY). Keeps queued items. */
+    public void ensureCapacity(int capacity) {
+        int old = positions.length;
+        if (capacity <= old) {
+            return;
+        }
+        heap = Arrays.copyOf(heap, capacity);
+        priorities = Arrays.copyOf(priorities, capacity);
+        positions = Arrays.copyOf(positions, capacity);
+        Arrays.fill(positions, old, capacity, -1);
+    }
+
+    /* Inserts an item with the given priority value. */
+    public void add(int item, double priority) {
+        if (positions[item] >= 0) {
+            throw new IllegalArgumentException("Already contains " + item);
+        }
+        positions[item] = size;
+        heap[size] = item;
+        priorities[size] = priority;
+        size += 1;
+        siftUp(size - 1);
+    }
+
+    /* Returns true if the PQ contains the given item. */
+    public boolean contains(int item) {
+        return positions[item] >= 0;
+    }
+
+    /* Returns the minimum item. */
+    public int getSmallest() {
+        if (size == 0) {
+            throw new NoSuchElementException("PQ is empty.");
+        }
+        return heap[0];
+    }
+
+    /* Returns the priority of the minimum item. */
+    public double getSmallestPriority() {
+        if (size == 0) {
+            throw new NoSuchElementException("PQ is empty.");
+        }
+        return priorities[0];
+    }
+
+    /* Returns the priority of the given item, which must be in the PQ. */
+    public double priority(int item) {
+        if (positions[item] < 0) {
+            throw new IllegalArgumentException(item + " not in PQ.");
+        }
+        return priorities[positions[item]];
+    }
+
+    /* Removes and returns the minimum item. */
+    public int removeSmallest() {
+        if (size == 0) {
+            throw new NoSuchElementException("PQ is empty.");
+        }
+        int smallest = heap[0];
+        positions[smallest] = -1;
+        size -= 1;
+        if (size > 0) {
+            place(heap[size], priorities[size], 0);
+            siftDown(0);
+        }
+        return smallest;
+    }
+
+    /* Changes the priority of the given item, which must be in the PQ. */
+    public void changePriority(int item, double priority) {
+        int position = positions[item];
+        if (position < 0) {
+            throw new IllegalArgumentException(item + " not in PQ.");
+        }
+        double oldPriority = priorities[position];
+        priorities[position] = priority;
+        if (priority < oldPriority) {
+            siftUp(position);
+        } else {
+            siftDown(position);
+        }
+    }
+
+    /* Returns the number of items in the PQ. */
+    public int size() {
+        return size;
+    }
+
+    /* Removes every item, in time proportional to the number of items queued. */
+    public void clear() {
+        for (int i = 0; i < size; i++) {
+            positions[heap[i]] = -1;
+        }
+        size = 0;
+    }
+
+    private void siftUp(int i) {
+        int item = heap[i];
+        double priority = priorities[i];
+        while (i > 0) {
+            int parent = (i - 1) / arity;
+            if (priorities[parent] <= priority) {
+                break;
+            }
+            place(heap[parent], priorities[parent], i);
+            i = parent;
+        }
+        place(item, priority, i);
+    }
+
+    private void siftDown(int i) {
+        int item = heap[i];
+        double priority = priorities[i];
+        while (true) {
+            int first = arity * i + 1;
+            if (first >= size) {
+                break;
+            }
+            int last = Math.min(first + arity, size);
+            int best = first;
+            for (int c = first + 1; c < last; c++) {
+                if (priorities[c] < priorities[best]) {
+                    best = c;
+                }
+            }
+            if (priorities[best] >= priority) {
+                break;
+            }
+            place(heap[best], priorities[best], i);
+            i = best;
+        }
+        place(item, priority, i);
+    }
+
+    private void place(int item, double priority, int i) {
+        heap[i] = item;
+        priorities[i] = priority;
+        positions[item] = i;
+    }
+}
@@ -0,0 +1,300 @@
+package bearmaps.proj2ab;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.BitSet;
+import java.util.List;
+import java.util.function.IntPredicate;
+
+/**
+ * An IndexedPointSet kept in a balanced KD-tree. The tree is bulk-built in
+ * O(n log n) by median selection and stored implicitly: the points are
+ * reordered so that the root of every range [lo, hi) is the point at its
+ * middle, with its left subtree before it and its right subtree after it.
+ * Coordinates are held in flat double[] arrays, and points are reported by
+ * their index in the input, so none of the searches allocate: nearestK and
+ * withinRadius keep their bounded max-heap in the array they return the
+ * points in, and skip the subtrees whose box is farther than its top.
+ *
+ * Distances are equirectangular: longitude differences are scaled by the
+ * cosine of the query's latitude, and squared distances are compared. Over
+ * the extent of a city this ranks points the same as the great-circle
+ * distance up to ties, at the cost of one cosine per query instead of
+ * trigonometry at every visited point.
+ */
+public class KDTreePointSet implements IndexedPointSet {
+    /** Meters per degree of latitude, on a sphere of the Earth's mean radius. */
+    static final double METERS_PER_DEGREE = 6371008.8 * Math.PI / 180;
+
+    private final double[] xs;
+    private final double[] ys;
+    /* indices[p] is the input index of the point at position p. */
+    private final int[] indices;
+
+    public KDTreePointSet(List<Point> points) {
+        this(xs(points), ys(points));
+    }
+
+    /** Builds a tree of the points (XS[i], YS[i]). The arrays are not kept. */
+    public KDTreePointSet(double[] xs, double[] ys) {
+        if (xs.length != ys.length) {
+            throw new IllegalArgumentException("Got " + xs.length + " xs but " + ys.length + " ys");
+        }
+        int n = xs.length;
+        indices = new int[n];
+        for (int i = 0; i < n; i++) {
+            indices[i] = i;
+        }
+        build(xs, ys, 0, n, 0);
+        this.xs = new double[n];
+        this.ys = new double[n];
+        for (int p = 0; p < n; p++) {
+            this.xs[p] = xs[indices[p]];
+            this.ys[p] = ys[indices[p]];
+        }
+    }
+
+    private KDTreePointSet(double[] xs, double[] ys, int[] indices) {
+        this.xs = xs;
+        this.ys = ys;
+        this.indices = indices;
+    }
+
+    /** Writes this tree to OUT, for read to load it back without building it again. */
+    public void write(DataOutput out) throws IOException {
+        out.writeInt(indices.length);
+        ArrayStreams.writeDoubles(out, xs);
+        ArrayStreams.writeDoubles(out, ys);
+        ArrayStreams.writeInts(out, indices);
+    }
+
+    /** Reads a tree written by write. */
+    public static KDTreePointSet read(DataInput in) throws IOException {
+        int n = in.readInt();
+        return new KDTreePointSet(ArrayStreams.readDoubles(in, n), ArrayStreams.readDoubles(in, n),
+                ArrayStreams.readInts(in, n));
+    }
+
+    @Override
+    public int size() {
+        return indices.length;
+    }
+
+    @Override
+    public Point nearest(double x, double y) {
+        int p = nearestPosition(x, y, null);
+        return p < 0 ? null : new Point(xs[p], ys[p]);
+    }
+
+    @Override
+    public int nearestIndex(double x, double y) {
+        int p = nearestPosition(x, y, null);
+        return p < 0 ? -1 : indices[p];
+    }
+
+    @Override
+    public int nearestIndex(double x, double y, BitSet excluded) {
+        int p = nearestPosition(x, y, excluded);
+        return p < 0 ? -1 : indices[p];
+    }
+
+    @Override
+    public int nearestK(double x, double y, int k, double meters, IntPredicate accept, int[] indices) {
+        if (k > indices.length) {
+            throw new IllegalArgumentException("Cannot fit " + k + " points in " + indices.length);
+        }
+        if (k <= 0) {
+            return 0;
+        }
+        double xScale = xScale(y);
+        double radius = meters / METERS_PER_DEGREE;
+        int count = nearestK(0, this.indices.length, 0, x, y, xScale, radius * radius, accept, indices, k, 0);
+
+        DistanceHeap.sort(xs, ys, indices, count, x, y, xScale);
+        for (int i = 0; i < count; i++) {
+            indices[i] = this.indices[indices[i]];
+        }
+        return count;
+    }
+
+    /** Returns the distance in meters of the squared distance SQUAREDDISTANCE. */
+    public static double toMeters(double squaredDistance) {
+        return Math.sqrt(squaredDistance) * METERS_PER_DEGREE;
+    }
+
+    /**
+     * Returns the factor longitude differences are scaled by at latitude Y,
+     * for use with squaredDistance.
+     */
+    public static double xScale(double y) {
+        return Math.cos(Math.toRadians(y));
+    }
+
+    /**
+     * Returns the squared equirectangular distance between (X1, Y1) and
+     * (X2, Y2), in squared degrees of latitude, given the XSCALE of the
+     * latitude around them.
+     */
+    public static double squaredDistance(double x1, double y1, double x2, double y2, double xScale) {
+        double dx = (x1 - x2) * xScale;
+        double dy = y1 - y2;
+        return dx * dx + dy * dy;
+    }
+
+    private int nearestPosition(double x, double y, BitSet excluded) {
+        return nearest(0, indices.length, 0, x, y, xScale(y), excluded, -1);
+    }
+
+    /**
+     * Returns the position of the point nearest (X, Y) in the subtree over
+     * [LO, HI), split on x if AXIS is 0 and on y otherwise, or BEST if none
+     * is nearer than the point at position BEST.
+     */
+    private int nearest(int lo, int hi, int axis, double x, double y, double xScale,
+                        BitSet excluded, int best) {
+        if (lo >= hi) {
+            return best;
+        }
+        int mid = (lo + hi) >>> 1;
+        double dx = (xs[mid] - x) * xScale;
+        double dy = ys[mid] - y;
+        if (best < 0 || dx * dx + dy * dy < squaredDistance(x, y, best, xScale)) {
+            if (excluded == null || !excluded.get(indices[mid])) {
+                best = mid;
+            }
+        }
+
+        /* Search the side of the split the query is on first; the other side only if it could be nearer. */
+        double split = axis == 0 ? dx : dy;
+        if (split > 0) {
+            best = nearest(lo, mid, 1 - axis, x, y, xScale, excluded, best);
+            if (best < 0 || split * split < squaredDistance(x, y, best, xScale)) {
+                best = nearest(mid + 1, hi, 1 - axis, x, y, xScale, excluded, best);
+            }
+        } else {
+            best = nearest(mid + 1, hi, 1 - axis, x, y, xScale, excluded, best);
+            if (best < 0 || split * split < squaredDistance(x, y, best, xScale)) {
+                best = nearest(lo, mid, 1 - axis, x, y, xScale, excluded, best);
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Adds the accepted points within squared distance RADIUS of (X, Y) in
+     * the subtree over [LO, HI), split on x if AXIS is 0 and on y otherwise,
+     * to the max-heap of COUNT positions in HEAP that holds the K nearest so
+     * far, and returns the new number of positions in HEAP.
+     */
+    private int nearestK(int lo, int hi, int axis, double x, double y, double xScale, double radius,
+                         IntPredicate accept, int[] heap, int k, int count) {
+        if (lo >= hi) {
+            return count;
+        }
+        int mid = (lo + hi) >>> 1;
+        double dx = (xs[mid] - x) * xScale;
+        double dy = ys[mid] - y;
+        double distance = dx * dx + dy * dy;
+        if (distance <= radius && (count < k || distance < DistanceHeap.top(xs, ys, heap, x, y, xScale))
+                && (accept == null || accept.test(indices[mid]))) {
+            count = DistanceHeap.add(xs, ys, heap, count, k, mid, x, y, xScale);
+        }
+
+        double split = axis == 0 ? dx : dy;
+        int nearLo = split > 0 ? lo : mid + 1;
+        int nearHi = split > 0 ? mid : hi;
+        count = nearestK(nearLo, nearHi, 1 - axis, x, y, xScale, radius, accept, heap, k, count);
+        double bound = count < k ? radius : DistanceHeap.top(xs, ys, heap, x, y, xScale);
+        if (split * split <= bound) {
+            int farLo = split > 0 ? mid + 1 : lo;
+            int farHi = split > 0 ? hi : mid;
+            count = nearestK(farLo, farHi, 1 - axis, x, y, xScale, radius, accept, heap, k, count);
+        }
+        return count;
+    }
+
+    private double squaredDistance(double x, double y, int p, double xScale) {
+        return squaredDistance(xs[p], ys[p], x, y, xScale);
+    }
+
+    /**
+     * Arranges indices[LO, HI) as the subtree over that range, split on x if
+     * AXIS is 0 and on y otherwise, reading coordinates from XS and YS.
+     */
+    private void build(double[] xs, double[] ys, int lo, int hi, int axis) {
+        while (hi - lo > 1) {
+            int mid = (lo + hi) >>> 1;
+            select(axis == 0 ? xs : ys, lo, hi, mid);
+            build(xs, ys, lo, mid, 1 - axis);
+            lo = mid + 1;
+            axis = 1 - axis;
+        }
+    }
+
+    /**
+     * Rearranges indices[LO, HI) so that the point at K has the K-th smallest
+     * coordinate in COORDS, those before it are no larger and those after it
+     * no smaller. Quickselect with a median-of-three pivot.
+     */
+    private void select(double[] coords, int lo, int hi, int k) {
+        hi -= 1;
+        while (hi > lo) {
+            int middle = (lo + hi) >>> 1;
+            if (coords[indices[middle]] < coords[indices[lo]]) {
+                swap(middle, lo);
+            }
+            if (coords[indices[hi]] < coords[indices[lo]]) {
+                swap(hi, lo);
+            }
+            if (coords[indices[hi]] < coords[indices[middle]]) {
+                swap(hi, middle);
+            }
+            double pivot = coords[indices[middle]];
+            int i = lo;
+            int j = hi;
+            while (i <= j) {
+                while (coords[indices[i]] < pivot) {
+                    i += 1;
+                }
+                while (coords[indices[j]] > pivot) {
+                    j -= 1;
+                }
+                if (i <= j) {
+                    swap(i, j);
+                    i += 1;
+                    j -= 1;
+                }
+            }
+            if (k <= j) {
+                hi = j;
+            } else if (k >= i) {
+                lo = i;
+            } else {
+                return;
+            }
+        }
+    }
+
+    private void swap(int i, int j) {
+        int t = indices[i];
+        indices[i] = indices[j];
+        indices[j] = t;
+    }
+
+    private static double[] xs(List<Point> points) {
+        double[] xs = new double[points.size()];
+        for (int i = 0; i < xs.length; i++) {
+            xs[i] = points.get(i).getX();
+        }
+        return xs;
+    }
+
+    private static double[] ys(List<Point> points) {
+        double[] ys = new double[points.size()];
+        for (int i = 0; i < ys.length; i++) {
+            ys[i] = points.get(i).getY();
+        }
+        return ys;
+    }
+}
@@ -0,0 +1,502 @@
+package bearmaps.proj2ab;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * A set of strings kept in a trie whose nodes are packed into flat arrays:
+ * node i is entered by the character labels[i], its children are the list
+ * that starts at firstChild[i] and goes on through nextSibling, sorted by
+ * label, and it ends a key if its bit in keys is set. That is about thirty
+ * bytes a node, scores included, where MyTrieSet allocates an Object[128]
+ * and a Character.
+ * Node 0 is the root, which is no node's child, so 0 also marks the end of
+ * a list.
+ *
+ * add and contains walk the trie in a loop and allocate nothing but the
+ * arrays' growth. keysWithPrefix builds the keys in one StringBuilder,
+ * appending a node's label on the way down and cutting it off on the way
+ * back, and visits the children in sorted order, so keys come out sorted.
+ *
+ * Each key also has a score, and each node the highest score of the keys
+ * under it, so topKeysWithPrefix can walk best first: it expands the node
+ * whose subtree could hold the highest-scoring key, and stops once it has
+ * found as many keys as asked for. It visits a few nodes per key it
+ * returns, however many keys share the prefix.
+ *
+ * topKeysNear finds keys that start with a string a few edits from the
+ * query, for misspelled prefixes. It walks the trie depth first carrying
+ * one row of the Levenshtein table per depth, the edits between each
+ * prefix of the query and the string the node is reached by, and leaves a
+ * subtree once the row has no entry within the allowed edits. That needs
+ * no index beyond the trie. The nodes where the whole query is matched are
+ * then walked best first, as in topKeysWithPrefix. It allows no edits
+ * first, then one more at a time until it has found enough keys, since
+ * each edit allowed widens the walk many times over.
+ */
+public class PackedTrieSet {
+    private static final int ROOT = 0;
+    private static final int INITIAL_CAPACITY = 16;
+
+    private char[] labels;
+    private int[] firstChild;
+    private int[] nextSibling;
+    private int[] parents;
+    /* scores[i] is the score of the key ending at node i; maxScores[i] the highest under it. */
+    private double[] scores;
+    private double[] maxScores;
+    private final BitSet keys = new BitSet();
+    private int numNodes;
+    private int size;
+
+    public PackedTrieSet() {
+        clear();
+    }
+
+    /** Returns the number of keys in this set. */
+    public int size() {
+        return size;
+    }
+
+    /** Returns the number of nodes in this trie, the root included. */
+    public int numNodes() {
+        return numNodes;
+    }
+
+    public void clear() {
+        labels = new char[INITIAL_CAPACITY];
+        firstChild = new int[INITIAL_CAPACITY];
+        nextSibling = new int[INITIAL_CAPACITY];
+        parents = new int[INITIAL_CAPACITY];
+        scores = new double[INITIAL_CAPACITY];
+        maxScores = new double[INITIAL_CAPACITY];
+        maxScores[ROOT] = Double.NEGATIVE_INFINITY;
+        keys.clear();
+        numNodes = 1;
+        size = 0;
+    }
+
+    /** Writes this trie to OUT, keys and scores, for read to load it back without adding them again. */
+    public void write(DataOutput out) throws IOException {
+        out.writeInt(numNodes);
+        out.writeInt(size);
+        ArrayStreams.writeChars(out, Arrays.copyOf(labels, numNodes));
+        ArrayStreams.writeInts(out, Arrays.copyOf(firstChild, numNodes));
+        ArrayStreams.writeInts(out, Arrays.copyOf(nextSibling, numNodes));
+        ArrayStreams.writeInts(out, Arrays.copyOf(parents, numNodes));
+        ArrayStreams.writeDoubles(out, Arrays.copyOf(scores, numNodes));
+        ArrayStreams.writeDoubles(out, Arrays.copyOf(maxScores, numNodes));
+        long[] keyWords = keys.toLongArray();
+        out.writeInt(keyWords.length);
+        ArrayStreams.writeLongs(out, keyWords);
+    }
+
+    /** Reads a trie written by write. */
+    public static PackedTrieSet read(DataInput in) throws IOException {
+        int numNodes = in.readInt();
+        int size = in.readInt();
+        if (numNodes < 1 || size < 0) {
+            throw new IOException("Not a saved PackedTrieSet.");
+        }
+        PackedTrieSet trie = new PackedTrieSet();
+        trie.labels = ArrayStreams.readChars(in, numNodes);
+        trie.firstChild = ArrayStreams.readInts(in, numNodes);
+        trie.nextSibling = ArrayStreams.readInts(in, numNodes);
+        trie.parents = ArrayStreams.readInts(in, numNodes);
+        trie.scores = ArrayStreams.readDoubles(in, numNodes);
+        trie.maxScores = ArrayStreams.readDoubles(in, numNodes);
+        trie.keys.or(BitSet.valueOf(ArrayStreams.readLongs(in, in.readInt())));
+        trie.numNodes = numNodes;
+        trie.size = size;
+        return trie;
+    }
+
+    public boolean contains(String key) {
+        int node = find(key);
+        return node >= 0 && keys.get(node);
+    }
+
+    /** Adds KEY, with a score of 0 if it is not in the set yet. */
+    public void add(String key) {
+        int node = insert(key);
+        if (!keys.get(node)) {
+            setScore(node, 0);
+        }
+    }
+
+    /**
+     * Adds KEY with score SCORE, or if it is in the set already, raises its
+     * score to SCORE if that is higher.
+     */
+    public void add(String key, double score) {
+        int node = insert(key);
+        if (!keys.get(node) || score > scores[node]) {
+            setScore(node, score);
+        }
+    }
+
+    /** Returns the score of KEY, or NaN if it is not in the set. */
+    public double score(String key) {
+        int node = find(key);
+        return node >= 0 && keys.get(node) ? scores[node] : Double.NaN;
+    }
+
+    /** Makes NODE the end of a key of score SCORE, which is higher than any score it had. */
+    private void setScore(int node, double score) {
+        if (!keys.get(node)) {
+            keys.set(node);
+            size += 1;
+        }
+        scores[node] = score;
+        for (int n = node; maxScores[n] < score; n = parents[n]) {
+            maxScores[n] = score;
+            if (n == ROOT) {
+                break;
+            }
+        }
+    }
+
+    /** Returns the node KEY reaches, adding the nodes it needs. */
+    private int insert(String key) {
+        int node = ROOT;
+        for (int i = 0; i < key.length(); i++) {
+            char c = key.charAt(i);
+            int previous = ROOT;
+            int child = firstChild[node];
+            while (child != ROOT && labels[child] < c) {
+                previous = child;
+                child = nextSibling[child];
+            }
+            if (child == ROOT || labels[child] != c) {
+                /* Not there; link a new node in before CHILD, keeping the list sorted. */
+                int added = newNode(c, node);
+                nextSibling[added] = child;
+                if (previous == ROOT) {
+                    firstChild[node] = added;
+                } else {
+                    nextSibling[previous] = added;
+                }
+                child = added;
+            }
+            node = child;
+        }
+        return node;
+    }
+
+    /**
+     * Returns the keys that start with PREFIX, in sorted order, or an empty
+     * list if there are none. Every key starts with the empty string.
+     */
+    public List<String> keysWithPrefix(String prefix) {
+        List<String> found = new ArrayList<>();
+        int node = find(prefix);
+        if (node >= 0) {
+            collect(node, new StringBuilder(prefix), found);
+        }
+        return found;
+    }
+
+    /**
+     * Returns the K highest-scoring keys that start with PREFIX, highest
+     * first, or fewer if there are fewer. Keys of equal score come in no
+     * particular order.
+     */
+    public List<String> topKeysWithPrefix(String prefix, int k) {
+        return topKeysWithPrefix(prefix, k, null);
+    }
+
+    /**
+     * Returns the K highest-scoring keys that start with PREFIX and that
+     * ACCEPT holds for, highest first, or fewer if there are fewer. Keys of
+     * equal score come in no particular order. A null ACCEPT accepts every
+     * key.
+     */
+    public List<String> topKeysWithPrefix(String prefix, int k, Predicate<String> accept) {
+        List<String> found = new ArrayList<>();
+        int start = find(prefix);
+        if (start < 0 || k <= 0) {
+            return found;
+        }
+        /* Nodes to expand, by the best score under them, and keys, as ~node, by their own. */
+        Frontier frontier = new Frontier();
+        frontier.add(start, maxScores[start]);
+        best(frontier, k, accept, null, found, deadline(Long.MAX_VALUE));
+        return found;
+    }
+
+    /**
+     * Returns the K best keys that start with a string at most MAXEDITS
+     * edits from QUERY, an edit being the insertion, deletion or
+     * substitution of a character, and that ACCEPT holds for: those of the
+     * fewest edits first, and of those the highest-scoring. Keys of equal
+     * edits and score come in no particular order. A null ACCEPT accepts
+     * every key. Once BUDGETNANOS nanoseconds have passed it starts no more
+     * work, and returns the best of the keys it has found by then, which may
+     * be fewer than K, or not the best of all. The keys that start with QUERY
+     * itself are always looked for, as that only follows the query's path.
+     */
+    public List<String> topKeysNear(String query, int maxEdits, int k, Predicate<String> accept,
+                                    long budgetNanos) {
+        long deadline = deadline(budgetNanos);
+        List<String> found = new ArrayList<>();
+        if (k <= 0 || maxEdits < 0) {
+            return found;
+        }
+        int[] row = new int[query.length() + 1];
+        for (int i = 0; i < row.length; i++) {
+            row[i] = i;
+        }
+        List<int[]> rows = new ArrayList<>();
+        rows.add(row);
+        /*
+         * A key's edits are the fewest of the matching nodes above it. Allow
+         * one more edit at a time, taking the keys of that many edits by
+         * score, so that when the closer keys are enough the wider walk is
+         * never made.
+         */
+        BitSet taken = new BitSet();
+        for (int edits = 0; edits <= maxEdits && found.size() < k; edits++) {
+            List<Integer> matches = new ArrayList<>();
+            /* What was matched before the deadline is ranked all the same. */
+            boolean walked = near(ROOT, 0, query, edits + 1, rows, matches,
+                    edits == 0 ? deadline(Long.MAX_VALUE) : deadline);
+            Frontier frontier = new Frontier();
+            for (int node : matches) {
+                frontier.add(node, maxScores[node]);
+            }
+            if (!best(frontier, k, accept, taken, found, deadline) || !walked || past(deadline)) {
+                break;
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Returns the fewest edits between QUERY and a prefix of KEY, or the
+     * length of QUERY if KEY is empty. This is the number of edits
+     * topKeysNear ranks KEY by.
+     */
+    public static int prefixEdits(String query, String key) {
+        int[] row = new int[query.length() + 1];
+        int[] next = new int[row.length];
+        for (int i = 0; i < row.length; i++) {
+            row[i] = i;
+        }
+        int edits = row[query.length()];
+        for (int j = 0; j < key.length(); j++) {
+            nextRow(query, row, key.charAt(j), next);
+            int[] t = row;
+            row = next;
+            next = t;
+            edits = Math.min(edits, row[query.length()]);
+        }
+        return edits;
+    }
+
+    /**
+     * Visits the subtree of NODE, at depth DEPTH, whose row of edits from the
+     * prefixes of QUERY is ROWS[DEPTH], adding to MATCHES the nodes in it
+     * that are fewer than BOUND edits from the whole query, and fewer than
+     * any such node above them. Returns false if it reached DEADLINE before
+     * visiting all of it, which it checks before visiting each child.
+     */
+    private boolean near(int node, int depth, String query, int bound, List<int[]> rows,
+                         List<Integer> matches, long deadline) {
+        int[] row = rows.get(depth);
+        int edits = row[query.length()];
+        if (edits < bound) {
+            matches.add(node);
+            bound = edits;
+        }
+        if (depth + 1 == rows.size()) {
+            rows.add(new int[row.length]);
+        }
+        int[] next = rows.get(depth + 1);
+        for (int child = firstChild[node]; child != ROOT; child = nextSibling[child]) {
+            /* Below CHILD no prefix of the query gets closer than the row's least entry. */
+            if (nextRow(query, row, labels[child], next) < bound
+                    && (past(deadline) || !near(child, depth + 1, query, bound, rows, matches, deadline))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Fills NEXT with the row of edits from the prefixes of QUERY after
+     * appending C to the string ROW is the row of, and returns its least entry.
+     */
+    private static int nextRow(String query, int[] row, char c, int[] next) {
+        next[0] = row[0] + 1;
+        int least = next[0];
+        for (int i = 1; i < next.length; i++) {
+            int substitute = row[i - 1] + (query.charAt(i - 1) == c ? 0 : 1);
+            next[i] = Math.min(substitute, Math.min(row[i], next[i - 1]) + 1);
+            least = Math.min(least, next[i]);
+        }
+        return least;
+    }
+
+    /**
+     * Takes keys from FRONTIER, best first, adding those ACCEPT holds for
+     * and not set in TAKEN to FOUND and TAKEN, until FOUND has K keys or
+     * FRONTIER is empty. Returns false if it reached DEADLINE first, which
+     * it only stops for once FOUND has a key.
+     */
+    private boolean best(Frontier frontier, int k, Predicate<String> accept, BitSet taken, List<String> found,
+                         long deadline) {
+        StringBuilder key = new StringBuilder();
+        for (int steps = 1; frontier.size > 0 && found.size() < k; steps++) {
+            if (steps % 256 == 0 && !found.isEmpty() && past(deadline)) {
+                return false;
+            }
+            int entry = frontier.removeBest();
+            if (entry < 0) {
+                if (taken != null) {
+                    if (taken.get(~entry)) {
+                        continue;
+                    }
+                    taken.set(~entry);
+                }
+                key.setLength(0);
+                for (int n = ~entry; n != ROOT; n = parents[n]) {
+                    key.append(labels[n]);
+                }
+                String s = key.reverse().toString();
+                if (accept == null || accept.test(s)) {
+                    found.add(s);
+                }
+                continue;
+            }
+            if (keys.get(entry)) {
+                frontier.add(~entry, scores[entry]);
+            }
+            for (int child = firstChild[entry]; child != ROOT; child = nextSibling[child]) {
+                frontier.add(child, maxScores[child]);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the System.nanoTime BUDGETNANOS from now, for past. The sum
+     * may overflow, so deadlines are only compared by their difference.
+     */
+    private static long deadline(long budgetNanos) {
+        return System.nanoTime() + budgetNanos;
+    }
+
+    private static boolean past(long deadline) {
+        return System.nanoTime() - deadline > 0;
+    }
+
+    /** Returns the node reached by following the characters of S from the root, or -1 if there is none. */
+    private int find(String s) {
+        int node = ROOT;
+        for (int i = 0; i < s.length() && node >= 0; i++) {
+            char c = s.charAt(i);
+            int child = firstChild[node];
+            while (child != ROOT && labels[child] < c) {
+                child = nextSibling[child];
+            }
+            node = child != ROOT && labels[child] == c ? child : -1;
+        }
+        return node;
+    }
+
+    /** Adds the keys under NODE, which is reached by the string in KEY, to FOUND, restoring KEY after. */
+    private void collect(int node, StringBuilder key, List<String> found) {
+        if (keys.get(node)) {
+            found.add(key.toString());
+        }
+        int length = key.length();
+        for (int child = firstChild[node]; child != ROOT; child = nextSibling[child]) {
+            key.append(labels[child]);
+            collect(child, key, found);
+            key.setLength(length);
+        }
+    }
+
+    private int newNode(char label, int parent) {
+        if (numNodes == labels.length) {
+            labels = Arrays.copyOf(labels, 2 * numNodes);
+            firstChild = Arrays.copyOf(firstChild, 2 * numNodes);
+            nextSibling = Arrays.copyOf(nextSibling, 2 * numNodes);
+            parents = Arrays.copyOf(parents, 2 * numNodes);
+            scores = Arrays.copyOf(scores, 2 * numNodes);
+            maxScores = Arrays.copyOf(maxScores, 2 * numNodes);
+        }
+        int node = numNodes;
+        labels[node] = label;
+        parents[node] = parent;
+        maxScores[node] = Double.NEGATIVE_INFINITY;
+        numNodes += 1;
+        return node;
+    }
+
+    /**
+     * A binary max-heap of int entries by double priority, in parallel
+     * arrays. Of entries of equal priority, negative ones, which are keys,
+     * come out first, so a walk over keys of equal scores need not expand
+     * every node before returning them.
+     */
+    private static final class Frontier {
+        private int[] entries = new int[INITIAL_CAPACITY];
+        private double[] priorities = new double[INITIAL_CAPACITY];
+        private int size;
+
+        void add(int entry, double priority) {
+            if (size == entries.length) {
+                entries = Arrays.copyOf(entries, 2 * size);
+                priorities = Arrays.copyOf(priorities, 2 * size);
+            }
+            int i = size;
+            size += 1;
+            while (i > 0 && before(entry, priority, (i - 1) / 2)) {
+                entries[i] = entries[(i - 1) / 2];
+                priorities[i] = priorities[(i - 1) / 2];
+                i = (i - 1) / 2;
+            }
+            entries[i] = entry;
+            priorities[i] = priority;
+        }
+
+        int removeBest() {
+            int best = entries[0];
+            size -= 1;
+            int entry = entries[size];
+            double priority = priorities[size];
+            int i = 0;
+            while (2 * i + 1 < size) {
+                int child = 2 * i + 1;
+                if (child + 1 < size && before(entries[child + 1], priorities[child + 1], child)) {
+                    child += 1;
+                }
+                if (!before(entries[child], priorities[child], entry, priority)) {
+                    break;
+                }
+                entries[i] = entries[child];
+                priorities[i] = priorities[child];
+                i = child;
+            }
+            entries[i] = entry;
+            priorities[i] = priority;
+            return best;
+        }
+
+        /** Returns whether ENTRY, of PRIORITY, comes out before the entry at I. */
+        private boolean before(int entry, double priority, int i) {
+            return before(entry, priority, entries[i], priorities[i]);
+        }
+
+        private static boolean before(int entry, double priority, int other, double otherPriority) {
+            return priority > otherPriority || priority == otherPriority && entry < 0 && other >= 0;
+        }
+    }
+}
@@ -0,0 +1,301 @@
+package bearmaps.proj2ab;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.function.IntPredicate;
+
+/**
+ * A spatial index of geographic line segments, x being the longitude and y
+ * the latitude, for finding the segment nearest a point. Each segment is
+ * listed under every cell of a uniform grid that its bounding box overlaps,
+ * and the cells are laid out by counting sort: one int[] holds the segments
+ * of cell 0, then of cell 1, and so on, with the start of each cell's run in
+ * another. The grid is sized for about two segments per cell, with cells
+ * roughly square on the ground.
+ *
+ * nearest searches rings of cells outward from the query's cell until the
+ * nearest segment found is nearer than any cell left, so it allocates
+ * nothing. Distances are equirectangular, as in KDTreePointSet, and
+ * segments are straight lines in that projection.
+ */
+public class SegmentGrid {
+    /* Segments per cell the grid is sized for, and the most cells it may have. */
+    private static final int SEGMENTS_PER_CELL = 2;
+    private static final int MAX_CELLS = 1 << 22;
+
+    private final double[] x1s;
+    private final double[] y1s;
+    private final double[] x2s;
+    private final double[] y2s;
+    private final double minX;
+    private final double minY;
+    private final double cellWidth;
+    private final double cellHeight;
+    private final int columns;
+    private final int rows;
+    /* The segments of cell c are cellSegments[cellStarts[c], cellStarts[c + 1]). Cells go row by row. */
+    private final int[] cellStarts;
+    private final int[] cellSegments;
+
+    /**
+     * Builds a grid of the segments from (X1S[i], Y1S[i]) to (X2S[i], Y2S[i]).
+     * The arrays are kept, so must not be changed afterwards.
+     */
+    public SegmentGrid(double[] x1s, double[] y1s, double[] x2s, double[] y2s) {
+        int n = x1s.length;
+        if (y1s.length != n || x2s.length != n || y2s.length != n) {
+            throw new IllegalArgumentException("Segment coordinate arrays differ in length");
+        }
+        this.x1s = x1s;
+        this.y1s = y1s;
+        this.x2s = x2s;
+        this.y2s = y2s;
+
+        double minX = Double.POSITIVE_INFINITY;
+        double minY = Double.POSITIVE_INFINITY;
+        double maxX = Double.NEGATIVE_INFINITY;
+        double maxY = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < n; i++) {
+            minX = Math.min(minX, Math.min(x1s[i], x2s[i]));
+            minY = Math.min(minY, Math.min(y1s[i], y2s[i]));
+            maxX = Math.max(maxX, Math.max(x1s[i], x2s[i]));
+            maxY = Math.max(maxY, Math.max(y1s[i], y2s[i]));
+        }
+        if (n == 0) {
+            minX = 0;
+            minY = 0;
+            maxX = 0;
+            maxY = 0;
+        }
+        this.minX = minX;
+        this.minY = minY;
+
+        /* Pick the shape so cells are about square on the ground. */
+        double width = Math.max((maxX - minX) * KDTreePointSet.xScale((minY + maxY) / 2), 1e-9);
+        double height = Math.max(maxY - minY, 1e-9);
+        double cells = Math.max(1, Math.min(MAX_CELLS, n / SEGMENTS_PER_CELL));
+        double side = Math.sqrt(width * height / cells);
+        columns = (int) Math.max(1, Math.min(MAX_CELLS, Math.round(width / side)));
+        rows = (int) Math.max(1, Math.min(MAX_CELLS / columns, Math.round(height / side)));
+        cellWidth = Math.max(maxX - minX, 1e-9) / columns;
+        cellHeight = height / rows;
+
+        /* Count the segments of each cell, turn the counts into starts, then place the segments. */
+        cellStarts = new int[columns * rows + 1];
+        for (int i = 0; i < n; i++) {
+            int c0 = column(Math.min(x1s[i], x2s[i]));
+            int c1 = column(Math.max(x1s[i], x2s[i]));
+            int r0 = row(Math.min(y1s[i], y2s[i]));
+            int r1 = row(Math.max(y1s[i], y2s[i]));
+            for (int r = r0; r <= r1; r++) {
+                for (int c = c0; c <= c1; c++) {
+                    cellStarts[r * columns + c + 1] += 1;
+                }
+            }
+        }
+        for (int c = 0; c < columns * rows; c++) {
+            cellStarts[c + 1] += cellStarts[c];
+        }
+        cellSegments = new int[cellStarts[columns * rows]];
+        int[] next = new int[columns * rows];
+        System.arraycopy(cellStarts, 0, next, 0, next.length);
+        for (int i = 0; i < n; i++) {
+            int c0 = column(Math.min(x1s[i], x2s[i]));
+            int c1 = column(Math.max(x1s[i], x2s[i]));
+            int r0 = row(Math.min(y1s[i], y2s[i]));
+            int r1 = row(Math.max(y1s[i], y2s[i]));
+            for (int r = r0; r <= r1; r++) {
+                for (int c = c0; c <= c1; c++) {
+                    cellSegments[next[r * columns + c]++] = i;
+                }
+            }
+        }
+    }
+
+    private SegmentGrid(double[] x1s, double[] y1s, double[] x2s, double[] y2s, double minX, double minY,
+                        double cellWidth, double cellHeight, int columns, int rows, int[] cellStarts,
+                        int[] cellSegments) {
+        this.x1s = x1s;
+        this.y1s = y1s;
+        this.x2s = x2s;
+        this.y2s = y2s;
+        this.minX = minX;
+        this.minY = minY;
+        this.cellWidth = cellWidth;
+        this.cellHeight = cellHeight;
+        this.columns = columns;
+        this.rows = rows;
+        this.cellStarts = cellStarts;
+        this.cellSegments = cellSegments;
+    }
+
+    /** Writes this grid to OUT, for read to load it back without building it again. */
+    public void write(DataOutput out) throws IOException {
+        out.writeInt(x1s.length);
+        out.writeInt(columns);
+        out.writeInt(rows);
+        out.writeInt(cellSegments.length);
+        out.writeDouble(minX);
+        out.writeDouble(minY);
+        out.writeDouble(cellWidth);
+        out.writeDouble(cellHeight);
+        ArrayStreams.writeDoubles(out, x1s);
+        ArrayStreams.writeDoubles(out, y1s);
+        ArrayStreams.writeDoubles(out, x2s);
+        ArrayStreams.writeDoubles(out, y2s);
+        ArrayStreams.writeInts(out, cellStarts);
+        ArrayStreams.writeInts(out, cellSegments);
+    }
+
+    /** Reads a grid written by write. */
+    public static SegmentGrid read(DataInput in) throws IOException {
+        int n = in.readInt();
+        int columns = in.readInt();
+        int rows = in.readInt();
+        int numListed = in.readInt();
+        if (n < 0 || columns <= 0 || rows <= 0 || columns > MAX_CELLS / rows) {
+            throw new IOException("Not a saved SegmentGrid.");
+        }
+        double minX = in.readDouble();
+        double minY = in.readDouble();
+        double cellWidth = in.readDouble();
+        double cellHeight = in.readDouble();
+        return new SegmentGrid(ArrayStreams.readDoubles(in, n), ArrayStreams.readDoubles(in, n),
+                ArrayStreams.readDoubles(in, n), ArrayStreams.readDoubles(in, n), minX, minY,
+                cellWidth, cellHeight, columns, rows, ArrayStreams.readInts(in, columns * rows + 1),
+                ArrayStreams.readInts(in, numListed));
+    }
+
+    /** Returns the number of segments in this grid. */
+    public int size() {
+        return x1s.length;
+    }
+
+    /** Returns the input index of the segment nearest (X, Y), or -1 if there are none. */
+    public int nearest(double x, double y) {
+        return nearest(x, y, null);
+    }
+
+    /**
+     * Returns the input index of the segment nearest (X, Y) that ACCEPT
+     * holds for, or -1 if there is none. ACCEPT is given input indices; null
+     * accepts every segment.
+     */
+    public int nearest(double x, double y, IntPredicate accept) {
+        double xScale = KDTreePointSet.xScale(y);
+        int column = column(x);
+        int row = row(y);
+        int best = -1;
+        double bestDistance = Double.POSITIVE_INFINITY;
+        for (int ring = 0; ; ring++) {
+            int c0 = column - ring;
+            int c1 = column + ring;
+            int r0 = row - ring;
+            int r1 = row + ring;
+            for (int r = Math.max(r0, 0); r <= Math.min(r1, rows - 1); r++) {
+                /* Inner rows of the ring only have their two end cells. */
+                int step = r == r0 || r == r1 ? 1 : Math.max(c1 - c0, 1);
+                for (int c = c0; c <= c1; c += step) {
+                    if (c < 0 || c >= columns) {
+                        continue;
+                    }
+                    int cell = r * columns + c;
+                    for (int k = cellStarts[cell]; k < cellStarts[cell + 1]; k++) {
+                        int i = cellSegments[k];
+                        double distance = squaredDistance(i, x, y, xScale);
+                        if (distance < bestDistance && (accept == null || accept.test(i))) {
+                            best = i;
+                            bestDistance = distance;
+                        }
+                    }
+                }
+            }
+
+            /* Every segment not seen yet is entirely in the cells outside the ones searched so far. */
+            if (bestDistance <= bound(c0, c1, r0, r1, x, y, xScale)) {
+                return best;
+            }
+        }
+    }
+
+    /**
+     * Returns the squared distance from (X, Y) to the nearest cell outside
+     * [C0, C1] x [R0, R1], or infinity if those cover the grid. The cells
+     * left are those of the strips on each side of the searched ones, which
+     * span the grid.
+     */
+    private double bound(int c0, int c1, int r0, int r1, double x, double y, double xScale) {
+        double maxX = minX + columns * cellWidth;
+        double maxY = minY + rows * cellHeight;
+        double bound = Double.POSITIVE_INFINITY;
+        if (c0 > 0) {
+            bound = Math.min(bound, GridPointSet.squaredDistance(minX, minX + c0 * cellWidth, minY, maxY,
+                    x, y, xScale));
+        }
+        if (c1 < columns - 1) {
+            bound = Math.min(bound, GridPointSet.squaredDistance(minX + (c1 + 1) * cellWidth, maxX, minY, maxY,
+                    x, y, xScale));
+        }
+        if (r0 > 0) {
+            bound = Math.min(bound, GridPointSet.squaredDistance(minX, maxX, minY, minY + r0 * cellHeight,
+                    x, y, xScale));
+        }
+        if (r1 < rows - 1) {
+            bound = Math.min(bound, GridPointSet.squaredDistance(minX, maxX, minY + (r1 + 1) * cellHeight, maxY,
+                    x, y, xScale));
+        }
+        return bound;
+    }
+
+    /**
+     * Returns where the point of segment I nearest (X, Y) is along it, as a
+     * fraction of the way from its first point to its second.
+     */
+    public double fraction(int i, double x, double y) {
+        return fraction(x1s[i], y1s[i], x2s[i], y2s[i], x, y, KDTreePointSet.xScale(y));
+    }
+
+    /**
+     * Returns the squared distance from (X, Y) to segment I, as
+     * KDTreePointSet.squaredDistance would with XSCALE.
+     */
+    public double squaredDistance(int i, double x, double y, double xScale) {
+        return squaredDistance(x1s[i], y1s[i], x2s[i], y2s[i], x, y, xScale);
+    }
+
+    /**
+     * Returns where the point of the segment from (X1, Y1) to (X2, Y2)
+     * nearest (X, Y) is along it, as a fraction of the way from (X1, Y1),
+     * given the XSCALE of the latitude around them.
+     */
+    public static double fraction(double x1, double y1, double x2, double y2, double x, double y,
+                                  double xScale) {
+        double dx = (x2 - x1) * xScale;
+        double dy = y2 - y1;
+        double length = dx * dx + dy * dy;
+        if (length == 0) {
+            return 0;
+        }
+        double t = ((x - x1) * xScale * dx + (y - y1) * dy) / length;
+        return Math.max(0, Math.min(1, t));
+    }
+
+    /**
+     * Returns the squared distance from (X, Y) to the segment from (X1, Y1)
+     * to (X2, Y2), as KDTreePointSet.squaredDistance would with XSCALE.
+     */
+    public static double squaredDistance(double x1, double y1, double x2, double y2, double x, double y,
+                                         double xScale) {
+        double t = fraction(x1, y1, x2, y2, x, y, xScale);
+        return KDTreePointSet.squaredDistance(x1 + t * (x2 - x1), y1 + t * (y2 - y1), x, y, xScale);
+    }
+
+    private int column(double x) {
+        return Math.max(0, Math.min(columns - 1, (int) Math.floor((x - minX) / cellWidth)));
+    }
+
+    private int row(double y) {
+        return Math.max(0, Math.min(rows - 1, (int) Math.floor((y - minY) / cellHeight)));
+    }
+}
@@ -0,0 +1,292 @@
+package bearmaps.test;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.helpers.DefaultHandler;
+
+import javax.xml.parsers.SAXParserFactory;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.Deflater;
+
+/**
+ * Converts an OSM XML file to OSM PBF, to test and benchmark the PBF reader
+ * against the XML parsers on the same data. Every node and way keeps all of
+ * its tags, in file order; relations are dropped. Nodes are written as
+ * DenseNodes or as plain Nodes, and each block uses a granularity of 100
+ * nanodegrees if its coordinates allow it, or 1 otherwise.
+ *
+ * Run main with the XML and PBF paths to convert a file by hand.
+ */
+public class OSMToPBF {
+    private static final int ENTITIES_PER_BLOCK = 8000;
+
+    public static void main(String[] args) throws Exception {
+        convert(new File(args[0]), new File(args[1]), true);
+    }
+
+    /** Converts XML to PBF, writing nodes as DenseNodes if DENSE is set. */
+    public static void convert(File xml, File pbf, boolean dense) throws Exception {
+        List<Entity> entities = new ArrayList<>();
+        SAXParserFactory.newInstance().newSAXParser().parse(xml, new DefaultHandler() {
+            private Entity current;
+
+            @Override
+            public void startElement(String uri, String localName, String qName, Attributes attributes) {
+                if (qName.equals("node")) {
+                    current = new Entity(false, Long.parseLong(attributes.getValue("id")));
+                    current.lat = nanodegrees(attributes.getValue("lat"));
+                    current.lon = nanodegrees(attributes.getValue("lon"));
+                    entities.add(current);
+                } else if (qName.equals("way")) {
+                    current = new Entity(true, Long.parseLong(attributes.getValue("id")));
+                    entities.add(current);
+                } else if (qName.equals("relation")) {
+                    current = null;
+                } else if (current != null && qName.equals("nd")) {
+                    current.refs.add(Long.parseLong(attributes.getValue("ref")));
+                } else if (current != null && qName.equals("tag")) {
+                    current.tags.add(attributes.getValue("k"));
+                    current.tags.add(attributes.getValue("v"));
+                }
+            }
+
+            @Override
+            public void endElement(String uri, String localName, String qName) {
+                if (qName.equals("node") || qName.equals("way") || qName.equals("relation")) {
+                    current = null;
+                }
+            }
+        });
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(pbf)))) {
+            Message header = new Message();
+            header.string(4, "OsmSchema-V0.6");
+            if (dense) {
+                header.string(4, "DenseNodes");
+            }
+            header.string(16, "bearmaps OSMToPBF");
+            writeBlob(out, "OSMHeader", header.toByteArray());
+            for (int i = 0; i < entities.size(); i += ENTITIES_PER_BLOCK) {
+                List<Entity> block = entities.subList(i, Math.min(entities.size(), i + ENTITIES_PER_BLOCK));
+                writeBlob(out, "OSMData", primitiveBlock(block, dense));
+            }
+        }
+    }
+
+    private static long nanodegrees(String degrees) {
+        return new BigDecimal(degrees).movePointRight(9).longValueExact();
+    }
+
+    private static byte[] primitiveBlock(List<Entity> entities, boolean dense) {
+        /* String 0 is reserved, as DenseNodes uses it to end each node's tags. */
+        Map<String, Integer> stringIds = new HashMap<>();
+        List<String> strings = new ArrayList<>();
+        strings.add("");
+        stringIds.put("", 0);
+        long granularity = 100;
+        for (Entity entity : entities) {
+            for (String s : entity.tags) {
+                if (!stringIds.containsKey(s)) {
+                    stringIds.put(s, strings.size());
+                    strings.add(s);
+                }
+            }
+            if (!entity.isWay && (entity.lat % 100 != 0 || entity.lon % 100 != 0)) {
+                granularity = 1;
+            }
+        }
+
+        Message block = new Message();
+        Message table = new Message();
+        for (String s : strings) {
+            table.string(1, s);
+        }
+        block.message(1, table);
+        int start = 0;
+        while (start < entities.size()) {
+            /* A group only holds one kind of entity. */
+            boolean isWay = entities.get(start).isWay;
+            int end = start;
+            while (end < entities.size() && entities.get(end).isWay == isWay) {
+                end += 1;
+            }
+            List<Entity> run = entities.subList(start, end);
+            Message group = new Message();
+            if (isWay) {
+                for (Entity way : run) {
+                    group.message(3, way(way, stringIds));
+                }
+            } else if (dense) {
+                group.message(2, denseNodes(run, stringIds, granularity));
+            } else {
+                for (Entity node : run) {
+                    group.message(1, node(node, stringIds, granularity));
+                }
+            }
+            block.message(2, group);
+            start = end;
+        }
+        block.varint(17, granularity);
+        return block.toByteArray();
+    }
+
+    private static Message denseNodes(List<Entity> nodes, Map<String, Integer> stringIds, long granularity) {
+        long[] ids = new long[nodes.size()];
+        long[] lats = new long[nodes.size()];
+        long[] lons = new long[nodes.size()];
+        List<Long> keysVals = new ArrayList<>();
+        for (int i = 0; i < nodes.size(); i++) {
+            Entity node = nodes.get(i);
+            ids[i] = node.id - (i > 0 ? nodes.get(i - 1).id : 0);
+            lats[i] = (node.lat - (i > 0 ? nodes.get(i - 1).lat : 0)) / granularity;
+            lons[i] = (node.lon - (i > 0 ? nodes.get(i - 1).lon : 0)) / granularity;
+            for (String s : node.tags) {
+                keysVals.add((long) stringIds.get(s));
+            }
+            keysVals.add(0L);
+        }
+        Message dense = new Message();
+        dense.packed(1, ids, true);
+        dense.packed(8, lats, true);
+        dense.packed(9, lons, true);
+        dense.packed(10, keysVals.stream().mapToLong(Long::longValue).toArray(), false);
+        return dense;
+    }
+
+    private static Message node(Entity node, Map<String, Integer> stringIds, long granularity) {
+        Message message = new Message();
+        message.signedVarint(1, node.id);
+        message.packed(2, keys(node, stringIds, 0), false);
+        message.packed(3, keys(node, stringIds, 1), false);
+        message.signedVarint(8, node.lat / granularity);
+        message.signedVarint(9, node.lon / granularity);
+        return message;
+    }
+
+    private static Message way(Entity way, Map<String, Integer> stringIds) {
+        long[] refs = new long[way.refs.size()];
+        for (int i = 0; i < refs.length; i++) {
+            refs[i] = way.refs.get(i) - (i > 0 ? way.refs.get(i - 1) : 0);
+        }
+        Message message = new Message();
+        message.varint(1, way.id);
+        message.packed(2, keys(way, stringIds, 0), false);
+        message.packed(3, keys(way, stringIds, 1), false);
+        message.packed(8, refs, true);
+        return message;
+    }
+
+    /** Returns the string ids of the keys (PARITY 0) or values (PARITY 1) of ENTITY's tags. */
+    private static long[] keys(Entity entity, Map<String, Integer> stringIds, int parity) {
+        long[] result = new long[entity.tags.size() / 2];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = stringIds.get(entity.tags.get(2 * i + parity));
+        }
+        return result;
+    }
+
+    private static void writeBlob(DataOutputStream out, String type, byte[] data) throws IOException {
+        Deflater deflater = new Deflater();
+        deflater.setInput(data);
+        deflater.finish();
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1 << 16];
+        while (!deflater.finished()) {
+            compressed.write(buffer, 0, deflater.deflate(buffer));
+        }
+        deflater.end();
+
+        Message blob = new Message();
+        blob.varint(2, data.length);
+        blob.bytes(3, compressed.toByteArray());
+        byte[] blobBytes = blob.toByteArray();
+        Message header = new Message();
+        header.string(1, type);
+        header.varint(3, blobBytes.length);
+        byte[] headerBytes = header.toByteArray();
+        out.writeInt(headerBytes.length);
+        out.write(headerBytes);
+        out.write(blobBytes);
+    }
+
+    /** A node or way with its tags, as alternating keys and values. */
+    private static class Entity {
+        final boolean isWay;
+        final long id;
+        long lat;
+        long lon;
+        final List<Long> refs = new ArrayList<>();
+        final List<String> tags = new ArrayList<>();
+
+        Entity(boolean isWay, long id) {
+            this.isWay = isWay;
+            this.id = id;
+        }
+    }
+
+    /** Encoder for one protobuf message in the wire format. */
+    private static class Message {
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        void varint(int field, long value) {
+            rawVarint(field << 3);
+            rawVarint(value);
+        }
+
+        void signedVarint(int field, long value) {
+            varint(field, zigzag(value));
+        }
+
+        void bytes(int field, byte[] value) {
+            rawVarint(field << 3 | 2);
+            rawVarint(value.length);
+            bytes.write(value, 0, value.length);
+        }
+
+        void string(int field, String value) {
+            bytes(field, value.getBytes(StandardCharsets.UTF_8));
+        }
+
+        void message(int field, Message value) {
+            bytes(field, value.toByteArray());
+        }
+
+        /** Writes VALUES as a packed repeated field, zigzag-encoded if SIGNED is set. */
+        void packed(int field, long[] values, boolean signed) {
+            if (values.length == 0) {
+                return;
+            }
+            Message packed = new Message();
+            for (long value : values) {
+                packed.rawVarint(signed ? zigzag(value) : value);
+            }
+            bytes(field, packed.toByteArray());
+        }
+
+        byte[] toByteArray() {
+            return bytes.toByteArray();
+        }
+
+        private void rawVarint(long value) {
+            while ((value & ~0x7fL) != 0) {
+                bytes.write((int) (value & 0x7f) | 0x80);
+                value >>>= 7;
+            }
+            bytes.write((int) value);
+        }
+
+        private static long zigzag(long value) {
+            return (value << 1) ^ (value >> 63);
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package bearmaps.test;
+
+import bearmaps.proj2ab.ArrayHeapMinPQ;
+import bearmaps.proj2ab.DoubleMapPQ;
+import bearmaps.proj2ab.ExtrinsicMinPQ;
+import bearmaps.proj2ab.IntArrayHeapMinPQ;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+/** Randomized tests of the array heap PQs against the reference DoubleMapPQ. */
+public class TestArrayHeapMinPQ {
+    private static final int NUM_OPERATIONS = 20000;
+    private static final int NUM_ITEMS = 500;
+    private static final int[] ARITIES = {2, 4, 8};
+
+    @Test
+    public void testMatchesDoubleMapPQ() {
+        for (int arity : ARITIES) {
+            compareWithReference(new ArrayHeapMinPQ<>(arity), new IntArrayHeapMinPQ(NUM_ITEMS, arity),
+                    new Random(arity));
+        }
+    }
+
+    @Test
+    public void testBasicOrder() {
+        ArrayHeapMinPQ<String> pq = new ArrayHeapMinPQ<>();
+        pq.add("c", 3);
+        pq.add("a", 1);
+        pq.add("d", 4);
+        pq.add("b", 2);
+        pq.changePriority("d", 0);
+        assertEquals("d", pq.removeSmallest());
+        assertEquals("a", pq.removeSmallest());
+        assertEquals("b", pq.removeSmallest());
+        assertEquals("c", pq.removeSmallest());
+        assertEquals(0, pq.size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testAddDuplicate() {
+        IntArrayHeapMinPQ pq = new IntArrayHeapMinPQ(10);
+        pq.add(3, 1.0);
+        pq.add(3, 2.0);
+    }
+
+    @Test(expected = NoSuchElementException.class)
+    public void testRemoveFromEmpty() {
+        new ArrayHeapMinPQ<Integer>().removeSmallest();
+    }
+
+    @Test
+    public void testClearAndReuse() {
+        IntArrayHeapMinPQ pq = new IntArrayHeapMinPQ(10);
+        for (int i = 0; i < 10; i++) {
+            pq.add(i, 10 - i);
+        }
+        pq.clear();
+        assertEquals(0, pq.size());
+        for (int i = 0; i < 10; i++) {
+            assertFalse(pq.contains(i));
+        }
+        pq.add(7, 1.0);
+        pq.ensureCapacity(20);
+        pq.add(15, 0.5);
+        assertEquals(15, pq.removeSmallest());
+        assertEquals(7, pq.removeSmallest());
+    }
+
+    /**
+     * Applies the same random sequence of adds, changePriority calls, removals and
+     * contains checks to all three PQs. Priorities are random doubles, so ties (which
+     * DoubleMapPQ breaks arbitrarily) do not occur and removed items must match exactly.
+     */
+    private void compareWithReference(ExtrinsicMinPQ<Integer> heap, IntArrayHeapMinPQ intHeap,
+                                      Random random) {
+        ExtrinsicMinPQ<Integer> expected = new DoubleMapPQ<>();
+        List<Integer> present = new ArrayList<>();
+
+        for (int i = 0; i < NUM_OPERATIONS; i++) {
+            int op = random.nextInt(4);
+            if (op == 0 || present.isEmpty()) {
+                int item = random.nextInt(NUM_ITEMS);
+                if (!expected.contains(item)) {
+                    double priority = random.nextDouble();
+                    expected.add(item, priority);
+                    heap.add(item, priority);
+                    intHeap.add(item, priority);
+                    present.add(item);
+                }
+            } else if (op == 1) {
+                int item = present.get(random.nextInt(present.size()));
+                double priority = random.nextDouble();
+                expected.changePriority(item, priority);
+                heap.changePriority(item, priority);
+                intHeap.changePriority(item, priority);
+            } else if (op == 2) {
+                int smallest = expected.getSmallest();
+                assertEquals(smallest, (int) heap.getSmallest());
+                assertEquals(smallest, intHeap.getSmallest());
+                assertEquals(smallest, (int) expected.removeSmallest());
+                assertEquals(smallest, (int) heap.removeSmallest());
+                assertEquals(smallest, intHeap.removeSmallest());
+                present.remove(Integer.valueOf(smallest));
+            } else {
+                int item = random.nextInt(NUM_ITEMS);
+                assertEquals(expected.contains(item), heap.contains(item));
+                assertEquals(expected.contains(item), intHeap.contains(item));
+            }
+            assertEquals(expected.size(), heap.size());
+            assertEquals(expected.size(), intHeap.size());
+        }
+
+        while (expected.size() > 0) {
+            int smallest = expected.removeSmallest();
+            assertEquals(smallest, (int) heap.removeSmallest());
+            assertEquals(smallest, intHeap.removeSmallest());
+        }
+        assertEquals(0, heap.size());
+        assertEquals(0, intHeap.size());
+    }
+}
@@ -0,0 +1,54 @@
+package bearmaps.test;
+
+import bearmaps.proj2ab.GridPointSet;
+import bearmaps.proj2ab.IndexedPointSet;
+import bearmaps.proj2ab.Point;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Runs the tests of TestKDTreePointSet on GridPointSet, plus one on
+ * clustered points, which leave most of the grid's cells empty.
+ */
+public class TestGridPointSet extends TestKDTreePointSet {
+    @Override
+    protected IndexedPointSet build(double[] xs, double[] ys) {
+        return new GridPointSet(xs, ys);
+    }
+
+    @Override
+    protected IndexedPointSet build(List<Point> points) {
+        return new GridPointSet(points);
+    }
+
+    @Test
+    public void testClusteredPoints() {
+        Random random = new Random(17);
+        int n = 10000;
+        double[] xs = new double[n];
+        double[] ys = new double[n];
+        for (int i = 0; i < n; i++) {
+            /* Three tight clusters a few kilometers apart. */
+            int cluster = random.nextInt(3);
+            xs[i] = -122.3 + cluster * 0.04 + random.nextGaussian() * 0.001;
+            ys[i] = 37.83 + cluster * 0.03 + random.nextGaussian() * 0.001;
+        }
+        IndexedPointSet grid = build(xs, ys);
+        int[] found = new int[8];
+        for (int q = 0; q < NUM_QUERIES / 5; q++) {
+            double x = -122.32 + random.nextDouble() * 0.14;
+            double y = 37.81 + random.nextDouble() * 0.12;
+            assertSameDistance(xs, ys, x, y, nearest(xs, ys, x, y, null), grid.nearestIndex(x, y));
+            int count = grid.nearestK(x, y, found.length, found);
+            assertEquals(found.length, count);
+            List<Integer> byDistance = sortedByDistance(xs, ys, x, y);
+            for (int i = 0; i < count; i++) {
+                assertSameDistance(xs, ys, x, y, byDistance.get(i), found[i]);
+            }
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package bearmaps.test;
+
+import bearmaps.proj2ab.IndexedPointSet;
+import bearmaps.proj2ab.KDTreePointSet;
+import bearmaps.proj2ab.Point;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/** Randomized tests of KDTreePointSet against a linear scan with the same distance. */
+public class TestKDTreePointSet {
+    static final int NUM_QUERIES = 5000;
+
+    /** Returns the set under test of the points (XS[i], YS[i]). */
+    protected IndexedPointSet build(double[] xs, double[] ys) {
+        return new KDTreePointSet(xs, ys);
+    }
+
+    protected IndexedPointSet build(List<Point> points) {
+        return new KDTreePointSet(points);
+    }
+
+    @Test
+    public void testMatchesLinearScan() {
+        Random random = new Random(14);
+        for (int n : new int[]{1, 2, 3, 10, 1000, 20000}) {
+            double[] xs = new double[n];
+            double[] ys = new double[n];
+            for (int i = 0; i < n; i++) {
+                /* Around Berkeley, with some points repeated. */
+                int j = i > 0 && random.nextInt(10) == 0 ? random.nextInt(i) : i;
+                xs[i] = j < i ? xs[j] : -122.3 + random.nextDouble() * 0.1;
+                ys[i] = j < i ? ys[j] : 37.83 + random.nextDouble() * 0.08;
+            }
+            IndexedPointSet tree = build(xs, ys);
+            BitSet excluded = new BitSet();
+            for (int i = 0; i < n; i++) {
+                if (random.nextInt(4) == 0) {
+                    excluded.set(i);
+                }
+            }
+            for (int q = 0; q < NUM_QUERIES; q++) {
+                double x = -122.32 + random.nextDouble() * 0.14;
+                double y = 37.81 + random.nextDouble() * 0.12;
+                assertSameDistance(xs, ys, x, y, nearest(xs, ys, x, y, null), tree.nearestIndex(x, y));
+                assertSameDistance(xs, ys, x, y, nearest(xs, ys, x, y, excluded),
+                        tree.nearestIndex(x, y, excluded));
+            }
+        }
+    }
+
+    @Test
+    public void testNearestKAndWithinRadius() {
+        Random random = new Random(15);
+        int n = 5000;
+        double[] xs = new double[n];
+        double[] ys = new double[n];
+        for (int i = 0; i < n; i++) {
+            xs[i] = -122.3 + random.nextDouble() * 0.1;
+            ys[i] = 37.83 + random.nextDouble() * 0.08;
+        }
+        IndexedPointSet tree = build(xs, ys);
+        int[] found = new int[64];
+        for (int q = 0; q < NUM_QUERIES / 10; q++) {
+            double x = -122.32 + random.nextDouble() * 0.14;
+            double y = 37.81 + random.nextDouble() * 0.12;
+            int k = 1 + random.nextInt(found.length);
+            double meters = random.nextDouble() * 500;
+            List<Integer> byDistance = sortedByDistance(xs, ys, x, y);
+
+            int count = tree.nearestK(x, y, k, found);
+            assertEquals(k, count);
+            for (int i = 0; i < count; i++) {
+                assertSameDistance(xs, ys, x, y, byDistance.get(i), found[i]);
+            }
+
+            int within = 0;
+            while (within < n && KDTreePointSet.toMeters(squaredDistance(xs, ys, x, y, byDistance.get(within)))
+                    <= meters) {
+                within += 1;
+            }
+            count = tree.withinRadius(x, y, meters, found);
+            assertEquals(Math.min(within, found.length), count);
+            for (int i = 0; i < count; i++) {
+                assertSameDistance(xs, ys, x, y, byDistance.get(i), found[i]);
+            }
+
+            /* Only the even points, within the radius. */
+            count = tree.nearestK(x, y, k, meters, i -> i % 2 == 0, found);
+            int expected = 0;
+            for (int i = 0; i < within && expected < k; i++) {
+                if (byDistance.get(i) % 2 == 0) {
+                    assertSameDistance(xs, ys, x, y, byDistance.get(i), found[expected]);
+                    expected += 1;
+                }
+            }
+            assertEquals(expected, count);
+        }
+    }
+
+    @Test
+    public void testEmptyAndFullyExcluded() {
+        IndexedPointSet empty = build(new ArrayList<>());
+        assertNull(empty.nearest(1, 2));
+        assertEquals(-1, empty.nearestIndex(1, 2));
+
+        List<Point> points = new ArrayList<>();
+        points.add(new Point(-122.25, 37.87));
+        points.add(new Point(-122.26, 37.88));
+        IndexedPointSet tree = build(points);
+        assertEquals(new Point(-122.26, 37.88), tree.nearest(-122.261, 37.879));
+        BitSet all = new BitSet();
+        all.set(0, 2);
+        assertEquals(-1, tree.nearestIndex(-122.25, 37.87, all));
+        assertEquals(0, empty.nearestK(1, 2, 3, new int[3]));
+        assertEquals(0, tree.withinRadius(-122.0, 37.87, 1000, new int[3]));
+    }
+
+    /* Ties may be broken either way, so the indices need only be equally near. */
+    static void assertSameDistance(double[] xs, double[] ys, double x, double y, int expected, int actual) {
+        if (expected < 0 || actual < 0) {
+            assertEquals(expected, actual);
+            return;
+        }
+        assertEquals(squaredDistance(xs, ys, x, y, expected), squaredDistance(xs, ys, x, y, actual), 0);
+    }
+
+    static double squaredDistance(double[] xs, double[] ys, double x, double y, int i) {
+        return KDTreePointSet.squaredDistance(xs[i], ys[i], x, y, KDTreePointSet.xScale(y));
+    }
+
+    static List<Integer> sortedByDistance(double[] xs, double[] ys, double x, double y) {
+        List<Integer> indices = new ArrayList<>();
+        for (int i = 0; i < xs.length; i++) {
+            indices.add(i);
+        }
+        indices.sort(Comparator.comparingDouble(i -> squaredDistance(xs, ys, x, y, i)));
+        return indices;
+    }
+
+    static int nearest(double[] xs, double[] ys, double x, double y, BitSet excluded) {
+        double scale = KDTreePointSet.xScale(y);
+        int best = -1;
+        double bestDistance = Double.POSITIVE_INFINITY;
+        for (int i = 0; i < xs.length; i++) {
+            double distance = KDTreePointSet.squaredDistance(xs[i], ys[i], x, y, scale);
+            if (distance < bestDistance && (excluded == null || !excluded.get(i))) {
+                best = i;
+                bestDistance = distance;
+            }
+        }
+        return best;
+    }
+}
@@ -0,0 +1,249 @@
+package bearmaps.test;
+
+import bearmaps.hw4.streetmap.OSMChange;
+import bearmaps.hw4.streetmap.StreetMapGraph;
+import bearmaps.proj2c.AugmentedStreetMapGraph;
+import bearmaps.proj2c.MapUpdater;
+import bearmaps.proj2c.utils.Constants;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks that applying an OSM change to a graph gives the same graph as
+ * reading the changed map from scratch, that the search indexes follow the
+ * change, and that the version the change was applied to is left as it was.
+ */
+public class TestOSMChange {
+    private static final String BASE_XML = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+            + "<osm version=\"0.6\">\n"
+            + " <node id=\"1\" lat=\"37.870\" lon=\"-122.260\"/>\n"
+            + " <node id=\"2\" lat=\"37.871\" lon=\"-122.260\"><tag k=\"name\" v=\"Cafe Strada\"/></node>\n"
+            + " <node id=\"3\" lat=\"37.872\" lon=\"-122.260\"/>\n"
+            + " <node id=\"4\" lat=\"37.872\" lon=\"-122.258\"/>\n"
+            + " <node id=\"5\" lat=\"37.873\" lon=\"-122.258\"><tag k=\"name\" v=\"Lonely Place\"/></node>\n"
+            + " <node id=\"6\" lat=\"37.874\" lon=\"-122.257\"/>\n"
+            + " <node id=\"7\" lat=\"37.875\" lon=\"-122.256\"/>\n"
+            + " <way id=\"10\"><nd ref=\"1\"/><nd ref=\"2\"/><nd ref=\"3\"/>"
+            + "<tag k=\"highway\" v=\"residential\"/><tag k=\"name\" v=\"Bancroft Way\"/></way>\n"
+            + " <way id=\"11\"><nd ref=\"3\"/><nd ref=\"4\"/><nd ref=\"7\"/>"
+            + "<tag k=\"highway\" v=\"primary\"/><tag k=\"name\" v=\"Telegraph Avenue\"/></way>\n"
+            + " <way id=\"12\"><nd ref=\"4\"/><nd ref=\"5\"/><tag k=\"highway\" v=\"footway\"/></way>\n"
+            + "</osm>\n";
+
+    /** Moves and renames a node, adds a node and a way, modifies two ways, and deletes a way and a node. */
+    private static final String CHANGE_OSC = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+            + "<osmChange version=\"0.6\">\n"
+            + " <modify>\n"
+            + "  <node id=\"2\" lat=\"37.8705\" lon=\"-122.2605\"><tag k=\"name\" v=\"Strada Cafe\"/></node>\n"
+            + " </modify>\n"
+            + " <create>\n"
+            + "  <node id=\"8\" lat=\"37.876\" lon=\"-122.255\"><tag k=\"name\" v=\"Free Speech Cafe\"/></node>\n"
+            + "  <way id=\"13\"><nd ref=\"7\"/><nd ref=\"8\"/><nd ref=\"6\"/>"
+            + "<tag k=\"highway\" v=\"residential\"/><tag k=\"name\" v=\"Durant Avenue\"/></way>\n"
+            + " </create>\n"
+            + " <modify>\n"
+            + "  <way id=\"11\"><nd ref=\"3\"/><nd ref=\"4\"/>"
+            + "<tag k=\"highway\" v=\"tertiary\"/><tag k=\"name\" v=\"Telegraph Avenue\"/></way>\n"
+            + "  <way id=\"12\"><nd ref=\"4\"/><nd ref=\"5\"/>"
+            + "<tag k=\"highway\" v=\"residential\"/><tag k=\"name\" v=\"Path\"/></way>\n"
+            + " </modify>\n"
+            + " <delete>\n"
+            + "  <way id=\"10\"/>\n"
+            + "  <node id=\"1\"/>\n"
+            + " </delete>\n"
+            + "</osmChange>\n";
+
+    /** BASE_XML with CHANGE_OSC applied. */
+    private static final String CHANGED_XML = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+            + "<osm version=\"0.6\">\n"
+            + " <node id=\"2\" lat=\"37.8705\" lon=\"-122.2605\"><tag k=\"name\" v=\"Strada Cafe\"/></node>\n"
+            + " <node id=\"3\" lat=\"37.872\" lon=\"-122.260\"/>\n"
+            + " <node id=\"4\" lat=\"37.872\" lon=\"-122.258\"/>\n"
+            + " <node id=\"5\" lat=\"37.873\" lon=\"-122.258\"><tag k=\"name\" v=\"Lonely Place\"/></node>\n"
+            + " <node id=\"6\" lat=\"37.874\" lon=\"-122.257\"/>\n"
+            + " <node id=\"7\" lat=\"37.875\" lon=\"-122.256\"/>\n"
+            + " <node id=\"8\" lat=\"37.876\" lon=\"-122.255\"><tag k=\"name\" v=\"Free Speech Cafe\"/></node>\n"
+            + " <way id=\"11\"><nd ref=\"3\"/><nd ref=\"4\"/>"
+            + "<tag k=\"highway\" v=\"tertiary\"/><tag k=\"name\" v=\"Telegraph Avenue\"/></way>\n"
+            + " <way id=\"12\"><nd ref=\"4\"/><nd ref=\"5\"/>"
+            + "<tag k=\"highway\" v=\"residential\"/><tag k=\"name\" v=\"Path\"/></way>\n"
+            + " <way id=\"13\"><nd ref=\"7\"/><nd ref=\"8\"/><nd ref=\"6\"/>"
+            + "<tag k=\"highway\" v=\"residential\"/><tag k=\"name\" v=\"Durant Avenue\"/></way>\n"
+            + "</osm>\n";
+
+    /** Takes back the new way and node of CHANGE_OSC. */
+    private static final String UNDO_OSC = "<osmChange version=\"0.6\">\n"
+            + " <delete><way id=\"13\"/><node id=\"8\"/></delete>\n"
+            + "</osmChange>\n";
+
+    @Test
+    public void testChangeMatchesRebuild() throws Exception {
+        File base = tempFile(BASE_XML);
+        StreetMapGraph original = StreetMapGraph.scanXML(base.getPath());
+        StreetMapGraph changed = original.withChange(change(CHANGE_OSC));
+        TestOSMParsing.assertSameGraph(StreetMapGraph.scanXML(tempFile(CHANGED_XML).getPath()), changed);
+        assertEquals(1, changed.version());
+
+        /* The original is untouched, and can no longer be changed. */
+        TestOSMParsing.assertSameGraph(StreetMapGraph.scanXML(base.getPath()), original);
+        try {
+            original.withChange(change(UNDO_OSC));
+            fail("Changed an old version.");
+        } catch (IllegalStateException e) {
+            /* Expected. */
+        }
+    }
+
+    @Test
+    public void testIndexesFollowChanges() throws Exception {
+        File base = tempFile(BASE_XML);
+        new File(base.getPath() + ".snapshot").deleteOnExit();
+        AugmentedStreetMapGraph original = new AugmentedStreetMapGraph(base.getPath());
+        AugmentedStreetMapGraph changed = original.withChange(change(CHANGE_OSC));
+
+        assertEquals(Collections.singletonList("Cafe Strada"), original.getLocationsByPrefix("ca"));
+        assertEquals(Collections.emptyList(), changed.getLocationsByPrefix("ca"));
+        assertEquals(Collections.singletonList("Strada Cafe"), changed.getLocationsByPrefix("Str"));
+        assertEquals(Collections.singletonList("Free Speech Cafe"), changed.getLocationsByPrefix("free"));
+        assertEquals(Collections.singletonList("Cafe Strada"), original.getLocationsByPrefix("C", 5));
+        assertEquals(Collections.emptyList(), changed.getLocationsByPrefix("c", 5));
+        assertEquals(Collections.singletonList("Strada Cafe"), changed.getLocationsByPrefix("s", 1));
+        assertEquals(Collections.singletonList("Free Speech Cafe"), changed.getLocationsByPrefix("f", 5));
+        assertEquals(Collections.emptyList(), changed.getLocationsByPrefix("f", 0));
+        assertEquals(Collections.emptyList(), original.getLocationsByPrefix("!", 5));
+        assertEquals(Collections.singletonList("Cafe Strada"),
+                original.getLocationsByFuzzyPrefix("Cafe Strda", 5, Long.MAX_VALUE));
+        assertEquals(Collections.emptyList(), changed.getLocationsByFuzzyPrefix("Cafe Strda", 5, Long.MAX_VALUE));
+        assertEquals(Collections.singletonList("Strada Cafe"),
+                changed.getLocationsByFuzzyPrefix("stradda", 5, Long.MAX_VALUE));
+        assertEquals(Collections.singletonList("Free Speech Cafe"),
+                changed.getLocationsByFuzzyPrefix("fre speach", 5, Long.MAX_VALUE));
+        assertEquals(Collections.emptyList(), changed.getLocationsByFuzzyPrefix("fx", 5, Long.MAX_VALUE));
+        assertEquals(Collections.singletonList("Free Speech Cafe"),
+                changed.getLocationsByFuzzyPrefix("frx", 5, Long.MAX_VALUE));
+        assertEquals(Arrays.asList(2L), ids(original.getLocations("Cafe Strada")));
+        assertEquals(37.871, (Double) original.getLocations("cafe strada").get(0).get("lat"), 1e-9);
+        assertEquals(Collections.emptyList(), ids(changed.getLocations("Cafe Strada")));
+        assertEquals(Arrays.asList(2L), ids(changed.getLocations("strada cafe")));
+        assertEquals(37.8705, (Double) changed.getLocations("strada cafe").get(0).get("lat"), 1e-9);
+        assertEquals(Arrays.asList(8L), ids(changed.getLocations("Free Speech Cafe!")));
+        assertEquals(Collections.emptyList(), ids(changed.getLocations("")));
+
+        /* Node 1 was deleted, and node 2 lost its only way, so it is no longer snapped to; node 8 is new. */
+        assertEquals(1, original.closest(-122.260, 37.870));
+        assertEquals(3, changed.closest(-122.260, 37.870));
+        assertEquals(3, changed.closest(-122.2605, 37.8705));
+        assertEquals(7, original.closest(-122.255, 37.876));
+        assertEquals(8, changed.closest(-122.255, 37.876));
+
+        assertArrayEquals(new long[]{3, 8, 3}, changed.closest(new double[]{-122.260, -122.255, -122.2605},
+                new double[]{37.870, 37.876, 37.8705}));
+        assertArrayEquals(new long[]{1, 2, 3}, original.closest(-122.260, 37.870, 3));
+        assertArrayEquals(new long[]{3, 4}, changed.closest(-122.260, 37.870, 2));
+        assertEquals(Arrays.asList(2L, 5L), ids(original.nearby(-122.260, 37.870, 10, 1000, null)));
+        assertEquals(Arrays.asList(2L), ids(original.nearby(-122.260, 37.870, 10, 150, null)));
+        assertEquals(Arrays.asList(2L), ids(changed.nearby(-122.260, 37.870, 1, 1000, null)));
+        assertEquals(Arrays.asList(2L, 8L), ids(changed.nearby(-122.260, 37.870, 10, 1000, "CAFE")));
+        assertEquals(Collections.emptyList(), ids(original.nearby(-122.260, 37.870, 10, 1000, "free")));
+
+        AugmentedStreetMapGraph undone = changed.withChange(change(UNDO_OSC));
+        assertEquals(Collections.emptyList(), undone.getLocationsByPrefix("free"));
+        assertEquals(Collections.emptyList(), ids(undone.getLocations("free speech cafe")));
+        assertEquals(5, undone.closest(-122.255, 37.876));
+        assertEquals(8, changed.closest(-122.255, 37.876));
+    }
+
+    @Test
+    public void testLocationsWithTheSameName() throws Exception {
+        String xml = BASE_XML.replace("v=\"Lonely Place\"", "v=\"cafe strada!\"");
+        File base = tempFile(xml);
+        new File(base.getPath() + ".snapshot").deleteOnExit();
+        AugmentedStreetMapGraph original = new AugmentedStreetMapGraph(base.getPath());
+        List<Map<String, Object>> locations = original.getLocations("CAFE STRADA");
+        assertEquals(Arrays.asList(2L, 5L), ids(locations));
+        assertEquals("Cafe Strada", locations.get(0).get("name"));
+        assertEquals("cafe strada!", locations.get(1).get("name"));
+        assertEquals(1, original.getLocationsByPrefix("cafe").size());
+
+        /* Node 2 is renamed away from the name and node 8 is created with it. */
+        AugmentedStreetMapGraph changed = original.withChange(change(
+                CHANGE_OSC.replace("v=\"Free Speech Cafe\"", "v=\"Cafe, Strada\"")));
+        assertEquals(Arrays.asList(5L, 8L), ids(changed.getLocations("cafe strada")));
+        assertEquals("Cafe, Strada", changed.getLocations("cafe strada").get(1).get("name"));
+        assertEquals(Arrays.asList(2L, 5L), ids(original.getLocations("cafe strada")));
+    }
+
+    @Test
+    public void testChangeFilesApplyInOrder() throws Exception {
+        File base = tempFile(BASE_XML);
+        new File(base.getPath() + ".snapshot").deleteOnExit();
+        File dir = Files.createTempDirectory("osc").toFile();
+        dir.deleteOnExit();
+        AugmentedStreetMapGraph served = Constants.SEMANTIC_STREET_GRAPH;
+        try {
+            Constants.SEMANTIC_STREET_GRAPH = new AugmentedStreetMapGraph(base.getPath());
+            changeFile(dir, "1.osc", CHANGE_OSC, true);
+            changeFile(dir, "2.osc", "<osmChange version=\"0.6\"><modify>", true);
+            changeFile(dir, "3.osc", UNDO_OSC, true);
+
+            /* The broken file stops the ones after it, and is tried again once it is whole. */
+            assertEquals(1, MapUpdater.applyNewChanges(dir, 1000));
+            assertEquals(0, MapUpdater.applyNewChanges(dir, 1000));
+            assertEquals(1, Constants.SEMANTIC_STREET_GRAPH.version());
+            changeFile(dir, "2.osc", "<osmChange version=\"0.6\"></osmChange>", false);
+            assertEquals(0, MapUpdater.applyNewChanges(dir, 1000));
+            assertEquals(1, Constants.SEMANTIC_STREET_GRAPH.version());
+            assertEquals(2, MapUpdater.applyNewChanges(dir, 0));
+            assertEquals(3, Constants.SEMANTIC_STREET_GRAPH.version());
+            assertEquals(Collections.emptyList(), Constants.SEMANTIC_STREET_GRAPH.getLocationsByPrefix("free"));
+
+            /* A file that sorts before those applied is never applied. */
+            changeFile(dir, "0.osc", UNDO_OSC, true);
+            assertEquals(0, MapUpdater.applyNewChanges(dir, 1000));
+            assertEquals(3, Constants.SEMANTIC_STREET_GRAPH.version());
+        } finally {
+            Constants.SEMANTIC_STREET_GRAPH = served;
+        }
+    }
+
+    private static List<Long> ids(List<Map<String, Object>> locations) {
+        List<Long> ids = new ArrayList<>();
+        for (Map<String, Object> location : locations) {
+            ids.add((Long) location.get("id"));
+        }
+        return ids;
+    }
+
+    private static OSMChange change(String osc) throws IOException {
+        return OSMChange.read(new ByteArrayInputStream(osc.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    /** Writes CONTENTS to NAME in DIR, last modified a minute ago if SETTLED, or now. */
+    private static void changeFile(File dir, String name, String contents, boolean settled) throws IOException {
+        File file = new File(dir, name);
+        file.deleteOnExit();
+        Files.write(file.toPath(), contents.getBytes(StandardCharsets.UTF_8));
+        file.setLastModified(System.currentTimeMillis() - (settled ? 60000 : 0));
+    }
+
+    private static File tempFile(String contents) throws IOException {
+        File file = File.createTempFile("change", ".osm.xml");
+        file.deleteOnExit();
+        Files.write(file.toPath(), contents.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+}
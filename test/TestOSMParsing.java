@@ -0,0 +1,153 @@
+package bearmaps.test;
+
+import bearmaps.hw4.WeightedEdge;
+import bearmaps.hw4.streetmap.StreetMapGraph;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that the byte-level OSM scanner, alone or in parallel, builds the
+ * same graph as the SAX parser, and that the PBF reader builds the same graph
+ * from the same data converted to PBF.
+ */
+public class TestOSMParsing {
+    private static final String OSM_DB_PATH = "../library-sp19/data/proj2c_xml/berkeley-2019.osm.xml";
+
+    /** A small file exercising the corners of OSM XML the scanner has to get right. */
+    private static final String TRICKY_XML = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+            + "<!DOCTYPE osm [ <!ENTITY x \"y\"> ]>\n"
+            + "<osm version='0.6'>\n"
+            + " <!-- <node id=\"99\" lat=\"1\" lon=\"1\"/> -->\n"
+            + " <node id=\"1\" lat=\"37.87\" lon=\"-122.25\"/>\n"
+            + " <node id = '2' lat='37.8701' lon='-122.2501'>\n"
+            + "  <tag k=\"name\" v=\"Caf&#233; &amp; Bar\"/>\n"
+            + "  <tag k=\"name\" v=\"Cafe\r\n&quot;Strada&quot;\tEast\"/>\n"
+            + " </node>\n"
+            + " <node id=\"3\" lat=\"3.7870e1\" lon=\"-122.2502\"></node>\n"
+            + " <node id=\"1\" lat=\"0\" lon=\"0\"><tag k=\"name\" v=\"duplicate\"/></node>\n"
+            + " <node id=\"4\" lat=\"37.871\" lon=\"-122.251\"><tag k=\"amenity\" v=\"cafe\"/></node>\n"
+            + " <node id=\"5\" lat=\"37.872\" lon=\"-122.252\"><tag k=\"name\" v=\"Lonely &lt;Place&gt;\"/></node>\n"
+            + " <way id=\"10\">\n"
+            + "  <nd ref=\"1\"/><nd ref=\"2\"/><nd ref=\"3\"/><nd ref=\"2\"/><nd ref=\"6\"/><nd ref=\"7\"/>\n"
+            + "  <tag k=\"highway\" v=\"footway\"/>\n"
+            + "  <tag k=\"highway\" v=\"residential\"/>\n"
+            + "  <tag k=\"name\" v=\"Oxford &apos;St&apos;\"/>\n"
+            + " </way>\n"
+            + " <way id=\"11\"><nd ref=\"3\"/><nd ref=\"4\"/><tag k=\"highway\" v=\"service\"/></way>\n"
+            + " <node id=\"6\" lat=\"37.873\" lon=\"-122.253\"/>\n"
+            + " <way id=\"12\"><nd ref=\"3\"/><nd ref=\"3\"/><tag k=\"highway\" v=\"primary\"/></way>\n"
+            + " <relation id=\"20\"><member type=\"way\" ref=\"10\" role=\"\"/><tag k=\"name\" v=\"r\"/></relation>\n"
+            + "</osm>\n";
+
+    @Test
+    public void testTrickyFile() throws Exception {
+        File file = File.createTempFile("tricky", ".osm.xml");
+        file.deleteOnExit();
+        Files.write(file.toPath(), TRICKY_XML.getBytes(StandardCharsets.UTF_8));
+        StreetMapGraph expected = StreetMapGraph.readFromXML(file.getPath());
+        StreetMapGraph actual = StreetMapGraph.scanXML(file.getPath());
+        assertSameGraph(expected, actual);
+        assertEquals(4, actual.numVertices());
+        assertEquals("Cafe \"Strada\" East", actual.name(2));
+        assertEquals("Lonely <Place>", actual.name(5));
+    }
+
+    @Test
+    public void testScannerMatchesSAXParser() {
+        assertSameGraph(StreetMapGraph.readFromXML(OSM_DB_PATH), StreetMapGraph.scanXML(OSM_DB_PATH));
+    }
+
+    @Test
+    public void testParallelScannerMatchesSequential() throws Exception {
+        StreetMapGraph expected = StreetMapGraph.scanXML(OSM_DB_PATH);
+        for (int numChunks : new int[]{1, 3, 16}) {
+            assertSameGraph(expected, StreetMapGraph.scanXMLParallel(OSM_DB_PATH, ForkJoinPool.commonPool(), numChunks));
+        }
+
+        /* Small pieces split the tricky file between a way and a node it uses. */
+        File file = File.createTempFile("tricky", ".osm.xml");
+        file.deleteOnExit();
+        Files.write(file.toPath(), TRICKY_XML.getBytes(StandardCharsets.UTF_8));
+        assertSameGraph(StreetMapGraph.scanXML(file.getPath()),
+                StreetMapGraph.scanXMLParallel(file.getPath(), ForkJoinPool.commonPool(), 12));
+    }
+
+    @Test
+    public void testParallelScannerSkipsCommentedElements() throws Exception {
+        /* Most of the file is commented out, or in CDATA, so pieces are asked to start inside them. */
+        StringBuilder hidden = new StringBuilder();
+        for (int i = 0; i < 40; i++) {
+            hidden.append(" <node id=\"").append(100 + i).append("\" lat=\"37.88\" lon=\"-122.26\"/>\n")
+                    .append(" <way id=\"").append(200 + i).append("\"><nd ref=\"1\"/><nd ref=\"").append(100 + i)
+                    .append("\"/><tag k=\"highway\" v=\"primary\"/></way>\n");
+        }
+        String xml = TRICKY_XML.replace("</osm>\n", "<!--\n" + hidden + "-->\n"
+                + "<![CDATA[\n" + hidden + "]]>\n"
+                + " <way id=\"13\"><nd ref=\"5\"/><nd ref=\"6\"/><tag k=\"highway\" v=\"service\"/></way>\n"
+                + "</osm>\n");
+        File file = File.createTempFile("commented", ".osm.xml");
+        file.deleteOnExit();
+        new File(file.getPath() + ".snapshot").deleteOnExit();
+        Files.write(file.toPath(), xml.getBytes(StandardCharsets.UTF_8));
+        StreetMapGraph expected = StreetMapGraph.readFromXML(file.getPath());
+        for (int numChunks : new int[]{2, 5, 16, 64}) {
+            assertSameGraph(expected, StreetMapGraph.scanXMLParallel(file.getPath(), ForkJoinPool.commonPool(),
+                    numChunks));
+        }
+        assertSameGraph(expected, new StreetMapGraph(file.getPath()));
+    }
+
+    @Test
+    public void testPBFMatchesXML() throws Exception {
+        File pbf = File.createTempFile("berkeley", ".osm.pbf");
+        pbf.deleteOnExit();
+        OSMToPBF.convert(new File(OSM_DB_PATH), pbf, true);
+        assertSameGraph(StreetMapGraph.scanXML(OSM_DB_PATH), StreetMapGraph.readFromPBF(pbf.getPath()));
+
+        /* Plain nodes, odd coordinates, repeated tags, and the format picked from the contents. */
+        File xml = File.createTempFile("tricky", ".osm.xml");
+        xml.deleteOnExit();
+        Files.write(xml.toPath(), TRICKY_XML.getBytes(StandardCharsets.UTF_8));
+        File trickyPBF = File.createTempFile("tricky", ".osm");
+        trickyPBF.deleteOnExit();
+        new File(trickyPBF.getPath() + ".snapshot").deleteOnExit();
+        OSMToPBF.convert(xml, trickyPBF, false);
+        StreetMapGraph expected = StreetMapGraph.readFromXML(xml.getPath());
+        assertSameGraph(expected, StreetMapGraph.readFromPBF(trickyPBF.getPath()));
+        assertSameGraph(expected, new StreetMapGraph(trickyPBF.getPath()));
+    }
+
+    /** Checks that the graphs have the same vertices, coordinates, names and edges. */
+    static void assertSameGraph(StreetMapGraph expected, StreetMapGraph actual) {
+        assertTrue(expected.equals(actual));
+        assertEquals(expected.numVertices(), actual.numVertices());
+        for (int v = 0; v < expected.numVertices(); v++) {
+            long id = expected.vertex(v);
+            assertEquals(id, (long) actual.vertex(v));
+            assertEquals(expected.lon(id), actual.lon(id), 0.0);
+            assertEquals(expected.lat(id), actual.lat(id), 0.0);
+            assertEquals(expected.name(id), actual.name(id));
+            assertEquals(edges(expected, id), edges(actual, id));
+        }
+    }
+
+    /** Returns the edges out of V in a canonical order, as strings. */
+    private static List<String> edges(StreetMapGraph g, long v) {
+        List<String> result = new ArrayList<>();
+        for (WeightedEdge<Long> e : g.neighbors(v)) {
+            result.add(e.to() + " " + e.weight() + " " + e.getName());
+        }
+        Collections.sort(result);
+        return result;
+    }
+}
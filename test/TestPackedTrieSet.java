@@ -0,0 +1,204 @@
+package bearmaps.test;
+
+import bearmaps.proj2ab.PackedTrieSet;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Randomized tests of PackedTrieSet against a TreeSet, and of its ranked
+ * and fuzzy searches against sorting every key.
+ */
+public class TestPackedTrieSet {
+    private static final String ALPHABET = "abcde ";
+
+    @Test
+    public void testMatchesTreeSet() {
+        Random random = new Random(19);
+        PackedTrieSet trie = new PackedTrieSet();
+        TreeSet<String> expected = new TreeSet<>();
+        for (int i = 0; i < 5000; i++) {
+            String key = randomString(random);
+            trie.add(key);
+            expected.add(key);
+            assertEquals(expected.size(), trie.size());
+        }
+        for (int i = 0; i < 2000; i++) {
+            String s = randomString(random);
+            assertEquals(expected.contains(s), trie.contains(s));
+            String prefix = s.substring(0, random.nextInt(Math.min(s.length(), 4) + 1));
+            List<String> withPrefix = new ArrayList<>(expected.subSet(prefix, prefix + Character.MAX_VALUE));
+            assertEquals(withPrefix, trie.keysWithPrefix(prefix));
+        }
+        assertEquals(new ArrayList<>(expected), trie.keysWithPrefix(""));
+    }
+
+    @Test
+    public void testTopKeysMatchSorting() {
+        Random random = new Random(20);
+        PackedTrieSet trie = new PackedTrieSet();
+        Map<String, Double> scores = new HashMap<>();
+        for (int i = 0; i < 5000; i++) {
+            String key = randomString(random);
+            /* Few distinct scores, so there are many ties. */
+            double score = random.nextInt(20);
+            trie.add(key, score);
+            scores.merge(key, score, Math::max);
+        }
+        for (int i = 0; i < 2000; i++) {
+            String s = randomString(random);
+            String prefix = s.substring(0, random.nextInt(Math.min(s.length(), 3) + 1));
+            int k = random.nextInt(30);
+            boolean filtered = random.nextBoolean();
+            List<Double> expected = new ArrayList<>();
+            for (Map.Entry<String, Double> key : scores.entrySet()) {
+                if (key.getKey().startsWith(prefix) && (!filtered || !key.getKey().contains("a"))) {
+                    expected.add(key.getValue());
+                }
+            }
+            expected.sort(Collections.reverseOrder());
+            expected = expected.subList(0, Math.min(k, expected.size()));
+
+            List<String> top = trie.topKeysWithPrefix(prefix, k, filtered ? key -> !key.contains("a") : null);
+            List<Double> actual = new ArrayList<>();
+            for (String key : top) {
+                assertTrue(key.startsWith(prefix));
+                assertFalse(filtered && key.contains("a"));
+                assertEquals(scores.get(key), trie.score(key), 0);
+                actual.add(scores.get(key));
+            }
+            assertEquals(top.size(), new TreeSet<>(top).size());
+            assertEquals(expected, actual);
+        }
+        assertTrue(Double.isNaN(trie.score("not a key")));
+    }
+
+    @Test
+    public void testTopKeysNearMatchSorting() {
+        Random random = new Random(22);
+        PackedTrieSet trie = new PackedTrieSet();
+        Map<String, Double> scores = new HashMap<>();
+        for (int i = 0; i < 3000; i++) {
+            String key = randomString(random);
+            double score = random.nextInt(20);
+            trie.add(key, score);
+            scores.merge(key, score, Math::max);
+        }
+        for (int i = 0; i < 1000; i++) {
+            String query = randomString(random);
+            int maxEdits = random.nextInt(3);
+            int k = random.nextInt(30);
+            /* Ranks are edits, then score, as one number. */
+            List<Double> expected = new ArrayList<>();
+            for (Map.Entry<String, Double> key : scores.entrySet()) {
+                int edits = prefixEdits(query, key.getKey());
+                if (edits <= maxEdits) {
+                    expected.add(edits * 100 - key.getValue());
+                }
+            }
+            Collections.sort(expected);
+            expected = expected.subList(0, Math.min(k, expected.size()));
+
+            List<String> near = trie.topKeysNear(query, maxEdits, k, null, Long.MAX_VALUE);
+            List<Double> actual = new ArrayList<>();
+            for (String key : near) {
+                assertEquals(prefixEdits(query, key), PackedTrieSet.prefixEdits(query, key));
+                actual.add(prefixEdits(query, key) * 100 - scores.get(key));
+            }
+            assertEquals(near.size(), new TreeSet<>(near).size());
+            assertEquals(expected, actual);
+        }
+    }
+
+    @Test
+    public void testTopKeysNearTypos() {
+        PackedTrieSet trie = new PackedTrieSet();
+        trie.add("shattuck avenue", 40);
+        trie.add("shattuck place", 2);
+        trie.add("sather gate", 5);
+        trie.add("center street", 10);
+        assertEquals(Arrays.asList("shattuck avenue", "shattuck place"), trie.topKeysNear("shattuk", 1, 5, null,
+                Long.MAX_VALUE));
+        assertEquals(Arrays.asList("shattuck avenue"), trie.topKeysNear("shatuck", 1, 1, null, Long.MAX_VALUE));
+        assertEquals(Arrays.asList("center street"), trie.topKeysNear("cantre", 2, 5, null, Long.MAX_VALUE));
+        assertEquals(Arrays.asList("shattuck place"), trie.topKeysNear("shattuk", 1, 5,
+                key -> key.endsWith("place"), Long.MAX_VALUE));
+        assertEquals(Collections.emptyList(), trie.topKeysNear("cantre", 1, 5, null, Long.MAX_VALUE));
+        assertEquals(Collections.emptyList(), trie.topKeysNear("shattuk", 1, 0, null, Long.MAX_VALUE));
+        assertTrue(trie.topKeysNear("sat", 2, 5, null, 0).size() <= 5);
+        /* Out of time, the keys that start with the query itself are still found, and ranked. */
+        assertEquals(Arrays.asList("shattuck avenue", "shattuck place"), trie.topKeysNear("shattuck", 2, 5, null, 0));
+        assertEquals(2, PackedTrieSet.prefixEdits("cantre", "center street"));
+        assertEquals(3, PackedTrieSet.prefixEdits("abc", ""));
+    }
+
+    @Test
+    public void testEdgeCases() {
+        PackedTrieSet trie = new PackedTrieSet();
+        assertEquals(Collections.emptyList(), trie.keysWithPrefix("a"));
+        assertEquals(Collections.emptyList(), trie.keysWithPrefix(""));
+        assertFalse(trie.contains(""));
+
+        trie.add("same");
+        trie.add("sam");
+        trie.add("sam");
+        trie.add("ad");
+        trie.add("\u00e9t\u00e9");
+        assertEquals(4, trie.size());
+        assertTrue(trie.contains("sam"));
+        assertFalse(trie.contains("sa"));
+        assertFalse(trie.contains("samey"));
+        assertEquals(Arrays.asList("sam", "same"), trie.keysWithPrefix("sa"));
+        assertEquals(Collections.emptyList(), trie.keysWithPrefix("b"));
+        assertEquals(Collections.emptyList(), trie.keysWithPrefix("samey"));
+        assertEquals(Collections.singletonList("\u00e9t\u00e9"), trie.keysWithPrefix("\u00e9"));
+
+        trie.add("");
+        assertTrue(trie.contains(""));
+        assertEquals(5, trie.keysWithPrefix("").size());
+        trie.clear();
+        assertEquals(0, trie.size());
+        assertFalse(trie.contains("sam"));
+    }
+
+    /** Returns the fewest edits between QUERY and a prefix of KEY, from the full table of each prefix. */
+    private static int prefixEdits(String query, String key) {
+        int best = Integer.MAX_VALUE;
+        for (int end = 0; end <= key.length(); end++) {
+            String prefix = key.substring(0, end);
+            int[][] edits = new int[query.length() + 1][end + 1];
+            for (int i = 0; i <= query.length(); i++) {
+                for (int j = 0; j <= end; j++) {
+                    if (i == 0 || j == 0) {
+                        edits[i][j] = i + j;
+                    } else {
+                        int substitute = edits[i - 1][j - 1] + (query.charAt(i - 1) == prefix.charAt(j - 1) ? 0 : 1);
+                        edits[i][j] = Math.min(substitute, Math.min(edits[i - 1][j], edits[i][j - 1]) + 1);
+                    }
+                }
+            }
+            best = Math.min(best, edits[query.length()][end]);
+        }
+        return best;
+    }
+
+    private static String randomString(Random random) {
+        StringBuilder s = new StringBuilder();
+        int length = 1 + random.nextInt(8);
+        for (int i = 0; i < length; i++) {
+            s.append(ALPHABET.charAt(random.nextInt(ALPHABET.length())));
+        }
+        return s.toString();
+    }
+}
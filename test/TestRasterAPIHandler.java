@@ -1,10 +1,17 @@
 package bearmaps.test;
 
+import com.google.gson.Gson;
 import org.junit.Before;
 import org.junit.Test;
 import bearmaps.proj2c.server.handler.impl.RasterAPIHandler;
 
+import javax.imageio.ImageIO;
+import java.awt.Graphics;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.File;
 import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.text.DecimalFormat;
@@ -15,9 +22,16 @@ import java.util.Map;
 import java.util.Collections;
 import java.util.StringJoiner;
 import java.util.Arrays;
+import java.util.Base64;
 
+import static bearmaps.proj2c.utils.Constants.IMG_ROOT;
+import static bearmaps.proj2c.utils.Constants.ROUTE_LIST;
+import static bearmaps.proj2c.utils.Constants.ROUTE_VERSION;
+import static bearmaps.proj2c.utils.Constants.TILE_SIZE;
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 /** Test of the rastering part of the assignment.*/
@@ -51,6 +65,78 @@ public class TestRasterAPIHandler {
         }
     }
 
+    @Test
+    public void testRenderedResponsesAreKept() {
+        RenderingRasterer renderer = new RenderingRasterer();
+        Map<String, Double> params = new HashMap<>();
+        params.put("ullon", -122.2416);
+        params.put("ullat", 37.8766);
+        params.put("lrlon", -122.2405);
+        params.put("lrlat", 37.8755);
+        params.put("w", 892.0);
+        params.put("h", 875.0);
+        Object first = renderer.render(params);
+        assertSame(first, renderer.render(params));
+
+        /* Another window is rendered, and does not push out the first. */
+        params.put("lrlon", -122.2300);
+        Object other = renderer.render(params);
+        assertFalse(Arrays.equals((byte[]) first, (byte[]) other));
+        params.put("lrlon", -122.2405);
+        assertSame(first, renderer.render(params));
+
+        /* Once the route changes, the window is drawn again. */
+        ROUTE_VERSION.incrementAndGet();
+        Object redrawn = renderer.render(params);
+        assertFalse(first == redrawn);
+        assertArrayEquals((byte[]) first, (byte[]) redrawn);
+        assertSame(redrawn, renderer.render(params));
+    }
+
+    @Test
+    public void testResponseHoldsTheRaster() throws Exception {
+        RenderingRasterer renderer = new RenderingRasterer();
+        Map<String, Double> params = new HashMap<>();
+        params.put("ullon", -122.2600);
+        params.put("ullat", 37.8700);
+        params.put("lrlon", -122.2400);
+        params.put("lrlat", 37.8600);
+        params.put("w", 1200.0);
+        params.put("h", 900.0);
+        assertTrue(ROUTE_LIST.isEmpty());
+        ROUTE_VERSION.incrementAndGet();
+        String json = new String((byte[]) renderer.render(params), StandardCharsets.UTF_8);
+        Map<?, ?> response = new Gson().fromJson(json, Map.class);
+        String[][] grid = (String[][]) renderer.processRequest(params, null).get("render_grid");
+        assertEquals(true, response.get("query_success"));
+        assertEquals(grid[0].length * TILE_SIZE, ((Number) response.get("raster_width")).intValue());
+        assertEquals(grid.length * TILE_SIZE, ((Number) response.get("raster_height")).intValue());
+
+        /* The image is the tiles as drawn one by one, or black where they cannot be read. */
+        BufferedImage image = ImageIO.read(new ByteArrayInputStream(
+                Base64.getDecoder().decode((String) response.get("b64_encoded_image_data"))));
+        BufferedImage expected = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_RGB);
+        Graphics g = expected.getGraphics();
+        for (int r = 0; r < grid.length; r++) {
+            for (int c = 0; c < grid[0].length; c++) {
+                File tile = new File(IMG_ROOT + grid[r][c]);
+                if (tile.exists()) {
+                    g.drawImage(ImageIO.read(tile), c * TILE_SIZE, r * TILE_SIZE, null);
+                }
+            }
+        }
+        g.dispose();
+        assertArrayEquals(expected.getRGB(0, 0, image.getWidth(), image.getHeight(), null, 0, image.getWidth()),
+                image.getRGB(0, 0, image.getWidth(), image.getHeight(), null, 0, image.getWidth()));
+    }
+
+    /** A rasterer whose Json responses can be built outside a server. */
+    private static class RenderingRasterer extends RasterAPIHandler {
+        Object render(Map<String, Double> params) {
+            return buildJsonResponse(processRequest(params, null));
+        }
+    }
+
     private List<Map<String, Double>> paramsFromFile() throws Exception {
         List<String> lines = Files.readAllLines(Paths.get(PARAMS_FILE), Charset.defaultCharset());
         List<Map<String, Double>> testParams = new ArrayList<>();
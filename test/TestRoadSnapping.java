@@ -0,0 +1,241 @@
+package bearmaps.test;
+
+import bearmaps.hw4.ShortestPathsSolver;
+import bearmaps.hw4.SolverOutcome;
+import bearmaps.hw4.WeightedEdge;
+import bearmaps.hw4.streetmap.StreetMapGraph;
+import bearmaps.proj2ab.KDTreePointSet;
+import bearmaps.proj2ab.SegmentGrid;
+import bearmaps.proj2c.AugmentedStreetMapGraph;
+import bearmaps.proj2c.RoadPoint;
+import bearmaps.proj2c.Router;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests of snapping to the nearest point on a road: SegmentGrid against a
+ * linear scan, and routes between road points against the best of the
+ * routes between their segments' vertices. Also checks that snapping a
+ * batch of points to vertices at once agrees with snapping them one by one,
+ * and that indexes read back from a snapshot answer as the ones built do.
+ */
+public class TestRoadSnapping {
+    private static final String OSM_DB_PATH = "../library-sp19/data/proj2c_xml/berkeley-2019.osm.xml";
+    private static final int NUM_QUERIES = 5000;
+    private static final int NUM_ROUTES = 40;
+
+    /** A long street from 1 to 2, with a side street from 2 through 3 to 4. */
+    private static final String STREETS_XML = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+            + "<osm version=\"0.6\">\n"
+            + " <node id=\"1\" lat=\"37.870\" lon=\"-122.270\"/>\n"
+            + " <node id=\"2\" lat=\"37.870\" lon=\"-122.260\"/>\n"
+            + " <node id=\"3\" lat=\"37.872\" lon=\"-122.260\"/>\n"
+            + " <node id=\"4\" lat=\"37.874\" lon=\"-122.260\"/>\n"
+            + " <way id=\"10\"><nd ref=\"1\"/><nd ref=\"2\"/><tag k=\"highway\" v=\"primary\"/></way>\n"
+            + " <way id=\"11\"><nd ref=\"2\"/><nd ref=\"3\"/><nd ref=\"4\"/><tag k=\"highway\" v=\"residential\"/></way>\n"
+            + "</osm>\n";
+
+    @Test
+    public void testSegmentGridMatchesLinearScan() {
+        Random random = new Random(16);
+        for (int n : new int[]{1, 2, 10, 3000}) {
+            double[] x1s = new double[n];
+            double[] y1s = new double[n];
+            double[] x2s = new double[n];
+            double[] y2s = new double[n];
+            for (int i = 0; i < n; i++) {
+                x1s[i] = -122.3 + random.nextDouble() * 0.1;
+                y1s[i] = 37.83 + random.nextDouble() * 0.08;
+                /* Mostly short segments, some long ones crossing many cells. */
+                double length = random.nextInt(20) == 0 ? 0.05 : 0.002;
+                x2s[i] = x1s[i] + (random.nextDouble() - 0.5) * length;
+                y2s[i] = y1s[i] + (random.nextDouble() - 0.5) * length;
+            }
+            SegmentGrid grid = new SegmentGrid(x1s, y1s, x2s, y2s);
+            for (int q = 0; q < NUM_QUERIES; q++) {
+                double x = -122.35 + random.nextDouble() * 0.2;
+                double y = 37.78 + random.nextDouble() * 0.18;
+                double scale = KDTreePointSet.xScale(y);
+                int expected = -1;
+                int expectedOdd = -1;
+                for (int i = 0; i < n; i++) {
+                    double distance = grid.squaredDistance(i, x, y, scale);
+                    if (expected < 0 || distance < grid.squaredDistance(expected, x, y, scale)) {
+                        expected = i;
+                    }
+                    if (i % 2 == 1 && (expectedOdd < 0
+                            || distance < grid.squaredDistance(expectedOdd, x, y, scale))) {
+                        expectedOdd = i;
+                    }
+                }
+                int actual = grid.nearest(x, y);
+                assertEquals(grid.squaredDistance(expected, x, y, scale), grid.squaredDistance(actual, x, y, scale), 0);
+                int actualOdd = grid.nearest(x, y, i -> i % 2 == 1);
+                assertEquals(expectedOdd < 0, actualOdd < 0);
+                if (expectedOdd >= 0) {
+                    assertEquals(grid.squaredDistance(expectedOdd, x, y, scale),
+                            grid.squaredDistance(actualOdd, x, y, scale), 0);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testNoDetourOnLongStreet() throws Exception {
+        File file = File.createTempFile("streets", ".osm.xml");
+        file.deleteOnExit();
+        new File(file.getPath() + ".snapshot").deleteOnExit();
+        new File(file.getPath() + ".ch").deleteOnExit();
+        Files.write(file.toPath(), STREETS_XML.getBytes(StandardCharsets.UTF_8));
+        AugmentedStreetMapGraph graph = new AugmentedStreetMapGraph(file.getPath());
+
+        /* The start is nearest vertex 1, but on the street most of the way to 2; the destination is past 3. */
+        RoadPoint start = graph.snapToRoad(-122.266, 37.8701);
+        assertEquals(1, start.from());
+        assertEquals(2, start.to());
+        assertEquals(0.4, start.fraction(), 1e-9);
+        assertEquals(Arrays.asList(1L, 2L, 3L), Router.shortestPath(graph, -122.266, 37.8701, -122.2601, 37.8728,
+                Router.Algorithm.ASTAR, Router.Snapping.VERTEX));
+        for (Router.Algorithm algorithm : Router.Algorithm.values()) {
+            assertEquals(Arrays.asList(2L, 3L), Router.shortestPath(graph, -122.266, 37.8701, -122.2601, 37.8728,
+                    algorithm, Router.Snapping.SEGMENT));
+        }
+        /* Both on the long street, heading west. */
+        assertEquals(Arrays.asList(2L, 1L), Router.shortestPath(graph, -122.262, 37.8701, -122.268, 37.8699,
+                Router.Algorithm.ASTAR, Router.Snapping.SEGMENT));
+    }
+
+    @Test
+    public void testSavedIndexesMatchBuilt() throws Exception {
+        File file = File.createTempFile("berkeley", ".osm.xml");
+        file.deleteOnExit();
+        new File(file.getPath() + ".snapshot").deleteOnExit();
+        Files.copy(new File(OSM_DB_PATH).toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        String[] names = {"a", "s", "shattuck", "top dog", "cafe strada", "berkeley bowl", "zz"};
+
+        /* The grid's indexes are saved first, so the KD-tree's are built over them. */
+        for (AugmentedStreetMapGraph.PointIndex pointIndex : AugmentedStreetMapGraph.PointIndex.values()) {
+            AugmentedStreetMapGraph built = new AugmentedStreetMapGraph(file.getPath(),
+                    StreetMapGraph.Storage.HEAP, pointIndex);
+            AugmentedStreetMapGraph saved = new SavedIndexesGraph(file.getPath(), pointIndex);
+            Random random = new Random(8);
+            for (int i = 0; i < NUM_QUERIES; i++) {
+                double lon = -122.30 + random.nextDouble() * 0.09;
+                double lat = 37.82 + random.nextDouble() * 0.07;
+                assertEquals(built.closest(lon, lat), saved.closest(lon, lat));
+                assertEquals(built.snapToRoad(lon, lat).toString(), saved.snapToRoad(lon, lat).toString());
+                if (i % 100 == 0) {
+                    assertEquals(built.nearby(lon, lat, 10, 500, null), saved.nearby(lon, lat, 10, 500, null));
+                    assertEquals(built.nearby(lon, lat, 5, 2000, "cafe"), saved.nearby(lon, lat, 5, 2000, "cafe"));
+                }
+            }
+            for (String name : names) {
+                assertEquals(built.getLocationsByPrefix(name), saved.getLocationsByPrefix(name));
+                assertEquals(built.getLocationsByPrefix(name, 5), saved.getLocationsByPrefix(name, 5));
+                assertEquals(built.getLocationsByFuzzyPrefix(name + "x", 5, Long.MAX_VALUE),
+                        saved.getLocationsByFuzzyPrefix(name + "x", 5, Long.MAX_VALUE));
+                assertEquals(built.getLocations(name), saved.getLocations(name));
+            }
+        }
+    }
+
+    /** A graph that fails if it has to build its indexes rather than read those saved with its snapshot. */
+    private static class SavedIndexesGraph extends AugmentedStreetMapGraph {
+        SavedIndexesGraph(String dbPath, PointIndex pointIndex) {
+            super(dbPath, Storage.MAPPED, pointIndex);
+        }
+
+        @Override
+        protected void saveIndexes(byte[] indexes) {
+            throw new AssertionError("Indexes saved with the snapshot were not read back.");
+        }
+    }
+
+    @Test
+    public void testBatchClosestMatchesClosest() {
+        AugmentedStreetMapGraph graph = new AugmentedStreetMapGraph(OSM_DB_PATH);
+        Random random = new Random(18);
+        for (int n : new int[]{0, 1, 7, 3 * NUM_QUERIES}) {
+            double[] lons = new double[n];
+            double[] lats = new double[n];
+            for (int i = 0; i < n; i++) {
+                lons[i] = -122.30 + random.nextDouble() * 0.09;
+                lats[i] = 37.82 + random.nextDouble() * 0.07;
+            }
+            long[] ids = graph.closest(lons, lats);
+            assertEquals(n, ids.length);
+            for (int i = 0; i < n; i++) {
+                assertEquals(graph.closest(lons[i], lats[i]), ids[i]);
+            }
+        }
+    }
+
+    @Test
+    public void testRoutesBetweenRoadPointsAreShortest() {
+        AugmentedStreetMapGraph graph = new AugmentedStreetMapGraph(OSM_DB_PATH);
+        Random random = new Random(16);
+        for (int i = 0; i < NUM_ROUTES; i++) {
+            double startLon = -122.29 + random.nextDouble() * 0.06;
+            double startLat = 37.84 + random.nextDouble() * 0.04;
+            double endLon = -122.29 + random.nextDouble() * 0.06;
+            double endLat = 37.84 + random.nextDouble() * 0.04;
+            RoadPoint start = graph.snapToRoad(startLon, startLat);
+            RoadPoint end = graph.snapToRoad(endLon, endLat);
+            if (start.onSameSegment(end)) {
+                continue;
+            }
+
+            double expected = Double.POSITIVE_INFINITY;
+            for (long source : new long[]{start.from(), start.to()}) {
+                for (long target : new long[]{end.from(), end.to()}) {
+                    ShortestPathsSolver<Long> solver = Router.solve(graph, source, target, Router.Algorithm.ASTAR);
+                    if (solver.outcome() == SolverOutcome.SOLVED) {
+                        expected = Math.min(expected,
+                                partWeight(start, source) + solver.solutionWeight() + partWeight(end, target));
+                    }
+                }
+            }
+            for (Router.Algorithm algorithm : Router.Algorithm.values()) {
+                List<Long> path = Router.shortestPath(graph, startLon, startLat, endLon, endLat,
+                        algorithm, Router.Snapping.SEGMENT);
+                if (expected == Double.POSITIVE_INFINITY) {
+                    assertTrue(path.isEmpty());
+                    continue;
+                }
+                double actual = partWeight(start, path.get(0)) + pathWeight(graph, path)
+                        + partWeight(end, path.get(path.size() - 1));
+                assertEquals(algorithm + " route " + i, expected, actual, 1e-9);
+            }
+        }
+    }
+
+    /** Returns the weight of the part of POINT's segment between POINT and its vertex V. */
+    private static double partWeight(RoadPoint point, long v) {
+        assertTrue(v == point.from() || v == point.to());
+        return v == point.from() ? point.weightFromStart() : point.weightToEnd();
+    }
+
+    private static double pathWeight(AugmentedStreetMapGraph graph, List<Long> path) {
+        double weight = 0;
+        for (int i = 0; i + 1 < path.size(); i++) {
+            double edge = Double.POSITIVE_INFINITY;
+            for (WeightedEdge<Long> e : graph.neighbors(path.get(i))) {
+                if (e.to().equals(path.get(i + 1))) {
+                    edge = Math.min(edge, e.weight());
+                }
+            }
+            weight += edge;
+        }
+        return weight;
+    }
+}
@@ -0,0 +1,137 @@
+package bearmaps.test;
+
+import bearmaps.hw4.AStarSolver;
+import bearmaps.hw4.BidirectionalAStarSolver;
+import bearmaps.hw4.ContractionHierarchy;
+import bearmaps.hw4.ContractionHierarchySolver;
+import bearmaps.hw4.LandmarkHeuristic;
+import bearmaps.hw4.SolverOutcome;
+import bearmaps.hw4.WeightedEdge;
+import bearmaps.proj2c.AugmentedStreetMapGraph;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/** Checks the alternative shortest path solvers against plain A* on the routing test inputs. */
+public class TestSolvers {
+    private static final String PARAMS_FILE = "../library-sp19/data/proj2c_test_inputs/path_params.txt";
+    private static final String OSM_DB_PATH = "../library-sp19/data/proj2c_xml/berkeley-2019.osm.xml";
+    private static final double TIMEOUT = 20;
+    private static final double DOUBLE_THRESHOLD = 0.000000001;
+    private static final int NUM_LANDMARKS = 8;
+    private static AugmentedStreetMapGraph graph;
+    private static long[][] queries;
+    private static ContractionHierarchy<Long> hierarchy;
+    private static boolean initialized = false;
+
+    @Before
+    public void setUp() throws Exception {
+        if (initialized) {
+            return;
+        }
+        graph = new AugmentedStreetMapGraph(OSM_DB_PATH);
+        queries = queriesFromFile(graph, PARAMS_FILE);
+        hierarchy = ContractionHierarchy.build(graph);
+        initialized = true;
+    }
+
+    @Test
+    public void testBidirectionalMatchesAStar() {
+        for (long[] q : queries) {
+            AStarSolver<Long> expected = new AStarSolver<>(graph, q[0], q[1], TIMEOUT);
+            BidirectionalAStarSolver<Long> actual = new BidirectionalAStarSolver<>(graph, q[0], q[1], TIMEOUT);
+            assertEquals(expected.outcome(), actual.outcome());
+            assertEquals(expected.solutionWeight(), actual.solutionWeight(), DOUBLE_THRESHOLD);
+            checkPath(actual.solution(), q[0], q[1], actual.solutionWeight());
+        }
+    }
+
+    @Test
+    public void testContractionHierarchyMatchesAStar() {
+        for (long[] q : queries) {
+            AStarSolver<Long> expected = new AStarSolver<>(graph, q[0], q[1], TIMEOUT);
+            ContractionHierarchySolver<Long> actual = new ContractionHierarchySolver<>(hierarchy, q[0], q[1], TIMEOUT);
+            assertEquals(expected.outcome(), actual.outcome());
+            assertEquals(expected.solutionWeight(), actual.solutionWeight(), DOUBLE_THRESHOLD);
+            checkPath(actual.solution(), q[0], q[1], actual.solutionWeight());
+        }
+    }
+
+    @Test
+    public void testLandmarksMatchAStar() {
+        for (LandmarkHeuristic.Selection selection : LandmarkHeuristic.Selection.values()) {
+            LandmarkHeuristic<Long> landmarks = LandmarkHeuristic.build(graph, NUM_LANDMARKS, selection);
+            assertEquals(NUM_LANDMARKS, landmarks.numLandmarks());
+            for (long[] q : queries) {
+                AStarSolver<Long> expected = new AStarSolver<>(graph, q[0], q[1], TIMEOUT);
+                AStarSolver<Long> actual = new AStarSolver<>(graph, q[0], q[1], TIMEOUT, landmarks);
+                assertEquals(expected.outcome(), actual.outcome());
+                assertEquals(expected.solutionWeight(), actual.solutionWeight(), DOUBLE_THRESHOLD);
+                checkPath(actual.solution(), q[0], q[1], actual.solutionWeight());
+            }
+        }
+    }
+
+    @Test
+    public void testContractionHierarchyRoundTrip() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        hierarchy.write(out);
+        ContractionHierarchy<Long> copy =
+                ContractionHierarchy.read(graph, new ByteArrayInputStream(out.toByteArray()));
+        for (long[] q : queries) {
+            ContractionHierarchySolver<Long> expected = new ContractionHierarchySolver<>(hierarchy, q[0], q[1], TIMEOUT);
+            ContractionHierarchySolver<Long> actual = new ContractionHierarchySolver<>(copy, q[0], q[1], TIMEOUT);
+            assertEquals(expected.solution(), actual.solution());
+        }
+    }
+
+    @Test
+    public void testSameStartAndEnd() {
+        long v = queries[0][0];
+        BidirectionalAStarSolver<Long> solver = new BidirectionalAStarSolver<>(graph, v, v, TIMEOUT);
+        assertEquals(SolverOutcome.SOLVED, solver.outcome());
+        assertEquals(1, solver.solution().size());
+        assertEquals(0.0, solver.solutionWeight(), 0.0);
+    }
+
+    /** Checks that PATH runs from START to END along edges of the graph with total WEIGHT. */
+    static void checkPath(List<Long> path, long start, long end, double weight) {
+        assertEquals(start, (long) path.get(0));
+        assertEquals(end, (long) path.get(path.size() - 1));
+        double total = 0;
+        for (int i = 0; i + 1 < path.size(); i++) {
+            double best = Double.POSITIVE_INFINITY;
+            for (WeightedEdge<Long> e : graph.neighbors(path.get(i))) {
+                if (e.to().equals(path.get(i + 1))) {
+                    best = Math.min(best, e.weight());
+                }
+            }
+            total += best;
+        }
+        assertEquals(weight, total, DOUBLE_THRESHOLD);
+    }
+
+    /** Reads start/end coordinates from the params file and snaps them to vertices. */
+    private static long[][] queriesFromFile(AugmentedStreetMapGraph graph, String paramsPath)
+            throws Exception {
+        List<String> lines = Files.readAllLines(Paths.get(paramsPath), Charset.defaultCharset());
+        int numQueries = (lines.size() - 2) / 4; // ignore comment lines
+        long[][] queries = new long[numQueries][];
+        for (int i = 0, lineIdx = 2; i < numQueries; i++, lineIdx += 4) {
+            double startLon = Double.parseDouble(lines.get(lineIdx));
+            double startLat = Double.parseDouble(lines.get(lineIdx + 1));
+            double endLon = Double.parseDouble(lines.get(lineIdx + 2));
+            double endLat = Double.parseDouble(lines.get(lineIdx + 3));
+            queries[i] = new long[]{graph.closest(startLon, startLat), graph.closest(endLon, endLat)};
+        }
+        return queries;
+    }
+}
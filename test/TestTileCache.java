@@ -0,0 +1,119 @@
+package bearmaps.test;
+
+import bearmaps.proj2c.utils.TileCache;
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/** Tests of TileCache's eviction, its loading under concurrent gets, and its counters. */
+public class TestTileCache {
+    /* 16 x 16 pixels of 4 bytes. */
+    private static final int TILE_BYTES = 1024;
+
+    @Test
+    public void testEvictsLeastRecentlyUsedByBytes() {
+        Map<String, Integer> loads = new ConcurrentHashMap<>();
+        TileCache cache = new TileCache(2 * TILE_BYTES + 100, path -> {
+            loads.merge(path, 1, Integer::sum);
+            return new BufferedImage(path.equals("big") ? 64 : 16, 16, BufferedImage.TYPE_INT_RGB);
+        });
+        BufferedImage a = cache.get("a");
+        cache.get("b");
+        assertSame(a, cache.get("a"));
+        cache.get("c");
+        assertEquals(2, cache.stats().tiles());
+        assertEquals(2 * TILE_BYTES, cache.stats().bytes());
+
+        /* B was the least recently used, so it was evicted and is loaded again; A was kept. */
+        assertSame(a, cache.get("a"));
+        cache.get("b");
+        assertEquals(1, (int) loads.get("a"));
+        assertEquals(2, (int) loads.get("b"));
+
+        /* A tile bigger than the whole cache is returned, but not kept. */
+        assertNotNull(cache.get("big"));
+        assertEquals(0, cache.stats().tiles());
+        assertEquals(0, cache.stats().bytes());
+
+        TileCache.Stats stats = cache.stats();
+        assertEquals(2, stats.hits());
+        assertEquals(5, stats.misses());
+        assertEquals(5, stats.evictions());
+        assertEquals(0, stats.failures());
+        assertEquals(2.0 / 7, stats.hitRate(), 1e-12);
+    }
+
+    @Test
+    public void testLoadsOnceUnderConcurrentGets() throws Exception {
+        int threads = 16;
+        CountDownLatch asked = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Map<String, Integer> loads = new ConcurrentHashMap<>();
+        TileCache cache = new TileCache(100 * TILE_BYTES, path -> {
+            loads.merge(path, 1, Integer::sum);
+            asked.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+            return new BufferedImage(16, 16, BufferedImage.TYPE_INT_RGB);
+        });
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        List<Future<BufferedImage>> images = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            images.add(pool.submit(() -> cache.get("tile")));
+        }
+        asked.await();
+        /* Let the other gets find the load in progress before it finishes. */
+        while (cache.stats().hits() < threads - 1) {
+            Thread.sleep(1);
+        }
+        release.countDown();
+        BufferedImage image = images.get(0).get();
+        for (Future<BufferedImage> other : images) {
+            assertSame(image, other.get());
+        }
+        pool.shutdown();
+        pool.awaitTermination(10, TimeUnit.SECONDS);
+
+        assertEquals(1, (int) loads.get("tile"));
+        assertEquals(1, cache.stats().misses());
+        assertEquals(threads - 1, cache.stats().hits());
+    }
+
+    @Test
+    public void testFailedLoadsAreNotCached() {
+        int[] calls = {0};
+        TileCache cache = new TileCache(100 * TILE_BYTES, path -> {
+            calls[0] += 1;
+            if (calls[0] == 1) {
+                throw new IOException("Cannot read " + path);
+            }
+            return calls[0] == 2 ? null : new BufferedImage(16, 16, BufferedImage.TYPE_INT_RGB);
+        });
+        assertNull(cache.get("missing"));
+        assertNull(cache.get("missing"));
+        assertNotNull(cache.get("missing"));
+        assertNotNull(cache.get("missing"));
+        assertEquals(3, calls[0]);
+        assertEquals(2, cache.stats().failures());
+        assertEquals(1, cache.stats().tiles());
+        assertEquals(1, cache.stats().hits());
+    }
+}